@@ -3,8 +3,13 @@ package org.matt598.AnalyticsPlugin;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.example.Main;
 import org.example.command.Command;
+import org.example.metrics.MetricRegistry;
+import org.example.utils.JSONWriter;
+import org.example.webserver.RouteParams;
+import org.example.webserver.Router;
+import org.example.webserver.utils.JSONStream;
 import org.example.webserver.utils.Request;
-import org.example.webserver.utils.Response;
+import org.example.webserver.utils.ResponseWriter;
 import org.matt598.AnalyticsPlugin.analytics.AnalyticsListener;
 import org.matt598.AnalyticsPlugin.analytics.AnalyticsManager;
 import org.example.plugins.MessageBusEvent;
@@ -12,9 +17,7 @@ import org.example.plugins.QuanTecPlugin;
 import org.matt598.AnalyticsPlugin.analytics.commands.analytics;
 import org.matt598.AnalyticsPlugin.analytics.commands.lastPass;
 
-import java.io.OutputStream;
 import java.util.*;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.LogRecord;
@@ -70,35 +73,65 @@ public class AnalyticsPlugin implements QuanTecPlugin {
         sender.accept(new MessageBusEvent("analyticsPlugin", null, this.analyticsManager));
     }
 
+    @Override
+    public void registerMetrics(MetricRegistry metrics){
+        // These totals are already kept (and saved) by the analytics manager, so they're read from it on each scrape.
+        if(analyticsManager == null){
+            return;
+        }
+        metrics.counter("quantec_analytics_commands_total", "Commands processed, across restarts.", analyticsManager::getProcessedCommands);
+        metrics.counter("quantec_analytics_screened_messages_total", "Messages screened by the censor, across restarts.", analyticsManager::getScreenedMessages);
+        metrics.counter("quantec_analytics_removed_messages_total", "Messages removed for banned words, across restarts.", analyticsManager::getRemovedMessages);
+        metrics.counter("quantec_analytics_blocked_images_total", "Messages removed for banned images, across restarts.", analyticsManager::getBlockedImages);
+    }
+
     @Override
     public ListenerAdapter getListenerAdapter(){
         return new AnalyticsListener(this.analyticsManager);
     }
 
     @Override
-    public Map<String, BiConsumer<Request, OutputStream>> getRESTEndpoints() {
-        Map<String, BiConsumer<Request, OutputStream>> out = new HashMap<>();
+    public void registerRoutes(Router.Builder routes) {
+        routes.add("GET", "/analytics", this::getAnalytics);
+    }
+
+    private void getAnalytics(Request req, RouteParams params, ResponseWriter writer){
+        // Make analytics JSON and send. This gets large once emoteSightings fills up, so it's streamed out a guild at a
+        // time as the response goes rather than built up first.
+        Iterator<Long> guilds = analyticsManager.getTrackedGuilds().iterator();
+        writer.streamJSON(new JSONStream() {
+            private boolean started;
 
-        out.put("analytics", (req, outputStream) -> {
-            if(!req.getMethod().equals("GET")){
-                Response.writeResponse(Response.methodNotAllowed("request to /analytics must be GET"), outputStream);
-                return;
+            @Override
+            public boolean writeNext(JSONWriter json){
+                if(!started){
+                    started = true;
+                    json.beginObject()
+                            .name("botVers").value(botVers)
+                            .name("processedCommands").value(analyticsManager.getProcessedCommands())
+                            .name("screenedMessages").value(analyticsManager.getScreenedMessages())
+                            .name("removedMessages").value(analyticsManager.getRemovedMessages())
+                            .name("blockedImages").value(analyticsManager.getBlockedImages())
+                            .name("flurogingerPassAppearances").value(analyticsManager.getFlurogingerPassAppearances())
+                            .name("lastPassAppearance").value(analyticsManager.getLastAppearanceOfFlurogingerPass())
+                            .name("emoteSightings").beginObject().name("guilds");
+                    // If nothing's been seen yet, write 'null' instead.
+                    if(!guilds.hasNext()){
+                        json.value("null").endObject().endObject();
+                        return false;
+                    }
+                    json.beginObject();
+                    return true;
+                }
+                if(guilds.hasNext()){
+                    long guild = guilds.next();
+                    analyticsManager.writeEmoteAppearancesJSON(guild, json.name(guild));
+                    return true;
+                }
+                json.endObject().endObject().endObject();
+                return false;
             }
-            // Make analytics JSON and send.
-            String json = String.format("{\"botVers\":\"%s\",\"processedCommands\":%d,\"screenedMessages\":%d,\"removedMessages\":%d,\"blockedImages\":%d,\"flurogingerPassAppearances\":%d,\"lastPassAppearance\":%d,\"emoteSightings\":%s}",
-                    botVers,
-                    analyticsManager.getProcessedCommands(),
-                    analyticsManager.getScreenedMessages(),
-                    analyticsManager.getRemovedMessages(),
-                    analyticsManager.getBlockedImages(),
-                    analyticsManager.getFlurogingerPassAppearances(),
-                    analyticsManager.getLastAppearanceOfFlurogingerPass(),
-                    analyticsManager.formatEmoteAppearancesToJSON()
-            );
-            Response.writeResponse(Response.okJSON(json), outputStream);
         });
-
-        return out;
     }
 
     @Override
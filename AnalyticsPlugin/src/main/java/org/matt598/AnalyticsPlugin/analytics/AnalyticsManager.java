@@ -1,11 +1,17 @@
 package org.matt598.AnalyticsPlugin.analytics;
 
+import org.example.utils.JSONWriter;
+
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class AnalyticsManager implements Serializable {
-    public static final long SerialVersionUID = 1L;
+    // Pinned to what the JVM computed for the class before it was first changed, so existing analytics.bin files keep
+    // loading. This used to be spelt SerialVersionUID, which serialization doesn't look at, so it was never pinned.
+    private static final long serialVersionUID = 982131170074328447L;
 
     private long processedCommands;
     private long screenedMessages;
@@ -139,7 +145,8 @@ public class AnalyticsManager implements Serializable {
         handleMutation();
     }
 
-    public void registerEmoteAppearance(long guildID, long emoteID){
+    // Synchronized with the reads below, as /analytics reads the map while it's being sent.
+    public synchronized void registerEmoteAppearance(long guildID, long emoteID){
         if(emoteTracking.get(guildID) == null){
             emoteTracking.put(guildID, new HashMap<>());
             // If the map for that guild previously didn't exist, then
@@ -155,26 +162,19 @@ public class AnalyticsManager implements Serializable {
         handleMutation();
     }
 
-    public String formatEmoteAppearancesToJSON(){
-        StringBuilder json = new StringBuilder();
-        json.append("{\"guilds\":{");
-        for(Map.Entry<Long, Map<Long, Long>> entry : emoteTracking.entrySet()){
-            json.append("\"").append(entry.getKey()).append("\": {");
-            for(Map.Entry<Long, Long> emote : entry.getValue().entrySet()){
-                json.append("\"").append(emote.getKey()).append("\": ").append(emote.getValue()).append(",");
+    public synchronized List<Long> getTrackedGuilds(){
+        // A copy, so it can be gone through a guild at a time without holding anything up.
+        return new ArrayList<>(emoteTracking.keySet());
+    }
+
+    public synchronized void writeEmoteAppearancesJSON(long guildID, JSONWriter json){
+        json.beginObject();
+        Map<Long, Long> emotes = emoteTracking.get(guildID);
+        if(emotes != null){
+            for(Map.Entry<Long, Long> emote : emotes.entrySet()){
+                json.name(emote.getKey()).value(emote.getValue());
             }
-            json.deleteCharAt(json.length()-1);
-            json.append("},");
         }
-        // If the map is empty, append 'null' instead.
-        json.deleteCharAt(json.length() - 1);
-        if(emoteTracking.isEmpty()){
-            json.append("\"null\"");
-        } else {
-            json.append("}");
-        }
-        json.append("}");
-
-        return json.toString();
+        json.endObject();
     }
 }
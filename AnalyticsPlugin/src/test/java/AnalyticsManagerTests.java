@@ -0,0 +1,57 @@
+import org.example.utils.JSONWriter;
+import org.junit.jupiter.api.Test;
+import org.matt598.AnalyticsPlugin.analytics.AnalyticsManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyticsManagerTests {
+    // An analytics.bin written by the class as it was before it was first changed: 12 commands, 34 screened, 5
+    // removed, 6 blocked images, 7 appearances, and emote 200 seen twice in guild 100 and emote 300 once in guild 101.
+    private static final String BASELINE = "rO0ABXNyADZvcmcubWF0dDU5OC5BbmFseXRpY3NQbHVnaW4uYW5hbHl0aWNzLkFuYWx5dGljc01hbmFnZXINoTsYex59fwIAB0oA" +
+            "DWJsb2NrZWRJbWFnZXNKABpmbHVyb2dpbmdlclBhc3NBcHBlYXJhbmNlc0oAH2xhc3RBcHBlYXJhbmNlT2ZGbHVyb2dpbmdlclBh" +
+            "c3NKABFwcm9jZXNzZWRDb21tYW5kc0oAD3JlbW92ZWRNZXNzYWdlc0oAEHNjcmVlbmVkTWVzc2FnZXNMAA1lbW90ZVRyYWNraW5n" +
+            "dAAPTGphdmEvdXRpbC9NYXA7eHAAAAAAAAAABgAAAAAAAAAHAAAAAGrUOEIAAAAAAAAADAAAAAAAAAAFAAAAAAAAACJzcgARamF2" +
+            "YS51dGlsLkhhc2hNYXAFB9rBwxZg0QMAAkYACmxvYWRGYWN0b3JJAAl0aHJlc2hvbGR4cD9AAAAAAAAMdwgAAAAQAAAAAnNyAA5q" +
+            "YXZhLmxhbmcuTG9uZzuL5JDMjyPfAgABSgAFdmFsdWV4cgAQamF2YS5sYW5nLk51bWJlcoaslR0LlOCLAgAAeHAAAAAAAAAAZHNx" +
+            "AH4AAz9AAAAAAAAMdwgAAAAQAAAAAXNxAH4ABQAAAAAAAADIc3EAfgAFAAAAAAAAAAJ4c3EAfgAFAAAAAAAAAGVzcQB+AAM/QAAA" +
+            "AAAADHcIAAAAEAAAAAFzcQB+AAUAAAAAAAABLHNxAH4ABQAAAAAAAAABeHg=";
+
+    @Test
+    void loadsFilesFromBeforeItChanged() throws IOException {
+        File file = File.createTempFile("analytics", ".bin");
+        try {
+            Files.write(file.toPath(), Base64.getDecoder().decode(BASELINE));
+            AnalyticsManager analytics = AnalyticsManager.getInstance(file.getPath());
+            assertNotNull(analytics);
+            assertEquals(12, analytics.getProcessedCommands());
+            assertEquals(34, analytics.getScreenedMessages());
+            assertEquals(5, analytics.getRemovedMessages());
+            assertEquals(6, analytics.getBlockedImages());
+            assertEquals(7, analytics.getFlurogingerPassAppearances());
+            assertEquals(1792292930, analytics.getLastAppearanceOfFlurogingerPass());
+
+            List<Long> guilds = analytics.getTrackedGuilds();
+            assertEquals(2, guilds.size());
+            assertTrue(guilds.contains(100L) && guilds.contains(101L));
+            JSONWriter json = new JSONWriter();
+            analytics.writeEmoteAppearancesJSON(100, json);
+            assertEquals("{\"200\":2}", json.toString());
+
+            // And it still writes out and reads back in as it did.
+            analytics.registerEmoteAppearance(101, 300);
+            AnalyticsManager reread = AnalyticsManager.getInstance(file.getPath());
+            assertNotNull(reread);
+            json = new JSONWriter();
+            reread.writeEmoteAppearancesJSON(101, json);
+            assertEquals("{\"300\":2}", json.toString());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
@@ -4,16 +4,27 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.example.command.Command;
+import org.example.metrics.Family;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricRegistry;
 import org.example.plugins.MessageBusEvent;
 import org.example.plugins.QuanTecPlugin;
+import org.example.utils.JSONReader;
+import org.example.webserver.RouteParams;
+import org.example.webserver.RouteVersion;
+import org.example.webserver.Router;
+import org.example.webserver.utils.MalformedRequestException;
 import org.example.webserver.utils.Request;
-import org.example.webserver.utils.Response;
+import org.example.webserver.utils.RequestLimits;
+import org.example.webserver.utils.ResponseWriter;
+import org.matt598.CensorPlugin.censor.AggregateCache;
 import org.matt598.CensorPlugin.censor.CensorListener;
 import org.matt598.CensorPlugin.censor.CensorManager;
 import org.matt598.CensorPlugin.censor.commands.*;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -21,8 +32,6 @@ import java.util.logging.ConsoleHandler;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static org.example.webserver.Client.parseFormData;
 
@@ -35,7 +44,8 @@ import static org.example.webserver.Client.parseFormData;
             PUT - containing valid JSON with the image's nickname (string) and the image itself encoded in Base64, this adds another image to QuanTec's filter.
 
         /images/{guild snowflake}/{image nickname}
-            GET - Returns an octet stream with the aggregate image.
+            GET - Returns the aggregate image as a PNG attachment named after the image. Renders are cached in censor-cache/ until the guild's
+                  images change, and single byte ranges (Range: bytes=...) are supported.
             DELETE - Unbans the specified image, erasing its adaptive data.
             POST - containing application/x-www-form-urlencoded with a nickname and whether the image should be adaptively filtered, this sets an
                    image's nickname/filename or whether it's enabled for adaptive filtering. Both values must be present, albeit the 'nickname' field
@@ -52,6 +62,10 @@ public class CensorPlugin implements QuanTecPlugin {
     private CensorManager censorManager;
     private Consumer<MessageBusEvent> sender;
     private JDA jda;
+    // Null if the cache directory couldn't be set up, in which case images are rendered on every download like before.
+    private AggregateCache aggregates;
+    // Set by registerMetrics(), which QuanTec calls before asking for the listener.
+    private Family<Histogram> screenDurations;
     private static final Logger LOGGER = Logger.getLogger("CensorPlugin");
 
     public CensorPlugin(){
@@ -70,7 +84,7 @@ public class CensorPlugin implements QuanTecPlugin {
 
     @Override
     public ListenerAdapter getListenerAdapter() {
-        return new CensorListener(censorManager, sender);
+        return new CensorListener(censorManager, sender, screenDurations);
     }
 
     @Override
@@ -82,6 +96,11 @@ public class CensorPlugin implements QuanTecPlugin {
             LOGGER.severe("Censor manager failed to load censor file. This is likely due to using a censor.bin file that is incompatible with the current version of the censor plugin. Try downgrading this plugin (requiring a restart) to fix.");
         }
         this.sender = sender;
+        try {
+            this.aggregates = new AggregateCache(Path.of("censor-cache"));
+        } catch (IOException e){
+            LOGGER.warning("Couldn't set up the image render cache, images will be rendered for every download: "+e.getMessage());
+        }
     }
 
     @Override
@@ -89,6 +108,11 @@ public class CensorPlugin implements QuanTecPlugin {
         QuanTecPlugin.super.postInitializePlugin();
     }
 
+    @Override
+    public void registerMetrics(MetricRegistry metrics) {
+        screenDurations = metrics.histograms("quantec_censor_screen_duration_seconds", "Time spent screening a message, by check (words or images).", "check");
+    }
+
     @Override
     public List<Command> getCommands() {
         ArrayList<Command> ret = new ArrayList<>();
@@ -106,351 +130,359 @@ public class CensorPlugin implements QuanTecPlugin {
         return ret;
     }
 
+    @Override
+    public void registerRoutes(Router.Builder routes) {
+        // GETs are versioned per guild, so the dashboard's polling gets 304s (and skips rebuilding the JSON, or the
+        // aggregate image) until something changes.
+        RouteVersion images = (req, params) -> censorManager.getImagesEpoch(params.get("guild"));
+        routes.add("GET", "/images/{guild}", images, this::getImages)
+                .add("PUT", "/images/{guild}", this::putImage)
+                .add("GET", "/images/tolerance/{guild}", images, this::getTolerance)
+                .add("PUT", "/images/tolerance/{guild}", this::putTolerance)
+                .add("GET", "/images/{guild}/{nick}", images, this::downloadImage)
+                .add("DELETE", "/images/{guild}/{nick}", this::deleteImage)
+                .add("POST", "/images/{guild}/{nick}", this::updateImage)
+                .add("GET", "/words/{guild}", (req, params) -> censorManager.getWordsEpoch(params.get("guild")), this::getWords)
+                .add("PUT", "/words/{guild}", this::putWords)
+                .add("DELETE", "/words/{guild}", this::deleteWords)
+                // Rendering the aggregate runs over every adaptive sample, and uploads decode and scale a whole image,
+                // so these count for far more against the rate limits than a word list does.
+                .cost("GET", "/images/{guild}/{nick}", 20)
+                .cost("PUT", "/images/{guild}", 10);
+    }
+
     @Override
     public Map<String, BiConsumer<Request, OutputStream>> getRESTEndpoints() {
+        // QuanTec itself uses registerRoutes() above. This is kept for anything calling the handlers directly, and
+        // routes through the same table.
+        Router.Builder builder = Router.builder();
+        registerRoutes(builder);
+        Router router = builder.build();
+        BiConsumer<Request, OutputStream> endpoint = (req, outputStream) -> {
+            try {
+                ResponseWriter writer = new ResponseWriter();
+                writer.begin(req);
+                router.route(req, writer);
+                writer.writeTo(outputStream);
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        };
+
         Map<String, BiConsumer<Request, OutputStream>> RESTmappings = new HashMap<>();
-        RESTmappings.put("images", (req, writer) -> {
+        RESTmappings.put("images", endpoint);
+        RESTmappings.put("words", endpoint);
+        return RESTmappings;
+    }
 
-            // Check if it's got anything else in the path. If it does it's either a tolerance request or an
-            // image download request.
-            String fmtPath = req.getPath();
-            if(fmtPath.charAt(0) == '/'){
-                fmtPath = fmtPath.substring(1);
-            }
+    private void getImages(Request req, RouteParams params, ResponseWriter writer){
+        // We'll need to check the snowflake here to make sure it's valid before proceeding.
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+        writer.okJSON(json -> censorManager.writeBannedImagesJSON(params.get("guild"), json));
+    }
 
-            switch(fmtPath.split("/").length){
-                case 2 -> {
-                    // Just the 'images' endpoint. We'll need to check the snowflake here to make sure it's valid before proceeding.
-                    try {
-                        Long.parseLong(fmtPath.split("/")[1]);
-                    } catch (NumberFormatException e){
-                        Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                        return;
-                    }
+    private void putImage(Request req, RouteParams params, ResponseWriter writer){
+        String guild = params.get("guild");
+        if(!isSnowflake(guild)){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
 
-                    switch(req.getMethod()){
-                        case "GET" -> Response.writeResponse(Response.okJSON(censorManager.getBannedImagesJSON(fmtPath.split("/")[1])), writer);
-
-                        case "PUT" -> {
-                            if(req.getContent() == null || req.getHeaders().get("content-type") == null || !req.getHeaders().get("content-type").equals("application/json")){
-                                Response.writeResponse(Response.badRequest("Empty/Invalid content."), writer);
-                                break;
-                            }
-
-                            // JSON should have three fields, "nickname", "adaptive" and "content".
-                            // TODO a better way of this, it's messy.
-                            String nick, guild, content;
-                            Pattern regex = Pattern.compile("(?<=\")[^:,]*?(?=\")");
-                            Matcher json = regex.matcher(req.getContent());
-
-                            if(!json.find()){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            if(!json.group().equals("nickname")){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            if(!json.find()){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            // group should be "nickname".
-                            nick = json.group();
-
-                            if(!json.find()){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            if(!json.group().equals("content")){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            if(!json.find()){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            // group should be the base64 encoded image.
-                            content = json.group();
-
-
-                            // Process. Name must not be blank and content
-                            // must be valid Base64.
-                            if(nick.equals("")){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            byte[] img;
-
-                            try {
-                                img = Base64.getDecoder().decode(content.getBytes());
-                            } catch (IllegalArgumentException e){
-                                Response.writeResponse(Response.badRequest("Malformed content."), writer);
-                                break;
-                            }
-
-                            ArrayList<byte[]> retImg = new ArrayList<>();
-
-                            retImg.add(img);
-
-                            guild = fmtPath.split("/")[1];
-
-                            // Make sure we're actually in the guild we're adding to.
-                            boolean found = false;
-                            List<Guild> guilds = jda.getGuilds();
-
-                            for(Guild guild1 : guilds){
-                                if(guild1.getId().equals(guild)){
-                                    found = true;
-                                    break;
-                                }
-                            }
-
-                            if(!found){
-                                Response.writeResponse(Response.notFound("Guild not found."), writer);
-                                break;
-                            }
-
-                            // Add and return 204.
-                            censorManager.addImage(guild, new CensorManager.Image(nick, retImg));
-                            Response.writeResponse(Response.okNoContent(), writer);
-                        }
+        if(!req.hasBody() || req.getHeader("content-type") == null || !req.getHeader("content-type").equals("application/json")){
+            writer.badRequest("Empty/Invalid content.");
+            return;
+        }
 
-                        default -> Response.writeResponse(Response.methodNotAllowed("Expected GET or PUT"), writer);
-                    }
-                }
+        // JSON should have two fields, "nickname" and "content". The image is decoded as it's read
+        // off of the connection, rather than reading the whole body into a string first.
+        ImageUpload upload;
+        try {
+            upload = readImageUpload(req.getBodyStream());
+        } catch (MalformedRequestException e){
+            // Exceeded the body limit part way through (chunked uploads don't declare their size).
+            if(e.isTooLarge()){
+                writer.payloadTooLarge(e.getMessage());
+            } else {
+                writer.badRequest(e.getMessage());
+            }
+            return;
+        } catch (IOException e){
+            // Also thrown by the base64 decoder for invalid characters.
+            upload = null;
+        }
 
-                case 3 -> {
-                    if(fmtPath.startsWith("images/tolerance")){
-                        if(!(req.getMethod().equals("GET") || req.getMethod().equals("PUT"))){
-                            Response.writeResponse(Response.methodNotAllowed("Expected POST or PUT."), writer);
-                            return;
-                        }
+        // Process. Name must not be blank and content
+        // must be valid Base64.
+        if(upload == null || upload.nick() == null || upload.nick().equals("") || upload.img() == null){
+            writer.badRequest("Malformed content.");
+            return;
+        }
 
-                        // Check snowflake.
-                        try {
-                            Long.parseLong(fmtPath.split("/")[2]);
-                        } catch (NumberFormatException e){
-                            Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                            return;
-                        }
+        ArrayList<byte[]> retImg = new ArrayList<>();
 
-                        // Finally we get to decide what to do!
-                        if(req.getMethod().equals("GET")){
-                            // Parse snowflake
-                            Integer ret = censorManager.getTolerance(fmtPath.split("/")[2]);
-                            Response.writeResponse(Response.okJSON(String.format("{\"tolerance\":%d}", Objects.requireNonNullElse(ret, 95))), writer);
-                        } else {
-                            if(req.getContent() == null){
-                                Response.writeResponse(Response.badRequest("Expected content."), writer);
-                            } else if(req.getHeaders().get("content-type") == null || !req.getHeaders().get("content-type").equals("application/x-www-form-urlencoded") || req.getContent().split("=").length != 2) {
-                                Response.writeResponse(Response.badRequest("Content invalid."), writer);
-                            } else {
-                                int newTol = Integer.parseInt(req.getContent().split("=")[1]);
-                                if(!(0 <= newTol && newTol <= 100)){
-                                    Response.writeResponse(Response.badRequest("Expected 0 <= new tolerance <= 100."), writer);
-                                } else {
-                                    censorManager.setTolerance(fmtPath.split("/")[2], newTol);
-                                    Response.writeResponse(Response.okNoContent(), writer);
-                                }
-                            }
-                        }
-                    } else {
-                        // Any method here is '/images' followed by a snowflake, followed by a string, so we'll check the snowflake here to save time.
-                        try {
-                            Long.parseLong(fmtPath.split("/")[1]);
-                        } catch (NumberFormatException e) {
-                            Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                            return;
-                        }
+        retImg.add(upload.img());
 
-                        switch (req.getMethod()) {
-                            case "GET" -> {
-                                // Image download request.
-                                byte[] content = censorManager.compileFilterAggregate(fmtPath.split("/")[1], fmtPath.split("/")[2]);
-                                if (content == null) {
-                                    Response.writeResponse(Response.notFound("Not found."), writer);
-                                } else {
-                                    Response.writeFile(content, "image/x-png", writer);
-                                }
-
-                            }
-
-                            case "DELETE" -> {
-                                censorManager.removeImage(fmtPath.split("/")[1], fmtPath.split("/")[2]);
-                                Response.writeResponse(Response.okNoContent(), writer);
-                            }
-
-                            case "POST" -> {
-                                // There'll be content in this one which we need to dig through.
-                                if (req.getContent() == null) {
-                                    Response.writeResponse(Response.badRequest("Expected content."), writer);
-                                    return;
-                                }
-
-                                // Try to parse data.
-                                Map<String, String> content = parseFormData(req.getContent());
-
-                                // Check for the 'adaptive' and 'nickname' keys.
-                                if (!content.containsKey("adaptive") || !content.containsKey("nickname")) {
-                                    Response.writeResponse(Response.badRequest("Missing mandatory field."), writer);
-                                    break;
-                                }
-
-                                // check if nickname is blank.
-                                if (content.get("nickname").equals("")) {
-                                    Response.writeResponse(Response.badRequest("nickname field must not be blank."), writer);
-                                    break;
-                                }
-
-                                String guild = fmtPath.split("/")[1], oldNick = fmtPath.split("/")[2];
-
-                                // Boolean.parseBoolean never throws. It will however return false for improper values, but as that isn't
-                                // destructive we'll (implicitly) permit it here.
-                                if (censorManager.setImageAdaptive(guild, oldNick, Boolean.parseBoolean(content.get("adaptive"))) && censorManager.setImageNickname(guild, oldNick, content.get("nickname"))) {
-                                    Response.writeResponse(Response.okNoContent(), writer);
-                                } else {
-                                    Response.writeResponse(Response.notFound("Not found."), writer);
-                                }
-                            }
-
-                            default -> Response.writeResponse(Response.methodNotAllowed("Expected GET, POST or DELETE."), writer);
-                        }
-                    }
-                }
+        // Make sure we're actually in the guild we're adding to.
+        boolean found = false;
+        List<Guild> guilds = jda.getGuilds();
 
-                default -> Response.writeResponse(Response.badRequest("Unknown endpoint."), writer);
+        for(Guild guild1 : guilds){
+            if(guild1.getId().equals(guild)){
+                found = true;
+                break;
             }
+        }
+
+        if(!found){
+            writer.notFound("Guild not found.");
+            return;
+        }
 
+        // Add and return 204.
+        censorManager.addImage(guild, new CensorManager.Image(upload.nick(), retImg));
+        writer.okNoContent();
+    }
 
-        });
+    private void getTolerance(Request req, RouteParams params, ResponseWriter writer){
+        // Check snowflake.
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+
+        Integer ret = censorManager.getTolerance(params.get("guild"));
+        writer.okJSON(json -> json.beginObject().name("tolerance").value(Objects.requireNonNullElse(ret, 95)).endObject());
+    }
+
+    private void putTolerance(Request req, RouteParams params, ResponseWriter writer){
+        // Check snowflake.
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+
+        if(req.getContent() == null){
+            writer.badRequest("Expected content.");
+        } else if(req.getHeader("content-type") == null || !req.getHeader("content-type").equals("application/x-www-form-urlencoded") || req.getContent().split("=").length != 2) {
+            writer.badRequest("Content invalid.");
+        } else {
+            int newTol = Integer.parseInt(req.getContent().split("=")[1]);
+            if(!(0 <= newTol && newTol <= 100)){
+                writer.badRequest("Expected 0 <= new tolerance <= 100.");
+            } else {
+                censorManager.setTolerance(params.get("guild"), newTol);
+                writer.okNoContent();
+            }
+        }
+    }
 
-        RESTmappings.put("words", (req, writer) -> {
-            switch(req.getMethod()){
-                case "GET" -> {
-                    String subj = req.getPath().replace("/words/", "");
-                    // Return list of banned words from censorManager.
-                    Response.writeResponse(Response.okJSON(censorManager.getBannedWordsJSON(subj)), writer);
+    private void downloadImage(Request req, RouteParams params, ResponseWriter writer){
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+
+        // Image download request. Sent from the render cache where possible, so it's only rendered once per change.
+        String guild = params.get("guild");
+        String nick = params.get("nick");
+        if(aggregates != null){
+            try {
+                FileChannel render = aggregates.open(guild, nick, censorManager.getImagesEpoch(guild), () -> censorManager.compileFilterAggregate(guild, nick));
+                if(render == null){
+                    writer.notFound("Not found.");
+                } else {
+                    writer.file(render, "image/x-png", nick+".png");
                 }
+                return;
+            } catch (IOException e){
+                LOGGER.warning("Couldn't use the render cache for "+guild+"/"+nick+", rendering it in memory instead: "+e.getMessage());
+            }
+        }
 
-                case "PUT" -> {
-                    if(req.getHeaders().get("content-type") == null || !req.getHeaders().get("content-type").equals("application/json")){
-                        Response.writeResponse(Response.badRequest("Content type invalid, expected application/json."), writer);
-                    } else if(req.getContent() == null) {
-                        Response.writeResponse(Response.badRequest("Content must not be empty."), writer);
-                    } else {
-                        // Get each string from the submitted JSON, then add each to the list.
-                        if(req.getPath().split("/").length != 3){
-                            Response.writeResponse(Response.badRequest("Malformed URL. DEBUG got "+req.getPath().split("/").length+" args."), writer);
-                            return;
-                        }
+        byte[] content = censorManager.compileFilterAggregate(guild, nick);
+        if (content == null) {
+            writer.notFound("Not found.");
+        } else {
+            writer.file(content, "image/x-png", nick+".png");
+        }
+    }
 
-                        String guild = req.getPath().substring(req.getPath().lastIndexOf('/')+1);
+    private void deleteImage(Request req, RouteParams params, ResponseWriter writer){
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
 
-                        try {
-                            Long.parseLong(guild);
-                        } catch (NumberFormatException e){
-                            Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                            return;
-                        }
+        censorManager.removeImage(params.get("guild"), params.get("nick"));
+        writer.okNoContent();
+    }
 
-                        // Check if guild exists.
-                        if(censorManager.getBannedWords(guild) == null){
-                            Response.writeResponse(Response.notFound("Invalid guild."), writer);
-                            return;
-                        }
+    private void updateImage(Request req, RouteParams params, ResponseWriter writer){
+        if(!isSnowflake(params.get("guild"))){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
 
-                        // Get words. We'll parse it in two steps.
-                        Pattern listEx = Pattern.compile("(?<=\\[).*?(?=])");
-                        Matcher listM = listEx.matcher(req.getContent());
-                        if(!listM.find()){
-                            Response.writeResponse(Response.badRequest("Malformed JSON."), writer);
-                            return;
-                        }
+        // There'll be content in this one which we need to dig through.
+        if (req.getContent() == null) {
+            writer.badRequest("Expected content.");
+            return;
+        }
 
-                        String list = listM.group();
+        // Try to parse data.
+        Map<String, String> content = parseFormData(req.getContent());
 
-                        Pattern wordEx = Pattern.compile("(?<=\")[^,]*?(?=\")");
-                        Matcher words = wordEx.matcher(list);
+        // Check for the 'adaptive' and 'nickname' keys.
+        if (!content.containsKey("adaptive") || !content.containsKey("nickname")) {
+            writer.badRequest("Missing mandatory field.");
+            return;
+        }
 
-                        List<String> toCensor = new ArrayList<>();
-                        while(words.find()){
-                            toCensor.add(words.group());
-                        }
+        // check if nickname is blank.
+        if (content.get("nickname").equals("")) {
+            writer.badRequest("nickname field must not be blank.");
+            return;
+        }
 
-                        // Add.
-                        for(String word : toCensor){
-                            censorManager.addWord(guild, word);
-                        }
+        String guild = params.get("guild"), oldNick = params.get("nick");
 
-                        Response.writeResponse(Response.okNoContent(), writer);
-                    }
-                }
+        // Boolean.parseBoolean never throws. It will however return false for improper values, but as that isn't
+        // destructive we'll (implicitly) permit it here.
+        if (censorManager.setImageAdaptive(guild, oldNick, Boolean.parseBoolean(content.get("adaptive"))) && censorManager.setImageNickname(guild, oldNick, content.get("nickname"))) {
+            writer.okNoContent();
+        } else {
+            writer.notFound("Not found.");
+        }
+    }
 
-                case "DELETE" -> {
-                    if(!req.getHeaders().get("content-type").equals("application/json")){
-                        Response.writeResponse(Response.badRequest("Content type invalid, expected application/json."), writer);
-                    } else if(req.getContent() == null) {
-                        Response.writeResponse(Response.badRequest("Content must not be empty."), writer);
-                    } else {
-                        // Get each string from the submitted JSON, then add each to the list.
-                        if(req.getPath().split("/").length != 3){
-                            Response.writeResponse(Response.badRequest("Malformed URL. DEBUG got "+req.getPath().split("/").length+" args."), writer);
-                            return;
-                        }
+    private void getWords(Request req, RouteParams params, ResponseWriter writer){
+        // Return list of banned words from censorManager.
+        writer.okJSON(json -> censorManager.writeBannedWordsJSON(params.get("guild"), json));
+    }
 
-                        String guild = req.getPath().substring(req.getPath().lastIndexOf('/')+1);
+    private void putWords(Request req, RouteParams params, ResponseWriter writer){
+        List<String> toCensor = readWordList(req, params, writer);
+        if(toCensor == null){
+            return;
+        }
 
-                        try {
-                            Long.parseLong(guild);
-                        } catch (NumberFormatException e){
-                            Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                            return;
-                        }
+        // Add.
+        for(String word : toCensor){
+            censorManager.addWord(params.get("guild"), word);
+        }
 
-                        // Check if guild exists.
-                        if(censorManager.getBannedWords(guild) == null){
-                            Response.writeResponse(Response.notFound("Invalid guild."), writer);
-                            return;
-                        }
-                        // Get words. We'll parse it in two steps.
-                        Pattern listEx = Pattern.compile("(?<=\\[).*?(?=])");
-                        Matcher listM = listEx.matcher(req.getContent());
-                        if(!listM.find()){
-                            Response.writeResponse(Response.badRequest("Malformed JSON."), writer);
-                            return;
-                        }
+        writer.okNoContent();
+    }
 
-                        String list = listM.group();
+    private void deleteWords(Request req, RouteParams params, ResponseWriter writer){
+        List<String> toCensor = readWordList(req, params, writer);
+        if(toCensor == null){
+            return;
+        }
 
-                        Pattern wordEx = Pattern.compile("(?<=\")[^,]*?(?=\")");
-                        Matcher words = wordEx.matcher(list);
+        // delete.
+        for(String word : toCensor){
+            censorManager.removeWord(params.get("guild"), word);
+        }
 
-                        List<String> toCensor = new ArrayList<>();
-                        while(words.find()){
-                            toCensor.add(words.group());
-                        }
+        writer.okNoContent();
+    }
 
-                        // delete.
-                        for(String word : toCensor){
-                            censorManager.removeWord(guild, word);
-                        }
+    // Validates a words PUT/DELETE and gets each string from the submitted JSON. Returns null if a response has
+    // already been written because it wasn't valid.
+    private List<String> readWordList(Request req, RouteParams params, ResponseWriter writer){
+        if(req.getHeader("content-type") == null || !req.getHeader("content-type").equals("application/json")){
+            writer.badRequest("Content type invalid, expected application/json.");
+            return null;
+        } else if(!req.hasBody()) {
+            writer.badRequest("Content must not be empty.");
+            return null;
+        }
+
+        String guild = params.get("guild");
+        if(!isSnowflake(guild)){
+            writer.badRequest("Invalid snowflake.");
+            return null;
+        }
+
+        // Check if guild exists.
+        if(censorManager.getBannedWords(guild) == null){
+            writer.notFound("Invalid guild.");
+            return null;
+        }
+
+        // Get words, out of the first array in the body (either the body itself, or one of its members).
+        try {
+            List<String> toCensor = readStrings(new JSONReader(req.getBodyStream()));
+            if(toCensor == null){
+                writer.badRequest("Malformed JSON.");
+            }
+            return toCensor;
+        } catch (MalformedRequestException e){
+            if(e.isTooLarge()){
+                writer.payloadTooLarge(e.getMessage());
+            } else {
+                writer.badRequest(e.getMessage());
+            }
+        } catch (IOException e){
+            writer.badRequest("Malformed JSON.");
+        }
+        return null;
+    }
 
-                        Response.writeResponse(Response.okNoContent(), writer);
+    // Reads ["word", ...] or {"...": ["word", ...], ...}, skipping anything else in the object. Returns null if there
+    // wasn't a list, or it had something other than strings in it.
+    private static List<String> readStrings(JSONReader json) throws IOException {
+        List<String> strings = null;
+        switch (json.next()) {
+            case BEGIN_ARRAY -> strings = readStringArray(json);
+            case BEGIN_OBJECT -> {
+                while(json.next() == JSONReader.Token.NAME){
+                    JSONReader.Token value = json.next();
+                    if(value == JSONReader.Token.BEGIN_ARRAY && strings == null){
+                        strings = readStringArray(json);
+                        if(strings == null){
+                            return null;
+                        }
+                    } else if(value == JSONReader.Token.BEGIN_ARRAY || value == JSONReader.Token.BEGIN_OBJECT){
+                        // Not one we want, skip the rest of it.
+                        int depth = json.getDepth();
+                        while(json.getDepth() >= depth){
+                            json.next();
+                        }
                     }
                 }
-
-                default -> Response.writeResponse(Response.methodNotAllowed("Method not allowed."), writer);
             }
-        });
-        return RESTmappings;
+            default -> {
+                return null;
+            }
+        }
+        // Make sure there's nothing after it.
+        if(strings != null){
+            json.expect(JSONReader.Token.END);
+        }
+        return strings;
+    }
+
+    private static List<String> readStringArray(JSONReader json) throws IOException {
+        List<String> strings = new ArrayList<>();
+        JSONReader.Token token;
+        while((token = json.next()) == JSONReader.Token.STRING){
+            strings.add(json.string());
+        }
+        return token == JSONReader.Token.END_ARRAY ? strings : null;
+    }
+
+    private static boolean isSnowflake(String id){
+        try {
+            Long.parseLong(id);
+            return true;
+        } catch (NumberFormatException e){
+            return false;
+        }
     }
 
     @Override
@@ -464,4 +496,47 @@ public class CensorPlugin implements QuanTecPlugin {
     public long getVersion() {
         return 0;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Map<String, RequestLimits> getRequestLimits() {
+        // Image uploads are base64 encoded, so Discord's largest attachments come out at a bit over 10MiB.
+        return Map.of("images", new RequestLimits(RequestLimits.DEFAULT.getMaxHeaderBytes(), 16 * 1024 * 1024));
+    }
+
+    private record ImageUpload(String nick, byte[] img) {}
+
+    // Reads {"nickname": "...", "content": "<base64>"} (in either order) off of the request body. The image is base64
+    // decoded as it's read, so its encoded form is never held in memory. Returns null if the JSON isn't shaped like that.
+    private static ImageUpload readImageUpload(InputStream body) throws IOException {
+        JSONReader json = new JSONReader(body);
+        String nick = null;
+        byte[] img = null;
+
+        if(json.next() != JSONReader.Token.BEGIN_OBJECT){
+            return null;
+        }
+        while(json.next() == JSONReader.Token.NAME){
+            boolean isNick = json.textEquals("nickname");
+            if(!isNick && !json.textEquals("content")){
+                return null;
+            }
+            if(json.next() != JSONReader.Token.STRING){
+                return null;
+            }
+
+            if(isNick){
+                nick = json.string();
+            } else {
+                InputStream content = json.stringStream();
+                img = Base64.getDecoder().wrap(content).readAllBytes();
+                // The decoder stops at padding, so make sure that's where the string ends too.
+                if(content.read() != -1){
+                    return null;
+                }
+            }
+        }
+
+        json.expect(JSONReader.Token.END);
+        return new ImageUpload(nick, img);
+    }
+}
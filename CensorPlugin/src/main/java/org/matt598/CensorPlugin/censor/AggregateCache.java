@@ -0,0 +1,88 @@
+package org.matt598.CensorPlugin.censor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Rendered aggregate images, kept on disk so GET /images/{guild}/{nick} can be sent straight from a file rather than
+// rendered and PNG encoded on every request. Renders are named after the guild's image epoch (see
+// CensorManager.getImagesEpoch), so any change to a guild's images leaves its renders stale; they're redone the next
+// time they're asked for, and the guild's other stale renders are deleted then. Epochs start again with the process, so
+// the directory is emptied whenever one of these is made.
+public class AggregateCache {
+    private final Path directory;
+
+    public AggregateCache(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try(Stream<Path> files = Files.list(directory)){
+            for(Path file : (Iterable<Path>) files::iterator){
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /** <h2>open</h2>
+     * Opens the current render of an image, rendering it first if there isn't one.
+     * @param epoch The guild's image epoch, read before rendering so a change part way through isn't missed.
+     * @param render Renders the image, returning <code>null</code> if it doesn't exist.
+     * @return The render, which the caller has to close, or <code>null</code> if the image doesn't exist.
+     * @throws IOException If the render couldn't be written or read back, e.g. because the disk is full.
+     */
+    public FileChannel open(String guild, String nick, long epoch, Supplier<byte[]> render) throws IOException {
+        Path path = directory.resolve(guild+"-"+epoch+"-"+key(nick)+".png");
+        try {
+            return FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e){
+            // Not rendered yet.
+        }
+
+        byte[] png = render.get();
+        if(png == null){
+            return null;
+        }
+        // Written alongside and moved into place, so nobody ever opens half of one. Two requests rendering the same
+        // image at once both write it, and whichever's second replaces an identical file.
+        Path temp = Files.createTempFile(directory, "render", ".tmp");
+        try {
+            Files.write(temp, png);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        removeStale(guild, epoch);
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    // Deletes the guild's renders from older epochs. Anyone still sending one keeps their open copy until they're done.
+    private void removeStale(String guild, long epoch){
+        String prefix = guild+"-";
+        String current = prefix+epoch+"-";
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix+"*.png")){
+            for(Path file : files){
+                if(!file.getFileName().toString().startsWith(current)){
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e){
+            // They'll go on the next restart.
+        }
+    }
+
+    // Nicknames can be anything at all, so they're hashed rather than put in filenames as they are.
+    private static String key(String nick){
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(nick.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e){
+            // Every JVM has to have SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.matt598.CensorPlugin.censor;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.example.metrics.Family;
+import org.example.metrics.Histogram;
 import org.example.plugins.MessageBusEvent;
 import org.example.utils.PermissionChecker;
 import java.util.function.Consumer;
@@ -11,10 +13,15 @@ import java.util.function.Consumer;
 public class CensorListener extends ListenerAdapter {
     private final CensorManager censorManager;
     private final Consumer<MessageBusEvent> sender;
+    // How long each check takes. Null if metrics weren't registered, in which case nothing's timed.
+    private final Histogram wordScreenTime;
+    private final Histogram imageScreenTime;
 
-    public CensorListener(CensorManager censorManager, Consumer<MessageBusEvent> sender){
+    public CensorListener(CensorManager censorManager, Consumer<MessageBusEvent> sender, Family<Histogram> screenDurations){
         this.censorManager = censorManager;
         this.sender = sender;
+        this.wordScreenTime = screenDurations == null ? null : screenDurations.labels("words");
+        this.imageScreenTime = screenDurations == null ? null : screenDurations.labels("images");
     }
 
 
@@ -28,11 +35,20 @@ public class CensorListener extends ListenerAdapter {
         // We'll split this off into a thread, since checking large images may take a while.
         new Thread(() -> {
             // Feed message to censor Manager to scan.
+            long start = System.nanoTime();
             boolean res = this.censorManager.censorWord(event.getGuild().getId(), event.getMessage());
+            if(wordScreenTime != null){
+                wordScreenTime.recordSince(start);
+            }
             sender.accept(new MessageBusEvent("censorManager", "censorWdScreen", null));
 
             // Check for images.
-            if(this.censorManager.censorImage(event.getGuild().getId(), event.getMessage(), res)){
+            start = System.nanoTime();
+            boolean removed = this.censorManager.censorImage(event.getGuild().getId(), event.getMessage(), res);
+            if(imageScreenTime != null){
+                imageScreenTime.recordSince(start);
+            }
+            if(removed){
                 sender.accept(new MessageBusEvent("censorManager", "censorImgRemove", null));
             }
         }).start();
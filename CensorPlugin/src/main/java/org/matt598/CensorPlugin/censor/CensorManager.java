@@ -2,10 +2,13 @@ package org.matt598.CensorPlugin.censor;
 
 import net.dv8tion.jda.api.entities.Message;
 import org.example.plugins.MessageBusEvent;
+import org.example.utils.HTTPClient;
 import org.example.utils.ImageUtils;
+import org.example.utils.JSONWriter;
 import org.example.utils.Response;
-import org.example.utils.WebGet;
+import org.example.webserver.Epochs;
 
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
 import java.util.function.Consumer;
@@ -14,9 +17,15 @@ import java.util.regex.Pattern;
 
 // TODO Only the map here needs to be serialized, the rest is excessive and prevents updating without resetting the censor data.
 public class CensorManager implements Serializable {
+    // Pinned to what the JVM computed for the class before it was first changed, so existing censor.bin files keep
+    // loading. Only transient fields and methods have been added since, which don't affect the serialized form.
+    private static final long serialVersionUID = -7821713545945528132L;
     private final Map<String, GuildSet> censorData;
     private transient String filename;
     private transient Consumer<MessageBusEvent> sender;
+    // Per-guild versions of the word and image lists, for the REST endpoints' ETags. Bumped after every change.
+    private transient Epochs wordEpochs;
+    private transient Epochs imageEpochs;
     private static final String[] ImageExtensions = {
             ".gif",
             ".jpg",
@@ -89,6 +98,8 @@ public class CensorManager implements Serializable {
         this.filename = filename;
         this.censorData = new HashMap<>();
         this.sender = sender;
+        this.wordEpochs = new Epochs();
+        this.imageEpochs = new Epochs();
 
         // Perform initial write-out
         try {
@@ -109,6 +120,8 @@ public class CensorManager implements Serializable {
             CensorManager ret = (CensorManager) inputStream.readObject();
             ret.filename = filename;
             ret.sender = sender;
+            ret.wordEpochs = new Epochs();
+            ret.imageEpochs = new Epochs();
             return ret;
         } catch (FileNotFoundException e){
             return new CensorManager(filename, sender);
@@ -147,12 +160,19 @@ public class CensorManager implements Serializable {
             }
         }
 
-        // Now we need to download all of those images.
+        // Now we need to download all of those images. They're usually all on Discord's CDN, so after the first one
+        // they'll mostly go over the same connection.
         List<Response> responses = new ArrayList<>();
         for(String url : imageLinks){
-            Response candidate = WebGet.get(url);
-            if(candidate == null || candidate.getContent() == null || candidate.getStatusCode() != 200){
-                System.out.println("[CensorManager] ERR Attempt to get image at link "+url+" returned a null response." + ((candidate == null) ? "" : " Response was received, albeit with code "+candidate.getStatusCode()+" "+candidate.getStatusMessage()+"."));
+            Response candidate;
+            try {
+                candidate = HTTPClient.shared().get(url);
+            } catch (IOException e){
+                System.out.println("[CensorManager] ERR Attempt to get image at link "+url+" failed: "+e.getMessage());
+                continue;
+            }
+            if(candidate.getStatusCode() != 200 || candidate.getBody().length == 0){
+                System.out.println("[CensorManager] ERR Attempt to get image at link "+url+" returned an empty response, with code "+candidate.getStatusCode()+" "+candidate.getStatusMessage()+".");
             } else {
                 responses.add(candidate);
             }
@@ -162,13 +182,7 @@ public class CensorManager implements Serializable {
         List<Image> ret = new ArrayList<>();
         int curr_img = 1;
         for(Response response : responses){
-            // Stream Byte to byte, because Java.
-            byte[] img = new byte[response.getContent().length];
-            for (int i = 0; i < img.length; i++) {
-                img[i] = response.getContent()[i];
-            }
-
-            ret.add(new Image(message.getGuild().getId()+"_"+(curr_img++), new LinkedList<>(Collections.singletonList(img))));
+            ret.add(new Image(message.getGuild().getId()+"_"+(curr_img++), new LinkedList<>(Collections.singletonList(response.getBody()))));
         }
 
         return ret;
@@ -214,6 +228,7 @@ public class CensorManager implements Serializable {
         if(subj != null && !subj.getBannedWordList().contains(word)){
             subj.getBannedWordList().add(word);
             censorData.put(guild, subj); // TODO redundant, expedite above TODO.
+            wordEpochs.bump(guild);
             handleMutation();
         } else if(subj == null){
             this.censorData.put(guild, new GuildSet());
@@ -226,10 +241,25 @@ public class CensorManager implements Serializable {
         if(subj != null){
             subj.getBannedWordList().remove(word);
             censorData.put(guild, subj);
+            wordEpochs.bump(guild);
             handleMutation();
         }
     }
 
+    /** <h2>getWordsEpoch</h2>
+     * @return The version of a guild's banned word list, which changes whenever a word is added or removed.
+     */
+    public long getWordsEpoch(String guild){
+        return wordEpochs.get(guild);
+    }
+
+    /** <h2>getImagesEpoch</h2>
+     * @return The version of a guild's banned images and tolerance, which changes whenever any of them are modified.
+     */
+    public long getImagesEpoch(String guild){
+        return imageEpochs.get(guild);
+    }
+
     public List<String> getBannedWords(String guild){
         GuildSet subj = censorData.get(guild);
         if(subj != null){
@@ -239,24 +269,15 @@ public class CensorManager implements Serializable {
         }
     }
 
-    public String getBannedWordsJSON(String guild){
+    public void writeBannedWordsJSON(String guild, JSONWriter json){
         GuildSet subj = censorData.get(guild);
+        json.beginObject().name("bannedWords").beginArray();
         if(subj != null){
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("{\"bannedWords\":[");
             for(String word : subj.getBannedWordList()){
-                stringBuilder.append(String.format("\"%s\",", word));
+                json.value(word);
             }
-
-            if(!subj.getBannedWordList().isEmpty()){
-                stringBuilder.deleteCharAt(stringBuilder.length()-1);
-            }
-            stringBuilder.append("]}");
-
-            return stringBuilder.toString();
-        } else {
-            return "{\"bannedWords\":[]}";
         }
+        json.endArray().endObject();
     }
 
     public boolean censorWord(String guild, Message message){
@@ -280,6 +301,7 @@ public class CensorManager implements Serializable {
         if(censorData.get(guild) != null){
             // TODO duplicate guard
             censorData.get(guild).getBannedImages().add(image);
+            imageEpochs.bump(guild);
             handleMutation();
         } else {
             censorData.put(guild, new GuildSet());
@@ -291,6 +313,7 @@ public class CensorManager implements Serializable {
     public void removeImage(String guild, String imageNickname){
         if(censorData.get(guild) != null){
             if(censorData.get(guild).getBannedImages().removeIf(ele -> ele.getNickname().equals(imageNickname))){
+                imageEpochs.bump(guild);
                 handleMutation();
             }
         }
@@ -301,6 +324,7 @@ public class CensorManager implements Serializable {
             for(Image image : censorData.get(guild).getBannedImages()){
                 if(image.getNickname().equals(oldName)){
                     image.setNickname(newName);
+                    imageEpochs.bump(guild);
                     handleMutation();
                     return true;
                 }
@@ -314,6 +338,7 @@ public class CensorManager implements Serializable {
             for(Image image : censorData.get(guild).getBannedImages()){
                 if(image.getNickname().equals(imageName)){
                     image.setAdaptive(adaptive);
+                    imageEpochs.bump(guild);
                     handleMutation();
                     return true;
                 }
@@ -337,6 +362,8 @@ public class CensorManager implements Serializable {
 
         if(censorData.get(guild) != null){
             censorData.get(guild).setBannedImageTolerancePcnt(tolerance);
+            // The tolerance is part of the banned images JSON.
+            imageEpochs.bump(guild);
         } else {
             censorData.put(guild, new GuildSet());
             setTolerance(guild, tolerance);
@@ -368,37 +395,59 @@ public class CensorManager implements Serializable {
         return null;
     }
 
-    public String getBannedImagesJSON(String guild){
-        if(censorData.get(guild) != null){
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append(String.format("{\"tolerance\":\"%d\",\"bannedImages\":[", censorData.get(guild).getBannedImageTolerancePcnt()));
-            for(Image image : censorData.get(guild).getBannedImages()){
-                stringBuilder.append(String.format("{\"name\":\"%s\",\"adaptive\":\"%s\",\"size\":%d},",
-                        image.getNickname(),
-                        image.isAdaptive(),
-                        image.getImages().size()));
-            }
-            if(censorData.get(guild).getBannedImages().size() != 0){
-                stringBuilder.deleteCharAt(stringBuilder.length()-1);
+    public void writeBannedImagesJSON(String guild, JSONWriter json){
+        GuildSet subj = censorData.get(guild);
+        // The dashboard's always had the tolerance and adaptive flag as strings.
+        json.beginObject()
+                .name("tolerance").quoted(subj == null ? 95 : subj.getBannedImageTolerancePcnt())
+                .name("bannedImages").beginArray();
+        if(subj != null){
+            for(Image image : subj.getBannedImages()){
+                json.beginObject()
+                        .name("name").value(image.getNickname())
+                        .name("adaptive").value(Boolean.toString(image.isAdaptive()))
+                        .name("size").value(image.getImages().size())
+                        .endObject();
             }
-            stringBuilder.append("]}");
-
-            return stringBuilder.toString();
         }
-
-        return "{\"tolerance\":\"95\",\"bannedImages\":[]}";
+        json.endArray().endObject();
     }
 
     public boolean censorImage(String guild, Message message, boolean checkOnly){
         if(censorData.get(guild) != null){
             List<Image> banned = censorData.get(guild).getBannedImages();
             int tolerance = censorData.get(guild).getBannedImageTolerancePcnt();
+            if(banned.isEmpty()){
+                // Don't bother downloading anything.
+                return false;
+            }
+
+            // Download and decode what was posted once, rather than once for every banned image it's checked against.
+            List<Image> posted = getAllImagesFromMessage(message);
+            List<BufferedImage> decoded = new ArrayList<>(posted.size());
+            for(Image image : posted){
+                try {
+                    decoded.add(ImageUtils.decode(image.getImages().get(0)));
+                } catch (IOException e){
+                    System.out.println("[CensorManager] ERR Couldn't decode image "+image.getNickname()+": "+e.getMessage());
+                    decoded.add(null);
+                }
+            }
 
             for(Image bannedImage : banned){
-                for(Image image : getAllImagesFromMessage(message)){
-                    if(ImageUtils.compareImages(image.getImages().get(0), ImageUtils.aggregateImages(bannedImage.getImages()), tolerance)){
+                BufferedImage aggregate = null;
+                for(int i = 0; i < posted.size(); i++){
+                    if(decoded.get(i) == null){
+                        continue;
+                    }
+                    if(aggregate == null){
+                        aggregate = ImageUtils.aggregate(bannedImage.getImages());
+                    }
+                    if(ImageUtils.compareImages(decoded.get(i), aggregate, tolerance)){
                         if(bannedImage.isAdaptive()){
-                            bannedImage.getImages().add(image.getImages().get(0));
+                            bannedImage.getImages().add(posted.get(i).getImages().get(0));
+                            // The aggregate's changed, so its ETag (and cached render) have to.
+                            imageEpochs.bump(guild);
                             handleMutation();
                         }
                         if(!checkOnly){
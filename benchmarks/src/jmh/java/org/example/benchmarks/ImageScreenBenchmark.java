@@ -0,0 +1,186 @@
+package org.example.benchmarks;
+
+import org.example.utils.HTTPClient;
+import org.example.utils.ImageUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// What it costs to get an image the censor's been sent ready to compare: downloading it off a (loopback) server and
+// decoding it, as it was done before and as it's done now. Mostly about allocation, so run it with the GC profiler
+// and look at gc.alloc.rate.norm, the bytes allocated per image:
+// ./gradlew :benchmarks:jmh -Pjmh.includes=ImageScreen -Pjmh.profilers=gc
+//
+// Before, WebGet opened a connection for each image, read the response a byte at a time, boxed the body into a
+// List<Byte> and then a Byte[], which CensorManager copied back into a byte[] for ImageIO to read through its cache.
+// Now HTTPClient reads the body into a byte[] of the right size over a pooled connection, and ImageUtils decodes it
+// where it is. The decoded image itself is the same size either way (4 bytes a pixel), so it's in both.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageScreenBenchmark {
+    // Width and height of the image. Noise, so it doesn't compress: 1024 comes out at about 3MiB as a png.
+    @Param({"256", "1024"})
+    public int size;
+
+    private ServerSocket server;
+    private ExecutorService connections;
+    private byte[] response;
+    private byte[] png;
+    private String url;
+    private HTTPClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(598);
+        for(int x = 0; x < size; x++){
+            for(int y = 0; y < size; y++){
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", file);
+        png = file.toByteArray();
+
+        byte[] head = ("HTTP/1.1 200 OK\r\nContent-Type: image/png\r\nContent-Length: "+png.length+"\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        response = new byte[head.length + png.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(png, 0, response, head.length, png.length);
+
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        connections.execute(this::accept);
+        url = "http://127.0.0.1:"+server.getLocalPort()+"/attachments/1/2/image.png";
+        client = new HTTPClient(HTTPClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, HTTPClient.DEFAULT_READ_TIMEOUT_MILLIS, HTTPClient.DEFAULT_MAX_BODY_BYTES, HTTPClient.DEFAULT_MAX_REDIRECTS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        connections.shutdownNow();
+    }
+
+    @Benchmark
+    public BufferedImage legacy() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(legacyGet()));
+    }
+
+    @Benchmark
+    public BufferedImage current() throws IOException {
+        return ImageUtils.decode(client.get(url).getBody());
+    }
+
+    // The decode on its own, without the download, as ImageIO does it given a stream and as ImageUtils does it.
+    @Benchmark
+    public BufferedImage legacyDecode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageUtils.decode(png);
+    }
+
+    // WebGet.get() and the copy CensorManager made of what it returned, as they were.
+    private byte[] legacyGet() throws IOException {
+        try(Socket socket = new Socket("127.0.0.1", server.getLocalPort())){
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /attachments/1/2/image.png HTTP/1.1\r\nHost: 127.0.0.1\r\nAccept: */*\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            List<String> headers = new ArrayList<>();
+            String line = readLine(in);
+            while(!line.equals("")){
+                headers.add(line.toLowerCase());
+                line = readLine(in);
+            }
+            int contentLength = 0;
+            for(String header : headers){
+                if(header.startsWith("content-length: ")){
+                    contentLength = Integer.parseInt(header.substring(16));
+                }
+            }
+            byte[] body = new byte[contentLength];
+            for(int i = 0; i < body.length; i++){
+                body[i] = (byte) in.read();
+            }
+            List<Byte> boxed = new ArrayList<>();
+            for(byte b : body){
+                boxed.add(b);
+            }
+            Byte[] content = boxed.toArray(new Byte[0]);
+
+            byte[] image = new byte[content.length];
+            for(int i = 0; i < image.length; i++){
+                image[i] = content[i];
+            }
+            return image;
+        }
+    }
+
+    // HTTPInputStreamReader.readLine().
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder out = new StringBuilder();
+        char lastChar = 0, curChar = (char) in.read();
+        for(; !(lastChar == '\r' && curChar == '\n'); lastChar = curChar, curChar = (char) in.read()){
+            out.append(curChar);
+        }
+        out.deleteCharAt(out.length() - 1);
+        return out.toString();
+    }
+
+    private void accept(){
+        while(!server.isClosed()){
+            try {
+                Socket socket = server.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e){
+                return;
+            }
+        }
+    }
+
+    // Answers every request on the connection with the image, until the client hangs up.
+    private void serve(Socket socket){
+        try(socket){
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int matched = 0;
+            int b;
+            while((b = in.read()) != -1){
+                // Looking for the blank line at the end of the request's head.
+                matched = (b == '\r' && (matched == 0 || matched == 2)) || (b == '\n' && (matched == 1 || matched == 3)) ? matched + 1 : b == '\r' ? 1 : 0;
+                if(matched == 4){
+                    out.write(response);
+                    out.flush();
+                    matched = 0;
+                }
+            }
+        } catch (IOException ignored){
+            // Client's gone.
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.example.benchmarks;
+
+import org.example.utils.JSONReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// The CensorPlugin's two request bodies, parsed the way they used to be against JSONReader. Word lists were pulled out
+// with a pair of regexes over the body decoded to a String; image uploads went through a byte-at-a-time parser over a
+// BufferedInputStream. Both old versions are copied here as they were, since they're gone from the plugin. Run with
+// -prof gc to see the difference in allocation too.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JSONParserBenchmark {
+    @Param({"1000"})
+    public int words;
+
+    @Param({"4194304"})
+    public int imageBytes;
+
+    private byte[] wordBody;
+    private byte[] imageBody;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(598);
+        StringBuilder json = new StringBuilder("{\"words\": [");
+        for(int i = 0; i < words; i++){
+            json.append(i == 0 ? "" : ", ").append('"');
+            int length = 4 + random.nextInt(8);
+            for(int c = 0; c < length; c++){
+                json.append((char) ('a' + random.nextInt(26)));
+            }
+            json.append('"');
+        }
+        wordBody = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] image = new byte[imageBytes];
+        random.nextBytes(image);
+        imageBody = ("{\"nickname\": \"fluro\", \"content\": \"" + Base64.getEncoder().encodeToString(image) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int wordsRegex(){
+        // As the request's body would have been decoded by Request.getContent().
+        String content = new String(wordBody, StandardCharsets.UTF_8);
+        Pattern listEx = Pattern.compile("(?<=\\[).*?(?=])");
+        Matcher listM = listEx.matcher(content);
+        if(!listM.find()){
+            return -1;
+        }
+        Pattern wordEx = Pattern.compile("(?<=\")[^,]*?(?=\")");
+        Matcher matched = wordEx.matcher(listM.group());
+        List<String> found = new ArrayList<>();
+        while(matched.find()){
+            found.add(matched.group());
+        }
+        return found.size();
+    }
+
+    @Benchmark
+    public int wordsReader() throws IOException {
+        // What CensorPlugin.readStrings does for {"words": [...]}.
+        JSONReader json = new JSONReader(new ByteArrayInputStream(wordBody));
+        List<String> found = new ArrayList<>();
+        json.expect(JSONReader.Token.BEGIN_OBJECT);
+        while(json.next() == JSONReader.Token.NAME){
+            if(json.next() != JSONReader.Token.BEGIN_ARRAY){
+                return -1;
+            }
+            while(json.next() == JSONReader.Token.STRING){
+                found.add(json.string());
+            }
+        }
+        json.expect(JSONReader.Token.END);
+        return found.size();
+    }
+
+    @Benchmark
+    public int imageLegacy() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(imageBody));
+        byte[] img = null;
+        if(nextToken(in) != '{'){
+            return -1;
+        }
+        int next;
+        do {
+            if(nextToken(in) != '"'){
+                return -1;
+            }
+            String key = readString(in);
+            if(key == null || nextToken(in) != ':' || nextToken(in) != '"'){
+                return -1;
+            }
+            if(key.equals("content")){
+                img = Base64.getDecoder().wrap(new StringContentStream(in)).readAllBytes();
+            } else {
+                readString(in);
+            }
+            next = nextToken(in);
+        } while(next == ',');
+        return img == null ? -1 : img.length;
+    }
+
+    @Benchmark
+    public int imageReader() throws IOException {
+        JSONReader json = new JSONReader(new ByteArrayInputStream(imageBody));
+        byte[] img = null;
+        json.expect(JSONReader.Token.BEGIN_OBJECT);
+        while(json.next() == JSONReader.Token.NAME){
+            boolean content = json.textEquals("content");
+            json.expect(JSONReader.Token.STRING);
+            if(content){
+                img = Base64.getDecoder().wrap(json.stringStream()).readAllBytes();
+            } else {
+                json.string();
+            }
+        }
+        json.expect(JSONReader.Token.END);
+        return img == null ? -1 : img.length;
+    }
+
+    // The old image parser's helpers, from CensorPlugin.
+    private static int nextToken(InputStream in) throws IOException {
+        int c;
+        do {
+            c = in.read();
+        } while(c == ' ' || c == '\t' || c == '\r' || c == '\n');
+        return c;
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        StringBuilder out = new StringBuilder();
+        StringContentStream content = new StringContentStream(in);
+        int c;
+        while((c = content.read()) != -1){
+            out.append((char) c);
+        }
+        return out.toString();
+    }
+
+    private static class StringContentStream extends InputStream {
+        private final InputStream in;
+        private boolean terminated;
+
+        private StringContentStream(InputStream in){
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(terminated){
+                return -1;
+            }
+            int c = in.read();
+            if(c == '"'){
+                terminated = true;
+                return -1;
+            }
+            if(c == '\\'){
+                c = in.read();
+                return switch(c){
+                    case 'n' -> '\n';
+                    case 't' -> '\t';
+                    case 'r' -> '\r';
+                    case 'b' -> '\b';
+                    case 'f' -> '\f';
+                    default -> c;
+                };
+            }
+            return c;
+        }
+    }
+}
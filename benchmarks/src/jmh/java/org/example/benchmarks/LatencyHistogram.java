@@ -0,0 +1,78 @@
+package org.example.benchmarks;
+
+// Counts latencies, in nanoseconds, into buckets that are exact below 128ns and otherwise never more than 1/64th
+// (about 1.6%) wide relative to what's in them, like HdrHistogram does. That's a few thousand longs however many
+// samples go in, rather than keeping every sample to sort at the end. Not thread-safe: each load generator thread
+// keeps its own, and they're added together once they've finished.
+final class LatencyHistogram {
+    // Buckets below this are one nanosecond wide. Above it, each power of two is split into HALF buckets.
+    private static final int EXACT = 128;
+    private static final int HALF = EXACT / 2;
+    private static final int BUCKETS = EXACT + 57 * HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+
+    void record(long nanos){
+        if(nanos < 0){
+            nanos = 0;
+        }
+        counts[index(nanos)]++;
+        total++;
+        if(nanos > max){
+            max = nanos;
+        }
+    }
+
+    void add(LatencyHistogram other){
+        for(int i = 0; i < BUCKETS; i++){
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    long getCount(){
+        return total;
+    }
+
+    long getMax(){
+        return max;
+    }
+
+    // The latency that the given fraction (e.g. 0.999) of samples were at or under, as the top of its bucket so it's
+    // never an underestimate.
+    long percentile(double fraction){
+        if(total == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += counts[i];
+            if(seen >= rank){
+                return Math.min(max, highestIn(i));
+            }
+        }
+        return max;
+    }
+
+    private static int index(long nanos){
+        if(nanos < EXACT){
+            return (int) nanos;
+        }
+        // Shifted so the top seven bits are left, which is somewhere in [64, 128).
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - 6;
+        return EXACT + (shift - 1) * HALF + (int) ((nanos >>> shift) - HALF);
+    }
+
+    private static long highestIn(int index){
+        if(index < EXACT){
+            return index;
+        }
+        int shift = (index - EXACT) / HALF + 1;
+        long top = (index - EXACT) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,433 @@
+package org.example.benchmarks;
+
+import org.example.plugins.PluginManager;
+import org.example.utils.JSONWriter;
+import org.example.webserver.ServerConfig;
+import org.example.webserver.WebServer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** <h1>Load Generator</h1>
+ * Drives a WebServer over loopback from a number of keep-alive connections at once, and reports its throughput and
+ * latency percentiles. Where the JMH benchmarks time one piece of the request path at a time, this is all of it under
+ * contention: parsing, admission, routing, handlers, the engine's threads and the kernel. The WebServer is started
+ * in-process with a {@link StubJDA} and whatever plugins are in ./plugins (usually none), so it needs neither Discord
+ * nor the network. Run it with:
+ * <pre>
+ *     ./gradlew :benchmarks:loadTest -Pload.args="--engine=NIO --connections=64 --duration=30"
+ * </pre>
+ * Options, all <code>--name=value</code>:
+ * <ul>
+ *     <li><code>engine</code> NIO or THREADED, default NIO.</li>
+ *     <li><code>connections</code> How many connections to keep busy, one thread each. Default 64.</li>
+ *     <li><code>duration</code>, <code>warmup</code> Seconds to measure for, after warming up for. Default 30 and 5.</li>
+ *     <li><code>rate</code> Total requests per second to aim for. Without it (or at 0), each connection sends its next
+ *     request as soon as it has the last one's response. With it, requests are sent on a schedule, and latency is
+ *     measured from when each should have been sent, so a server that stalls is charged for the requests that queued up
+ *     behind the stall rather than just the one that hit it.</li>
+ *     <li><code>paths</code> Comma separated, sent in turn. <code>{guild}</code> and <code>{user}</code> are replaced with a
+ *     random stub's snowflake each time. Default <code>/core/vers,/guilds/{guild},/users/{user}</code>.</li>
+ *     <li><code>guilds</code>, <code>users</code> How many of each the stub JDA has. Default 1000 and 10000.</li>
+ *     <li><code>unix</code> true to connect over a Unix domain socket rather than TCP.</li>
+ *     <li><code>target</code> host:port of a server that's already running, to load that instead of starting one.</li>
+ *     <li><code>json</code> true to print the results as one line of JSON, for scripts.</li>
+ *     <li><code>maxP99</code>, <code>maxP999</code> (microseconds) and <code>minThroughput</code> (requests per second)
+ *     Exits with 1 if the run is worse than any of them, so it can gate a build.</li>
+ * </ul>
+ * The in-process server reads the usual <code>-Dquantec.webserver.*</code> properties, except that admission control
+ * is off unless asked for, since its rate limits would otherwise be all that's measured.
+ */
+public final class LoadGenerator {
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] CRLF_CRLF = {'\r', '\n', '\r', '\n'};
+
+    private final Map<String, String> options;
+    private final String[] paths;
+    private final int guilds;
+    private final int users;
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    private LoadGenerator(Map<String, String> options){
+        this.options = options;
+        this.paths = option("paths", "/core/vers,/guilds/{guild},/users/{user}").split(",");
+        this.guilds = Integer.parseInt(option("guilds", "1000"));
+        this.users = Integer.parseInt(option("users", "10000"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args){
+            if(arg.isBlank()){
+                continue;
+            }
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                System.err.println("Expected --name=value, got "+arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new LoadGenerator(options).run() ? 0 : 1);
+    }
+
+    private String option(String name, String fallback){
+        return options.getOrDefault(name, fallback);
+    }
+
+    private boolean run() throws Exception {
+        String engine = option("engine", "NIO").toUpperCase(Locale.ROOT);
+        int connections = Integer.parseInt(option("connections", "64"));
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+        double rate = Double.parseDouble(option("rate", "0"));
+        boolean unix = Boolean.parseBoolean(option("unix", "false"));
+
+        Path directory = null;
+        SocketAddress address;
+        StandardProtocolFamily family;
+        if(options.containsKey("target")){
+            String target = options.get("target");
+            int colon = target.lastIndexOf(':');
+            address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+            family = StandardProtocolFamily.INET;
+        } else {
+            int port;
+            try(ServerSocket free = new ServerSocket(0)){
+                port = free.getLocalPort();
+            }
+            System.setProperty("quantec.webserver.engine", engine);
+            System.getProperties().putIfAbsent("quantec.webserver.admissionControl", "false");
+            System.getProperties().putIfAbsent("quantec.webserver.maxConnections", Integer.toString(Math.max(10000, connections * 2)));
+            if(unix){
+                directory = Files.createTempDirectory("quantec-load");
+                System.setProperty("quantec.webserver.unixSocket", directory.resolve("api.sock").toString());
+            }
+            new WebServer(StubJDA.create(guilds, users), port, ServerConfig.fromSystemProperties(), PluginManager.getInstance());
+            if(unix){
+                address = UnixDomainSocketAddress.of(directory.resolve("api.sock"));
+                family = StandardProtocolFamily.UNIX;
+            } else {
+                address = new InetSocketAddress("127.0.0.1", port);
+                family = StandardProtocolFamily.INET;
+            }
+        }
+
+        // Everyone starts together, once every connection's open.
+        List<Worker> workers = new ArrayList<>(connections);
+        CountDownLatch ready = new CountDownLatch(connections);
+        long[] start = new long[1];
+        CountDownLatch go = new CountDownLatch(1);
+        // Each connection gets an equal share of the rate, offset so they don't all send at once.
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate) : 0;
+        for(int i = 0; i < connections; i++){
+            Worker worker = new Worker(i, family, address, interval, interval * i / connections, ready, go, start, warmupNanos, durationNanos);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        start[0] = System.nanoTime();
+        go.countDown();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        for(Worker worker : workers){
+            worker.join();
+            latencies.add(worker.histogram);
+        }
+        if(directory != null){
+            Files.deleteIfExists(directory.resolve("api.sock"));
+            Files.deleteIfExists(directory);
+        }
+
+        double seconds = durationNanos / 1e9;
+        double throughput = latencies.getCount() / seconds;
+        long p50 = latencies.percentile(0.50) / NANOS_PER_MICRO;
+        long p90 = latencies.percentile(0.90) / NANOS_PER_MICRO;
+        long p99 = latencies.percentile(0.99) / NANOS_PER_MICRO;
+        long p999 = latencies.percentile(0.999) / NANOS_PER_MICRO;
+        long max = latencies.getMax() / NANOS_PER_MICRO;
+        String mode = rate > 0 ? String.format("%.0f req/s scheduled", rate) : "closed loop";
+
+        if(Boolean.parseBoolean(option("json", "false"))){
+            JSONWriter json = new JSONWriter().beginObject()
+                    .name("engine").value(options.containsKey("target") ? "external" : engine)
+                    .name("transport").value(unix ? "unix" : "tcp")
+                    .name("connections").value(connections)
+                    .name("mode").value(mode)
+                    .name("seconds").value(seconds)
+                    .name("requests").value(latencies.getCount())
+                    .name("errors").value(errors.get())
+                    .name("throughput").value(throughput)
+                    .name("responseBytes").value(responseBytes.get())
+                    .name("latencyMicros").beginObject()
+                            .name("p50").value(p50)
+                            .name("p90").value(p90)
+                            .name("p99").value(p99)
+                            .name("p999").value(p999)
+                            .name("max").value(max)
+                            .endObject()
+                    .endObject();
+            System.out.println(json);
+        } else {
+            System.out.printf("%s engine over %s, %d connections, %s, %.0fs after %ds warmup%n",
+                    options.containsKey("target") ? options.get("target") : engine, unix ? "unix" : "tcp", connections, mode, seconds, TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+            System.out.printf("requests %d (%.0f/s), errors %d, %.1f MiB received%n",
+                    latencies.getCount(), throughput, errors.get(), responseBytes.get() / (1024.0 * 1024.0));
+            System.out.printf("latency (us)  p50 %d  p90 %d  p99 %d  p999 %d  max %d%n", p50, p90, p99, p999, max);
+        }
+
+        boolean passed = errors.get() == 0;
+        passed &= check("p99", p99, options.get("maxP99"), true);
+        passed &= check("p999", p999, options.get("maxP999"), true);
+        passed &= check("throughput", (long) throughput, options.get("minThroughput"), false);
+        return passed;
+    }
+
+    private static boolean check(String name, long actual, String limit, boolean isMax){
+        if(limit == null){
+            return true;
+        }
+        long bound = Long.parseLong(limit);
+        if(isMax ? actual > bound : actual < bound){
+            System.err.println("FAILED: "+name+" was "+actual+", expected "+(isMax ? "at most " : "at least ")+bound+".");
+            return false;
+        }
+        return true;
+    }
+
+    // One connection, sending a request at a time and reading its response before the next.
+    private final class Worker extends Thread {
+        private final int id;
+        private final StandardProtocolFamily family;
+        private final SocketAddress address;
+        private final long interval;
+        private final long offset;
+        private final CountDownLatch ready;
+        private final CountDownLatch go;
+        private final long[] start;
+        private final long warmupNanos;
+        private final long durationNanos;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final SplittableRandom random;
+        // Holds what's been read and not yet parsed, in write mode.
+        private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        private SocketChannel channel;
+
+        private Worker(int id, StandardProtocolFamily family, SocketAddress address, long interval, long offset, CountDownLatch ready, CountDownLatch go, long[] start, long warmupNanos, long durationNanos){
+            super("LoadGenerator-"+id);
+            setDaemon(true);
+            this.id = id;
+            this.family = family;
+            this.address = address;
+            this.interval = interval;
+            this.offset = offset;
+            this.ready = ready;
+            this.go = go;
+            this.start = start;
+            this.warmupNanos = warmupNanos;
+            this.durationNanos = durationNanos;
+            this.random = new SplittableRandom(598 + id);
+        }
+
+        @Override
+        public void run(){
+            try {
+                connect();
+            } catch (IOException e){
+                System.err.println(getName()+" couldn't connect: "+e);
+                errors.incrementAndGet();
+                ready.countDown();
+                return;
+            }
+            ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e){
+                return;
+            }
+
+            long measureFrom = start[0] + warmupNanos;
+            long end = measureFrom + durationNanos;
+            long next = start[0] + offset;
+            int request = id;
+            while(true){
+                long sent;
+                if(interval > 0){
+                    while(System.nanoTime() < next){
+                        LockSupport.parkNanos(next - System.nanoTime());
+                    }
+                    sent = next;
+                    next += interval;
+                } else {
+                    sent = System.nanoTime();
+                }
+                if(sent >= end){
+                    break;
+                }
+
+                boolean ok;
+                try {
+                    ok = exchange(paths[request++ % paths.length]);
+                } catch (IOException e){
+                    ok = false;
+                    try {
+                        channel.close();
+                        connect();
+                    } catch (IOException ex){
+                        System.err.println(getName()+" couldn't reconnect: "+ex);
+                        errors.incrementAndGet();
+                        return;
+                    }
+                }
+                if(sent >= measureFrom){
+                    if(ok){
+                        histogram.record(System.nanoTime() - sent);
+                    } else {
+                        errors.incrementAndGet();
+                    }
+                }
+            }
+            try {
+                channel.close();
+            } catch (IOException e){
+                // Ignored
+            }
+        }
+
+        // The server binds on its own thread, so this keeps trying until it's there.
+        private void connect() throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(true){
+                SocketChannel channel = SocketChannel.open(family);
+                try {
+                    channel.connect(address);
+                    this.channel = channel;
+                    in.clear();
+                    return;
+                } catch (IOException e){
+                    channel.close();
+                    if(System.nanoTime() > deadline){
+                        throw e;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                }
+            }
+        }
+
+        // Sends a request and reads its whole response. Anything but a 2xx or 304 counts as an error.
+        private boolean exchange(String path) throws IOException {
+            if(path.contains("{guild}")){
+                path = path.replace("{guild}", Long.toString(StubJDA.FIRST_GUILD + random.nextInt(Math.max(1, guilds))));
+            }
+            if(path.contains("{user}")){
+                path = path.replace("{user}", Long.toString(StubJDA.FIRST_USER + random.nextInt(Math.max(1, users))));
+            }
+            ByteBuffer request = ByteBuffer.wrap(("GET "+path+" HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            while(request.hasRemaining()){
+                channel.write(request);
+            }
+
+            int headEnd;
+            while((headEnd = indexOf(CRLF_CRLF, 0)) < 0){
+                fill();
+            }
+            String head = new String(in.array(), 0, headEnd, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+            int status = Integer.parseInt(head.substring(9, 12));
+            long contentLength = 0;
+            int at = head.indexOf("\r\ncontent-length:");
+            if(at >= 0){
+                contentLength = Long.parseLong(head.substring(at + 17, head.indexOf('\r', at + 2)).trim());
+            }
+            boolean chunked = head.contains("\r\ntransfer-encoding: chunked");
+            consume(headEnd + 4);
+
+            long received = headEnd + 4;
+            if(chunked){
+                while(true){
+                    int lineEnd;
+                    while((lineEnd = indexOf(CRLF, 0)) < 0){
+                        fill();
+                    }
+                    int size = Integer.parseInt(new String(in.array(), 0, lineEnd, StandardCharsets.US_ASCII).trim(), 16);
+                    consume(lineEnd + 2);
+                    skip(size + 2);
+                    received += lineEnd + 4 + size;
+                    if(size == 0){
+                        break;
+                    }
+                }
+            } else {
+                skip(contentLength);
+                received += contentLength;
+            }
+            responseBytes.addAndGet(received);
+            if(head.contains("\r\nconnection: close")){
+                channel.close();
+                connect();
+            }
+            return (status >= 200 && status < 300) || status == 304;
+        }
+
+        private void fill() throws IOException {
+            if(!in.hasRemaining()){
+                throw new IOException("Response line or head too long.");
+            }
+            if(channel.read(in) == -1){
+                throw new EOFException("Connection closed mid-response.");
+            }
+        }
+
+        private void skip(long bytes) throws IOException {
+            while(bytes > 0){
+                if(in.position() == 0){
+                    fill();
+                }
+                int take = (int) Math.min(bytes, in.position());
+                consume(take);
+                bytes -= take;
+            }
+        }
+
+        // Drops the first bytes of what's been read.
+        private void consume(int bytes){
+            in.flip();
+            in.position(bytes);
+            in.compact();
+        }
+
+        private int indexOf(byte[] pattern, int from){
+            byte[] array = in.array();
+            for(int i = from; i + pattern.length <= in.position(); i++){
+                int j = 0;
+                while(j < pattern.length && array[i + j] == pattern[j]){
+                    j++;
+                }
+                if(j == pattern.length){
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
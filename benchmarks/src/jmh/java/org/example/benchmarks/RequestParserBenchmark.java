@@ -0,0 +1,66 @@
+package org.example.benchmarks;
+
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.Request;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Compares the original line-based Request.readRequest against HTTPRequestParser. "json" is the size of a typical
+// CensorPlugin /words PUT, "image" is an /images PUT carrying a ~256KiB base64 encoded image.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestParserBenchmark {
+    @Param({"json", "image"})
+    public String body;
+
+    private byte[] raw;
+
+    @Setup
+    public void setup(){
+        String content;
+        if(body.equals("json")){
+            content = "{\"word\":\"example\",\"guild\":\"1061513287395496037\"}";
+        } else {
+            byte[] image = new byte[192 * 1024];
+            new Random(598).nextBytes(image);
+            content = "{\"image\":\""+Base64.getEncoder().encodeToString(image)+"\",\"guild\":\"1061513287395496037\"}";
+        }
+
+        raw = ("PUT /censor/images HTTP/1.1\r\n" +
+                "Host: localhost:8444\r\n" +
+                "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/110.0\r\n" +
+                "Accept: application/json\r\n" +
+                "Accept-Language: en-GB,en;q=0.5\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: "+content.getBytes(StandardCharsets.UTF_8).length+"\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n" + content).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Request legacy() throws IOException {
+        return Request.readRequest(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(raw))));
+    }
+
+    @Benchmark
+    public Request parser() throws IOException {
+        return new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(raw)));
+    }
+
+    @Benchmark
+    public String parserWithContent() throws IOException {
+        // Includes decoding the body, which the legacy parser always does.
+        return new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(raw))).getContent();
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.benchmarks;
+
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.JSONStream;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.Response;
+import org.example.webserver.utils.ResponseWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+// Building the everyday responses, a JSON body and an error, with the string-based Response against ResponseWriter.
+// "records" is how many snowflakes the JSON has in it: 1 is about a /users/{id}, 1000 a /guilds for a big bot, which
+// ResponseWriter can also stream (streamed()). Legacy responses are written to a stream that throws them away, the
+// way the threaded engine used to write them; ResponseWriter's buffers are handed back like the WebServer would once
+// they're written. Compression is left off, see AnalyticsResponseBenchmark for bigger bodies.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseBenchmark {
+    @Param({"1", "1000"})
+    public int records;
+
+    private Request req;
+    private ResponseWriter writer;
+    private final OutputStream sink = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream("GET /guilds HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8))));
+        writer = new ResponseWriter(BufferPool.shared(), null);
+    }
+
+    @Benchmark
+    public int legacyJSON(){
+        StringBuilder json = new StringBuilder("{\"guilds\":[");
+        for(long i = 0; i < records; i++){
+            json.append('"').append(StubJDA.FIRST_GUILD + i).append("\",");
+        }
+        json.setCharAt(json.length() - 1, ']');
+        json.append('}');
+        String response = Response.okJSON(json.toString());
+        Response.writeResponse(response, sink);
+        return response.length();
+    }
+
+    @Benchmark
+    public int writerJSON(){
+        writer.begin(req);
+        JSONWriter json = writer.status(200).json().beginObject().name("guilds").beginArray();
+        for(long i = 0; i < records; i++){
+            json.quoted(StubJDA.FIRST_GUILD + i);
+        }
+        json.endArray().endObject();
+        writer.send();
+        return release();
+    }
+
+    @Benchmark
+    public int streamed() throws IOException {
+        // Everything up to the bytes going out, chunk framing included.
+        writer.begin(req);
+        writer.streamJSON(JSONStream.ofArray("guilds", LongStream.range(StubJDA.FIRST_GUILD, StubJDA.FIRST_GUILD + records).iterator(), JSONWriter::quoted));
+        writer.writeTo(sink);
+        return records;
+    }
+
+    @Benchmark
+    public int legacyError(){
+        String response = Response.badRequest("Invalid snowflake.");
+        Response.writeResponse(response, sink);
+        return response.length();
+    }
+
+    @Benchmark
+    public int writerError(){
+        writer.begin(req);
+        writer.badRequest("Invalid snowflake.");
+        return release();
+    }
+
+    private int release(){
+        ByteBuffer[] buffers = writer.finish();
+        int length = 0;
+        for(ByteBuffer buffer : buffers){
+            length += buffer.remaining();
+        }
+        BufferPool.shared().release(buffers);
+        return length;
+    }
+}
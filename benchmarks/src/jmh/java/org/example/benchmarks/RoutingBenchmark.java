@@ -0,0 +1,94 @@
+package org.example.benchmarks;
+
+import org.example.plugins.PluginManager;
+import org.example.webserver.Router;
+import org.example.webserver.ServerConfig;
+import org.example.webserver.WebServer;
+import org.example.webserver.utils.AdmissionLimits;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.RequestLimits;
+import org.example.webserver.utils.ResponseWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The router the WebServer actually builds (core routes, plus those of any plugins in ./plugins), on a stub JDA. match()
+// is just finding the route, for a fixed path, one with a parameter, and one that isn't there. route() is the whole of
+// dispatching a request once it's been parsed: matching it, running the handler and finishing the response, which for
+// /guilds/{id} is an entity cache hit after the first time round.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoutingBenchmark {
+    private Router router;
+    private Request version;
+    private Request guild;
+    private String guildPath;
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private final ResponseWriter writer = new ResponseWriter(BufferPool.shared(), null);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int port;
+        try(ServerSocket free = new ServerSocket(0)){
+            port = free.getLocalPort();
+        }
+        WebServer webServer = new WebServer(StubJDA.create(100, 100), port, new ServerConfig(ServerConfig.Engine.NIO, 1, 1, 100, 300_000, RequestLimits.DEFAULT, 0, 6, 16, AdmissionLimits.UNLIMITED), PluginManager.getInstance());
+        router = webServer.getRouter();
+        guildPath = "/guilds/"+(StubJDA.FIRST_GUILD + 42);
+        version = parse("/core/vers");
+        guild = parse(guildPath);
+    }
+
+    private static Request parse(String path) throws IOException {
+        return new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(("GET "+path+" HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Benchmark
+    public Router.Match matchStatic(){
+        return router.match("GET", "/core/vers");
+    }
+
+    @Benchmark
+    public Router.Match matchParameter(){
+        return router.match("GET", guildPath);
+    }
+
+    @Benchmark
+    public Router.Match matchUnknown(){
+        return router.match("GET", "/censor/nothing/here");
+    }
+
+    @Benchmark
+    public int routeVersion(Writer state) throws IOException {
+        return route(state.writer, version);
+    }
+
+    @Benchmark
+    public int routeGuild(Writer state) throws IOException {
+        return route(state.writer, guild);
+    }
+
+    private int route(ResponseWriter writer, Request req) throws IOException {
+        writer.begin(req);
+        router.route(req, writer);
+        ByteBuffer[] buffers = writer.finish();
+        int length = 0;
+        for(ByteBuffer buffer : buffers){
+            length += buffer.remaining();
+        }
+        BufferPool.shared().release(buffers);
+        return length;
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.benchmarks;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A JDA with a fixed set of guilds and users and nothing else, for driving the WebServer without logging in to Discord.
+// Only what the core endpoints read is answered: IDs, names, icons and avatars, and lookups by ID. Everything else
+// gives null (or zero/false), so anything that needs more than that (e.g. members, emojis) finds nothing.
+final class StubJDA {
+    /** The first stub guild's snowflake. The rest follow on from it. */
+    static final long FIRST_GUILD = 1_061_513_287_395_496_037L;
+    /** Likewise for users. */
+    static final long FIRST_USER = 226_422_109_537_599_488L;
+
+    private StubJDA(){
+    }
+
+    static JDA create(int guildCount, int userCount){
+        List<Guild> guilds = new ArrayList<>(guildCount);
+        Map<Long, Guild> guildsById = new HashMap<>();
+        for(int i = 0; i < guildCount; i++){
+            long id = FIRST_GUILD + i;
+            Guild guild = stub(Guild.class, Map.of(
+                    "getIdLong", id,
+                    "getId", Long.toString(id),
+                    "getName", "Guild "+i,
+                    "getIconUrl", "https://cdn.discordapp.com/icons/"+id+"/a_0123456789abcdef.png"
+            ));
+            guilds.add(guild);
+            guildsById.put(id, guild);
+        }
+        Map<Long, User> usersById = new HashMap<>();
+        for(int i = 0; i < userCount; i++){
+            long id = FIRST_USER + i;
+            usersById.put(id, stub(User.class, Map.of(
+                    "getIdLong", id,
+                    "getId", Long.toString(id),
+                    "getName", "user"+i,
+                    "getAsTag", "user"+i+"#0001",
+                    "getAvatarUrl", "https://cdn.discordapp.com/avatars/"+id+"/0123456789abcdef.png"
+            )));
+        }
+        List<Guild> guildList = List.copyOf(guilds);
+
+        return (JDA) Proxy.newProxyInstance(JDA.class.getClassLoader(), new Class<?>[]{JDA.class}, (proxy, method, args) -> switch (method.getName()) {
+            case "getGuilds" -> guildList;
+            case "getGuildById" -> guildsById.get(snowflake(args[0]));
+            case "getUserById" -> usersById.get(snowflake(args[0]));
+            default -> fallback(proxy, method.getName(), method.getReturnType(), args);
+        });
+    }
+
+    // A proxy answering the named getters with the given values.
+    private static <T> T stub(Class<T> type, Map<String, Object> values){
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object value = values.get(method.getName());
+            return value != null ? value : fallback(proxy, method.getName(), method.getReturnType(), args);
+        }));
+    }
+
+    private static Object fallback(Object proxy, String name, Class<?> returnType, Object[] args){
+        switch (name) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "Stub@"+Integer.toHexString(System.identityHashCode(proxy));
+        }
+        if(returnType == boolean.class){
+            return false;
+        }
+        if(returnType.isPrimitive() && returnType != void.class){
+            // Zero of whatever type, since a boxed Integer won't do for a long.
+            return returnType == long.class ? 0L : returnType == int.class ? 0 : returnType == double.class ? 0.0 : (Object) 0;
+        }
+        return null;
+    }
+
+    private static long snowflake(Object id){
+        if(id instanceof Long value){
+            return value;
+        }
+        try {
+            return Long.parseLong(id.toString());
+        } catch (NumberFormatException e){
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example.benchmarks;
+
+import org.example.plugins.PluginManager;
+import org.example.webserver.ServerConfig;
+import org.example.webserver.WebServer;
+import org.example.webserver.utils.AdmissionLimits;
+import org.example.webserver.utils.RequestLimits;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// One request at a time over a keep-alive connection to a real WebServer, listening on both loopback TCP and a Unix
+// domain socket, i.e. what the proxy in front of QuanTec sees. /core/vers is about the smallest thing there is to
+// answer, so what's left is mostly the trip through the kernel and the engine's wakeups. Sampled so the percentiles
+// come out too, not just the mean. Each engine gets a fork of its own, since there's no stopping a WebServer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransportLatencyBenchmark {
+    private static final byte[] REQUEST = "GET /core/vers HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"NIO", "THREADED"})
+    public String engine;
+
+    private Path directory;
+    private SocketChannel tcp;
+    private SocketChannel unix;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(8192);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int port;
+        try(ServerSocket free = new ServerSocket(0)){
+            port = free.getLocalPort();
+        }
+        directory = Files.createTempDirectory("quantec-bench");
+        Path socket = directory.resolve("api.sock");
+        new WebServer(null, port, new ServerConfig(ServerConfig.Engine.valueOf(engine), 2, 2, 100, 300_000, RequestLimits.DEFAULT, 0, 6, 16, AdmissionLimits.UNLIMITED, true, socket), PluginManager.getInstance());
+
+        tcp = connect(StandardProtocolFamily.INET, new InetSocketAddress("127.0.0.1", port));
+        unix = connect(StandardProtocolFamily.UNIX, UnixDomainSocketAddress.of(socket));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tcp.close();
+        unix.close();
+        // The server's still bound to it, but its name can go.
+        Files.deleteIfExists(directory.resolve("api.sock"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public int tcp() throws IOException {
+        return exchange(tcp);
+    }
+
+    @Benchmark
+    public int unix() throws IOException {
+        return exchange(unix);
+    }
+
+    // The server binds on its own thread, so this keeps trying until it's there.
+    private static SocketChannel connect(StandardProtocolFamily family, SocketAddress address) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while(true){
+            SocketChannel channel = SocketChannel.open(family);
+            try {
+                channel.connect(address);
+                return channel;
+            } catch (IOException e){
+                channel.close();
+                if(System.nanoTime() > deadline){
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // Sends the request and reads the response back by its Content-Length, leaving the connection open for the next.
+    private int exchange(SocketChannel channel) throws IOException {
+        channel.write(ByteBuffer.wrap(REQUEST));
+        in.clear();
+        int headEnd = -1;
+        int total = -1;
+        while(total < 0 || in.position() < total){
+            if(channel.read(in) == -1){
+                throw new EOFException("Connection closed mid-response.");
+            }
+            if(headEnd < 0){
+                headEnd = indexOfBlankLine(in);
+                if(headEnd >= 0){
+                    total = headEnd + contentLength(in, headEnd);
+                }
+            }
+        }
+        return total;
+    }
+
+    private static int indexOfBlankLine(ByteBuffer buffer){
+        for(int i = 3; i < buffer.position(); i++){
+            if(buffer.get(i) == '\n' && buffer.get(i - 1) == '\r' && buffer.get(i - 2) == '\n' && buffer.get(i - 3) == '\r'){
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int contentLength(ByteBuffer buffer, int headEnd){
+        byte[] head = new byte[headEnd];
+        buffer.get(0, head);
+        String text = new String(head, StandardCharsets.US_ASCII);
+        int at = text.toLowerCase().indexOf("content-length:");
+        if(at < 0){
+            return 0;
+        }
+        return Integer.parseInt(text.substring(at + 15, text.indexOf('\r', at)).trim());
+    }
+}
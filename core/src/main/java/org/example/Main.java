@@ -5,11 +5,14 @@ import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import org.example.listeners.CommandListener;
+import org.example.listeners.EntityCacheListener;
+import org.example.listeners.GuildListener;
+import org.example.listeners.ManagerListener;
 import org.example.plugins.MessageBus;
 import org.example.plugins.MessageBusEvent;
 import org.example.plugins.PluginManager;
 import org.example.plugins.QuanTecPlugin;
-import org.example.utils.Halter;
+import org.example.webserver.ServerConfig;
 import org.example.webserver.WebServer;
 
 import java.util.*;
@@ -86,17 +89,23 @@ public class Main {
                 .build();
 
         LOGGER.info("JDA started. Setting up WebServer and command listener...");
-        Halter halter = new Halter(false);
 
         // Command listener. Listens for commands for both QuanTec and its plugins.
-        CommandListener commandListener = new CommandListener(botVers, halter);
+        CommandListener commandListener = new CommandListener(botVers, pluginManager.getQuiescence());
         jda.addEventListener(commandListener);
 
         // Start web server.
-        WebServer webServer = new WebServer(jda, 8444, pluginManager, halter);
+        WebServer webServer = new WebServer(jda, 8444, ServerConfig.fromSystemProperties(), pluginManager);
+        jda.addEventListener(new GuildListener(webServer.getEpochs()));
+        jda.addEventListener(new ManagerListener(webServer.getManagers()));
+        jda.addEventListener(new EntityCacheListener(webServer.getEntities()));
+        // The listener builds the index once JDA's ready, which it may already be by now. If it isn't, this finds next
+        // to nothing and the listener builds it again once it is.
+        webServer.getManagers().rebuild(jda.getGuilds());
 
         LOGGER.info("Command listener set up and WebServer is starting. Initializing plugins...");
-        MessageBus messageBus = new MessageBus();
+        MessageBus messageBus = new MessageBus(pluginManager.getQuiescence());
+        messageBus.addObserver(webServer.getEvents()::publish);
 
         pluginManager.initializePlugins(jda, messageBus, commandListener, webServer);
 
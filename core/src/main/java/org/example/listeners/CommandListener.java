@@ -5,42 +5,47 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.example.command.Command;
 import org.example.command.commands.*;
-import org.example.utils.Halter;
+import org.example.utils.Quiescence;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 // TODO slash commands instead of old-fashioned prefixed ones.
-// TODO map instead of list for storing commands.
 public class CommandListener extends ListenerAdapter {
-    private final List<Command> commandList;
+    // Core commands, which plugins can't replace.
+    private final Map<String, Command> coreCommands;
+    // Every command by name, core ones first. Replaced wholesale when plugins are (re)loaded, never modified, so
+    // commands can be looked up without locking while a reload's going on.
+    private volatile Map<String, Command> commands;
     private final String vers;
-    private final Halter halter;
+    private final Quiescence quiescence;
 
-    public CommandListener(String vers, Halter halter){
-        // Make command list.
-        this.commandList = new ArrayList<>();
+    public CommandListener(String vers, Quiescence quiescence){
         this.vers = vers;
-        this.halter = halter;
+        this.quiescence = quiescence;
 
-        commandList.add(new vers());
+        Map<String, Command> core = new LinkedHashMap<>();
+        Command version = new vers();
+        core.put(version.getName(), version);
+        this.coreCommands = Collections.unmodifiableMap(core);
+        this.commands = coreCommands;
     }
 
-    public void addCommand(Command command){
-        // TODO a better way of duplicate checking that isn't O(n^2) when adding these initially. Use a hashmap.
-        // Check that a command with the same name doesn't already exist.
-        commandList.forEach(cmd -> {
-            if(cmd.getName().equals(command.getName())){
-                throw new IllegalArgumentException("Conflicting command name: command \""+command.getName()+"\" already exists.");
+    /** <h2>setPluginCommands</h2>
+     * Swaps in a new set of plugin commands in one go. Commands already being run carry on with whichever set they started
+     * with.
+     * @param pluginCommands The plugin commands, which must have unique names.
+     * @return Any commands that weren't added because they share a name with a core command.
+     */
+    public List<Command> setPluginCommands(Collection<Command> pluginCommands){
+        Map<String, Command> next = new LinkedHashMap<>(coreCommands);
+        List<Command> rejected = new ArrayList<>();
+        for(Command command : pluginCommands){
+            if(next.putIfAbsent(command.getName(), command) != null){
+                rejected.add(command);
             }
-        });
-
-        commandList.add(command);
-    }
-
-    public void removeCommand(Command command){
-        // This one requires no duplicate checking, just forwarding the parameter to Collections.remove().
-        this.commandList.remove(command);
+        }
+        this.commands = Collections.unmodifiableMap(next);
+        return rejected;
     }
 
     @Override
@@ -53,35 +58,34 @@ public class CommandListener extends ListenerAdapter {
         if(!event.getMessage().getContentRaw().startsWith("q!")){
             return;
         }
-        // Check if we're currently reloading plugins, on which we need to halt.
-        if(halter.isLocked()){
-            try {
-                synchronized (halter) {
-                    halter.wait();
-                }
-            } catch (InterruptedException e){
-                // Ignored
-            }
+        // Plugins can be reloaded while this runs, so it's tracked to keep the reload from retiring our command early.
+        long epoch = quiescence.enter();
+        try {
+            runCommand(event);
+        } finally {
+            quiescence.exit(epoch);
         }
+    }
 
+    private void runCommand(MessageReceivedEvent event){
+        Map<String, Command> commands = this.commands;
         // Check if it's the help command, which is special and has to be processed here.
         if(event.getMessage().getContentRaw().equals("q!help")){
 
             EmbedBuilder embedBuilder = new EmbedBuilder();
             embedBuilder.setTitle("QuanTec "+vers+" Help Page");
-            for(Command command : commandList){
+            for(Command command : commands.values()){
                 embedBuilder.addField(command.getName(), command.getHelp(), false);
             }
 
             event.getAuthor().openPrivateChannel().queue(channel -> channel.sendMessageEmbeds(embedBuilder.build()).queue());
             return;
         }
-        // Conditions satisfied! Check all of our commands to see if the first line is a known command, else send an error.
-        for(Command cmd : commandList){
-            if(cmd.getName().equals(event.getMessage().getContentRaw().substring(2).split(" ")[0])){
-                cmd.run(event);
-                return;
-            }
+        // Conditions satisfied! Check whether the first word is a known command, else send an error.
+        Command cmd = commands.get(event.getMessage().getContentRaw().substring(2).split(" ")[0]);
+        if(cmd != null){
+            cmd.run(event);
+            return;
         }
         // Not found, send error.
         event.getChannel().sendMessage("Unknown command. Type 'q!help' for a list of commands.").queue();
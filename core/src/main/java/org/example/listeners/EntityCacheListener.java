@@ -0,0 +1,92 @@
+package org.example.listeners;
+
+import net.dv8tion.jda.api.events.emoji.EmojiRemovedEvent;
+import net.dv8tion.jda.api.events.emoji.update.EmojiUpdateNameEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateIconEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateNameEvent;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateAvatarEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateDiscriminatorEvent;
+import net.dv8tion.jda.api.events.user.update.UserUpdateNameEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.example.webserver.EntityCache;
+import org.example.webserver.EntityCache.Kind;
+
+// Drops users, guilds and emojis from the WebServer's entity cache when anything that's in their JSON changes, or when
+// JDA stops knowing about them (so they'd be a 404). Only 200s are cached, so nothing needs doing when JDA learns about
+// something new. Presence updates don't touch anything that's cached, so they're left alone.
+public class EntityCacheListener extends ListenerAdapter {
+    private final EntityCache cache;
+
+    public EntityCacheListener(EntityCache cache){
+        this.cache = cache;
+    }
+
+    @Override
+    public void onUserUpdateName(UserUpdateNameEvent event){
+        cache.invalidate(Kind.USER, event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onUserUpdateDiscriminator(UserUpdateDiscriminatorEvent event){
+        cache.invalidate(Kind.USER, event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onUserUpdateAvatar(UserUpdateAvatarEvent event){
+        cache.invalidate(Kind.USER, event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent event){
+        // JDA forgets users it no longer shares a guild with.
+        cache.invalidate(Kind.USER, event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGuildUpdateName(GuildUpdateNameEvent event){
+        cache.invalidate(Kind.GUILD, event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildUpdateIcon(GuildUpdateIconEvent event){
+        cache.invalidate(Kind.GUILD, event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event){
+        // Its emojis go with it, as do any users it was the only guild in common with. Working out which is more
+        // trouble than it's worth for something this rare, so they're all dropped.
+        cache.invalidate(Kind.GUILD, event.getGuild().getIdLong());
+        cache.invalidateAll(Kind.EMOJI);
+        cache.invalidateAll(Kind.USER);
+    }
+
+    @Override
+    public void onGuildUnavailable(GuildUnavailableEvent event){
+        // Out of JDA's cache until it's back, emojis and all.
+        cache.invalidate(Kind.GUILD, event.getGuild().getIdLong());
+        cache.invalidateAll(Kind.EMOJI);
+    }
+
+    @Override
+    public void onEmojiUpdateName(EmojiUpdateNameEvent event){
+        cache.invalidate(Kind.EMOJI, event.getEmoji().getIdLong());
+    }
+
+    @Override
+    public void onEmojiRemoved(EmojiRemovedEvent event){
+        cache.invalidate(Kind.EMOJI, event.getEmoji().getIdLong());
+    }
+
+    @Override
+    public void onSessionRecreate(SessionRecreateEvent event){
+        // Events during the outage weren't replayed, so anything could have changed.
+        for(Kind kind : Kind.values()){
+            cache.invalidateAll(kind);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.listeners;
+
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.example.webserver.Epochs;
+import org.example.webserver.RequestDispatcher;
+
+// Keeps the WebServer's /guilds ETag in step with the guilds QuanTec is actually in.
+public class GuildListener extends ListenerAdapter {
+    private final Epochs epochs;
+
+    public GuildListener(Epochs epochs){
+        this.epochs = epochs;
+    }
+
+    @Override
+    public void onGuildJoin(GuildJoinEvent event){
+        epochs.bump(RequestDispatcher.GUILDS_EPOCH);
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event){
+        epochs.bump(RequestDispatcher.GUILDS_EPOCH);
+    }
+}
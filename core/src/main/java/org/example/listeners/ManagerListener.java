@@ -0,0 +1,102 @@
+package org.example.listeners;
+
+import net.dv8tion.jda.api.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateOwnerEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent;
+import net.dv8tion.jda.api.events.session.ReadyEvent;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.example.webserver.ManagerIndex;
+
+// Keeps the WebServer's index of who can manage which guilds (for /users/manageserver) in step with Discord.
+// Anything that only affects one member updates just them, anything that could affect a whole guild works that guild
+// out again, and anything that might have been missed entirely (a fresh session) works everything out again.
+public class ManagerListener extends ListenerAdapter {
+    private final ManagerIndex index;
+
+    public ManagerListener(ManagerIndex index){
+        this.index = index;
+    }
+
+    @Override
+    public void onReady(ReadyEvent event){
+        index.rebuild(event.getJDA().getGuilds());
+    }
+
+    @Override
+    public void onSessionRecreate(SessionRecreateEvent event){
+        // Events during the outage weren't replayed, so there's no telling what changed.
+        index.rebuild(event.getJDA().getGuilds());
+    }
+
+    @Override
+    public void onGuildJoin(GuildJoinEvent event){
+        index.update(event.getGuild());
+    }
+
+    @Override
+    public void onGuildAvailable(GuildAvailableEvent event){
+        index.update(event.getGuild());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event){
+        index.remove(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildUnavailable(GuildUnavailableEvent event){
+        // It's back out of JDA's guilds, so it's out of the endpoint's too until it comes back.
+        index.remove(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberJoin(GuildMemberJoinEvent event){
+        index.update(event.getMember());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent event){
+        index.put(event.getGuild().getIdLong(), event.getUser().getIdLong(), false);
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event){
+        index.update(event.getMember());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event){
+        index.update(event.getMember());
+    }
+
+    @Override
+    public void onRoleUpdatePermissions(RoleUpdatePermissionsEvent event){
+        // Only the role's members are affected, but everybody has @everyone, and JDA doesn't list it in their roles.
+        if(event.getRole().isPublicRole()){
+            index.update(event.getGuild());
+        } else {
+            event.getGuild().getMembersWithRoles(event.getRole()).forEach(index::update);
+        }
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event){
+        // The role's gone from its members by now, so there's no finding out who had it.
+        index.update(event.getGuild());
+    }
+
+    @Override
+    public void onGuildUpdateOwner(GuildUpdateOwnerEvent event){
+        // Owners can manage their guild whatever their roles say, so this can change things for both of them.
+        index.update(event.getGuild());
+    }
+}
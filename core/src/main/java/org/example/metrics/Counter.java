@@ -0,0 +1,38 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** <h1>Counter</h1>
+ * A number that only goes up, e.g. requests served or messages removed. Increments are striped across cells, so any
+ * number of threads can count into one of these at once without contending on it.
+ */
+public final class Counter implements Metric {
+    private final LongAdder value;
+
+    Counter(){
+        this.value = new LongAdder();
+    }
+
+    public void inc(){
+        value.increment();
+    }
+
+    /** <h2>add</h2>
+     * @param amount How much to count, which mustn't be negative.
+     */
+    public void add(long amount){
+        if(amount < 0){
+            throw new IllegalArgumentException("Counters can't go down.");
+        }
+        value.add(amount);
+    }
+
+    public long get(){
+        return value.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels){
+        MetricRegistry.sample(out, name, labels, get());
+    }
+}
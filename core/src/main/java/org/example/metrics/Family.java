@@ -0,0 +1,116 @@
+package org.example.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** <h1>Family</h1>
+ * A metric with labels, i.e. one series per combination of label values, e.g. a request duration histogram labelled by
+ * route, method and status. Series are made the first time their labels are asked for and live as long as the family.
+ * <p>
+ * Label values should come from a small, fixed set (route patterns, not paths). A family stops making new series once
+ * it has {@link #MAX_SERIES} of them, rather than letting a bad label eat the heap; anything after that is recorded
+ * into a series that isn't exported.
+ */
+public final class Family<T extends Metric> {
+    public static final int MAX_SERIES = 1000;
+
+    final String help;
+    final String type;
+    final String[] labelNames;
+    final Class<T> kind;
+    // The plugin that registered this, or null for core metrics.
+    final String owner;
+    private final ConcurrentHashMap<Key, Series<T>> series;
+    private volatile T overflow;
+
+    Family(String help, String type, String[] labelNames, Class<T> kind, String owner){
+        this.help = help;
+        this.type = type;
+        this.labelNames = labelNames.clone();
+        this.kind = kind;
+        this.owner = owner;
+        this.series = new ConcurrentHashMap<>();
+    }
+
+    /** <h2>labels</h2>
+     * @param values A value for each of the family's label names, in the order they were registered.
+     * @return The series for those values, made if it doesn't exist yet. Cheap enough to call per request.
+     */
+    public T labels(String... values){
+        if(values.length != labelNames.length){
+            throw new IllegalArgumentException("Expected "+labelNames.length+" label values, got "+values.length+".");
+        }
+        Key key = new Key(values);
+        Series<T> existing = series.get(key);
+        if(existing != null){
+            return existing.metric();
+        }
+        if(series.size() >= MAX_SERIES){
+            T overflow = this.overflow;
+            if(overflow == null){
+                overflow = create();
+                this.overflow = overflow;
+            }
+            return overflow;
+        }
+        return series.computeIfAbsent(new Key(values.clone()), k -> new Series<>(render(k.values), create())).metric();
+    }
+
+    void put(T metric){
+        series.put(new Key(new String[0]), new Series<>("", metric));
+    }
+
+    void write(StringBuilder out, String name){
+        if(series.isEmpty()){
+            return;
+        }
+        out.append("# HELP ").append(name).append(' ').append(MetricRegistry.escape(help, false)).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for(Series<T> entry : series.values()){
+            entry.metric().write(out, name, entry.labels());
+        }
+    }
+
+    private T create(){
+        Metric metric;
+        if(kind == Counter.class){
+            metric = new Counter();
+        } else if(kind == Gauge.class){
+            metric = new Gauge();
+        } else if(kind == Histogram.class){
+            metric = new Histogram();
+        } else {
+            throw new IllegalStateException("Callback metrics can't be labelled.");
+        }
+        return kind.cast(metric);
+    }
+
+    // Renders the label set once, when the series is made, rather than on every scrape.
+    private String render(String[] values){
+        if(values.length == 0){
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for(int i = 0; i < values.length; i++){
+            if(i > 0){
+                labels.append(',');
+            }
+            labels.append(labelNames[i]).append("=\"").append(MetricRegistry.escape(String.valueOf(values[i]), true)).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private record Series<T>(String labels, T metric) {}
+
+    private record Key(String[] values) {
+        @Override
+        public boolean equals(Object other){
+            return other instanceof Key key && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode(){
+            return Arrays.hashCode(values);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** <h1>Gauge</h1>
+ * A number that goes up and down, e.g. requests in flight. Gauges for values that are already tracked somewhere else
+ * (e.g. live connections) are better registered as a callback, see {@link MetricRegistry#gauge(String, String, java.util.function.LongSupplier)}.
+ */
+public final class Gauge implements Metric {
+    private final AtomicLong value;
+
+    Gauge(){
+        this.value = new AtomicLong();
+    }
+
+    public void inc(){
+        value.incrementAndGet();
+    }
+
+    public void dec(){
+        value.decrementAndGet();
+    }
+
+    public void set(long value){
+        this.value.set(value);
+    }
+
+    public long get(){
+        return value.get();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels){
+        MetricRegistry.sample(out, name, labels, get());
+    }
+}
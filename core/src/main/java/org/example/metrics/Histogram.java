@@ -0,0 +1,139 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** <h1>Histogram</h1>
+ * A distribution of durations, in nanoseconds, e.g. how long requests take to handle. Buckets are log-linear: every
+ * power of two from a microsecond up to about 69s is split into {@link #SUB_BUCKETS} equal parts, so a bucket is never more than
+ * 25% wider than the values in it, whether those are microseconds or seconds, and finding a value's bucket is a couple
+ * of shifts rather than a search. Anything under a microsecond shares the first bucket and anything over 69s the last.
+ * <p>
+ * Recording is a single atomic increment and never blocks. Buckets are exported in seconds at every other boundary from
+ * 16 microseconds to 34s, which keeps a scrape small while still being fine enough to put p50s and p99s in the right place.
+ */
+public final class Histogram implements Metric {
+    /** How many buckets each power of two is split into. */
+    public static final int SUB_BUCKETS = 4;
+    private static final int SUB_BUCKET_BITS = 2;
+    // Values below 2^MIN_EXPONENT ns go in the first bucket, values from 2^MAX_EXPONENT ns up in the last.
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+    // The range of boundaries written out by write().
+    private static final long MIN_EXPORTED = 1L << 14;
+    private static final long MAX_EXPORTED = 1L << 35;
+
+    private final AtomicLongArray counts;
+    private final LongAdder sum;
+
+    Histogram(){
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.sum = new LongAdder();
+    }
+
+    /** <h2>record</h2>
+     * @param nanos The duration to record. Negative durations (i.e. a clock going backwards) are counted as zero.
+     */
+    public void record(long nanos){
+        if(nanos < 0){
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        sum.add(nanos);
+    }
+
+    /** <h2>recordSince</h2>
+     * Records the time since <code>startNanos</code>, which should have come from <code>System.nanoTime()</code>.
+     */
+    public void recordSince(long startNanos){
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount(){
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** <h2>getSum</h2>
+     * @return The total of every duration recorded, in nanoseconds.
+     */
+    public long getSum(){
+        return sum.sum();
+    }
+
+    /** <h2>quantile</h2>
+     * Estimates a quantile from the buckets.
+     * @param q The quantile, between 0 and 1 (e.g. 0.99 for the p99).
+     * @return The upper bound of the bucket the quantile falls in, in nanoseconds, so never an underestimate by more
+     * than the width of a bucket. 0 if nothing has been recorded.
+     */
+    public long quantile(double q){
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if(count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += snapshot[i];
+            if(seen >= rank){
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels){
+        // Prometheus wants cumulative counts, and le has to come after any other labels.
+        String prefix = labels.isEmpty() ? "{le=\"" : labels.substring(0, labels.length() - 1)+",le=\"";
+        long cumulative = 0;
+        for(int i = 0; i < BUCKETS - 1; i++){
+            cumulative += counts.get(i);
+            long bound = upperBound(i);
+            if(bound >= MIN_EXPORTED && bound <= MAX_EXPORTED && (i - 1) % 2 == 1){
+                out.append(name).append("_bucket").append(prefix).append(bound / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+        }
+        cumulative += counts.get(BUCKETS - 1);
+        out.append(name).append("_bucket").append(prefix).append("+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum").append(labels).append(' ').append(sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+
+    // Bucket 0 holds everything under 2^MIN_EXPONENT. After that, each power of two 2^e gets SUB_BUCKETS buckets, told
+    // apart by the SUB_BUCKET_BITS bits below the value's highest set bit.
+    static int bucketOf(long nanos){
+        if(nanos < (1L << MIN_EXPONENT)){
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if(exponent >= MAX_EXPONENT){
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    // The exclusive upper bound of a bucket, in nanoseconds. The last bucket has none, so gets Long.MAX_VALUE.
+    static long upperBound(int bucket){
+        if(bucket == 0){
+            return 1L << MIN_EXPONENT;
+        }
+        if(bucket >= BUCKETS - 1){
+            return Long.MAX_VALUE;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BUCKET_BITS));
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.metrics;
+
+// Anything that can be written out by the registry. Implemented by the metric types in this package only.
+interface Metric {
+    /** Writes this metric's sample lines in Prometheus' text format, with its labels already rendered (or empty). */
+    void write(StringBuilder out, String name, String labels);
+}
@@ -0,0 +1,186 @@
+package org.example.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/** <h1>Metric Registry</h1>
+ * Holds every metric in the process, core and plugin alike, and writes them all out in Prometheus' text format for
+ * /core/metrics. Metrics are registered by name, optionally with labels (e.g. the route and status of a request), and
+ * registering a name that already exists returns the existing metric rather than failing, so plugins can register in
+ * their init methods and be reloaded without keeping track of what they've registered before.
+ * <p>
+ * Plugins are handed a view of the registry that remembers which plugin registered what (see {@link #forOwner}), so
+ * that a plugin's metrics, and whatever its callbacks hold on to, are removed along with it when it's unloaded.
+ * <p>
+ * Names should follow Prometheus' conventions: snake_case, prefixed with what they belong to, with counters ending in
+ * <code>_total</code> and histograms in their unit (which is always <code>_seconds</code> here).
+ */
+public final class MetricRegistry {
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Pattern LABEL = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    // Sorted, so scrapes come out in the same order every time.
+    private final Map<String, Family<?>> families;
+    private final String owner;
+
+    public MetricRegistry(){
+        this(new ConcurrentSkipListMap<>(), null);
+    }
+
+    private MetricRegistry(Map<String, Family<?>> families, String owner){
+        this.families = families;
+        this.owner = owner;
+    }
+
+    /** <h2>forOwner</h2>
+     * @return A view of this registry whose registrations are tagged with <code>owner</code>, so they can be removed
+     * with {@link #unregisterOwner}. Used by the PluginManager, with the plugin's class name.
+     */
+    public MetricRegistry forOwner(String owner){
+        return new MetricRegistry(families, owner);
+    }
+
+    /** <h2>unregisterOwner</h2>
+     * Removes every metric registered through {@link #forOwner} with the given owner.
+     */
+    public void unregisterOwner(String owner){
+        families.values().removeIf(family -> owner.equals(family.owner));
+    }
+
+    public Counter counter(String name, String help){
+        return counters(name, help).labels();
+    }
+
+    public Family<Counter> counters(String name, String help, String... labelNames){
+        return register(name, help, "counter", labelNames, Counter.class);
+    }
+
+    public Gauge gauge(String name, String help){
+        return gauges(name, help).labels();
+    }
+
+    public Family<Gauge> gauges(String name, String help, String... labelNames){
+        return register(name, help, "gauge", labelNames, Gauge.class);
+    }
+
+    public Histogram histogram(String name, String help){
+        return histograms(name, help).labels();
+    }
+
+    public Family<Histogram> histograms(String name, String help, String... labelNames){
+        return register(name, help, "histogram", labelNames, Histogram.class);
+    }
+
+    /** <h2>counter</h2>
+     * Registers a counter whose value is read from somewhere else whenever it's scraped, e.g. a total that's already
+     * being kept (and persisted) by a plugin. Registering the same name again replaces the callback.
+     */
+    public void counter(String name, String help, LongSupplier value){
+        registerCallback(name, help, "counter", value);
+    }
+
+    /** <h2>gauge</h2>
+     * As above, for values that can go down, e.g. live connections.
+     */
+    public void gauge(String name, String help, LongSupplier value){
+        registerCallback(name, help, "gauge", value);
+    }
+
+    /** <h2>render</h2>
+     * @return Every metric, in Prometheus' text exposition format (version 0.0.4).
+     */
+    public String render(){
+        StringBuilder out = new StringBuilder(4096);
+        for(Map.Entry<String, Family<?>> entry : families.entrySet()){
+            entry.getValue().write(out, entry.getKey());
+        }
+        return out.toString();
+    }
+
+    private <T extends Metric> Family<T> register(String name, String help, String type, String[] labelNames, Class<T> kind){
+        checkName(name);
+        for(String label : labelNames){
+            if(!LABEL.matcher(label).matches() || label.equals("le")){
+                throw new IllegalArgumentException("Invalid label name \""+label+"\" for metric \""+name+"\".");
+            }
+        }
+        Family<?> family = families.computeIfAbsent(name, key -> new Family<>(help, type, labelNames, kind, owner));
+        if(family.kind != kind || !Arrays.equals(family.labelNames, labelNames)){
+            throw new IllegalArgumentException("Metric \""+name+"\" is already registered, as a "+family.type+" labelled "+Arrays.toString(family.labelNames)+".");
+        }
+        @SuppressWarnings("unchecked")
+        Family<T> typed = (Family<T>) family;
+        return typed;
+    }
+
+    private void registerCallback(String name, String help, String type, LongSupplier value){
+        checkName(name);
+        Family<?> existing = families.get(name);
+        if(existing != null && existing.kind != Callback.class){
+            throw new IllegalArgumentException("Metric \""+name+"\" is already registered as a "+existing.type+".");
+        }
+        Family<Callback> family = new Family<>(help, type, new String[0], Callback.class, owner);
+        family.put(new Callback(value));
+        families.put(name, family);
+    }
+
+    private static void checkName(String name){
+        if(!NAME.matcher(name).matches()){
+            throw new IllegalArgumentException("Invalid metric name \""+name+"\".");
+        }
+    }
+
+    // Writes one sample line. Shared by the metric types.
+    static void sample(StringBuilder out, String name, String labels, long value){
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    // Escapes a label value or help text. Label values also need quotes escaping, help text doesn't.
+    static String escape(String text, boolean labelValue){
+        StringBuilder out = null;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            String replacement = switch(c){
+                case '\\' -> "\\\\";
+                case '\n' -> "\\n";
+                case '"' -> labelValue ? "\\\"" : null;
+                default -> null;
+            };
+            if(replacement != null && out == null){
+                out = new StringBuilder(text.length() + 8).append(text, 0, i);
+            }
+            if(out != null){
+                if(replacement != null){
+                    out.append(replacement);
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        return out == null ? text : out.toString();
+    }
+
+    // A metric read from a callback on every scrape.
+    private static final class Callback implements Metric {
+        private final LongSupplier value;
+
+        private Callback(LongSupplier value){
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels){
+            long current;
+            try {
+                current = value.getAsLong();
+            } catch (RuntimeException e){
+                // A broken plugin callback shouldn't take the rest of the scrape down with it.
+                return;
+            }
+            sample(out, name, labels, current);
+        }
+    }
+}
@@ -1,25 +1,58 @@
 package org.example.plugins;
 
-import java.util.HashMap;
+import org.example.utils.Quiescence;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class MessageBus {
-    private final Map<QuanTecPlugin, List<String>> plugins;
+    // Each plugin's subscriptions. Replaced wholesale by the PluginManager when plugins are (re)loaded, never modified,
+    // so events can be dispatched while a reload's going on.
+    private volatile Map<QuanTecPlugin, List<String>> plugins;
+    // Parts of core that see every event regardless of recipient, e.g. the WebServer's /core/events stream.
+    private final List<Consumer<MessageBusEvent>> observers;
+    private final Quiescence quiescence;
+
+    public MessageBus(Quiescence quiescence){
+        this.plugins = Collections.emptyMap();
+        this.observers = new CopyOnWriteArrayList<>();
+        this.quiescence = quiescence;
+    }
 
-    public MessageBus(){
-        this.plugins = new HashMap<>();
+    /** <h2>addObserver</h2>
+     * Registers something outside of the plugins to be shown every event after the plugins have had it. Observers are
+     * called on whichever thread dispatched the event, so they mustn't block.
+     */
+    public void addObserver(Consumer<MessageBusEvent> observer){
+        this.observers.add(observer);
     }
 
-    public void registerPluginEventSubscriptions(QuanTecPlugin quanTecPlugin, List<String> events){
-        this.plugins.put(quanTecPlugin, events);
+    /** <h2>setSubscriptions</h2>
+     * Swaps in the subscriptions for a new set of plugins. Events already being dispatched carry on to whichever plugins
+     * they started with.
+     * @param subscriptions The events each plugin is subscribed to, in the order they should be delivered.
+     */
+    void setSubscriptions(Map<QuanTecPlugin, List<String>> subscriptions){
+        this.plugins = Collections.unmodifiableMap(new LinkedHashMap<>(subscriptions));
     }
 
     public void dispatchEvent(MessageBusEvent event){
-        for(Map.Entry<QuanTecPlugin, List<String>> plugin : plugins.entrySet()){
-            if(plugin.getValue().contains(event.recipient()) || event.recipient() == null){
-                plugin.getKey().onMessageBusEvent(event);
+        long epoch = quiescence.enter();
+        try {
+            for(Map.Entry<QuanTecPlugin, List<String>> plugin : plugins.entrySet()){
+                if(plugin.getValue().contains(event.recipient()) || event.recipient() == null){
+                    plugin.getKey().onMessageBusEvent(event);
+                }
+            }
+            for(Consumer<MessageBusEvent> observer : observers){
+                observer.accept(event);
             }
+        } finally {
+            quiescence.exit(epoch);
         }
     }
 }
@@ -0,0 +1,51 @@
+package org.example.plugins;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.example.utils.Quiescence;
+
+import java.util.logging.Logger;
+
+// Every plugin's listener adapter behind a single JDA listener, so the PluginManager can swap the whole set in one go
+// when plugins are reloaded rather than adding and removing them from JDA one at a time (which leaves JDA with a mix of
+// old and new plugins, and gives no way to tell when an old one has finished with its last event).
+final class PluginListeners implements EventListener {
+    private static final Logger systemLogger = Logger.getLogger("System");
+    private final Quiescence quiescence;
+    // Replaced wholesale, never modified.
+    private volatile ListenerAdapter[] listeners;
+
+    PluginListeners(Quiescence quiescence){
+        this.quiescence = quiescence;
+        this.listeners = new ListenerAdapter[0];
+    }
+
+    void setListeners(ListenerAdapter[] listeners){
+        this.listeners = listeners;
+    }
+
+    @Override
+    public void onEvent(GenericEvent event){
+        // Entered before the listeners are read, never after: otherwise this could pick up the old plugins, be held up
+        // while they're swapped out and drained (which wouldn't know to wait for it), and then run them after all.
+        long epoch = quiescence.enter();
+        try {
+            ListenerAdapter[] listeners = this.listeners;
+            if(listeners.length == 0){
+                return;
+            }
+            for(ListenerAdapter listener : listeners){
+                // JDA would've caught this if the listener were registered with it directly, so don't let one plugin
+                // stop the rest from seeing the event.
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e){
+                    systemLogger.severe("Plugin listener \""+listener.getClass().getName()+"\" threw "+e.getClass().getSimpleName()+" while handling "+event.getClass().getSimpleName()+": "+e.getMessage());
+                }
+            }
+        } finally {
+            quiescence.exit(epoch);
+        }
+    }
+}
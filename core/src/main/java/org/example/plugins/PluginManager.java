@@ -1,10 +1,17 @@
 package org.example.plugins;
 
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.example.command.Command;
 import org.example.listeners.CommandListener;
-import org.example.utils.Halter;
+import org.example.metrics.Counter;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricRegistry;
+import org.example.utils.Quiescence;
+import org.example.webserver.RequestDispatcher;
+import org.example.webserver.Router;
 import org.example.webserver.WebServer;
+import org.example.webserver.utils.RequestLimits;
 
 import java.io.File;
 import java.io.IOException;
@@ -18,208 +25,237 @@ import java.util.jar.JarFile;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
+// Loads plugins and hooks them up to everything else. Plugins can be reloaded without stopping anything: the commands,
+// listeners, REST endpoints and MessageBus subscriptions for the new set of plugins are built off to the side while the
+// old ones keep serving, then swapped in all at once. Every command, request and event being handled is tracked by a
+// Quiescence, which the reload uses to wait for anything still using the old plugins before letting go of them.
 public class PluginManager {
     private static final String pluginFolderName = "plugins";
     private static final Logger systemLogger = Logger.getLogger("System");
-    private final List<QuanTecPlugin> quanTecPlugins;
-    private JDA jda;
+    // How long a reload waits for operations on the old plugins to finish before giving up on them.
+    private static final long DRAIN_TIMEOUT_MILLIS = 30_000;
+    // The plugins currently in use. Replaced wholesale on reload, never modified.
+    private volatile List<QuanTecPlugin> quanTecPlugins;
+    private final Quiescence quiescence;
+    // What each loaded plugin gave us when it was initialized. These are asked for once and kept, so that what's removed
+    // on reload is what was actually added (plugins are free to return new objects each time they're asked).
+    private final Map<QuanTecPlugin, List<String>> subscriptions;
+    private final Map<QuanTecPlugin, ListenerAdapter> listeners;
+    private final Map<QuanTecPlugin, List<Command>> commands;
+    private final PluginListeners pluginListeners;
     private MessageBus messageBus;
     private CommandListener commandListener;
     private WebServer webServer;
+    private Histogram reloadDurations;
+    private Counter reloadDrained;
 
     public static PluginManager getInstance(){
         return new PluginManager(loadPlugins());
     }
 
     private PluginManager(List<QuanTecPlugin> quanTecPlugins){
-        this.quanTecPlugins = quanTecPlugins;
+        this.quanTecPlugins = List.copyOf(quanTecPlugins);
+        this.quiescence = new Quiescence();
+        this.subscriptions = new HashMap<>();
+        this.listeners = new HashMap<>();
+        this.commands = new HashMap<>();
+        this.pluginListeners = new PluginListeners(quiescence);
     }
 
     public List<QuanTecPlugin> getPluginList(){
         return this.quanTecPlugins;
     }
 
-    public void initializePlugins(JDA jda, MessageBus messageBus, CommandListener commandListener, WebServer webServer){
-        this.jda = jda;
+    /** <h2>getQuiescence</h2>
+     * @return The tracker that anything calling into plugins (or using what they've registered) should enter and exit,
+     * so that reloads know when the old plugins are no longer in use.
+     */
+    public Quiescence getQuiescence(){
+        return this.quiescence;
+    }
+
+    public synchronized void initializePlugins(JDA jda, MessageBus messageBus, CommandListener commandListener, WebServer webServer){
         this.messageBus = messageBus;
         this.commandListener = commandListener;
         this.webServer = webServer;
-        // Runs init methods and adds listeners, commands and REST endpoints.
-        systemLogger.info("Running plugin initialization methods...");
-        this.quanTecPlugins.forEach(plugin -> {
-            ArrayList<String> subscribed = new ArrayList<>();
-            plugin.initializePlugin(subscribed, messageBus::dispatchEvent);
-            messageBus.registerPluginEventSubscriptions(plugin, subscribed);
-        });
-        systemLogger.info("Running plugin post-initialization methods...");
-        this.quanTecPlugins.forEach(QuanTecPlugin::postInitializePlugin);
-        systemLogger.info("Adding plugin listeners/endpoints...");
-
-        // Sift through commands for each plugin, using a hashmap to both check if they're duplicates and
-        // get the name of both conflicting plugins should we find any. It also keeps the time complexity
-        // of it down to O(n) (as we don't reiterate at any point, every command is checked exactly once).
-        // We'll add unique commands to a list, which can then be batch-added to the command listener.
-        // TODO test adding duplicate commands.
-        // TODO test a plugin command containing a reference to another object.
-        // TODO is nesting forEach calls bad practice?
-        Map<Command, String> pluginCommands = new HashMap<>();
-        this.quanTecPlugins.forEach(plugin ->
-                plugin.getCommands().forEach(cmdCandidate -> {
-                    if(pluginCommands.get(cmdCandidate) == null){
-                        pluginCommands.put(cmdCandidate, plugin.getClass().getSimpleName());
-                    } else {
-                        systemLogger.severe("Command name conflict: \""+plugin.getClass().getSimpleName()+"\" attempted to add command with name \""+cmdCandidate.getName()+"\", already added by \""+pluginCommands.get(cmdCandidate)+"\". Command will not be loaded.");
-                    }
-                })
-        );
-
-        // Add plugin commands.
-        pluginCommands.keySet().forEach(cmd -> {
-            try {
-                commandListener.addCommand(cmd);
-            } catch (IllegalArgumentException e){
-                systemLogger.severe("Command name conflict: Plugin \""+pluginCommands.get(cmd)+"\" attempted to add command with name \""+cmd.getName()+"\", conflicts with system command. Command will not be loaded.");
-            }
-        });
-
-        // Add plugin listener adapters.
-        for(QuanTecPlugin plugin : this.quanTecPlugins){
-            if(plugin.getListenerAdapter() != null){
-                jda.addEventListener(plugin.getListenerAdapter());
-            }
-        }
-
-        // Add REST endpoints. No, making this map accessible with a getter is not bad design. FIXME
 
-        Map<String, QuanTecPlugin> duplicateCheck = new HashMap<>();
+        MetricRegistry metrics = webServer.getMetrics();
+        this.reloadDurations = metrics.histogram("quantec_plugin_reload_duration_seconds", "Time taken by plugin reloads, including waiting for the old plugins to finish what they were doing.");
+        this.reloadDrained = metrics.counter("quantec_plugin_reload_drained_total", "Operations that plugin reloads waited on to finish with the old plugins.");
+        metrics.gauge("quantec_plugin_operations_active", "Commands, requests and events currently being handled.", quiescence::getActive);
 
-        // Prohibit the 'core' endpoint, since those are all the API methods that we add ourselves.
-        // Duplicate check. This looks inefficient, but the use of hashmaps here means it only iterates once, just
-        // over the combined set of REST endpoints from each plugin, resulting in O(n). TODO unit test for this.
-        QuanTecPlugin systemReserver = () -> 0L;
-        duplicateCheck.put("core", systemReserver);
-
-        for(QuanTecPlugin plugin : this.quanTecPlugins){
-            for(String RESTroute : plugin.getRESTEndpoints().keySet()){
-                if(duplicateCheck.get(RESTroute) == null){
-                    duplicateCheck.put(RESTroute, plugin);
-                    webServer.getPluginEndpoints().put(RESTroute, plugin.getRESTEndpoints().get(RESTroute));
-                } else {
-                    systemLogger.severe("Endpoint conflict: Plugin \""+plugin.getClass().getSimpleName()+"\" attempted to register endpoint \""+RESTroute+"\", already registered by other plugin \""+(duplicateCheck.get(RESTroute) == systemReserver ? "System" : duplicateCheck.get(RESTroute).getClass().getSimpleName())+"\". Conflicting endpoint will not be added.");
-                }
-            }
-        }
+        // Plugin listeners all go through the one JDA listener, which is swapped along with everything else.
+        jda.addEventListener(pluginListeners);
 
+        systemLogger.info("Initializing plugins...");
+        List<QuanTecPlugin> plugins = this.quanTecPlugins;
+        swap(System.nanoTime(), plugins, plugins, List.of(), 0);
         systemLogger.info("Plugin initialization complete.");
     }
 
-    public void reloadPlugins(Halter halter){
-        systemLogger.info("Plugin reload requested. Locking web server and command listener and reloading.");
-        halter.setLocked(true);
+    /** <h2>reloadPlugins</h2>
+     * Loads the plugins folder again, initializing any plugins that are new or have a higher version number than the
+     * loaded one and removing any that are gone. Nothing is stopped while this happens: commands, requests and events
+     * carry on using the old plugins until the new ones are swapped in, after which this waits (up to 30 seconds) for
+     * any still using the old ones to finish.
+     * @param heldOperations How many tracked operations the caller is itself in the middle of (e.g. 1 when reloading
+     *                       from a REST request), which would otherwise be waited on forever.
+     * @return How long the reload took and how much it waited on.
+     */
+    public synchronized ReloadReport reloadPlugins(int heldOperations){
+        long start = System.nanoTime();
+        systemLogger.info("Plugin reload requested.");
 
         // Get the new set of plugins to load.
         List<QuanTecPlugin> newPlugins = loadPlugins();
+        List<QuanTecPlugin> current = this.quanTecPlugins;
 
         // For each plugin we currently have in memory, check whether they have a plugin with the same classname as them in
         // our new plugin list. If they have the same name, compare the version numbers. If the version numbers are the same,
         // do not modify them. If the version number of the new one is <= the old one, ignore, else add to initialization queue.
-        // TODO check time complexity, which is O(n) i think.
         Map<String, QuanTecPlugin> classNameMap = new HashMap<>();
-        List<String> newClassNames = new ArrayList<>();
-        this.quanTecPlugins.forEach(plugin -> classNameMap.put(plugin.getClass().getName(), plugin));
+        Set<String> newClassNames = new HashSet<>();
+        current.forEach(plugin -> classNameMap.put(plugin.getClass().getName(), plugin));
 
-        // If a plugin is not present at all, add it to a removal list and remove it from the plugin list.
+        // If a plugin is not present at all, add it to a removal list.
         List<QuanTecPlugin> deletionQueue = new ArrayList<>();
         List<QuanTecPlugin> initializationQueue = new ArrayList<>();
 
         for(QuanTecPlugin plugin : newPlugins){
             newClassNames.add(plugin.getClass().getName());
 
-            if(classNameMap.get(plugin.getClass().getName()) != null){
-                // Check version numbers.
-                if(plugin.getVersion() > classNameMap.get(plugin.getClass().getName()).getVersion()){
-                    deletionQueue.add(classNameMap.get(plugin.getClass().getName()));
-                    initializationQueue.add(plugin);
-                }
+            QuanTecPlugin loaded = classNameMap.get(plugin.getClass().getName());
+            if(loaded != null && plugin.getVersion() > loaded.getVersion()){
+                deletionQueue.add(loaded);
+                initializationQueue.add(plugin);
             }
         }
 
-        this.quanTecPlugins.forEach(plugin -> {
+        current.forEach(plugin -> {
             if(!newClassNames.contains(plugin.getClass().getName())){
                 deletionQueue.add(plugin);
             }
         });
 
-        // We now have two queues, a list of plugins to delete (will be done first),
-        // and a list of plugins to initialize.
-
-        // We'll start with the deletion queue.
-        // remove their listeners, commands and REST endpoints, then remove them. This will remove
-        // all references to these objects, which should let the garbage collector grab them. This
-        // won't happen however if any of the deletion plugins spawn threads that haven't died,
-        // but it should work in most cases.
-        for(QuanTecPlugin plugin : deletionQueue){
-            if(plugin.getListenerAdapter() != null){
-                jda.removeEventListener(plugin.getListenerAdapter());
-            }
+        // The plugins we'll end up with: the ones we're keeping, in their original order, then the new ones.
+        List<QuanTecPlugin> next = new ArrayList<>(current);
+        next.removeAll(deletionQueue);
+        next.addAll(initializationQueue);
 
-            for(Command command : plugin.getCommands()){
-                commandListener.removeCommand(command);
-            }
-
-            for(String key : plugin.getRESTEndpoints().keySet()){
-                webServer.getPluginEndpoints().remove(key);
-            }
-
-            this.quanTecPlugins.remove(plugin);
-        }
-
-        // Now the initialization queue. These need to be initialized by running their init and
-        // post-init methods, then adding their listener adapters, commands and REST endpoints.
-
-        // The multiple loops here technically can be combined into one, but because all plugins expect
-        // their init methods to be run at the same time, and their post init methods after all other
-        // plugins have run their first init method, we have to use three loops here.
+        return swap(start, next, initializationQueue, deletionQueue, heldOperations);
+    }
 
-        for(QuanTecPlugin plugin : initializationQueue){
+    // Initializes the added plugins, builds everything for the next set of plugins and swaps it in, then waits for
+    // anything still using the removed ones before letting go of them. Used both for the first load and for reloads.
+    private ReloadReport swap(long start, List<QuanTecPlugin> next, List<QuanTecPlugin> added, List<QuanTecPlugin> removed, int heldOperations){
+        // All plugins expect their init methods to be run at the same time, and their post init methods after all other
+        // plugins have run their first init method, so these are separate loops.
+        for(QuanTecPlugin plugin : added){
             List<String> subscribedEvents = new ArrayList<>();
             plugin.initializePlugin(subscribedEvents, messageBus::dispatchEvent);
-            messageBus.registerPluginEventSubscriptions(plugin, subscribedEvents);
+            subscriptions.put(plugin, subscribedEvents);
         }
 
-        initializationQueue.forEach(QuanTecPlugin::postInitializePlugin);
+        // New plugins can send events from post-init, so they start getting them now. Removed plugins stop here.
+        Map<QuanTecPlugin, List<String>> nextSubscriptions = new LinkedHashMap<>();
+        next.forEach(plugin -> nextSubscriptions.put(plugin, subscriptions.get(plugin)));
+        messageBus.setSubscriptions(nextSubscriptions);
 
-        for(QuanTecPlugin plugin : initializationQueue){
+        added.forEach(QuanTecPlugin::postInitializePlugin);
 
-            if(plugin.getListenerAdapter() != null){
-                jda.addEventListener(plugin.getListenerAdapter());
-            }
+        // Metrics are registered by class name, which an updated plugin shares with the one it replaces, so the old ones
+        // have to go first.
+        removed.forEach(plugin -> webServer.getMetrics().unregisterOwner(plugin.getClass().getName()));
+        added.forEach(this::registerMetrics);
 
-            for(Command command : plugin.getCommands()){
-                try {
-                    commandListener.addCommand(command);
-                } catch (IllegalArgumentException e){
-                    systemLogger.severe(String.format("Loading new/updated plugin \"%s\"'s command \"%s\" threw an IllegalArgumentException, likely because it already exists. Please restart QuanTec to see the conflict's source. This command will not be loaded.", plugin.getClass().getSimpleName(), command.getName()));
-                }
+        for(QuanTecPlugin plugin : added){
+            ListenerAdapter listener = plugin.getListenerAdapter();
+            if(listener != null){
+                listeners.put(plugin, listener);
             }
+            List<Command> pluginCommands = plugin.getCommands();
+            commands.put(plugin, pluginCommands == null ? List.of() : List.copyOf(pluginCommands));
+        }
 
-            for(String RESTkey : plugin.getRESTEndpoints().keySet()){
-                if(webServer.getPluginEndpoints().get(RESTkey) != null){
-                    systemLogger.severe(String.format("Loading new/updated plugin \"%s\"'s REST endpoint \"%s\" already exists. Please restart QuanTec to see the conflict's source. This endpoint will not be loaded.", plugin.getClass().getSimpleName(), RESTkey));
+        // Build the command table, using a hashmap to check for duplicates and get the name of both conflicting plugins
+        // should we find any. Plugins are added in load order, so where two conflict, the first one loaded keeps it.
+        Map<String, QuanTecPlugin> commandOwners = new HashMap<>();
+        Map<Command, QuanTecPlugin> nextCommands = new LinkedHashMap<>();
+        for(QuanTecPlugin plugin : next){
+            for(Command cmdCandidate : commands.get(plugin)){
+                QuanTecPlugin owner = commandOwners.putIfAbsent(cmdCandidate.getName(), plugin);
+                if(owner == null){
+                    nextCommands.put(cmdCandidate, plugin);
                 } else {
-                    webServer.getPluginEndpoints().put(RESTkey, plugin.getRESTEndpoints().get(RESTkey));
+                    systemLogger.severe("Command name conflict: \""+plugin.getClass().getSimpleName()+"\" attempted to add command with name \""+cmdCandidate.getName()+"\", already added by \""+owner.getClass().getSimpleName()+"\". Command will not be loaded.");
                 }
             }
+        }
+
+        List<ListenerAdapter> nextListeners = new ArrayList<>();
+        next.forEach(plugin -> {
+            if(listeners.get(plugin) != null){
+                nextListeners.add(listeners.get(plugin));
+            }
+        });
+
+        Router router = buildRoutes(next);
 
-            this.quanTecPlugins.add(plugin);
+        // Everything's ready, so swap it all in. Anything starting from here on only sees the new plugins.
+        this.quanTecPlugins = List.copyOf(next);
+        for(Command cmd : commandListener.setPluginCommands(nextCommands.keySet())){
+            systemLogger.severe("Command name conflict: Plugin \""+nextCommands.get(cmd).getClass().getSimpleName()+"\" attempted to add command with name \""+cmd.getName()+"\", conflicts with system command. Command will not be loaded.");
         }
+        pluginListeners.setListeners(nextListeners.toArray(new ListenerAdapter[0]));
+        webServer.setRouter(router);
+        webServer.getEpochs().bump(RequestDispatcher.PLUGINS_EPOCH);
+
+        // Wait for anything that started before the swap, then drop our references to the removed plugins. This will
+        // remove all references to these objects, which should let the garbage collector grab them. This won't happen
+        // however if any of them spawn threads that haven't died, but it should work in most cases.
+        Quiescence.Drained drained = quiescence.drain(heldOperations, DRAIN_TIMEOUT_MILLIS);
+        for(QuanTecPlugin plugin : removed){
+            subscriptions.remove(plugin);
+            listeners.remove(plugin);
+            commands.remove(plugin);
+        }
+
+        ReloadReport report = new ReloadReport(System.nanoTime() - start, added.size(), removed.size(), drained.operations(), drained.timedOut());
+        reloadDurations.record(report.durationNanos());
+        reloadDrained.add(report.drained());
+        if(report.timedOut()){
+            systemLogger.warning("Gave up waiting for operations on the old plugins to finish after "+DRAIN_TIMEOUT_MILLIS+"ms. They'll carry on with the old plugins.");
+        }
+        systemLogger.info(String.format("Plugins swapped in %.1fms (%d loaded, %d removed, %d operations drained). QuanTec is currently running %d plugins.", report.durationNanos() / 1_000_000.0, report.loaded(), report.removed(), report.drained(), next.size()));
+        return report;
+    }
 
-        halter.setLocked(false);
-        synchronized (halter) {
-            halter.notifyAll();
+    // Gives a plugin a view of the metric registry tagged with its class name, so its metrics can be removed with it.
+    private void registerMetrics(QuanTecPlugin plugin){
+        try {
+            plugin.registerMetrics(webServer.getMetrics().forOwner(plugin.getClass().getName()));
+        } catch (IllegalArgumentException e){
+            systemLogger.severe("Metric conflict: Plugin \""+plugin.getClass().getSimpleName()+"\" attempted to register an invalid or conflicting metric: "+e.getMessage()+" Its remaining metrics will not be added.");
         }
+    }
 
-        systemLogger.info("Plugin reload complete. QuanTec is currently running "+this.quanTecPlugins.size()+" plugins.");
+    // Builds a router from the core endpoints and the given plugins' endpoints, without swapping it in.
+    // Plugins are registered in load order, so where two conflict, the first one loaded keeps the endpoint.
+    private Router buildRoutes(List<QuanTecPlugin> plugins){
+        Router.Builder routes = webServer.newRouterBuilder();
+        for(QuanTecPlugin plugin : plugins){
+            try {
+                plugin.registerRoutes(routes);
+            } catch (IllegalArgumentException e){
+                systemLogger.severe("Endpoint conflict: Plugin \""+plugin.getClass().getSimpleName()+"\" attempted to register a conflicting route: "+e.getMessage()+" Its remaining routes will not be added.");
+            }
+
+            Map<String, RequestLimits> limits = plugin.getRequestLimits();
+            if(limits != null){
+                limits.forEach(routes::limit);
+            }
+        }
+        return routes.build();
     }
 
     private static List<QuanTecPlugin> loadPlugins(){
@@ -3,7 +3,10 @@ package org.example.plugins;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import org.example.command.Command;
+import org.example.metrics.MetricRegistry;
+import org.example.webserver.Router;
 import org.example.webserver.utils.Request;
+import org.example.webserver.utils.RequestLimits;
 
 import java.io.OutputStream;
 import java.util.List;
@@ -79,6 +82,58 @@ public interface QuanTecPlugin {
         return null;
     }
 
+    /** <h2>registerRoutes</h2>
+     * Registers this plugin's REST endpoints with the WebServer's router. Routes registered here can use path parameters
+     * (e.g. <code>/images/{guild}/{nick}</code>), which are extracted before your handler is called, and are bound to a
+     * method, so QuanTec answers 405 for you. Conflicting routes are rejected with an <code>IllegalArgumentException</code>,
+     * which QuanTec logs. This is called again with a fresh builder whenever plugins are reloaded. Routes that are
+     * expensive to call (e.g. anything processing images) should declare a cost with {@link Router.Builder#cost}, so
+     * they count for more against QuanTec's rate limits. Routes that wait on something (e.g. a JDA <code>RestAction</code>)
+     * should be registered with {@link Router.Builder#addAsync}, so they don't hold a thread while they wait.
+     * <p>
+     * By default this mounts everything returned by {@link #getRESTEndpoints()}, so plugins using that don't need to
+     * override this.
+     * @param routes The builder to register routes with. Don't hold on to this.
+     */
+    default void registerRoutes(Router.Builder routes) {
+        Map<String, BiConsumer<Request, OutputStream>> endpoints = getRESTEndpoints();
+        if(endpoints == null){
+            return;
+        }
+        for(Map.Entry<String, BiConsumer<Request, OutputStream>> endpoint : endpoints.entrySet()){
+            try {
+                routes.mount(endpoint.getKey(), endpoint.getValue());
+            } catch (IllegalArgumentException e){
+                Logger.getLogger("System").severe("Endpoint conflict: Plugin \""+getClass().getSimpleName()+"\" attempted to register endpoint \""+endpoint.getKey()+"\": "+e.getMessage()+" Conflicting endpoint will not be added.");
+            }
+        }
+    }
+
+    /** <h2>getRequestLimits</h2>
+     * Optional size limits for your REST endpoints, keyed by the same root node as {@link #getRESTEndpoints()}. Requests
+     * exceeding these are rejected with 413 before your handler is called (and before their body is read), so endpoints
+     * accepting large uploads (e.g. images) should raise the body limit here, and everything else can leave it alone.
+     * Endpoints that aren't present in this map get the WebServer's defaults, which are fairly small.
+     * @return As above, or <code>null</code> to use the defaults for all of your endpoints.
+     */
+    default Map<String, RequestLimits> getRequestLimits() {
+        return null;
+    }
+
+    /** <h2>registerMetrics</h2>
+     * Registers this plugin's metrics, which are served alongside QuanTec's own at <code>/core/metrics</code>. This runs
+     * after the post-initialization methods, so it can use anything set up there. Hold on to the counters and histograms
+     * returned, and record into them from your listeners and endpoints; values you already keep track of (e.g. totals
+     * saved to disk) can be registered as callbacks instead, which are read whenever the metrics are scraped.
+     * <p>
+     * Metrics registered here are removed when the plugin is unloaded or replaced, and are registered again from scratch
+     * by the new version. Names that clash with an existing metric of a different type are rejected with an
+     * <code>IllegalArgumentException</code>, which QuanTec logs.
+     * @param metrics The registry to register with.
+     */
+    default void registerMetrics(MetricRegistry metrics) {
+    }
+
     /** <h2>onMessageBusEvent</h2>
      * This method allows your plugin to react to events sent via the message bus. To receive these events, you need to subscribe to them via the list provided in the initialization method
      * (except for system events, which are sent regardless).
@@ -0,0 +1,24 @@
+package org.example.plugins;
+
+import org.example.utils.JSONWriter;
+
+/** <h1>Reload Report</h1>
+ * What a plugin reload did, as returned by <code>GET /core/plugins/reload</code>.
+ * @param durationNanos How long the reload took, including waiting for operations on the old plugins to finish.
+ * @param loaded How many plugins were added or updated.
+ * @param removed How many plugins were removed or replaced by an update.
+ * @param drained How many operations (requests, commands and events) were still using the old plugins when the new
+ *                ones were swapped in, and were waited on.
+ * @param timedOut Whether the reload gave up waiting on some of them.
+ */
+public record ReloadReport(long durationNanos, int loaded, int removed, int drained, boolean timedOut) {
+    public void writeJSON(JSONWriter json){
+        json.beginObject()
+                .name("durationMillis").value(durationNanos / 1_000_000.0)
+                .name("loaded").value(loaded)
+                .name("removed").value(removed)
+                .name("drained").value(drained)
+                .name("timedOut").value(timedOut)
+                .endObject();
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.utils;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.util.Objects;
+
+// An ImageInputStream that reads straight out of a byte[]. Given an InputStream, ImageIO wraps it in a stream that
+// keeps a copy of everything read so that readers can seek back over it, in a temporary file unless caching's been
+// turned off (and in memory if it has). A byte[] can already be seeked over, so that'd just be a second copy of
+// something that's in memory already.
+final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+    private final byte[] bytes;
+
+    ByteArrayImageInputStream(byte[] bytes){
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if(streamPos >= bytes.length){
+            return -1;
+        }
+        return bytes[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        checkClosed();
+        Objects.checkFromIndexSize(offset, length, target.length);
+        bitOffset = 0;
+        if(length == 0){
+            return 0;
+        }
+        if(streamPos >= bytes.length){
+            return -1;
+        }
+        int count = (int) Math.min(length, bytes.length - streamPos);
+        System.arraycopy(bytes, (int) streamPos, target, offset, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length(){
+        return bytes.length;
+    }
+}
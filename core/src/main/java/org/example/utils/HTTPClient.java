@@ -0,0 +1,622 @@
+package org.example.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/** <h1>HTTP Client</h1>
+ * A small HTTP/1.1 client for GETting things off the web, mostly images off Discord's CDN for the censor to look at.
+ * Connections are kept open once a response is done with and handed to the next request for the same host, so a
+ * message with several images on it only pays for one TCP (and TLS) handshake rather than one each. TLS sessions are
+ * cached by the socket factory too, so even a fresh connection to a host that's been seen before usually gets an
+ * abbreviated handshake.
+ * <p>
+ * Bodies are read straight into a <code>byte[]</code>, sized up front when the server says how long it is, and anything
+ * bigger than the cap is refused before it's read rather than after. Redirects are followed up to a limit. Clients are
+ * thread-safe, and one shared between everything (see {@link #shared}) is the way to get the most out of the pool.
+ * <pre>
+ *     Response response = HTTPClient.shared().get("https://cdn.discordapp.com/attachments/.../image.png");
+ *     if(response.getStatusCode() == 200){
+ *         byte[] image = response.getBody();
+ *     }
+ * </pre>
+ */
+public final class HTTPClient implements Closeable {
+    /** How long to wait for a connection to be accepted, in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    /** How long to wait on any one read from the server, in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10_000;
+    /** The biggest body accepted, which is about Discord's biggest upload. */
+    public static final int DEFAULT_MAX_BODY_BYTES = 32 << 20;
+    /** How many redirects to follow before giving up. */
+    public static final int DEFAULT_MAX_REDIRECTS = 5;
+
+    // Idle connections kept per host, and how long they're kept for. Servers close idle connections eventually
+    // anyway (usually after a minute or so), so there's no point holding onto them for longer than they'll last.
+    private static final int MAX_IDLE_PER_HOST = 4;
+    private static final long MAX_IDLE_NANOS = 30_000_000_000L;
+    // Reads go through a buffer this big, which is also as much of a body as is read into it before it's copied out.
+    private static final int BUFFER_BYTES = 16 * 1024;
+    // How much of a head is accepted, all lines together.
+    private static final int MAX_HEAD_BYTES = 64 * 1024;
+
+    private static final HTTPClient SHARED = new HTTPClient(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_BODY_BYTES, DEFAULT_MAX_REDIRECTS);
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxBodyBytes;
+    private final int maxRedirects;
+    private final SSLSocketFactory sslSocketFactory;
+    // Connections not in use, by scheme, host and port. Most recently used last, which is the one handed out next as
+    // it's the least likely to have been closed by the server.
+    private final Map<String, ArrayDeque<Connection>> idle;
+    private boolean closed;
+
+    /** <h2>HTTPClient</h2>
+     * @param connectTimeoutMillis How long to wait for a connection to be accepted.
+     * @param readTimeoutMillis How long to wait on any one read, so a server that stops sending part way through can't
+     *                          hang whoever's waiting on it.
+     * @param maxBodyBytes The biggest body accepted. Anything bigger fails with an <code>IOException</code>.
+     * @param maxRedirects How many redirects to follow for a request. Zero returns redirects as they are.
+     */
+    public HTTPClient(int connectTimeoutMillis, int readTimeoutMillis, int maxBodyBytes, int maxRedirects){
+        this(connectTimeoutMillis, readTimeoutMillis, maxBodyBytes, maxRedirects, (SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+
+    HTTPClient(int connectTimeoutMillis, int readTimeoutMillis, int maxBodyBytes, int maxRedirects, SSLSocketFactory sslSocketFactory){
+        if(connectTimeoutMillis < 0 || readTimeoutMillis < 0 || maxBodyBytes < 0 || maxRedirects < 0){
+            throw new IllegalArgumentException("Timeouts and limits can't be negative.");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxRedirects = maxRedirects;
+        this.sslSocketFactory = sslSocketFactory;
+        this.idle = new HashMap<>();
+    }
+
+    /** <h2>shared</h2>
+     * The client everything in the bot uses unless it needs different limits, with the defaults above.
+     */
+    public static HTTPClient shared(){
+        return SHARED;
+    }
+
+    /** <h2>get</h2>
+     * GETs the given URL, following redirects.
+     * @param url An <code>http://</code> or <code>https://</code> URL.
+     * @return The response, whatever its status. Only failing to get one at all throws.
+     * @throws IOException If the URL isn't usable, the server can't be reached or doesn't answer in time, the response
+     * isn't valid HTTP, there are too many redirects or the body's bigger than the cap.
+     */
+    public Response get(@NotNull String url) throws IOException {
+        URL target = parse(url);
+        for(int redirects = 0; ; redirects++){
+            Response response = exchange(target);
+            String location = response.getLocation();
+            if(!isRedirect(response.getStatusCode()) || location == null){
+                return response;
+            }
+            if(redirects == maxRedirects){
+                if(maxRedirects == 0){
+                    return response;
+                }
+                throw new IOException("Too many redirects ("+maxRedirects+") getting "+url+".");
+            }
+            // Locations can be relative to the URL that sent them.
+            try {
+                target = parse(new URL(target, location).toString());
+            } catch (MalformedURLException e){
+                throw new IOException("Bad redirect location \""+location+"\".", e);
+            }
+        }
+    }
+
+    /** <h2>getIdleConnections</h2>
+     * How many connections are open and waiting for another request, across every host.
+     */
+    public int getIdleConnections(){
+        synchronized (idle){
+            int count = 0;
+            for(ArrayDeque<Connection> connections : idle.values()){
+                count += connections.size();
+            }
+            return count;
+        }
+    }
+
+    /** <h2>close</h2>
+     * Closes every idle connection. Requests already under way finish as normal, but close their connections afterwards
+     * rather than keeping them, as does anything that uses the client from here on.
+     */
+    @Override
+    public void close(){
+        synchronized (idle){
+            closed = true;
+            for(ArrayDeque<Connection> connections : idle.values()){
+                for(Connection connection : connections){
+                    connection.close();
+                }
+            }
+            idle.clear();
+        }
+    }
+
+    // One request and its response, on a pooled connection if there is one.
+    private Response exchange(URL url) throws IOException {
+        String key = key(url);
+        Connection connection = take(key);
+        if(connection != null){
+            try {
+                return exchange(connection, url);
+            } catch (StaleConnectionException e){
+                // The server closed it while it was in the pool, which it's allowed to do whenever it likes. GETs are
+                // safe to send again, so try again on a new connection.
+                connection.close();
+            }
+        }
+        connection = connect(url, key);
+        try {
+            return exchange(connection, url);
+        } catch (StaleConnectionException e){
+            // Not stale though, just closed by a server that didn't want to answer.
+            throw new EOFException(e.getMessage());
+        }
+    }
+
+    private Response exchange(Connection connection, URL url) throws IOException {
+        boolean keep = false;
+        try {
+            connection.send(request(url));
+            Response response = connection.readResponse(maxBodyBytes);
+            keep = connection.reusable;
+            return response;
+        } finally {
+            if(keep){
+                give(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    private Connection connect(URL url, String key) throws IOException {
+        boolean https = url.getProtocol().equals("https");
+        String host = url.getHost();
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            if(https){
+                // Layered over the plain socket so the connect timeout applies. Passing the host and port along is
+                // what lets the factory find a cached session for them, and gives the server the name for SNI.
+                SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                SSLParameters parameters = ssl.getSSLParameters();
+                // The factory doesn't check the certificate's for the host unless asked to.
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(parameters);
+                ssl.startHandshake();
+                socket = ssl;
+            }
+            return new Connection(key, socket);
+        } catch (IOException | RuntimeException e){
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Connection take(String key){
+        synchronized (idle){
+            ArrayDeque<Connection> connections = idle.get(key);
+            if(connections == null){
+                return null;
+            }
+            long now = System.nanoTime();
+            Connection connection;
+            while((connection = connections.pollLast()) != null){
+                if(now - connection.idleSince < MAX_IDLE_NANOS && !connection.socket.isClosed()){
+                    break;
+                }
+                connection.close();
+            }
+            if(connections.isEmpty()){
+                idle.remove(key);
+            }
+            return connection;
+        }
+    }
+
+    private void give(Connection connection){
+        synchronized (idle){
+            if(closed){
+                connection.close();
+                return;
+            }
+            connection.idleSince = System.nanoTime();
+            ArrayDeque<Connection> connections = idle.computeIfAbsent(connection.key, k -> new ArrayDeque<>(MAX_IDLE_PER_HOST));
+            connections.addLast(connection);
+            if(connections.size() > MAX_IDLE_PER_HOST){
+                // Oldest first, as that's the one the server's most likely to close anyway.
+                connections.pollFirst().close();
+            }
+            // Have a look for any that have been left too long while we're here.
+            long now = connection.idleSince;
+            for(Iterator<Connection> it = connections.iterator(); it.hasNext();){
+                Connection candidate = it.next();
+                if(now - candidate.idleSince >= MAX_IDLE_NANOS){
+                    candidate.close();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static URL parse(String url) throws IOException {
+        URL parsed;
+        try {
+            parsed = new URL(url);
+        } catch (MalformedURLException e){
+            throw new IOException("Bad URL \""+url+"\".", e);
+        }
+        if(!parsed.getProtocol().equals("http") && !parsed.getProtocol().equals("https")){
+            throw new IOException("Only http and https URLs can be fetched, not \""+url+"\".");
+        }
+        if(parsed.getHost().isEmpty()){
+            throw new IOException("No host in \""+url+"\".");
+        }
+        return parsed;
+    }
+
+    private static String key(URL url){
+        return url.getProtocol()+"://"+url.getHost().toLowerCase(Locale.ROOT)+":"+(url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+    }
+
+    private static byte[] request(URL url){
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        String host = url.getPort() == -1 || url.getPort() == url.getDefaultPort() ? url.getHost() : url.getHost()+":"+url.getPort();
+        if(needsEscaping(path)){
+            // Anything else would split the request line, or just be rejected. URL doesn't check for them.
+            StringBuilder escaped = new StringBuilder();
+            for(byte b : path.getBytes(StandardCharsets.UTF_8)){
+                if(b <= ' ' || b == 0x7F){
+                    escaped.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                } else {
+                    escaped.append((char) b);
+                }
+            }
+            path = escaped.toString();
+        }
+        return ("GET "+path+" HTTP/1.1\r\n" +
+                "Host: "+host+"\r\n" +
+                "Accept: */*\r\n" +
+                "Accept-Encoding: identity\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean needsEscaping(String path){
+        for(int i = 0; i < path.length(); i++){
+            if(path.charAt(i) <= ' ' || path.charAt(i) >= 0x7F){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRedirect(int status){
+        return status == 301 || status == 302 || status == 303 || status == 307 || status == 308;
+    }
+
+    // Thrown when a pooled connection turns out to have been closed before anything of the response came back.
+    private static final class StaleConnectionException extends IOException {
+        StaleConnectionException(){
+            super("Connection closed before a response was sent.");
+        }
+    }
+
+    // A connection, and whatever's been read from it but not used yet.
+    private static final class Connection {
+        private final String key;
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int position;
+        private int limit;
+        private long idleSince;
+        // Whether another request can be sent once this response is done with.
+        private boolean reusable;
+
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+            this.buffer = new byte[BUFFER_BYTES];
+        }
+
+        void send(byte[] request) throws IOException {
+            reusable = false;
+            try {
+                out.write(request);
+                out.flush();
+            } catch (IOException e){
+                // The usual way a connection the server's closed shows up, at least if it's been closed for long enough
+                // for us to have been told.
+                throw new StaleConnectionException();
+            }
+        }
+
+        Response readResponse(int maxBodyBytes) throws IOException {
+            int[] headBytes = {0};
+            String statusLine;
+            int status;
+            do {
+                statusLine = readLine(headBytes, true);
+                if(!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' '){
+                    throw new IOException("Not an HTTP response: \""+statusLine+"\".");
+                }
+                try {
+                    status = Integer.parseInt(statusLine.substring(9, 12));
+                } catch (NumberFormatException e){
+                    throw new IOException("Bad status line: \""+statusLine+"\".");
+                }
+                if(status >= 100 && status < 200){
+                    // Interim responses (e.g. 100 Continue) have headers, but nothing else, and the real response is
+                    // after them.
+                    while(!readLine(headBytes, false).isEmpty());
+                }
+            } while(status >= 100 && status < 200);
+            String statusMessage = statusLine.length() > 13 ? statusLine.substring(13) : "";
+            boolean http10 = statusLine.charAt(7) == '0';
+
+            long contentLength = -1;
+            boolean chunked = false;
+            String mimeType = "";
+            String location = null;
+            String connectionHeader = null;
+            for(String line = readLine(headBytes, false); !line.isEmpty(); line = readLine(headBytes, false)){
+                int colon = line.indexOf(':');
+                if(colon <= 0){
+                    throw new IOException("Bad header line: \""+line+"\".");
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                switch (name) {
+                    case "content-length" -> {
+                        try {
+                            long length = Long.parseLong(value);
+                            if(length < 0 || (contentLength != -1 && contentLength != length)){
+                                throw new NumberFormatException();
+                            }
+                            contentLength = length;
+                        } catch (NumberFormatException e){
+                            throw new IOException("Bad Content-Length: \""+value+"\".");
+                        }
+                    }
+                    case "transfer-encoding" -> {
+                        String[] codings = value.toLowerCase(Locale.ROOT).split(",");
+                        chunked = codings[codings.length - 1].trim().equals("chunked");
+                        if(!chunked){
+                            throw new IOException("Unsupported Transfer-Encoding: \""+value+"\".");
+                        }
+                    }
+                    case "content-type" -> {
+                        // Just the type, without any parameters like charset.
+                        int semicolon = value.indexOf(';');
+                        mimeType = (semicolon == -1 ? value : value.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+                    }
+                    case "location" -> location = value;
+                    case "connection" -> connectionHeader = value.toLowerCase(Locale.ROOT);
+                }
+            }
+
+            boolean keepAlive = http10 ? connectionHeader != null && connectionHeader.contains("keep-alive") : connectionHeader == null || !connectionHeader.contains("close");
+            byte[] body;
+            if(status == 204 || status == 304){
+                body = new byte[0];
+            } else if(chunked){
+                // Chunked overrides any Content-Length.
+                body = readChunked(maxBodyBytes);
+            } else if(contentLength >= 0){
+                if(contentLength > maxBodyBytes){
+                    throw new IOException("Body is "+contentLength+" bytes, more than the limit of "+maxBodyBytes+".");
+                }
+                body = new byte[(int) contentLength];
+                readFully(body, 0, body.length);
+            } else {
+                // No length, so the body's everything until the server closes the connection.
+                body = readToEnd(maxBodyBytes);
+                keepAlive = false;
+            }
+            // Anything left over would be read as the next response.
+            reusable = keepAlive && position == limit;
+            return new Response(status, statusMessage, mimeType, body, location);
+        }
+
+        private byte[] readChunked(int maxBodyBytes) throws IOException {
+            byte[] body = new byte[Math.min(maxBodyBytes, BUFFER_BYTES)];
+            int length = 0;
+            // Each framing line is limited on its own, since a body can have any number of them. Only the trailers
+            // count up together, like the head's lines do.
+            int[] lineBytes = {0};
+            while(true){
+                lineBytes[0] = 0;
+                String sizeLine = readLine(lineBytes, false);
+                // Chunk extensions, if any, come after a semicolon.
+                int semicolon = sizeLine.indexOf(';');
+                String hex = (semicolon == -1 ? sizeLine : sizeLine.substring(0, semicolon)).trim();
+                long size;
+                try {
+                    size = Long.parseLong(hex, 16);
+                } catch (NumberFormatException e){
+                    throw new IOException("Bad chunk size: \""+sizeLine+"\".");
+                }
+                if(size < 0){
+                    throw new IOException("Bad chunk size: \""+sizeLine+"\".");
+                }
+                if(size == 0){
+                    // Skip over any trailers.
+                    lineBytes[0] = 0;
+                    while(!readLine(lineBytes, false).isEmpty());
+                    return length == body.length ? body : Arrays.copyOf(body, length);
+                }
+                if(size > maxBodyBytes - length){
+                    throw new IOException("Body is more than the limit of "+maxBodyBytes+" bytes.");
+                }
+                if(length + size > body.length){
+                    body = Arrays.copyOf(body, (int) Math.min(maxBodyBytes, Math.max(length + size, (long) body.length * 2)));
+                }
+                readFully(body, length, (int) size);
+                length += (int) size;
+                lineBytes[0] = 0;
+                if(!readLine(lineBytes, false).isEmpty()){
+                    throw new IOException("Chunk is longer than its size says.");
+                }
+            }
+        }
+
+        private byte[] readToEnd(int maxBodyBytes) throws IOException {
+            byte[] body = new byte[Math.min(maxBodyBytes, BUFFER_BYTES)];
+            int length = 0;
+            while(true){
+                if(length == body.length){
+                    if(length == maxBodyBytes){
+                        // Full, so if there's anything more it's too much.
+                        if(fill() == -1){
+                            return body;
+                        }
+                        throw new IOException("Body is more than the limit of "+maxBodyBytes+" bytes.");
+                    }
+                    body = Arrays.copyOf(body, (int) Math.min(maxBodyBytes, (long) body.length * 2));
+                }
+                int read = read(body, length, body.length - length);
+                if(read == -1){
+                    return length == body.length ? body : Arrays.copyOf(body, length);
+                }
+                length += read;
+            }
+        }
+
+        private void readFully(byte[] target, int offset, int length) throws IOException {
+            while(length > 0){
+                int read = read(target, offset, length);
+                if(read == -1){
+                    throw new EOFException("Connection closed with "+length+" bytes of the body still to come.");
+                }
+                offset += read;
+                length -= read;
+            }
+        }
+
+        // Reads whatever's buffered, or if nothing is, straight from the socket. Big bodies skip the buffer entirely.
+        private int read(byte[] target, int offset, int length) throws IOException {
+            if(position < limit){
+                int count = Math.min(length, limit - position);
+                System.arraycopy(buffer, position, target, offset, count);
+                position += count;
+                return count;
+            }
+            if(length >= buffer.length){
+                return in.read(target, offset, length);
+            }
+            if(fill() == -1){
+                return -1;
+            }
+            return read(target, offset, length);
+        }
+
+        private int fill() throws IOException {
+            position = 0;
+            limit = 0;
+            int read = in.read(buffer);
+            if(read > 0){
+                limit = read;
+            }
+            return read;
+        }
+
+        // Reads a line of the head, without the line ending. Lines ending with just LF are accepted too.
+        private String readLine(int[] headBytes, boolean first) throws IOException {
+            int start = position;
+            StringBuilder spill = null;
+            while(true){
+                for(int i = position; i < limit; i++){
+                    if(buffer[i] == '\n'){
+                        int end = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                        String line = new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+                        position = i + 1;
+                        if(spill != null){
+                            line = spill.append(line).toString();
+                            if(line.endsWith("\r")){
+                                // The CR was at the end of the last buffer.
+                                line = line.substring(0, line.length() - 1);
+                            }
+                        }
+                        headBytes[0] += i + 1 - start;
+                        return line;
+                    }
+                }
+                headBytes[0] += limit - start;
+                if(headBytes[0] > MAX_HEAD_BYTES){
+                    throw new IOException("Response head is more than "+MAX_HEAD_BYTES+" bytes.");
+                }
+                if(limit > start){
+                    if(spill == null){
+                        spill = new StringBuilder();
+                    }
+                    spill.append(new String(buffer, start, limit - start, StandardCharsets.ISO_8859_1));
+                }
+                int read;
+                try {
+                    read = fill();
+                } catch (SocketTimeoutException e){
+                    throw e;
+                } catch (IOException e){
+                    if(first && headBytes[0] == 0){
+                        // E.g. reset, since the server had closed it already.
+                        throw new StaleConnectionException();
+                    }
+                    throw e;
+                }
+                if(read == -1){
+                    if(first && headBytes[0] == 0){
+                        throw new StaleConnectionException();
+                    }
+                    throw new EOFException("Connection closed part way through the response head.");
+                }
+                start = 0;
+            }
+        }
+
+        void close(){
+            try {
+                socket.close();
+            } catch (IOException ignored){
+                // Nothing to do about it.
+            }
+        }
+    }
+}
@@ -4,7 +4,6 @@ package org.example.utils;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
@@ -14,6 +13,17 @@ import java.util.List;
  */
 public class ImageUtils {
 
+    /** <h2>Decode</h2>
+     * Decodes an image file, reading it straight out of the array it's in rather than through a copy of it.
+     * @param imageFile An image file in any format supported by <code>ImageIO</code>.
+     * @return The image, or <code>null</code> if there's no reader for its format.
+     * @throws IOException If the file can't be decoded.
+     */
+    public static BufferedImage decode(byte[] imageFile) throws IOException {
+        // ImageIO closes the stream when it's done, but there's nothing to close anyway.
+        return ImageIO.read(new ByteArrayImageInputStream(imageFile));
+    }
+
     /** <h2>Compare Images</h2>
      * This method takes two images and returns a boolean as to whether they're at least <code>similarityThreshold</code> percent similar.
      * If two images of different sizes are provided, the larger image will be resized to fit the smaller one.
@@ -26,12 +36,24 @@ public class ImageUtils {
         BufferedImage imgOne;
         BufferedImage imgTwo;
         try {
-            imgOne = ImageIO.read(new ByteArrayInputStream(imageFileOne));
-            imgTwo = ImageIO.read(new ByteArrayInputStream(imageFileTwo));
+            imgOne = decode(imageFileOne);
+            imgTwo = decode(imageFileTwo);
         } catch(IOException e){
             e.printStackTrace();
             return false;
         }
+        return compareImages(imgOne, imgTwo, similarityThreshold);
+    }
+
+    /** <h2>Compare Images</h2>
+     * As above, but for images that have already been decoded, e.g. when one image is being compared against several.
+     * @return <code>true</code> if the images are at least <code>similarityThreshold</code> percent similar, else false.
+     * Also false if either image is <code>null</code>, i.e. couldn't be decoded.
+     */
+    public static boolean compareImages(BufferedImage imgOne, BufferedImage imgTwo, int similarityThreshold){
+        if(imgOne == null || imgTwo == null){
+            return false;
+        }
         // Figure out the larger of the two for each axis. TODO collate these five lines.
         BufferedImage largerX, largerY, smallerX, smallerY;
         largerX = imgOne.getWidth() > imgTwo.getWidth() ? imgOne : imgTwo;
@@ -92,6 +114,28 @@ public class ImageUtils {
      * @return A byte[] corresponding to a png of the aggregated images. Width and Height will be equal to whatever the widest image's width is and whatever the highest image's height was respectively.
      */
     public static byte[] aggregateImages(List<byte[]> images){
+        BufferedImage out = aggregate(images);
+        if(out == null){
+            return null;
+        }
+        try {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            ImageIO.write(out, "png", file);
+
+            return file.toByteArray();
+
+        } catch (IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** <h2>Aggregate</h2>
+     * As {@link #aggregateImages}, but leaves the aggregate as it is rather than writing it out as a png, for comparing
+     * against without having to decode it again.
+     * @return The aggregated image, or <code>null</code> if there were no images or any of them couldn't be decoded.
+     */
+    public static BufferedImage aggregate(List<byte[]> images){
         if(images.size() == 0){
             return null;
         }
@@ -102,7 +146,10 @@ public class ImageUtils {
             int[] toAggregateXCoords = new int[images.size()];
             int[] toAggregateYCoords = new int[images.size()];
             for (int i = 0; i < toAggregate.length; i++) {
-                toAggregate[i] = ImageIO.read(new ByteArrayInputStream(images.get(i)));
+                toAggregate[i] = decode(images.get(i));
+                if(toAggregate[i] == null){
+                    throw new IOException("No reader for image "+i+".");
+                }
             }
 
             // Work out which of those images has the highest height, and which has the longest length.
@@ -154,11 +201,7 @@ public class ImageUtils {
                 }
             }
 
-
-            ByteArrayOutputStream file = new ByteArrayOutputStream();
-            ImageIO.write(out, "png", file);
-
-            return file.toByteArray();
+            return out;
 
         } catch (IOException e){
             e.printStackTrace();
@@ -166,4 +209,4 @@ public class ImageUtils {
         }
 
     }
-}
\ No newline at end of file
+}
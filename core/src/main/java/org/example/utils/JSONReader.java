@@ -0,0 +1,850 @@
+package org.example.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** <h1>JSON Reader</h1>
+ * Reads JSON a token at a time, straight off of a request body, without building a tree or a <code>String</code> for
+ * every value. Handlers walk the body with {@link #next()} and pick out what they need:
+ * <pre>
+ *     JSONReader json = new JSONReader(req.getBodyStream());
+ *     json.expect(JSONReader.Token.BEGIN_OBJECT);
+ *     while(json.next() == JSONReader.Token.NAME){
+ *         if(json.textEquals("words")){
+ *             ...
+ *         } else {
+ *             json.skipValue();
+ *         }
+ *     }
+ * </pre>
+ * Names and strings are decoded into a buffer that's reused for every value, which {@link #text()} gives a view of
+ * (and {@link #textEquals} compares against) without copying. Strings too large to want in memory at all, like base64
+ * encoded images, can be read as a stream of UTF-8 bytes with {@link #stringStream()} instead. String values aren't
+ * read until they're asked for, so ones that are skipped are never decoded.
+ * <p>
+ * Anything that isn't valid JSON (RFC 8259, UTF-8 encoded, without unpaired surrogates) throws
+ * {@link MalformedJSONException} as soon as it's reached. Not thread safe.
+ */
+public final class JSONReader {
+    /** What {@link #next()} found. */
+    public enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        /** A member name, read with {@link #text()}. Always followed by its value. */
+        NAME,
+        /** A string, read with {@link #text()}, {@link #string()} or {@link #stringStream()}. */
+        STRING,
+        /** A number, read with {@link #longValue()}, {@link #doubleValue()} or {@link #text()}. */
+        NUMBER,
+        TRUE,
+        FALSE,
+        NULL,
+        /** The end of the input, after the top level value. */
+        END
+    }
+
+    // Deeper than anything legitimate, and well short of anything that would hurt.
+    private static final int MAX_DEPTH = 512;
+    private static final int BUFFER_BYTES = 8 * 1024;
+
+    // What's expected next.
+    private enum State { VALUE, FIRST_IN_OBJECT, FIRST_IN_ARRAY, NAME, AFTER_VALUE, DONE }
+
+    private static final byte OBJECT = 1;
+    private static final byte ARRAY = 2;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    // The offset in the input of buffer[0], for error messages.
+    private long base;
+
+    private byte[] scopes;
+    private int depth;
+    private State state;
+    private Token token;
+
+    // The decoded name, string or number, reused for every one.
+    private char[] chars;
+    private int length;
+    private final Text text;
+    // Whether the current string is still waiting in the input, and whether it's being streamed rather than decoded.
+    private boolean pending;
+    private StringStream stream;
+
+    /** <h2>JSONReader</h2>
+     * Reads from a stream, a buffer at a time. Nothing is read past the end of the top level value, as long as the
+     * caller stops there, but what's buffered may be.
+     */
+    public JSONReader(InputStream in){
+        this(in, new byte[BUFFER_BYTES], 0, 0);
+    }
+
+    /** <h2>JSONReader</h2>
+     * Reads from an array that already holds all of the JSON, without copying it.
+     */
+    public JSONReader(byte[] json){
+        this(json, 0, json.length);
+    }
+
+    public JSONReader(byte[] json, int offset, int length){
+        this(null, json, offset, offset + length);
+        this.base = -offset;
+    }
+
+    private JSONReader(InputStream in, byte[] buffer, int pos, int limit){
+        this.in = in;
+        this.buffer = buffer;
+        this.pos = pos;
+        this.limit = limit;
+        this.scopes = new byte[16];
+        this.state = State.VALUE;
+        this.chars = new char[64];
+        this.text = new Text();
+    }
+
+    /** <h2>next</h2>
+     * Moves on to the next token. Whatever was left unread of the current one (i.e. a string that was never asked for,
+     * or the rest of one being streamed) is skipped.
+     * @return The token, which is {@link Token#END} once the whole value has been read.
+     * @throws MalformedJSONException If the input isn't valid JSON.
+     */
+    public Token next() throws IOException {
+        if(pending){
+            skipString();
+        }
+        if(stream != null){
+            stream.active = false;
+        }
+        length = 0;
+        switch (state) {
+            case VALUE -> {
+                return token = value();
+            }
+            case NAME -> {
+                return token = name();
+            }
+            case FIRST_IN_OBJECT -> {
+                if(skipWhitespace() == '}'){
+                    pos++;
+                    return token = close();
+                }
+                return token = name();
+            }
+            case FIRST_IN_ARRAY -> {
+                if(skipWhitespace() == ']'){
+                    pos++;
+                    return token = close();
+                }
+                return token = value();
+            }
+            case AFTER_VALUE -> {
+                int c = skipWhitespace();
+                if(depth == 0){
+                    if(c != -1){
+                        throw error("unexpected content after the value");
+                    }
+                    state = State.DONE;
+                    return token = Token.END;
+                }
+                if(c == -1){
+                    throw error("unexpected end of input");
+                }
+                pos++;
+                boolean object = scopes[depth - 1] == OBJECT;
+                if(c == ','){
+                    return token = object ? name() : value();
+                }
+                if(c == (object ? '}' : ']')){
+                    return token = close();
+                }
+                pos--;
+                throw error("expected ',' or '"+(object ? '}' : ']')+"'");
+            }
+            default -> {
+                return token = Token.END;
+            }
+        }
+    }
+
+    /** <h2>expect</h2>
+     * Moves on to the next token, which has to be the given one.
+     * @throws MalformedJSONException If it isn't.
+     */
+    public void expect(Token expected) throws IOException {
+        Token found = next();
+        if(found != expected){
+            throw error("expected "+describe(expected)+" but found "+describe(found));
+        }
+    }
+
+    /** <h2>getToken</h2>
+     * @return What the last call to {@link #next()} returned, or <code>null</code> if it hasn't been called yet.
+     */
+    public Token getToken(){
+        return token;
+    }
+
+    /** <h2>getDepth</h2>
+     * @return How many objects and arrays the reader is currently inside of.
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    /** <h2>skipValue</h2>
+     * Skips the next value, along with everything inside it. Usually called after a {@link Token#NAME} that isn't wanted.
+     */
+    public void skipValue() throws IOException {
+        int target = depth;
+        Token skipped = next();
+        if(skipped == Token.END_OBJECT || skipped == Token.END_ARRAY || skipped == Token.END || skipped == Token.NAME){
+            throw error("expected a value but found "+describe(skipped));
+        }
+        while(depth > target){
+            next();
+        }
+    }
+
+    /** <h2>copyValue</h2>
+     * Writes the current value out again, along with everything inside it if it's an object or array (which is read
+     * up to its end). For passing JSON through (e.g. a batched sub-request's body) without having to understand it.
+     */
+    public void copyValue(JSONWriter out) throws IOException {
+        Token current = token;
+        if(current == null || current == Token.NAME || current == Token.END_OBJECT || current == Token.END_ARRAY || current == Token.END){
+            throw error("expected a value but found "+describe(current));
+        }
+        int target = current == Token.BEGIN_OBJECT || current == Token.BEGIN_ARRAY ? depth - 1 : depth;
+        while(true){
+            switch (current) {
+                case BEGIN_OBJECT -> out.beginObject();
+                case END_OBJECT -> out.endObject();
+                case BEGIN_ARRAY -> out.beginArray();
+                case END_ARRAY -> out.endArray();
+                case NAME -> out.name(text);
+                case STRING -> out.value(text());
+                case NUMBER -> out.rawValue(text);
+                case TRUE -> out.value(true);
+                case FALSE -> out.value(false);
+                case NULL -> out.nullValue();
+                case END -> throw error("unexpected end of input");
+            }
+            if(depth == target){
+                return;
+            }
+            current = next();
+        }
+    }
+
+    /** <h2>text</h2>
+     * Gets the current name, string or number without copying it. The view is only valid until the next call to
+     * {@link #next()}, after which it changes to the next value.
+     */
+    public CharSequence text() throws IOException {
+        if(token == Token.STRING){
+            decodePending();
+        } else if(token != Token.NAME && token != Token.NUMBER){
+            throw error("expected a name, string or number but found "+describe(token));
+        }
+        return text;
+    }
+
+    /** <h2>textEquals</h2>
+     * @return Whether the current name, string or number is exactly the given text. Doesn't allocate.
+     */
+    public boolean textEquals(CharSequence other) throws IOException {
+        text();
+        if(other.length() != length){
+            return false;
+        }
+        for(int i = 0; i < length; i++){
+            if(chars[i] != other.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** <h2>string</h2>
+     * @return The current name or string, as a new String.
+     * @throws MalformedJSONException If the current token isn't a name or string.
+     */
+    public String string() throws IOException {
+        if(token != Token.STRING && token != Token.NAME){
+            throw error("expected a string but found "+describe(token));
+        }
+        text();
+        return new String(chars, 0, length);
+    }
+
+    /** <h2>longValue</h2>
+     * @return The current number, which has to be a whole one that fits in a long.
+     */
+    public long longValue() throws IOException {
+        if(token != Token.NUMBER){
+            throw error("expected a number but found "+describe(token));
+        }
+        boolean negative = chars[0] == '-';
+        long value = 0;
+        for(int i = negative ? 1 : 0; i < length; i++){
+            char c = chars[i];
+            if(c < '0' || c > '9'){
+                throw error("expected a whole number");
+            }
+            // Accumulated negatively, so that Long.MIN_VALUE fits.
+            long next = value * 10 - (c - '0');
+            if(value < Long.MIN_VALUE / 10 || next > value){
+                throw error("number out of range");
+            }
+            value = next;
+        }
+        if(!negative){
+            if(value == Long.MIN_VALUE){
+                throw error("number out of range");
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    /** <h2>doubleValue</h2>
+     * @return The current number.
+     */
+    public double doubleValue() throws IOException {
+        if(token != Token.NUMBER){
+            throw error("expected a number but found "+describe(token));
+        }
+        return Double.parseDouble(new String(chars, 0, length));
+    }
+
+    /** <h2>stringStream</h2>
+     * Reads the current string as a stream of UTF-8 bytes, with its escapes resolved, ending at its closing quote.
+     * Only the bytes asked for are read off of the input, so this works for strings of any size. The stream is only
+     * valid until the next call to {@link #next()}, which skips whatever wasn't read.
+     * @throws MalformedJSONException If the current token isn't a string, or it's already been read.
+     */
+    public InputStream stringStream() throws IOException {
+        if(token != Token.STRING || !pending || (stream != null && stream.active)){
+            throw error(token == Token.STRING ? "string has already been read" : "expected a string but found "+describe(token));
+        }
+        if(stream == null){
+            stream = new StringStream();
+        }
+        stream.start();
+        return stream;
+    }
+
+    private Token value() throws IOException {
+        int c = skipWhitespace();
+        switch (c) {
+            case -1 -> throw error("unexpected end of input");
+            case '{' -> {
+                pos++;
+                push(OBJECT);
+                state = State.FIRST_IN_OBJECT;
+                return Token.BEGIN_OBJECT;
+            }
+            case '[' -> {
+                pos++;
+                push(ARRAY);
+                state = State.FIRST_IN_ARRAY;
+                return Token.BEGIN_ARRAY;
+            }
+            case '"' -> {
+                pos++;
+                pending = true;
+                state = State.AFTER_VALUE;
+                return Token.STRING;
+            }
+            case 't' -> {
+                literal("true");
+                return Token.TRUE;
+            }
+            case 'f' -> {
+                literal("false");
+                return Token.FALSE;
+            }
+            case 'n' -> {
+                literal("null");
+                return Token.NULL;
+            }
+            default -> {
+                if(c == '-' || (c >= '0' && c <= '9')){
+                    number();
+                    state = State.AFTER_VALUE;
+                    return Token.NUMBER;
+                }
+                throw error("unexpected '"+(char) c+"'");
+            }
+        }
+    }
+
+    private Token name() throws IOException {
+        if(skipWhitespace() != '"'){
+            throw error("expected a name");
+        }
+        pos++;
+        decodeString();
+        if(skipWhitespace() != ':'){
+            throw error("expected ':'");
+        }
+        pos++;
+        state = State.VALUE;
+        return Token.NAME;
+    }
+
+    private Token close(){
+        depth--;
+        state = State.AFTER_VALUE;
+        return scopes[depth] == OBJECT ? Token.END_OBJECT : Token.END_ARRAY;
+    }
+
+    private void push(byte scope) throws MalformedJSONException {
+        if(depth == MAX_DEPTH){
+            throw error("nested too deeply");
+        }
+        if(depth == scopes.length){
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        }
+        scopes[depth++] = scope;
+    }
+
+    private void literal(String word) throws IOException {
+        for(int i = 0; i < word.length(); i++){
+            if(read() != word.charAt(i)){
+                pos--;
+                throw error("invalid literal, expected "+word);
+            }
+        }
+        int c = peek();
+        if((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')){
+            throw error("invalid literal, expected "+word);
+        }
+        state = State.AFTER_VALUE;
+    }
+
+    // Reads a number into chars, checking it against JSON's grammar as it goes.
+    private void number() throws IOException {
+        int c = peek();
+        if(c == '-'){
+            append((char) read());
+            c = peek();
+        }
+        if(c == '0'){
+            append((char) read());
+        } else if(!digits()){
+            throw error("expected a digit");
+        }
+        if(peek() == '.'){
+            append((char) read());
+            if(!digits()){
+                throw error("expected a digit");
+            }
+        }
+        c = peek();
+        if(c == 'e' || c == 'E'){
+            append((char) read());
+            c = peek();
+            if(c == '+' || c == '-'){
+                append((char) read());
+            }
+            if(!digits()){
+                throw error("expected a digit");
+            }
+        }
+        c = peek();
+        if((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'){
+            throw error("invalid number");
+        }
+    }
+
+    private boolean digits() throws IOException {
+        boolean any = false;
+        int c;
+        while((c = peek()) >= '0' && c <= '9'){
+            append((char) read());
+            any = true;
+        }
+        return any;
+    }
+
+    // Decodes the rest of a string into chars, the opening quote having already been read.
+    private void decodeString() throws IOException {
+        while(true){
+            if(pos == limit && !fill()){
+                throw error("unterminated string");
+            }
+            // Runs of plain ASCII are by far the common case.
+            int end = limit;
+            int i = pos;
+            if(chars.length - length < end - i){
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + end - i));
+            }
+            char[] chars = this.chars;
+            int length = this.length;
+            byte b = 0;
+            while(i < end && (b = buffer[i]) >= 0x20 && b != '"' && b != '\\'){
+                chars[length++] = (char) b;
+                i++;
+            }
+            this.length = length;
+            pos = i;
+            if(i == end){
+                continue;
+            }
+            if(b == '"'){
+                pos++;
+                return;
+            }
+            if(b == '\\'){
+                pos++;
+                appendCodePoint(escape());
+            } else if(b >= 0 && b < 0x20){
+                throw error("unescaped control character in string");
+            } else {
+                appendCodePoint(utf8());
+            }
+        }
+    }
+
+    private void decodePending() throws IOException {
+        if(stream != null && stream.active){
+            throw error("string has already been streamed");
+        }
+        if(!pending){
+            return;
+        }
+        pending = false;
+        decodeString();
+    }
+
+    // Skips the rest of a string without decoding it, checking only what's needed to find where it ends.
+    private void skipString() throws IOException {
+        pending = false;
+        while(true){
+            if(pos == limit && !fill()){
+                throw error("unterminated string");
+            }
+            int end = limit;
+            int i = pos;
+            byte b = 0;
+            while(i < end && (b = buffer[i]) != '"' && b != '\\' && (b < 0 || b >= 0x20)){
+                i++;
+            }
+            pos = i;
+            if(i == end){
+                continue;
+            }
+            pos++;
+            if(b == '"'){
+                return;
+            }
+            if(b == '\\'){
+                escape();
+            } else {
+                pos--;
+                throw error("unescaped control character in string");
+            }
+        }
+    }
+
+    // Reads an escape, the backslash having already been read, and returns the code point it stands for. Surrogate
+    // pairs written as two escapes come back as one code point.
+    private int escape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"', '\\', '/' -> {
+                return c;
+            }
+            case 'b' -> {
+                return '\b';
+            }
+            case 'f' -> {
+                return '\f';
+            }
+            case 'n' -> {
+                return '\n';
+            }
+            case 'r' -> {
+                return '\r';
+            }
+            case 't' -> {
+                return '\t';
+            }
+            case 'u' -> {
+                char unit = hex4();
+                if(!Character.isSurrogate(unit)){
+                    return unit;
+                }
+                // Characters outside the BMP are escaped as a surrogate pair. A lone surrogate isn't a character at
+                // all (and has no UTF-8 form to stream), so those are refused rather than guessed at.
+                if(Character.isHighSurrogate(unit) && read() == '\\' && read() == 'u'){
+                    char low = hex4();
+                    if(Character.isLowSurrogate(low)){
+                        return Character.toCodePoint(unit, low);
+                    }
+                }
+                throw error("unpaired surrogate");
+            }
+            case -1 -> throw error("unterminated string");
+            default -> {
+                pos--;
+                throw error("invalid escape '\\"+(char) c+"'");
+            }
+        }
+    }
+
+    private char hex4() throws IOException {
+        int value = 0;
+        for(int i = 0; i < 4; i++){
+            int c = read();
+            int digit = Character.digit(c, 16);
+            if(c == -1 || digit == -1){
+                throw error("invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    // Decodes a multibyte UTF-8 sequence, none of it having been read yet.
+    private int utf8() throws IOException {
+        int lead = read();
+        int count, cp, min;
+        if((lead & 0xE0) == 0xC0){
+            count = 1;
+            cp = lead & 0x1F;
+            min = 0x80;
+        } else if((lead & 0xF0) == 0xE0){
+            count = 2;
+            cp = lead & 0x0F;
+            min = 0x800;
+        } else if((lead & 0xF8) == 0xF0){
+            count = 3;
+            cp = lead & 0x07;
+            min = 0x10000;
+        } else {
+            pos--;
+            throw error("invalid UTF-8");
+        }
+        for(int i = 0; i < count; i++){
+            int next = read();
+            if((next & 0xC0) != 0x80){
+                throw error("invalid UTF-8");
+            }
+            cp = (cp << 6) | (next & 0x3F);
+        }
+        if(cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)){
+            throw error("invalid UTF-8");
+        }
+        return cp;
+    }
+
+    private void appendCodePoint(int cp){
+        if(cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT){
+            append(Character.highSurrogate(cp));
+            append(Character.lowSurrogate(cp));
+        } else {
+            append((char) cp);
+        }
+    }
+
+    private void append(char c){
+        if(length == chars.length){
+            chars = Arrays.copyOf(chars, length * 2);
+        }
+        chars[length++] = c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        while(true){
+            if(pos == limit && !fill()){
+                return -1;
+            }
+            byte b = buffer[pos];
+            if(b != ' ' && b != '\n' && b != '\r' && b != '\t'){
+                return b & 0xFF;
+            }
+            pos++;
+        }
+    }
+
+    private int peek() throws IOException {
+        if(pos == limit && !fill()){
+            return -1;
+        }
+        return buffer[pos] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if(pos == limit && !fill()){
+            // Moved past the end, so the pos-- before reporting an error points back at it.
+            pos++;
+            return -1;
+        }
+        return buffer[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if(in == null){
+            return false;
+        }
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while(read == 0);
+        if(read < 0){
+            return false;
+        }
+        base += limit;
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    private MalformedJSONException error(String message){
+        return new MalformedJSONException(message, base + Math.min(pos, limit));
+    }
+
+    private static String describe(Token token){
+        return token == null ? "nothing" : token.name().toLowerCase().replace('_', ' ');
+    }
+
+    // The decoded value, as a CharSequence that's reused rather than copied.
+    private final class Text implements CharSequence {
+        @Override
+        public int length(){
+            return length;
+        }
+
+        @Override
+        public char charAt(int index){
+            if(index < 0 || index >= length){
+                throw new IndexOutOfBoundsException(index);
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString(){
+            return new String(chars, 0, length);
+        }
+    }
+
+    // The current string as UTF-8, read straight out of the input buffer.
+    private final class StringStream extends InputStream {
+        // Bytes of an escape (or multibyte character) that didn't fit in the caller's array last time.
+        private final byte[] spill = new byte[4];
+        private final byte[] one = new byte[1];
+        private int spillPos;
+        private int spillLength;
+        private boolean active;
+        private boolean finished;
+
+        private void start(){
+            active = true;
+            finished = false;
+            spillPos = 0;
+            spillLength = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            // Base64's decoding stream reads a byte at a time, so the plain case needs to be quick.
+            if(active && spillPos == spillLength && !finished && pos < limit){
+                byte b = buffer[pos];
+                if(b != '"' && b != '\\' && (b < 0 || b >= 0x20)){
+                    pos++;
+                    return b & 0xFF;
+                }
+            }
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] out, int offset, int len) throws IOException {
+            if(!active){
+                throw new IOException("The reader has moved past this string.");
+            }
+            if(len == 0){
+                return 0;
+            }
+            int written = 0;
+            while(written < len){
+                if(spillPos < spillLength){
+                    int n = Math.min(len - written, spillLength - spillPos);
+                    System.arraycopy(spill, spillPos, out, offset + written, n);
+                    spillPos += n;
+                    written += n;
+                    continue;
+                }
+                if(finished){
+                    break;
+                }
+                if(pos == limit && !fill()){
+                    throw error("unterminated string");
+                }
+                // Everything other than quotes, backslashes and control characters is copied across as it is, so
+                // UTF-8 passes through without being decoded.
+                int end = Math.min(limit, pos + (len - written));
+                int i = pos;
+                byte b = 0;
+                while(i < end && (b = buffer[i]) != '"' && b != '\\' && (b < 0 || b >= 0x20)){
+                    i++;
+                }
+                System.arraycopy(buffer, pos, out, offset + written, i - pos);
+                written += i - pos;
+                pos = i;
+                if(i == end){
+                    continue;
+                }
+                pos++;
+                if(b == '"'){
+                    finished = true;
+                    pending = false;
+                } else if(b == '\\'){
+                    spillPos = 0;
+                    spillLength = encode(escape());
+                } else {
+                    pos--;
+                    throw error("unescaped control character in string");
+                }
+            }
+            return written == 0 && finished ? -1 : written;
+        }
+
+        private int encode(int cp){
+            if(cp < 0x80){
+                spill[0] = (byte) cp;
+                return 1;
+            }
+            if(cp < 0x800){
+                spill[0] = (byte) (0xC0 | (cp >> 6));
+                spill[1] = (byte) (0x80 | (cp & 0x3F));
+                return 2;
+            }
+            if(cp < 0x10000){
+                spill[0] = (byte) (0xE0 | (cp >> 12));
+                spill[1] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                spill[2] = (byte) (0x80 | (cp & 0x3F));
+                return 3;
+            }
+            spill[0] = (byte) (0xF0 | (cp >> 18));
+            spill[1] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            spill[2] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            spill[3] = (byte) (0x80 | (cp & 0x3F));
+            return 4;
+        }
+    }
+}
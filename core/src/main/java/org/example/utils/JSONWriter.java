@@ -0,0 +1,426 @@
+package org.example.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** <h1>JSON Writer</h1>
+ * Writes JSON a token at a time, encoding it as UTF-8 straight into byte buffers, so responses don't go through
+ * <code>String.format</code>, a <code>StringBuilder</code> and <code>getBytes()</code> on their way out. Commas, quotes
+ * and escaping are taken care of:
+ * <pre>
+ *     writer.status(200).json()
+ *             .beginObject()
+ *                 .name("id").quoted(guild.getIdLong())
+ *                 .name("name").value(guild.getName())
+ *             .endObject();
+ *     writer.send();
+ * </pre>
+ * Responses get one from {@link org.example.webserver.utils.ResponseWriter#json}, which writes into the response's own
+ * buffers. Anything else can use {@link #JSONWriter()}, which writes into a heap buffer that {@link #toString()} and
+ * {@link #toByteArray()} read back.
+ * <p>
+ * Mistakes that would produce invalid JSON (e.g. a value in an object without a name, or closing an array with
+ * {@link #endObject()}) throw <code>IllegalStateException</code>. Not thread safe.
+ */
+public final class JSONWriter {
+    /** <h1>Output</h1>
+     * Where a JSONWriter's bytes go.
+     */
+    @FunctionalInterface
+    public interface Output {
+        /** <h2>room</h2>
+         * @param bytes How many bytes are about to be written, never more than a few dozen.
+         * @return A buffer in write mode with at least that many bytes remaining, which the writer puts them into at
+         * its position. Asked again before every token, so this can move on to a new buffer whenever it likes.
+         */
+        ByteBuffer room(int bytes);
+    }
+
+    // The most a single char can turn into, i.e. a six byte unicode escape.
+    private static final int MAX_CHAR_BYTES = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    // What follows the backslash for characters that have to be escaped, 'u' for ones written as a unicode escape, or 0
+    // for ASCII that's written as it is.
+    private static final byte[] ESCAPES = new byte[128];
+    static {
+        for(int c = 0; c < 0x20; c++){
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['"'] = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+    }
+
+    private static final byte OBJECT = 1;
+    private static final byte ARRAY = 2;
+
+    private final Output output;
+    private final HeapOutput heap;
+    // The object or array being written at each level of nesting, and whether it's had anything written in it yet.
+    private byte[] scopes;
+    private boolean[] started;
+    private int depth;
+    private boolean afterName;
+    private boolean complete;
+    private final byte[] digits;
+
+    /** <h2>JSONWriter</h2>
+     * Writes into a heap buffer, for JSON that isn't going straight into a response.
+     */
+    public JSONWriter(){
+        this(new HeapOutput());
+    }
+
+    /** <h2>JSONWriter</h2>
+     * @param output Where to write.
+     */
+    public JSONWriter(Output output){
+        this.output = output;
+        this.heap = output instanceof HeapOutput heapOutput ? heapOutput : null;
+        this.scopes = new byte[16];
+        this.started = new boolean[16];
+        this.digits = new byte[20];
+    }
+
+    /** <h2>reset</h2>
+     * Readies the writer for a new value, forgetting anything half written. Writers on a heap buffer also empty it.
+     */
+    public JSONWriter reset(){
+        depth = 0;
+        afterName = false;
+        complete = false;
+        if(heap != null){
+            heap.buffer.clear();
+        }
+        return this;
+    }
+
+    /** <h2>isComplete</h2>
+     * @return Whether a whole value has been written, i.e. everything that was opened has been closed.
+     */
+    public boolean isComplete(){
+        return complete && depth == 0;
+    }
+
+    public JSONWriter beginObject(){
+        return begin(OBJECT, '{');
+    }
+
+    public JSONWriter endObject(){
+        return end(OBJECT, '}');
+    }
+
+    public JSONWriter beginArray(){
+        return begin(ARRAY, '[');
+    }
+
+    public JSONWriter endArray(){
+        return end(ARRAY, ']');
+    }
+
+    /** <h2>name</h2>
+     * Writes the name of the next member of the current object, which must be followed by its value.
+     */
+    public JSONWriter name(CharSequence name){
+        separateName(1).put((byte) '"');
+        string(name);
+        output.room(2).put((byte) '"').put((byte) ':');
+        return this;
+    }
+
+    /** <h2>name</h2>
+     * Writes a number as a member name, e.g. for objects keyed by snowflake.
+     */
+    public JSONWriter name(long name){
+        ByteBuffer out = separateName(21);
+        out.put((byte) '"');
+        number(out, name);
+        output.room(2).put((byte) '"').put((byte) ':');
+        return this;
+    }
+
+    /** <h2>value</h2>
+     * Writes a string, or <code>null</code>.
+     */
+    public JSONWriter value(CharSequence value){
+        if(value == null){
+            return nullValue();
+        }
+        separateValue(1).put((byte) '"');
+        string(value);
+        output.room(1).put((byte) '"');
+        return this;
+    }
+
+    public JSONWriter value(long value){
+        number(separateValue(20), value);
+        return this;
+    }
+
+    /** <h2>value</h2>
+     * Writes a number. JSON has no NaN or infinity, so they're written as <code>null</code>.
+     */
+    public JSONWriter value(double value){
+        if(Double.isNaN(value) || Double.isInfinite(value)){
+            return nullValue();
+        }
+        if(value == (long) value && Math.abs(value) < 1e15){
+            // Whole numbers are common (e.g. counts kept as doubles), and don't need Double.toString's garbage.
+            number(separateValue(22), (long) value);
+            output.room(2).put((byte) '.').put((byte) '0');
+            return this;
+        }
+        ascii(separateValue(1), Double.toString(value));
+        return this;
+    }
+
+    public JSONWriter value(boolean value){
+        byte[] literal = value ? TRUE : FALSE;
+        separateValue(literal.length).put(literal);
+        return this;
+    }
+
+    public JSONWriter nullValue(){
+        separateValue(NULL.length).put(NULL);
+        return this;
+    }
+
+    /** <h2>quoted</h2>
+     * Writes a number as a string. For snowflakes, which are too large to survive being read as a JavaScript number.
+     */
+    public JSONWriter quoted(long value){
+        ByteBuffer out = separateValue(21);
+        out.put((byte) '"');
+        number(out, value);
+        output.room(1).put((byte) '"');
+        return this;
+    }
+
+    /** <h2>rawValue</h2>
+     * Writes a value that's already JSON, exactly as it is. It isn't checked, so it had better be valid.
+     */
+    public JSONWriter rawValue(CharSequence json){
+        ByteBuffer out = separateValue(1);
+        for(int i = 0; i < json.length(); i++){
+            if(out.remaining() < MAX_CHAR_BYTES){
+                out = output.room(MAX_CHAR_BYTES);
+            }
+            i = utf8(out, json, i);
+        }
+        return this;
+    }
+
+    /** <h2>rawValue</h2>
+     * As above, for JSON that's already been encoded as UTF-8.
+     */
+    public JSONWriter rawValue(byte[] json, int offset, int length){
+        ByteBuffer out = separateValue(1);
+        while(length > 0){
+            if(!out.hasRemaining()){
+                out = output.room(1);
+            }
+            int len = Math.min(length, out.remaining());
+            out.put(json, offset, len);
+            offset += len;
+            length -= len;
+        }
+        return this;
+    }
+
+    /** <h2>toByteArray</h2>
+     * @return Everything written so far, for writers on a heap buffer.
+     */
+    public byte[] toByteArray(){
+        ByteBuffer buffer = heapBuffer();
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /** <h2>toString</h2>
+     * @return Everything written so far, for writers on a heap buffer.
+     */
+    @Override
+    public String toString(){
+        ByteBuffer buffer = heapBuffer();
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+    /** <h2>quote</h2>
+     * @return A string as a JSON string literal, or <code>null</code>. For the odd place that needs one on its own.
+     */
+    public static String quote(CharSequence text){
+        return new JSONWriter().value(text).toString();
+    }
+
+    private ByteBuffer heapBuffer(){
+        if(heap == null){
+            throw new IllegalStateException("Only writers on a heap buffer can be read back.");
+        }
+        return heap.buffer;
+    }
+
+    private JSONWriter begin(byte scope, char bracket){
+        ByteBuffer out = separateValue(1);
+        if(depth == scopes.length){
+            scopes = Arrays.copyOf(scopes, depth * 2);
+            started = Arrays.copyOf(started, depth * 2);
+        }
+        scopes[depth] = scope;
+        started[depth] = false;
+        depth++;
+        out.put((byte) bracket);
+        return this;
+    }
+
+    private JSONWriter end(byte scope, char bracket){
+        if(depth == 0 || scopes[depth - 1] != scope){
+            throw new IllegalStateException("Not in "+(scope == OBJECT ? "an object." : "an array."));
+        }
+        if(afterName){
+            throw new IllegalStateException("Expected a value for the last name.");
+        }
+        depth--;
+        output.room(1).put((byte) bracket);
+        return this;
+    }
+
+    // As below, for names.
+    private ByteBuffer separateName(int bytes){
+        if(depth == 0 || scopes[depth - 1] != OBJECT){
+            throw new IllegalStateException("Names can only be written in objects.");
+        }
+        if(afterName){
+            throw new IllegalStateException("Expected a value for the last name.");
+        }
+        afterName = true;
+        return comma(bytes);
+    }
+
+    // Checks a value can go here, and writes the comma before it if it needs one. Returns a buffer with room for the
+    // given number of bytes after that.
+    private ByteBuffer separateValue(int bytes){
+        if(depth == 0){
+            if(complete){
+                throw new IllegalStateException("A value has already been written.");
+            }
+            complete = true;
+            return output.room(bytes);
+        }
+        if(scopes[depth - 1] == OBJECT){
+            if(!afterName){
+                throw new IllegalStateException("Values in objects need a name first.");
+            }
+            afterName = false;
+            return output.room(bytes);
+        }
+        return comma(bytes);
+    }
+
+    private ByteBuffer comma(int bytes){
+        ByteBuffer out = output.room(bytes + 1);
+        if(started[depth - 1]){
+            out.put((byte) ',');
+        } else {
+            started[depth - 1] = true;
+        }
+        return out;
+    }
+
+    // Writes the inside of a string literal, escaping anything that has to be.
+    private void string(CharSequence text){
+        ByteBuffer out = output.room(MAX_CHAR_BYTES);
+        for(int i = 0; i < text.length(); i++){
+            if(out.remaining() < MAX_CHAR_BYTES){
+                out = output.room(MAX_CHAR_BYTES);
+            }
+            char c = text.charAt(i);
+            if(c >= 0x80){
+                i = utf8(out, text, i);
+                continue;
+            }
+            byte escape = ESCAPES[c];
+            if(escape == 0){
+                out.put((byte) c);
+            } else if(escape == 'u'){
+                out.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else {
+                out.put((byte) '\\').put(escape);
+            }
+        }
+    }
+
+    // Encodes the char at i (along with its low surrogate, if it's a pair), returning the index of the last char used.
+    private static int utf8(ByteBuffer out, CharSequence text, int i){
+        char c = text.charAt(i);
+        if(c < 0x80){
+            out.put((byte) c);
+        } else if(c < 0x800){
+            out.put((byte) (0xC0 | (c >> 6)));
+            out.put((byte) (0x80 | (c & 0x3F)));
+        } else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+            int cp = Character.toCodePoint(c, text.charAt(++i));
+            out.put((byte) (0xF0 | (cp >> 18)));
+            out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            out.put((byte) (0x80 | (cp & 0x3F)));
+        } else if(Character.isSurrogate(c)){
+            // Unpaired, same replacement String.getBytes() uses.
+            out.put((byte) '?');
+        } else {
+            out.put((byte) (0xE0 | (c >> 12)));
+            out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            out.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return i;
+    }
+
+    // The buffer must have room for 20 bytes, enough for any long.
+    private void number(ByteBuffer out, long value){
+        if(value == Long.MIN_VALUE){
+            ascii(out, "-9223372036854775808");
+            return;
+        }
+        if(value < 0){
+            out.put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while(value != 0);
+        out.put(digits, start, digits.length - start);
+    }
+
+    private void ascii(ByteBuffer out, String text){
+        for(int i = 0; i < text.length(); i++){
+            if(!out.hasRemaining()){
+                out = output.room(1);
+            }
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    // Doubles whenever it fills up, like a StringBuilder.
+    private static final class HeapOutput implements Output {
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        @Override
+        public ByteBuffer room(int bytes){
+            if(buffer.remaining() < bytes){
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.example.utils;
+
+import java.io.IOException;
+
+/** <h1>Malformed JSON Exception</h1>
+ * Thrown by {@link JSONReader} when what it's reading isn't valid JSON, or isn't what the caller asked for (e.g. a
+ * number where they wanted a string). Handlers usually answer these with 400.
+ */
+public class MalformedJSONException extends IOException {
+    private final long offset;
+
+    public MalformedJSONException(String message, long offset){
+        super(message+" at offset "+offset+".");
+        this.offset = offset;
+    }
+
+    /** <h2>getOffset</h2>
+     * @return How many bytes into the input the problem was found.
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/** <h1>Quiescence</h1>
+ * Keeps track of operations (REST requests, commands, JDA events and MessageBus events being handled by plugins) so
+ * that plugins can be swapped out without stopping them. Operations never wait here: each one notes the epoch it
+ * started in on the way in and crosses it off on the way out. Once the new plugins have been published, the reload calls
+ * {@link #drain}, which starts a new epoch and waits for everything from the old one to finish. Anything that started
+ * after the swap is never waited on, since it can only ever have seen the new plugins.
+ * <p>
+ * Only two epochs can be live at once (the one being drained, and the current one), so each just needs a counter.
+ * <pre>
+ *     long epoch = quiescence.enter();
+ *     try {
+ *         // Use the current tables.
+ *     } finally {
+ *         quiescence.exit(epoch);
+ *     }
+ * </pre>
+ */
+public final class Quiescence {
+    /** <h2>Drained</h2>
+     * The outcome of {@link #drain}: how many operations were still running in the old epoch when it began, and whether
+     * they all finished before the timeout.
+     */
+    public record Drained(int operations, boolean timedOut) {}
+
+    private final AtomicInteger[] active;
+    private volatile long epoch;
+    // The thread in drain(), woken by exit() so it doesn't have to poll.
+    private volatile Thread drainer;
+
+    public Quiescence(){
+        this.active = new AtomicInteger[]{new AtomicInteger(), new AtomicInteger()};
+    }
+
+    /** <h2>enter</h2>
+     * Notes the start of an operation. Never blocks.
+     * @return The epoch to pass to {@link #exit}.
+     */
+    public long enter(){
+        while(true){
+            long current = epoch;
+            active[(int) (current & 1)].incrementAndGet();
+            if(epoch == current){
+                return current;
+            }
+            // A drain started in between, and might have missed this. Back out and count it in the new epoch instead.
+            exit(current);
+        }
+    }
+
+    /** <h2>exit</h2>
+     * Notes the end of an operation started with {@link #enter}.
+     */
+    public void exit(long epoch){
+        active[(int) (epoch & 1)].decrementAndGet();
+        Thread waiting = drainer;
+        if(waiting != null){
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /** <h2>drain</h2>
+     * Starts a new epoch, then waits for every operation started before it to finish. Call this after publishing
+     * whatever the operations read, and before retiring what they might still be using.
+     * @param ownOperations How many of the operations are the caller's own (e.g. 1 for a reload requested over REST),
+     *                      which would otherwise be waited on forever.
+     * @param timeoutMillis How long to wait before giving up on stragglers.
+     */
+    public synchronized Drained drain(int ownOperations, long timeoutMillis){
+        long old = epoch;
+        epoch = old + 1;
+        AtomicInteger slot = active[(int) (old & 1)];
+        int operations = Math.max(0, slot.get() - ownOperations);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        drainer = Thread.currentThread();
+        try {
+            while(slot.get() > ownOperations){
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    return new Drained(operations, true);
+                }
+                // Woken by exit(), but capped in case an operation that was backing out in enter() got there first.
+                LockSupport.parkNanos(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+            }
+        } finally {
+            drainer = null;
+        }
+        return new Drained(operations, false);
+    }
+
+    /** <h2>getActive</h2>
+     * @return How many operations are running right now, across both epochs.
+     */
+    public int getActive(){
+        return active[0].get() + active[1].get();
+    }
+}
@@ -1,16 +1,21 @@
 package org.example.utils;
 
+/** <h1>Response</h1>
+ * Something got off the web with {@link HTTPClient}: the status, the body's type, and the body itself.
+ */
 public class Response {
     private final int statusCode;
     private final String statusMessage;
     private final String mimeType;
-    private final Byte[] content;
+    private final byte[] body;
+    private final String location;
 
-    public Response(int statusCode, String statusMessage, String mimeType, Byte[] content) {
+    public Response(int statusCode, String statusMessage, String mimeType, byte[] body, String location) {
         this.statusCode = statusCode;
         this.statusMessage = statusMessage;
         this.mimeType = mimeType;
-        this.content = content;
+        this.body = body;
+        this.location = location;
     }
 
     public int getStatusCode() {
@@ -25,8 +30,18 @@ public class Response {
         return mimeType;
     }
 
-    public Byte[] getContent() {
-        return content;
+    /** <h2>getBody</h2>
+     * The body as it was read, which is empty (but never <code>null</code>) if there wasn't one.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /** <h2>getLocation</h2>
+     * The Location header, if there was one, i.e. where a redirect points to.
+     */
+    public String getLocation() {
+        return location;
     }
 
     public static String mimeToExtension(String mime){
@@ -0,0 +1,128 @@
+package org.example.webserver;
+
+import org.example.metrics.Counter;
+import org.example.metrics.Family;
+import org.example.metrics.MetricRegistry;
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.AdmissionLimits;
+import org.example.webserver.utils.ResponseWriter;
+import org.example.webserver.utils.TokenBucket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Decides whether a matched request gets to run its handler, per the WebServer's AdmissionLimits, and answers it with
+// 429 or 503 if it doesn't. Nothing here queues: a request either gets its tokens straight away or is told when to come
+// back, and only waits (briefly, and boundedly) for a concurrency slot.
+final class AdmissionControl {
+    private final AdmissionLimits limits;
+    // Null when there's no concurrency limit.
+    private final Semaphore slots;
+    // One bucket per route pattern, made on first use. Patterns are a fixed set, so this never grows past the routes
+    // that have been registered (including any since dropped by a plugin reload, which are few).
+    private final ConcurrentHashMap<String, TokenBucket> routeBuckets;
+    private final Counter rejectedConnection;
+    private final Counter rejectedRoute;
+    private final Counter rejectedBusy;
+
+    AdmissionControl(AdmissionLimits limits, MetricRegistry metrics){
+        this.limits = limits;
+        this.slots = limits.getMaxConcurrentRequests() > 0 ? new Semaphore(limits.getMaxConcurrentRequests()) : null;
+        this.routeBuckets = new ConcurrentHashMap<>();
+        Family<Counter> rejected = metrics.counters("quantec_http_rejected_total", "Requests turned away by admission control, by reason.", "reason");
+        this.rejectedConnection = rejected.labels("connection_rate");
+        this.rejectedRoute = rejected.labels("route_rate");
+        this.rejectedBusy = rejected.labels("concurrency");
+        if(slots != null){
+            metrics.gauge("quantec_http_admission_slots_free", "Concurrency slots not currently in use.", slots::availablePermits);
+        }
+    }
+
+    /** <h2>newConnectionBucket</h2>
+     * @return A bucket for a new connection, or <code>null</code> if there's no per-connection rate limit.
+     */
+    TokenBucket newConnectionBucket(){
+        return limits.getConnectionRate() > 0 ? new TokenBucket(limits.getConnectionRate(), limits.getConnectionBurst()) : null;
+    }
+
+    /** <h2>admit</h2>
+     * Takes a matched request's cost from its connection's and route's buckets, then a concurrency slot, answering it
+     * if any of those aren't available. Routes with a cost of 0 shouldn't be passed to this.
+     * @param connection The connection's bucket, or <code>null</code> if it doesn't have one (e.g. batch sub-requests,
+     *                   whose batch has already been charged to its connection).
+     * @return Whether the request was admitted, in which case {@link #release} must be called once it's been handled.
+     * Otherwise the response has already been written.
+     */
+    boolean admit(Router.Match match, TokenBucket connection, ResponseWriter writer){
+        int cost = match.cost();
+        if(connection != null){
+            long wait = connection.tryTake(cost);
+            if(wait > 0){
+                rejectedConnection.inc();
+                reject(writer, 429, wait, "Too many requests on this connection.");
+                return false;
+            }
+        }
+        if(limits.getRouteRate() > 0){
+            TokenBucket route = routeBuckets.get(match.params().getPattern());
+            if(route == null){
+                route = routeBuckets.computeIfAbsent(match.params().getPattern(), pattern -> new TokenBucket(limits.getRouteRate(), limits.getRouteBurst()));
+            }
+            long wait = route.tryTake(cost);
+            if(wait > 0){
+                rejectedRoute.inc();
+                reject(writer, 429, wait, "Too many requests to this endpoint.");
+                return false;
+            }
+        }
+        if(slots != null && !slots.tryAcquire()){
+            boolean acquired;
+            try {
+                acquired = slots.tryAcquire(limits.getQueueTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if(!acquired){
+                rejectedBusy.inc();
+                reject(writer, 503, 0, "Server busy.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** <h2>release</h2>
+     * Gives back the concurrency slot taken by {@link #admit}.
+     */
+    void release(){
+        if(slots != null){
+            slots.release();
+        }
+    }
+
+    /** <h2>writeStatsJSON</h2>
+     * Writes the concurrency limit, how much of it is free, and how many requests have been rejected, as a JSON object.
+     */
+    void writeStatsJSON(JSONWriter json){
+        json.beginObject()
+                .name("maxConcurrent").value(limits.getMaxConcurrentRequests())
+                .name("free").value(slots == null ? 0 : slots.availablePermits())
+                .name("rejected").beginObject()
+                    .name("connectionRate").value(rejectedConnection.get())
+                    .name("routeRate").value(rejectedRoute.get())
+                    .name("concurrency").value(rejectedBusy.get())
+                .endObject()
+                .endObject();
+    }
+
+    private static void reject(ResponseWriter writer, int status, long waitNanos, String reason){
+        // Retry-After is in whole seconds, and 0 would invite the client straight back.
+        long seconds = Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+        writer.status(status)
+                .header("Retry-After", Long.toString(seconds))
+                .json().beginObject().name("error").value(reason).endObject();
+        writer.send();
+    }
+}
@@ -0,0 +1,140 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.ResponseWriter;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+// A response whose handler returned a stage rather than writing it, see AsyncRouteHandler. It's settled exactly once,
+// by whichever comes first out of the stage completing, the route's timeout, or the connection giving up on it.
+// Settling writes the response into the request's writer (a 504 for timeouts, a 500 if the stage failed, nothing if
+// the connection's gone), runs the dispatcher's bookkeeping, and only then tells the connection, so that nothing else
+// touches the writer while it's being written.
+final class AsyncResponse {
+    /** How an async response was settled. */
+    enum Outcome {
+        /** The stage completed and its result wrote the response. */
+        REPLIED,
+        /** The stage failed, and was answered with 500. */
+        ERROR,
+        /** The stage took too long, and was answered with 504. */
+        TIMED_OUT,
+        /** The connection went away first, nothing was written. */
+        CANCELLED,
+        /** Writing the result threw, so whatever's in the writer can't be sent. */
+        FAILED
+    }
+
+    private static final Logger logger = Logger.getLogger("WebServer");
+
+    private final ResponseWriter writer;
+    private final CompletionStage<? extends Consumer<ResponseWriter>> reply;
+    private final Consumer<Outcome> onSettled;
+    private final AtomicBoolean settled;
+    // Completes once the writer's been written, with whether the connection should be closed instead of answered.
+    private final CompletableFuture<Boolean> finished;
+    private volatile ScheduledFuture<?> timeout;
+
+    /** <h2>AsyncResponse</h2>
+     * @param writer The request's writer, which belongs to this until it's settled.
+     * @param reply The handler's stage.
+     * @param onSettled Run once the outcome has been written, before the connection is told.
+     */
+    AsyncResponse(ResponseWriter writer, CompletionStage<? extends Consumer<ResponseWriter>> reply, Consumer<Outcome> onSettled){
+        this.writer = writer;
+        this.reply = reply;
+        this.onSettled = onSettled;
+        this.settled = new AtomicBoolean();
+        this.finished = new CompletableFuture<>();
+    }
+
+    /** <h2>start</h2>
+     * Starts waiting on the stage. If it's already complete, this settles straight away.
+     * @param timeoutMillis How long to give it, or 0 for no limit.
+     */
+    void start(ScheduledExecutorService timer, long timeoutMillis){
+        // The timeout's scheduled first, so that settling can always find it to cancel it.
+        if(timeoutMillis > 0){
+            timeout = timer.schedule(() -> settle(null, null, Outcome.TIMED_OUT), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        reply.whenComplete((result, error) -> settle(result, error, error == null ? Outcome.REPLIED : Outcome.ERROR));
+    }
+
+    /** <h2>cancel</h2>
+     * Gives up on the response because its connection's gone. Does nothing if it's already been settled.
+     */
+    void cancel(){
+        settle(null, null, Outcome.CANCELLED);
+    }
+
+    /** <h2>onComplete</h2>
+     * Runs a callback once the response has been written, on the given executor.
+     * @param callback Given whether the response has to be thrown away and the connection closed.
+     */
+    void onComplete(Consumer<Boolean> callback, Executor executor){
+        finished.thenAcceptAsync(callback, executor);
+    }
+
+    /** <h2>await</h2>
+     * Blocks until the response has been written. For callers that are going to block anyway, e.g. batch sub-requests.
+     * @return Whether the response has to be thrown away.
+     */
+    boolean await() throws InterruptedException {
+        try {
+            return finished.get();
+        } catch (ExecutionException e){
+            return true;
+        }
+    }
+
+    private void settle(Consumer<ResponseWriter> result, Throwable error, Outcome outcome){
+        if(!settled.compareAndSet(false, true)){
+            return;
+        }
+        ScheduledFuture<?> pending = timeout;
+        if(pending != null){
+            pending.cancel(false);
+        }
+        if(outcome == Outcome.TIMED_OUT || outcome == Outcome.CANCELLED){
+            // Nobody's waiting for it any more. Stages that can't be cancelled just carry on, with nobody listening.
+            try {
+                reply.toCompletableFuture().cancel(true);
+            } catch (UnsupportedOperationException e){
+                // Ignored
+            }
+        }
+
+        try {
+            switch (outcome) {
+                case REPLIED -> {
+                    if(result != null){
+                        result.accept(writer);
+                    }
+                    if(!writer.isStarted()){
+                        writer.okNoContent();
+                    }
+                }
+                case ERROR -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    logger.warning("Async handler for "+writer.getEndpoint()+" failed: "+cause.getClass().getSimpleName()+" "+cause.getMessage());
+                    writer.error(500, "Internal server error.");
+                }
+                case TIMED_OUT -> writer.error(504, "Timed out waiting for a response.");
+                default -> {
+                    // Cancelled, the connection's not expecting anything.
+                }
+            }
+        } catch (RuntimeException e){
+            logger.warning("Exception thrown while writing the async response for "+writer.getEndpoint()+": "+e.getClass().getSimpleName()+" "+e.getMessage());
+            outcome = Outcome.FAILED;
+        }
+
+        try {
+            onSettled.accept(outcome);
+        } finally {
+            finished.complete(outcome == Outcome.CANCELLED || outcome == Outcome.FAILED);
+        }
+    }
+}
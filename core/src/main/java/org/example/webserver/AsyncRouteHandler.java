@@ -0,0 +1,40 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/** <h1>Async Route Handler</h1>
+ * A {@link RouteHandler} for responses that aren't ready straight away, e.g. ones waiting on a JDA <code>RestAction</code>
+ * or on work handed to a plugin's own executor. Rather than writing the response, the handler starts whatever it's
+ * waiting on and returns a stage that completes with what to write, so no thread is held while it waits:
+ * <pre>
+ *     routes.addAsync("GET", "/members/{id}", (req, params) -&gt;
+ *             guild.retrieveMemberById(params.get("id")).submit()
+ *                     .thenApply(member -&gt; writer -&gt; writer.okJSON(toJSON(member))));
+ * </pre>
+ * The WebServer sends the response whenever the stage completes, in order with anything else pipelined on the same
+ * connection. Registered with {@link Router.Builder#addAsync}, which also sets how long the stage gets:
+ * <ul>
+ *     <li>If it fails, the client is answered with 500.</li>
+ *     <li>If it doesn't complete in time, the client is answered with 504 and the stage is cancelled.</li>
+ *     <li>If the client disconnects first, the stage is cancelled and nothing is sent.</li>
+ * </ul>
+ * Cancelling a stage only stops whatever's behind it if that supports cancellation (JDA's <code>submit()</code> futures
+ * do), so long-running work should check for it.
+ */
+@FunctionalInterface
+public interface AsyncRouteHandler {
+    /** <h2>handle</h2>
+     * Called on the request's thread, like a {@link RouteHandler}. Anything needed from the request (e.g. its body) must
+     * be read before this returns, since it's gone by the time the stage completes.
+     * @param req The request.
+     * @param params The parameters extracted from the path, along with the method and pattern that matched.
+     * @return A stage completing with something to write the response to the (then current) writer. A <code>null</code>
+     * result, or one that writes nothing, is answered with 204.
+     */
+    CompletionStage<? extends Consumer<ResponseWriter>> handle(Request req, RouteParams params) throws IOException;
+}
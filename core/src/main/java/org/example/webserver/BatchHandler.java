@@ -0,0 +1,312 @@
+package org.example.webserver;
+
+import org.example.utils.JSONReader;
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.MalformedRequestException;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+import org.example.webserver.utils.StreamedBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves /core/batch, which answers a JSON array of sub-requests with a JSON array of their responses, so the dashboard
+// can fetch a page's worth of users and emojis in one round trip instead of hundreds. Sub-requests go through the same
+// routes as everything else (core and plugin alike), with the same rules as pipelined requests: safe ones run in
+// parallel on a bounded pool, anything else waits for everything before it and finishes before anything after it starts.
+final class BatchHandler {
+    static final int MAX_SUB_REQUESTS = 256;
+    // Routes that make no sense inside a batch: one would hold the batch open forever, the other could deadlock the pool.
+    private static final String[] UNBATCHABLE = {"/core/batch", "/core/events"};
+
+    // How sub-requests are run, which is RequestDispatcher#dispatch(Request, ResponseWriter) outside of tests.
+    interface SubRequestDispatcher {
+        AsyncResponse dispatch(Request req, ResponseWriter writer) throws IOException;
+    }
+
+    private final SubRequestDispatcher dispatcher;
+    private final int threads;
+    private volatile ExecutorService pool;
+
+    BatchHandler(SubRequestDispatcher dispatcher, int threads){
+        this.dispatcher = dispatcher;
+        this.threads = threads;
+    }
+
+    void handle(Request req, RouteParams params, ResponseWriter writer){
+        List<Request> subRequests;
+        try {
+            if(!req.hasBody()){
+                writer.badRequest("Content must not be empty.");
+                return;
+            }
+            subRequests = parse(new JSONReader(req.getBodyStream()));
+        } catch (MalformedRequestException e){
+            if(e.isTooLarge()){
+                writer.payloadTooLarge(e.getMessage());
+            } else {
+                writer.badRequest(e.getMessage());
+            }
+            return;
+        } catch (IOException | IllegalArgumentException e){
+            writer.badRequest("Malformed batch: "+e.getMessage());
+            return;
+        }
+        if(subRequests.size() > MAX_SUB_REQUESTS){
+            writer.badRequest("Too many sub-requests, at most "+MAX_SUB_REQUESTS+" are allowed per batch.");
+            return;
+        }
+
+        Entry[] results = new Entry[subRequests.size()];
+        List<Future<?>> running = new ArrayList<>();
+        try {
+            for(int i = 0; i < subRequests.size(); i++){
+                Request subRequest = subRequests.get(i);
+                int index = i;
+                if(ResponseSequencer.canOverlap(subRequest)){
+                    running.add(pool().submit(() -> results[index] = run(subRequest)));
+                } else {
+                    awaitAll(running);
+                    results[i] = run(subRequest);
+                }
+            }
+            awaitAll(running);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            running.forEach(future -> future.cancel(true));
+            writer.serviceUnavailable("Interrupted.");
+            return;
+        }
+
+        JSONWriter json = writer.status(200).json().beginArray();
+        for(Entry result : results){
+            (result == null ? error(500, "Sub-request failed.") : result).writeJSON(json);
+        }
+        json.endArray();
+        writer.send();
+    }
+
+    // Runs one sub-request through the router, keeping its response to be written into the batch.
+    private Entry run(Request subRequest){
+        // As the router would see it, or "/core/batch/" would get through and nest a batch in the pool it's waiting on.
+        // Matching is case sensitive, so case doesn't need ignoring here, but there's no sense relying on that.
+        String target = Router.normalise(subRequest.getPath());
+        for(String path : UNBATCHABLE){
+            if(target.equalsIgnoreCase(path)){
+                return error(400, path+" can't be batched.");
+            }
+        }
+
+        // Uncompressed, since it's only going to be unpacked again below. The batch as a whole is compressed.
+        ResponseWriter writer = new ResponseWriter(BufferPool.shared(), null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        AsyncResponse async = null;
+        try {
+            writer.begin(subRequest);
+            async = dispatcher.dispatch(subRequest, writer);
+            // The batch is answered all at once, so there's nothing better to do with this thread than wait. The
+            // route's timeout still applies.
+            if(async != null && async.await()){
+                discard(writer);
+                return error(500, "Sub-request failed.");
+            }
+            if(writer.getHandoff() != null){
+                discard(writer);
+                return error(400, subRequest.getPath()+" can't be batched.");
+            }
+            writer.writeTo(out);
+        } catch (IOException | RuntimeException e){
+            return error(500, e.getClass().getSimpleName()+" thrown while handling the sub-request.");
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            async.cancel();
+            return error(503, "Interrupted.");
+        }
+        return new Entry(0, out.toByteArray(), null);
+    }
+
+    // Throws away a sub-request's response without it going anywhere.
+    private static void discard(ResponseWriter writer){
+        BufferPool.shared().release(writer.finish());
+        StreamedBody streamed = writer.takeStreamedBody();
+        if(streamed != null){
+            streamed.close();
+        }
+    }
+
+    private static Entry error(int status, String reason){
+        return new Entry(status, null, reason);
+    }
+
+    private static void awaitAll(List<Future<?>> running) throws InterruptedException {
+        for(Future<?> future : running){
+            try {
+                future.get();
+            } catch (ExecutionException e){
+                // run() doesn't throw, and the entry's left null so it's reported as a failure regardless.
+            }
+        }
+        running.clear();
+    }
+
+    // Made on first use, most installs will never see a batch.
+    private ExecutorService pool(){
+        ExecutorService pool = this.pool;
+        if(pool == null){
+            synchronized(this){
+                pool = this.pool;
+                if(pool == null){
+                    AtomicInteger count = new AtomicInteger();
+                    pool = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "WebServer-Batch-"+count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    this.pool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    // Reads the batch format, which is an array of {"method":"GET","path":"/users/1","headers":{"name":"value"},"body":...}
+    // objects. Only path is required. A string body is sent as it is; any other JSON value is sent as JSON text, with a
+    // Content-Type of application/json unless the sub-request set its own.
+    private static List<Request> parse(JSONReader json) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        json.expect(JSONReader.Token.BEGIN_ARRAY);
+        while(json.next() != JSONReader.Token.END_ARRAY){
+            if(json.getToken() != JSONReader.Token.BEGIN_OBJECT){
+                throw new IllegalArgumentException("sub-request "+requests.size()+" isn't an object.");
+            }
+            requests.add(parseRequest(json, requests.size()));
+            if(requests.size() > MAX_SUB_REQUESTS){
+                // No point reading the rest.
+                return requests;
+            }
+        }
+        json.expect(JSONReader.Token.END);
+        return requests;
+    }
+
+    private static Request parseRequest(JSONReader json, int index) throws IOException {
+        String method = "GET", path = null;
+        Map<String, String> headers = new HashMap<>();
+        byte[] body = null;
+        boolean jsonBody = false;
+
+        while(json.next() == JSONReader.Token.NAME){
+            if(json.textEquals("method")){
+                method = readString(json).toUpperCase(Locale.ROOT);
+            } else if(json.textEquals("path")){
+                path = readString(json);
+            } else if(json.textEquals("headers")){
+                json.expect(JSONReader.Token.BEGIN_OBJECT);
+                while(json.next() == JSONReader.Token.NAME){
+                    String name = json.string().toLowerCase(Locale.ROOT);
+                    headers.put(name, readString(json));
+                }
+            } else if(json.textEquals("body")){
+                if(json.next() == JSONReader.Token.STRING){
+                    body = json.stringStream().readAllBytes();
+                } else {
+                    JSONWriter out = new JSONWriter();
+                    json.copyValue(out);
+                    body = out.toByteArray();
+                    jsonBody = true;
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+
+        if(path == null || !path.startsWith("/")){
+            throw new IllegalArgumentException("sub-request "+index+" needs a path starting with '/'.");
+        }
+        if(jsonBody){
+            headers.putIfAbsent("content-type", "application/json");
+        }
+        return Request.of(method, path, headers, body);
+    }
+
+    private static String readString(JSONReader json) throws IOException {
+        json.expect(JSONReader.Token.STRING);
+        return json.string();
+    }
+
+    // One sub-request's answer, either its whole HTTP response or an error from the batch itself.
+    private record Entry(int status, byte[] response, String error) {
+        // Turns the response into {"status":...,"body":...}. JSON bodies are embedded as they are, other text as a
+        // string, and anything else (i.e. images) as base64 under "bodyBase64".
+        void writeJSON(JSONWriter json){
+            if(response == null){
+                json.beginObject()
+                        .name("status").value(status)
+                        .name("body").beginObject().name("error").value(error).endObject()
+                        .endObject();
+                return;
+            }
+
+            int code = (response[9] - '0') * 100 + (response[10] - '0') * 10 + (response[11] - '0');
+            int headEnd = -1;
+            for(int i = 12; i + 3 < response.length; i++){
+                if(response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n'){
+                    headEnd = i + 4;
+                    break;
+                }
+            }
+            String head = new String(response, 0, headEnd == -1 ? response.length : headEnd, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+            int typeStart = head.indexOf("\r\ncontent-type:");
+            String contentType = typeStart == -1 ? "" : head.substring(typeStart + 15, head.indexOf("\r\n", typeStart + 2)).trim();
+
+            json.beginObject().name("status").value(code);
+            byte[] content = response;
+            int bodyStart = headEnd;
+            int bodyLength = headEnd == -1 ? 0 : response.length - headEnd;
+            if(bodyLength > 0 && head.contains("\r\ntransfer-encoding: chunked\r\n")){
+                // Streamed, see ResponseWriter#streamJSON. The batch is all in memory regardless, so it's put back together.
+                content = dechunk(response, headEnd);
+                bodyStart = 0;
+                bodyLength = content.length;
+            }
+            if(bodyLength == 0){
+                json.endObject();
+                return;
+            }
+            if(contentType.startsWith("application/json")){
+                json.name("body").rawValue(content, bodyStart, bodyLength);
+            } else if(contentType.isEmpty() || contentType.startsWith("text/")){
+                json.name("body").value(new String(content, bodyStart, bodyLength, StandardCharsets.UTF_8));
+            } else {
+                json.name("contentType").value(contentType)
+                        .name("bodyBase64").value(Base64.getEncoder().encodeToString(Arrays.copyOfRange(content, bodyStart, bodyStart + bodyLength)));
+            }
+            json.endObject();
+        }
+
+        // Joins up the chunks of a chunked body. These only ever come from ChunkedBody, so there are no extensions or
+        // trailers to worry about.
+        private static byte[] dechunk(byte[] response, int start){
+            ByteArrayOutputStream out = new ByteArrayOutputStream(response.length - start);
+            int i = start;
+            while(i < response.length){
+                int size = 0;
+                while(i < response.length && response[i] != '\r'){
+                    size = size * 16 + Character.digit(response[i++], 16);
+                }
+                i += 2;
+                if(size == 0){
+                    break;
+                }
+                out.write(response, i, Math.min(size, response.length - i));
+                i += size + 2;
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,309 +1,296 @@
 package org.example.webserver;
 
-import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.Permission;
-import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.User;
-import net.dv8tion.jda.api.entities.emoji.Emoji;
-import org.example.Main;
-import org.example.plugins.PluginManager;
-import org.example.plugins.QuanTecPlugin;
-import org.example.utils.Halter;
-import org.example.utils.PermissionChecker;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.MalformedRequestException;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.ChannelHandoff;
 import org.example.webserver.utils.Request;
-import org.example.webserver.utils.Response;
+import org.example.webserver.utils.ResponseCompressor;
+import org.example.webserver.utils.StreamedBody;
+import org.example.webserver.utils.TokenBucket;
 
 import java.io.*;
-import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.function.BiConsumer;
-
-/*
-    // TODO According to the HTTP/1.1 RFC, servers are NOT allowed to modify their response based on the body of a GET request. Some methods here do that.
-    API Endpoints:
-
-        === Information Provider === TODO remove into plugin.
-        /users/{snowflake}
-            GET - returns the result of getting this user's info from JDA.
-        /users/manageserver/{snowflake}
-            GET - returns, in JSON, a list of guild snowflakes where the provided user has MANAGE_SERVER.
-        /guilds
-            GET - Returns a list of snowflakes corresponding to the servers that QuanTec is a member of, and as such the servers whose emotes and users can be accessed through the /users and /emojis endpoints.
-        /guilds/{snowflake}
-            GET - Returns the details of a specific guild, specifically the ID, name and server icon.
-        /emojis/{snowflake}
-            GET - Returns the details of a custom emoji, specifically the ID, name and image link.
-        === Control ===
-        /core/vers
-            GET - Returns JSON with the bot's version.
-        /core/plugins
-            GET - Returns JSON with a list of plugins currently running on the bot.
-        TODO TEST /core/plugins/reload
-            GET - Causes QuanTec to reload all plugins.
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One of these is run per connection when the WebServer is running with the threaded or virtual engine, on whichever
+// thread the WebServer's executor gives it. The endpoints themselves live in RequestDispatcher, this just reads
+// requests off of the socket and hands them over. The channel is left in blocking mode, it's only a channel (rather than
+// a plain Socket) so responses can go out with gathering writes straight from the ResponseWriter's buffers.
+//
+// Requests are normally handled right here, one at a time. When a client pipelines them (i.e. the next request has
+// already arrived by the time this one's been read), this thread keeps reading ahead and hands the safe ones to the
+// handler pool instead, so a batch of /users/{id} lookups is answered in parallel rather than back to back. The
+// ResponseSequencer puts the answers back in order: whichever thread completes the oldest outstanding response writes
+// it, along with any that were waiting on it. Async responses work the same way, except that their slot is completed
+// on a handler thread once they settle, so neither this thread nor a handler thread waits on them.
+//
+// A detached response (e.g. /core/events) ends the connection's life as a Client: once its head has been written, the
+// channel is switched to non-blocking mode and handed over, and this thread exits without closing it.
+public class Client implements Runnable {
+    private final SocketChannel client;
+    private final RequestDispatcher dispatcher;
+    private final ExecutorService handlers;
+    private final ResponseSequencer sequencer;
+    // This connection's share of the rate limits, or null if there isn't a per-connection limit.
+    private final TokenBucket rateLimit;
+    // Held by whichever thread is writing responses, see drain().
+    private final ReentrantLock writeLock;
+    // Async responses still waiting on their handlers, cancelled if the connection goes away first.
+    private final Set<AsyncResponse> waiting;
+    // Run once the connection is finished with, whether it was closed here or by whoever it was handed over to.
+    private final Runnable onClose;
+    private volatile long lastActivity;
+    // Set once a detached response has been written, see detach().
+    private volatile ChannelHandoff handoff;
+    private volatile boolean detached;
+    private Thread reader;
+
+    public Client(SocketChannel client, RequestDispatcher dispatcher, ResponseCompressor compressor, ExecutorService handlers, int pipelineWindow, Runnable onClose){
+        this.client = client;
+        this.dispatcher = dispatcher;
+        this.handlers = handlers;
+        this.onClose = onClose;
+        this.sequencer = new ResponseSequencer(pipelineWindow, BufferPool.shared(), compressor);
+        this.rateLimit = dispatcher.newConnectionBucket();
+        this.writeLock = new ReentrantLock();
+        this.waiting = ConcurrentHashMap.newKeySet();
+        this.lastActivity = System.currentTimeMillis();
+    }
 
-    API Usage Rules:
-        - Any endpoints other than what's specified will return 400.
-        - Any endpoints relating to guilds that are used for guilds that Quan-Tec is not in will return 404.
-        - Any methods used that aren't explicitly listed above will return 405.
-        - All content sent to methods requiring it should be URL encoded, even when specified otherwise (particularly for
-          the 'word' endpoints as messages are parsed as URL encoded text when being screened).
-        - All API endpoints are provided with no authentication whatsoever. This API is not designed to be opened to the
-          internet, and it is the user's responsibility to authenticate attempts to use these.
-        - API requests return no headers in some cases. It is the user's responsibility to add these if this is being proxied
-          to another application (i.e., the Date, Content-Type and Content-Length headers are all not guaranteed to appear).
- */
-public class Client extends Thread {
-    private final Socket client;
-    private final String botVers;
-    private final Map<String, BiConsumer<Request, OutputStream>> clientEndpoints;
-    private final PluginManager pluginManager;
-    private final Halter halter;
-    private final JDA jda;
+    /** <h2>getLastActivity</h2>
+     * @return The time, in epoch milliseconds, that this client last finished a request (or connected, if it hasn't sent one).
+     */
+    public long getLastActivity(){
+        return lastActivity;
+    }
 
-    public Client(Socket client, JDA jda, Map<String, BiConsumer<Request, OutputStream>> clientEndpoints, PluginManager pluginManager, Halter halter){
-        this.client = client;
-        this.jda = jda;
-        this.botVers = Main.botVers;
-        this.clientEndpoints = clientEndpoints;
-        this.pluginManager = pluginManager;
-        this.halter = halter;
+    public boolean isClosed(){
+        return !client.isOpen();
+    }
 
-        this.start();
+    /** <h2>close</h2>
+     * Closes the underlying socket, which unblocks any pending read and ends the connection. Responses that haven't
+     * been written yet are thrown away. Does nothing once the connection's been handed over.
+     */
+    public void close(){
+        if(detached){
+            return;
+        }
+        sequencer.close();
+        cancelWaiting();
+        try {
+            client.close();
+        } catch (IOException e){
+            // Ignored
+        }
     }
 
     @Override
     public void run(){
+        reader = Thread.currentThread();
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()));
-            PrintWriter writer = new PrintWriter(new OutputStreamWriter(client.getOutputStream()));
-
-            while (true){
-                Request req = Request.readRequest(reader);
-                if(req == null){
-                    // Buffer closed while reading, client disconnected. Exit.
-                    return;
-                }
+            serve();
+        } finally {
+            if(handoff != null && client.isOpen()){
+                detach();
+            } else {
+                close();
+                onClose.run();
+            }
+        }
+    }
 
-                // If halted, wait on the halter until it gets notified.
-                if(halter.isLocked()){
-                    try {
-                        synchronized (halter) {
-                            halter.wait();
+    private void serve(){
+        try {
+            HTTPRequestParser parser = new HTTPRequestParser(true, dispatcher::limitsFor);
+
+            while (handoff == null){
+                Request req;
+                try {
+                    req = parser.read(client);
+                } catch (MalformedRequestException e){
+                    // Can't tell where the next request starts (or it's too large to read), so answer this one (after
+                    // everything before it) and hang up.
+                    if(sequencer.awaitIdle()){
+                        ByteBuffer response = ByteBuffer.wrap(e.getResponse().getBytes(StandardCharsets.UTF_8));
+                        while(response.hasRemaining()){
+                            client.write(response);
                         }
-                    } catch (InterruptedException e){
-                        // Ignored
                     }
+                    return;
+                } catch (EOFException e){
+                    // Client hung up part way through a request.
+                    return;
+                }
+                if(req == null){
+                    // Client has finished sending, but may still be waiting on pipelined responses. Async ones that
+                    // haven't come back yet are given up on, since it's more likely the client's gone altogether.
+                    cancelWaiting();
+                    sequencer.awaitIdle();
+                    return;
                 }
 
-                // Since there are identifiers in the path, we need to segregate them.
-                // We need to work out if it ends with a '/', on which it should be truncated off. We also need to remove any '/'s at the start.
-                String path = req.getPath().substring(1);
-                if(path.endsWith("/")){
-                    path = path.substring(0,path.length()-2);
+                boolean overlap = ResponseSequencer.canOverlap(req);
+                if(!overlap && !sequencer.awaitIdle()){
+                    return;
                 }
-                // Now, to get the first identifier we simply remove anything after the first '/', if one is present at all.
-                if(path.indexOf('/') != -1){
-                    path = path.substring(0,path.indexOf('/'));
+                ResponseSequencer.Slot slot = sequencer.awaitReserve();
+                if(slot == null){
+                    // Closed while waiting for room.
+                    return;
                 }
+                slot.getWriter().begin(req);
+                // Read now, the handler may change it once it's running.
+                boolean keepAlive = slot.getWriter().isKeepAlive();
 
-                switch(path){
-
-                    case "users" -> {
-                        if(!req.getMethod().equals("GET")){
-                            Response.writeResponse(Response.methodNotAllowed("request to /users must be GET"), writer);
-                            continue;
-                        }
-
-                        String fmtPath = req.getPath().substring(1);
-                        if(fmtPath.split("/").length == 2) {
-
-                            String userID = req.getPath().replaceAll("/users/", "");
-                            // Small check here to make sure it's a valid ID.
-                            try {
-                                Long.parseLong(userID);
-                            } catch (NumberFormatException e){
-                                Response.writeResponse(Response.badRequest("Invalid snowflake."), writer);
-                                continue;
-                            }
-                            final User user = jda.getUserById(userID);
-
-                            // Should be done by now, so let's dismantle that user object into some nice compact JSON.
-                            if (user != null) {
-                                String respJson = String.format("{\"%s\":{\"name\":\"%s\",\"id\":\"%s\",\"avatarUrl\":\"%s\"}}",
-                                        user.getId(),
-                                        user.getAsTag(),
-                                        user.getIdLong(),
-                                        user.getAvatarUrl()
-                                );
-                                Response.writeResponse(Response.okJSON(respJson), writer);
-                            } else {
-                                Response.writeResponse(Response.notFound("JDA returned null"), writer);
-                            }
-                        } else if(fmtPath.split("/").length == 3 && fmtPath.startsWith("users/manageserver/")) {
-                            // Return array of all servers where the user is both a member and has the MANAGE_SERVER permission through any role.
-                            String UID = fmtPath.replace("users/manageserver/", "");
-                            try {
-                                Long.parseLong(UID);
-                            } catch (NumberFormatException e){
-                                Response.writeResponse(Response.badRequest("Invalid snowflake provided."), writer);
-                                return;
-                            }
-
-                            // Check if user is known by quantec.
-                            if(jda.getUserById(UID) == null){
-                                Response.writeResponse(Response.notFound("User not found."), writer);
-                                return;
-                            }
-
-                            // Since it is known, iterate through all member guilds and add the IDs of them if our user is a part of that guild.
-                            List<String> snowflakes = new ArrayList<>();
-                            jda.getGuilds().forEach(guild -> {
-                                Member member = guild.getMemberById(UID);
-                                if(member != null && PermissionChecker.userHasPermission(member, Permission.MANAGE_SERVER)){
-                                    snowflakes.add(guild.getId());
-                                }
-                            });
-
-                            // Assemble JSON and send back.
-                            StringBuilder json = new StringBuilder();
-                            json.append("{\"guilds\":[");
-                            for(String guild : snowflakes){
-                                json.append(String.format("\"%s\",", guild));
-                            }
-
-                            if(snowflakes.size() != 0){
-                                json.deleteCharAt(json.length()-1);
-                            }
-
-                            json.append("]}");
-                            Response.writeResponse(Response.okJSON(json.toString()), writer);
-
-                        } else {
-                            Response.writeResponse(Response.badRequest("Unknown endpoint."), writer);
-                        }
-                    }
-
-                    case "guilds" -> {
-                        if(!req.getMethod().equals("GET")){
-                            Response.writeResponse(Response.methodNotAllowed("Only GET may be used with /guilds"), writer);
-                            continue;
-                        }
-                        // This might be requesting a specific guild's info, so we'll differentiate based on whether the
-                        // path is "/guilds/" or "/guilds". Everything else is assumed to be a specific request.
-                        if(req.getPath().equals("/guilds/") || req.getPath().equals("/guilds")){
-                            // General request. Get all guilds QuanTec is part of, distill into list and return.
-                            List<String> guilds = new ArrayList<>();
-                            jda.getGuilds().forEach(guild -> guilds.add(guild.getId()));
-
-                            StringBuilder json = new StringBuilder();
-                            json.append("{\"guilds\":[");
-                            for(String val : guilds){
-                                json.append("\"").append(val).append("\"").append(",");
-                            }
-                            if(!guilds.isEmpty()){
-                                json.deleteCharAt(json.length()-1);
-                            }
-                            json.append("]}");
-
-                            Response.writeResponse(Response.okJSON(json.toString()), writer);
-                        } else {
-                            // Get info regarding specific Guild ID.
-                            String idStr = req.getPath();
-                            while(idStr.indexOf('/') != -1){
-                                idStr = idStr.substring(idStr.indexOf('/') + 1);
-                            }
-
-                            Guild guild = jda.getGuildById(idStr);
-
-                            if(guild == null){
-                                Response.writeResponse(Response.notFound("JDA returned null"), writer);
-                            } else {
-                                String json = String.format("{\"id\":\"%s\",\"name\":\"%s\",\"iconURL\":\"%s\"}",
-                                        guild.getId(),
-                                        guild.getName(),
-                                        guild.getIconUrl()
-                                );
-                                Response.writeResponse(Response.okJSON(json), writer);
-                            }
-                        }
+                if(overlap && (parser.hasBufferedData() || !sequencer.isIdle())){
+                    try {
+                        handlers.execute(() -> handle(req, slot));
+                    } catch (RejectedExecutionException e){
+                        handle(req, slot);
                     }
-
-                    case "emojis" -> {
-                        String idStr = req.getPath();
-                        while(idStr.indexOf('/') != -1){
-                            idStr = idStr.substring(idStr.indexOf('/') + 1);
-                        }
-
-                        Emoji emoji = jda.getEmojiById(idStr);
-
-                        if(emoji == null){
-                            Response.writeResponse(Response.notFound("JDA returned null"), writer);
-                        } else {
-                            String json = String.format("{\"id\":\"%s\",\"name\":\"%s\",\"iconURL\":\"%s\"}",
-                                    idStr,
-                                    emoji.getName(),
-                                    "https://cdn.discordapp.com/emojis/"+idStr+".png"
-                            );
-                            Response.writeResponse(Response.okJSON(json), writer);
-                        }
+                } else {
+                    // Nothing else in flight or waiting, so there's no point in a hand-off. Requests with bodies always
+                    // end up here, since the body is read off of the channel by the handler.
+                    handle(req, slot);
+                    // An async handler returns before it's been answered, and nothing after it can start until it has.
+                    if(!overlap && !sequencer.awaitIdle()){
+                        return;
                     }
+                }
 
-                    case "core" -> {
-                        switch(req.getPath()){
-                            case "/core/vers" -> {
-                                if(!req.getMethod().equals("GET")){
-                                    Response.writeResponse(Response.methodNotAllowed("Method not allowed, expected GET."), writer);
-                                    continue;
-                                }
-                                Response.writeResponse(Response.okJSON(String.format("{\"vers\":\"%s\"}", botVers)), writer);
-                            }
-
-                            case "/core/plugins" -> {
-                                if(!req.getMethod().equals("GET")){
-                                    Response.writeResponse(Response.methodNotAllowed("Method not allowed, expected GET."), writer);
-                                    continue;
-                                }
-                                // More JSON!
-                                StringBuilder json = new StringBuilder();
-                                json.append("{\"plugins\":[");
-                                for(QuanTecPlugin plugin : pluginManager.getPluginList()){
-                                    json.append(String.format("{\"name\":\"%s\",\"vers\":%d},", plugin.getClass().getSimpleName(), plugin.getVersion()));
-                                }
-
-                                if(pluginManager.getPluginList().size() != 0){
-                                    json.deleteCharAt(json.length()-1);
-                                }
+                if(!keepAlive){
+                    sequencer.awaitIdle();
+                    return;
+                }
+            }
+        } catch (SocketException | ClosedChannelException e){
+            // Ignored, the latter is thrown when the reaper closes an idle connection, or when a response closed it.
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (IOException e){
+            System.out.println("[WebServer Client Thread] ERR IOException thrown: "+e.getMessage());
+        }
+    }
 
-                                json.append("]}");
+    // Runs a request's handler, on either this connection's thread or a handler thread, and writes out whatever's ready.
+    private void handle(Request req, ResponseSequencer.Slot slot){
+        boolean failed = true;
+        try {
+            AsyncResponse async = dispatcher.dispatch(req, slot.getWriter(), rateLimit);
+            if(async != null){
+                await(async, slot);
+                return;
+            }
+            failed = false;
+        } catch (UncheckedIOException e){
+            // Thrown by Request.getContent() if the connection failed while a handler was reading the body.
+            System.out.println("[WebServer Client Thread] ERR IOException thrown while reading body: "+e.getCause().getMessage());
+        } catch (ClosedChannelException e){
+            // Ignored, as above.
+        } catch (IOException | RuntimeException e){
+            System.out.println("[WebServer Client Thread] ERR "+e.getClass().getSimpleName()+" thrown while handling "+req.getMethod()+" "+req.getPath()+": "+e.getMessage());
+        }
+        sequencer.complete(slot, failed);
+        drain();
+    }
 
-                                Response.writeResponse(Response.okJSON(json.toString()), writer);
-                            }
+    // Completes the slot, and writes out whatever's ready, once the async response settles.
+    private void await(AsyncResponse async, ResponseSequencer.Slot slot){
+        waiting.add(async);
+        async.onComplete(failed -> {
+            waiting.remove(async);
+            sequencer.complete(slot, failed);
+            drain();
+        }, handlers);
+        if(sequencer.isClosed()){
+            // Closed while this was being dispatched, after close() cancelled everything it could see.
+            async.cancel();
+        }
+    }
 
-                            case "/core/plugins/reload" -> {
-                                pluginManager.reloadPlugins(halter);
-                                Response.writeResponse(Response.okNoContent(), writer);
-                            }
+    private void cancelWaiting(){
+        for(AsyncResponse async : waiting){
+            async.cancel();
+        }
+    }
 
-                            default -> Response.writeResponse(Response.badRequest("Unknown endpoint"), writer);
-                        }
-                    }
+    // Writes out completed responses in order. Only one thread writes at a time; anyone else finishing a response while
+    // that's happening leaves it for the writing thread, which checks again after letting go of the lock so nothing's
+    // left behind.
+    private void drain(){
+        while(sequencer.hasReady()){
+            if(!writeLock.tryLock()){
+                return;
+            }
+            try {
+                ResponseSequencer.Slot slot;
+                while((slot = sequencer.pollReady()) != null){
+                    write(slot);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
 
-                    default -> {
-                        if(clientEndpoints.get(path) != null){
-                            clientEndpoints.get(path).accept(req, client.getOutputStream());
-                        } else {
-                            Response.writeResponse(Response.badRequest("Unknown endpoint"), writer);
-                        }
-                    }
+    private void write(ResponseSequencer.Slot slot){
+        try {
+            ByteBuffer[] response = slot.getResponse();
+            if(response == null){
+                // The handler failed, so there's nothing sensible to send. Hang up rather than answer out of order.
+                close();
+                return;
+            }
+            int first = 0;
+            while(first < response.length){
+                client.write(response, first, response.length - first);
+                while(first < response.length && !response[first].hasRemaining()){
+                    first++;
                 }
             }
-        } catch (SocketException e){
-            // Ignored
+            StreamedBody streamed = slot.getStreamedBody();
+            while(streamed != null && streamed.hasRemaining()){
+                streamed.transferTo(client);
+            }
+            lastActivity = System.currentTimeMillis();
+            if(slot.getHandoff() != null){
+                // Nothing after this can be answered, the connection's about to belong to somebody else. The reader
+                // has to be the one to hand it over (a channel can't change mode mid-read), so if this isn't the
+                // reader, shutting down input wakes it up.
+                handoff = slot.getHandoff();
+                sequencer.close();
+                if(Thread.currentThread() != reader){
+                    client.shutdownInput();
+                }
+            } else if(!slot.isKeepAlive()){
+                close();
+            }
         } catch (IOException e){
-            System.out.println("[WebServer Client Thread] ERR IOException thrown: "+e.getMessage());
+            close();
+        } finally {
+            sequencer.recycle(slot);
+        }
+    }
+
+    private void detach(){
+        try {
+            client.configureBlocking(false);
+            detached = true;
+            handoff.takeOver(client, onClose);
+        } catch (IOException e){
+            detached = false;
+            close();
+            onClose.run();
         }
     }
 
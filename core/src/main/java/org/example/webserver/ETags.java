@@ -0,0 +1,53 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.ResponseCompressor;
+
+// Builds and compares the strong ETags sent for versioned routes. Tags look like "<boot>-<version>", where boot is the
+// time QuanTec started so tags from before a restart never match. Compressed responses are different bytes, so they get
+// the encoding appended (see ResponseWriter), which is ignored again when comparing here.
+final class ETags {
+    private static final String BOOT = Long.toString(System.currentTimeMillis(), 36);
+
+    private ETags(){
+    }
+
+    static String of(long version){
+        return "\""+BOOT+"-"+version+"\"";
+    }
+
+    /** <h2>match</h2>
+     * @param ifNoneMatch The request's <code>If-None-Match</code> header, or <code>null</code>.
+     * @param etag The current tag, from {@link #of}.
+     * @return The tag the client sent that matched, to be echoed back in the 304, or <code>null</code> if none did.
+     */
+    static String match(String ifNoneMatch, String etag){
+        if(ifNoneMatch == null){
+            return null;
+        }
+        int pos = 0;
+        while(pos < ifNoneMatch.length()){
+            int end = ifNoneMatch.indexOf(',', pos);
+            if(end == -1){
+                end = ifNoneMatch.length();
+            }
+            String candidate = ifNoneMatch.substring(pos, end).trim();
+            // If-None-Match uses the weak comparison, so W/ doesn't matter.
+            String tag = candidate.startsWith("W/") ? candidate.substring(2) : candidate;
+            if(tag.equals("*")){
+                return etag;
+            }
+            if(tag.equals(etag)){
+                return candidate;
+            }
+            for(ResponseCompressor.Encoding encoding : ResponseCompressor.Encoding.values()){
+                if(tag.length() == etag.length() + encoding.getToken().length() + 1
+                        && tag.startsWith(etag.substring(0, etag.length() - 1))
+                        && tag.regionMatches(etag.length() - 1, "-"+encoding.getToken()+"\"", 0, encoding.getToken().length() + 2)){
+                    return candidate;
+                }
+            }
+            pos = end + 1;
+        }
+        return null;
+    }
+}
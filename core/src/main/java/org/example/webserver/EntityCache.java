@@ -0,0 +1,245 @@
+package org.example.webserver;
+
+import org.example.metrics.MetricRegistry;
+import org.example.utils.JSONWriter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/** <h1>Entity Cache</h1>
+ * The JSON for users, guilds and emojis as /users, /guilds/{id} and /emojis/{id} send it, already encoded, so that
+ * answering for one the dashboard's already asked about is a map lookup and a copy rather than reading it out of JDA and
+ * formatting it again. These hardly ever change, and when they do JDA says so: entries are invalidated by
+ * {@link org.example.listeners.EntityCacheListener} for exactly the events that change what's in them, so nothing in
+ * here is ever stale and there's no expiry.
+ * <p>
+ * It's bounded by the size of what's in it. Once over, entries are evicted by the CLOCK algorithm: everything's kept in
+ * the order it was added, and the oldest is evicted unless it's been read since the last time eviction came across it,
+ * in which case it goes to the back. That's LRU near enough, without reads having to take a lock to reorder anything.
+ * <p>
+ * Lookups are lock-free. Whoever misses builds the JSON themselves and {@link #put}s it, guarded by a stamp from before
+ * they started reading, so JSON built from what an entity was before an update can't be cached after it.
+ */
+public final class EntityCache {
+    /** The default bound, in bytes. About 20,000 users' worth. */
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    // Roughly what an entry costs on top of its JSON: the map node, the boxed key, the entry and the array's header.
+    private static final int ENTRY_OVERHEAD = 112;
+
+    public enum Kind {
+        USER,
+        GUILD,
+        EMOJI
+    }
+
+    private static final class Entry {
+        private final Kind kind;
+        private final long id;
+        private final byte[] json;
+        private volatile boolean referenced;
+
+        private Entry(Kind kind, long id, byte[] json){
+            this.kind = kind;
+            this.id = id;
+            this.json = json;
+        }
+
+        private int size(){
+            return json.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<Kind, ConcurrentHashMap<Long, Entry>> entries;
+    // Every entry, oldest first. Entries that have been replaced or invalidated are left in here until eviction comes
+    // across them, or until there are as many of them as there are live entries and they're swept out, see dropped().
+    private final Queue<Entry> clock;
+    private final AtomicLong dead;
+    private final AtomicLong bytes;
+    // Bumped by every invalidation, see stamp().
+    private final AtomicLong invalidations;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    public EntityCache(long maxBytes, MetricRegistry metrics){
+        this.maxBytes = maxBytes;
+        this.entries = new EnumMap<>(Kind.class);
+        for(Kind kind : Kind.values()){
+            entries.put(kind, new ConcurrentHashMap<>());
+        }
+        this.clock = new ConcurrentLinkedQueue<>();
+        this.dead = new AtomicLong();
+        this.bytes = new AtomicLong();
+        this.invalidations = new AtomicLong();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+
+        metrics.counter("quantec_entity_cache_hits_total", "Lookups of users, guilds and emojis answered from the entity cache.", hits::sum);
+        metrics.counter("quantec_entity_cache_misses_total", "Lookups of users, guilds and emojis that had to go to JDA.", misses::sum);
+        metrics.counter("quantec_entity_cache_evictions_total", "Entries evicted from the entity cache to keep it under its size.", evictions::sum);
+        metrics.gauge("quantec_entity_cache_bytes", "Roughly how much memory the entity cache is using.", bytes::get);
+    }
+
+    /** <h2>get</h2>
+     * @return The entity's JSON, or <code>null</code> if it isn't cached. Shared, so don't modify it.
+     */
+    public byte[] get(Kind kind, long id){
+        Entry entry = entries.get(kind).get(id);
+        if(entry == null){
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if(!entry.referenced){
+            entry.referenced = true;
+        }
+        return entry.json;
+    }
+
+    /** <h2>stamp</h2>
+     * @return A stamp to pass to {@link #put}, taken before reading the entity from JDA.
+     */
+    public long stamp(){
+        return invalidations.get();
+    }
+
+    /** <h2>put</h2>
+     * Caches an entity's JSON, unless anything's been invalidated since the stamp was taken, in which case it might be
+     * out of date already. Invalidations are rare enough that it isn't worth working out whether it was this entity.
+     */
+    public void put(Kind kind, long id, byte[] json, long stamp){
+        Entry entry = new Entry(kind, id, json);
+        if(entry.size() > maxBytes || invalidations.get() != stamp){
+            return;
+        }
+        ConcurrentHashMap<Long, Entry> map = entries.get(kind);
+        Entry previous = map.put(id, entry);
+        if(previous != null){
+            bytes.addAndGet(-previous.size());
+            dropped();
+        }
+        clock.add(entry);
+        bytes.addAndGet(entry.size());
+        // An invalidation could have landed between the check above and the put, and missed this.
+        if(invalidations.get() != stamp){
+            remove(map, entry);
+        }
+        if(bytes.get() > maxBytes){
+            evict();
+        }
+    }
+
+    /** <h2>encode</h2>
+     * Builds an entity's JSON with a writer of its own, for {@link #put}.
+     */
+    public static byte[] encode(Consumer<JSONWriter> content){
+        JSONWriter json = new JSONWriter();
+        content.accept(json);
+        return json.toByteArray();
+    }
+
+    /** <h2>invalidate</h2>
+     * Drops an entity, because it's changed or QuanTec can't see it anymore.
+     */
+    public void invalidate(Kind kind, long id){
+        invalidations.incrementAndGet();
+        ConcurrentHashMap<Long, Entry> map = entries.get(kind);
+        Entry entry = map.get(id);
+        if(entry != null){
+            remove(map, entry);
+        }
+    }
+
+    /** <h2>invalidateAll</h2>
+     * Drops every entity of a kind, for changes that could affect any number of them.
+     */
+    public void invalidateAll(Kind kind){
+        invalidations.incrementAndGet();
+        ConcurrentHashMap<Long, Entry> map = entries.get(kind);
+        for(Entry entry : map.values()){
+            remove(map, entry);
+        }
+    }
+
+    private void remove(ConcurrentHashMap<Long, Entry> map, Entry entry){
+        if(map.remove(entry.id, entry)){
+            bytes.addAndGet(-entry.size());
+            dropped();
+        }
+    }
+
+    // Counts an entry that's left the maps but not the clock. If the cache never fills, eviction never runs to clear
+    // these out, so they're swept once they're half of it.
+    private void dropped(){
+        if(dead.incrementAndGet() > Math.max(64, getEntries())){
+            sweep();
+        }
+    }
+
+    private synchronized void sweep(){
+        dead.set(0);
+        clock.removeIf(entry -> entries.get(entry.kind).get(entry.id) != entry);
+    }
+
+    private synchronized void evict(){
+        while(bytes.get() > maxBytes){
+            Entry entry = clock.poll();
+            if(entry == null){
+                return;
+            }
+            ConcurrentHashMap<Long, Entry> map = entries.get(entry.kind);
+            if(map.get(entry.id) != entry){
+                // Replaced or invalidated since, and already accounted for.
+                dead.decrementAndGet();
+                continue;
+            }
+            if(entry.referenced){
+                entry.referenced = false;
+                clock.add(entry);
+                continue;
+            }
+            if(map.remove(entry.id, entry)){
+                bytes.addAndGet(-entry.size());
+                evictions.increment();
+            }
+        }
+    }
+
+    public long getBytes(){
+        return bytes.get();
+    }
+
+    public int getEntries(){
+        int count = 0;
+        for(ConcurrentHashMap<Long, Entry> map : entries.values()){
+            count += map.size();
+        }
+        return count;
+    }
+
+    /** <h2>writeStatsJSON</h2>
+     * Writes how well the cache is doing, for /core/stats.
+     */
+    public void writeStatsJSON(JSONWriter json){
+        long hit = hits.sum();
+        long miss = misses.sum();
+        json.beginObject()
+                .name("entries").value(getEntries())
+                .name("bytes").value(bytes.get())
+                .name("maxBytes").value(maxBytes)
+                .name("hits").value(hit)
+                .name("misses").value(miss)
+                .name("hitRatio").value(hit + miss == 0 ? 0.0 : (double) hit / (hit + miss))
+                .name("evictions").value(evictions.sum())
+                .name("invalidations").value(invalidations.get())
+                .endObject();
+    }
+}
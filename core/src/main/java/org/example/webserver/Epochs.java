@@ -0,0 +1,44 @@
+package org.example.webserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** <h1>Epochs</h1>
+ * A set of named version counters, for endpoints to hand to {@link Router.Builder#add(String, String, RouteVersion, RouteHandler)}
+ * so the WebServer can answer conditional requests without rebuilding the response. Whatever owns the data behind an
+ * endpoint calls {@link #bump} <i>after</i> every change to it, and the endpoint's {@link RouteVersion} returns {@link #get}.
+ * <p>
+ * Every value handed out comes from one clock shared by every instance, so a version is never reused while QuanTec is
+ * running, even if the object holding these is thrown away and recreated (e.g. by a plugin reload). The ETags built from
+ * these also include the time QuanTec started, which covers restarts.
+ */
+public final class Epochs {
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Long> epochs;
+    // What every key that's never been bumped reads as. Keys only get an entry of their own when they're bumped, as
+    // get() is handed whatever's in the path, and anyone can ask for as many made up guilds as they like. It comes off
+    // the clock like the rest, so it's never the same as anything an earlier instance handed out.
+    private final long initial;
+
+    public Epochs(){
+        this.epochs = new ConcurrentHashMap<>();
+        this.initial = CLOCK.incrementAndGet();
+    }
+
+    /** <h2>get</h2>
+     * @param key The counter's name, e.g. a guild's snowflake.
+     * @return The counter's current value. This only changes when {@link #bump} is called for the same key. Looking a
+     * key up never stores anything for it.
+     */
+    public long get(String key){
+        return epochs.getOrDefault(key, initial);
+    }
+
+    /** <h2>bump</h2>
+     * Marks whatever the key covers as changed, invalidating every ETag handed out for it so far.
+     */
+    public void bump(String key){
+        epochs.put(key, CLOCK.incrementAndGet());
+    }
+}
@@ -0,0 +1,319 @@
+package org.example.webserver;
+
+import org.example.plugins.MessageBusEvent;
+import org.example.utils.JSONWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/** <h1>Event Stream</h1>
+ * Streams MessageBus events to clients as Server-Sent Events, for /core/events. Once a client's response head has gone
+ * out its connection is handed over to this (see {@link org.example.webserver.utils.ResponseWriter#detach}), and from
+ * then on it's served by a single thread multiplexing every stream over a Selector, so a stream costs no thread of its
+ * own on either engine.
+ * <p>
+ * Each event is formatted once and shared between every client that wants it. Clients get a bounded queue each: if one
+ * falls more than {@link #CLIENT_BUFFER_EVENTS} events behind, the oldest are dropped, and the client is sent a
+ * <code>dropped</code> event saying how many it missed once it catches up, so it knows to re-fetch whatever it was
+ * tracking. A slow client never holds anyone else up.
+ * <p>
+ * Only events whose content is <code>null</code>, a string, a number or a boolean are streamed; anything else (e.g. the
+ * JDA instance broadcast at startup) has no business leaving the process.
+ */
+public class EventStream {
+    public static final int CLIENT_BUFFER_EVENTS = 256;
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    // Sent every HEARTBEAT_MILLIS to idle streams. It's an SSE comment, so clients ignore it, but it stops proxies timing
+    // the stream out and finds clients that have gone away without closing their connection.
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+
+    private final Logger logger = Logger.getLogger("WebServer");
+    private final Queue<Runnable> tasks;
+    private final AtomicInteger clients;
+    private final LongAdder published;
+    private final LongAdder dropped;
+    // Opened along with the thread when the first client subscribes.
+    private volatile Selector selector;
+    private Thread thread;
+
+    public EventStream(){
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.clients = new AtomicInteger();
+        this.published = new LongAdder();
+        this.dropped = new LongAdder();
+    }
+
+    /** <h2>publish</h2>
+     * Queues an event for every client subscribed to it. Cheap, and never blocks, so it's safe to call from JDA's
+     * threads; does nothing at all while nobody's listening.
+     */
+    public void publish(MessageBusEvent event){
+        if(clients.get() == 0){
+            return;
+        }
+        ByteBuffer frame = format(event);
+        if(frame == null){
+            return;
+        }
+        published.increment();
+        String type = event.recipient();
+        execute(() -> {
+            for(SelectionKey key : selector.keys()){
+                Subscriber subscriber = (Subscriber) key.attachment();
+                if(subscriber != null && subscriber.wants(type)){
+                    subscriber.enqueue(frame.duplicate());
+                }
+            }
+        });
+    }
+
+    /** <h2>subscribe</h2>
+     * Takes over a connection whose response head has already been sent, streaming events to it until it closes.
+     * @param types The event types (MessageBus recipients) the client wants, or <code>null</code> for all of them.
+     *              Broadcasts are streamed as the default <code>message</code> type.
+     */
+    public void subscribe(SocketChannel channel, Runnable onClose, Set<String> types) throws IOException {
+        channel.configureBlocking(false);
+        synchronized(this){
+            if(thread == null){
+                selector = Selector.open();
+                thread = new Thread(this::run, "WebServer-Events");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        clients.incrementAndGet();
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Subscriber(channel, key, onClose, types));
+            } catch (IOException e){
+                clients.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException ex){
+                    // Ignored
+                }
+                onClose.run();
+            }
+        });
+    }
+
+    public int getClients(){
+        return clients.get();
+    }
+
+    /** <h2>writeStatsJSON</h2>
+     * Writes the number of connected clients, events published and events dropped for slow clients, as a JSON object.
+     */
+    public void writeStatsJSON(JSONWriter json){
+        json.beginObject()
+                .name("clients").value(clients.get())
+                .name("published").value(published.sum())
+                .name("dropped").value(dropped.sum())
+                .endObject();
+    }
+
+    private void execute(Runnable task){
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run(){
+        ByteBuffer scratch = ByteBuffer.allocate(512);
+        long nextHeartbeat = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+        try {
+            while(true){
+                selector.select(HEARTBEAT_MILLIS);
+
+                Runnable task;
+                while((task = tasks.poll()) != null){
+                    task.run();
+                }
+
+                long now = System.currentTimeMillis();
+                if(now >= nextHeartbeat){
+                    nextHeartbeat = now + HEARTBEAT_MILLIS;
+                    for(SelectionKey key : selector.keys()){
+                        Subscriber subscriber = (Subscriber) key.attachment();
+                        if(subscriber != null && subscriber.isIdle()){
+                            subscriber.enqueue(ByteBuffer.wrap(HEARTBEAT));
+                        }
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Subscriber subscriber = (Subscriber) key.attachment();
+                    try {
+                        if(key.isValid() && key.isReadable()){
+                            // Clients have nothing to say once the stream's started, this is only here to notice them
+                            // hanging up. Anything they do send is thrown away.
+                            scratch.clear();
+                            if(subscriber.channel.read(scratch) == -1){
+                                if(!inputShutdown(subscriber.channel)){
+                                    subscriber.close();
+                                    continue;
+                                }
+                                // Our end was shut down during the handoff (see Client), so hang-ups can only be
+                                // noticed by writes failing from here on, which the heartbeat makes sure happen.
+                                subscriber.watchInput = false;
+                                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                            }
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            subscriber.flush();
+                        }
+                    } catch (IOException | CancelledKeyException e){
+                        subscriber.close();
+                    }
+                }
+            }
+        } catch (IOException e){
+            logger.severe("IOException thrown by the event stream's selector: "+e.getMessage());
+        }
+    }
+
+    // Only touched by the event stream's thread.
+    // Unix domain socket channels have no Socket to ask, so reads ending there are treated as if it might have been
+    // shut down, and the heartbeat notices if the client's actually gone.
+    private static boolean inputShutdown(SocketChannel channel){
+        try {
+            return channel.socket().isInputShutdown();
+        } catch (UnsupportedOperationException e){
+            return true;
+        }
+    }
+
+    private final class Subscriber {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Runnable onClose;
+        private final Set<String> types;
+        private final ArrayDeque<ByteBuffer> queue;
+        // The frame being written, if the socket buffer filled up part way through it.
+        private ByteBuffer current;
+        private long missed;
+        private boolean watchInput;
+        private boolean closed;
+
+        private Subscriber(SocketChannel channel, SelectionKey key, Runnable onClose, Set<String> types){
+            this.channel = channel;
+            this.key = key;
+            this.onClose = onClose;
+            this.types = types;
+            this.queue = new ArrayDeque<>();
+            this.watchInput = true;
+        }
+
+        private boolean wants(String type){
+            return types == null || types.contains(type == null ? "message" : type);
+        }
+
+        private boolean isIdle(){
+            return current == null && queue.isEmpty();
+        }
+
+        private void enqueue(ByteBuffer frame){
+            if(queue.size() >= CLIENT_BUFFER_EVENTS){
+                queue.poll();
+                missed++;
+                dropped.increment();
+            }
+            queue.add(frame);
+            try {
+                flush();
+            } catch (IOException e){
+                close();
+            }
+        }
+
+        private void flush() throws IOException {
+            while(true){
+                if(current == null){
+                    if(missed > 0){
+                        current = ByteBuffer.wrap(("event: dropped\ndata: {\"count\":"+missed+"}\n\n").getBytes(StandardCharsets.US_ASCII));
+                        missed = 0;
+                    } else {
+                        current = queue.poll();
+                    }
+                    if(current == null){
+                        key.interestOps(watchInput ? SelectionKey.OP_READ : 0);
+                        return;
+                    }
+                }
+                channel.write(current);
+                if(current.hasRemaining()){
+                    // Socket buffer is full. Events keep queueing (and dropping) until it drains.
+                    key.interestOps(watchInput ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+                    return;
+                }
+                current = null;
+            }
+        }
+
+        private void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e){
+                // Ignored
+            }
+            clients.decrementAndGet();
+            onClose.run();
+        }
+    }
+
+    // Formats an event as an SSE frame, or returns null if it can't be streamed.
+    private static ByteBuffer format(MessageBusEvent event){
+        Object content = event.content();
+        if(content != null && !(content instanceof Number || content instanceof Boolean || content instanceof CharSequence)){
+            return null;
+        }
+
+        JSONWriter json = new JSONWriter();
+        json.beginObject()
+                .name("source").value(event.source())
+                .name("time").value(System.currentTimeMillis())
+                .name("content");
+        if(content == null){
+            json.nullValue();
+        } else if(content instanceof Boolean bool){
+            json.value(bool.booleanValue());
+        } else if(content instanceof Double || content instanceof Float){
+            json.value(((Number) content).doubleValue());
+        } else if(content instanceof Number){
+            // Integers of all sizes, including BigIntegers, print as themselves.
+            json.rawValue(content.toString());
+        } else {
+            json.value((CharSequence) content);
+        }
+        json.endObject();
+
+        byte[] type = event.recipient() == null ? null : ("event: "+event.recipient().replace('\n', ' ').replace('\r', ' ')+"\n").getBytes(StandardCharsets.UTF_8);
+        byte[] data = json.toByteArray();
+        ByteBuffer frame = ByteBuffer.allocate((type == null ? 0 : type.length) + DATA.length + data.length + 2);
+        if(type != null){
+            frame.put(type);
+        }
+        frame.put(DATA).put(data).put((byte) '\n').put((byte) '\n');
+        return frame.flip().asReadOnlyBuffer();
+    }
+}
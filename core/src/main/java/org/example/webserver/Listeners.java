@@ -0,0 +1,162 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+// The sockets the WebServer accepts connections on: TCP on its port, a Unix domain socket (see ServerConfig), or both.
+// Every one is accepted from on a thread of its own, and the connections are treated identically from then on, so both
+// engines and every endpoint work the same over either. A Unix domain socket skips the TCP stack entirely, which is all
+// overhead when the only client is a proxy on the same machine. Who can connect to it is down to the socket file's
+// permissions, rather than the loopback check.
+final class Listeners implements Closeable {
+    interface Acceptor {
+        void accept(SocketChannel channel) throws IOException;
+    }
+
+    private final Logger logger = Logger.getLogger("WebServer");
+    private final List<ServerSocketChannel> channels;
+    private final List<String> names;
+    private final Path unixSocket;
+
+    private Listeners(List<ServerSocketChannel> channels, List<String> names, Path unixSocket){
+        this.channels = channels;
+        this.names = names;
+        this.unixSocket = unixSocket;
+    }
+
+    /** <h2>open</h2>
+     * Binds whichever sockets the config asks for.
+     */
+    static Listeners open(int port, ServerConfig config) throws IOException {
+        List<ServerSocketChannel> channels = new ArrayList<>(2);
+        List<String> names = new ArrayList<>(2);
+        Path unixSocket = config.getUnixSocket();
+        try {
+            if(config.isTcpEnabled()){
+                ServerSocketChannel tcp = ServerSocketChannel.open();
+                channels.add(tcp);
+                tcp.bind(new InetSocketAddress(port));
+                names.add("port "+port+"/tcp");
+            }
+            if(unixSocket != null){
+                // Left behind if QuanTec didn't get to shut down cleanly last time, and binding fails if it's there.
+                if(Files.isRegularFile(unixSocket) || Files.isDirectory(unixSocket)){
+                    throw new IOException(unixSocket+" already exists and isn't a socket.");
+                }
+                if(Files.exists(unixSocket, LinkOption.NOFOLLOW_LINKS)){
+                    // Only if nothing's listening on it, or a QuanTec that's still running would lose its socket
+                    // without noticing. A socket file nobody's bound to refuses connections.
+                    try(SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(unixSocket))){
+                        throw new IOException(unixSocket+" is being listened on, is QuanTec already running?");
+                    } catch (ConnectException e){
+                        Files.delete(unixSocket);
+                    }
+                }
+                ServerSocketChannel unix = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                channels.add(unix);
+                unix.bind(UnixDomainSocketAddress.of(unixSocket));
+                names.add(unixSocket+" (unix)");
+            }
+        } catch (IOException e){
+            for(ServerSocketChannel channel : channels){
+                channel.close();
+            }
+            throw e;
+        }
+        return new Listeners(channels, names, unixSocket);
+    }
+
+    /** <h2>isLocal</h2>
+     * @return Whether the connection came from this machine: TCP connections from a loopback address, and anything
+     * over a Unix domain socket.
+     */
+    static boolean isLocal(SocketAddress remote){
+        return !(remote instanceof InetSocketAddress inet) || inet.getAddress().isLoopbackAddress();
+    }
+
+    /** <h2>acceptAll</h2>
+     * Accepts connections on every socket until the first one is closed or throws, the rest on threads of their own.
+     * Accepting is blocking, and the acceptor is called on whichever thread accepted the connection.
+     */
+    void acceptAll(Acceptor acceptor) throws IOException {
+        for(int i = 1; i < channels.size(); i++){
+            ServerSocketChannel channel = channels.get(i);
+            String name = names.get(i);
+            Thread thread = new Thread(() -> {
+                try {
+                    accept(channel, acceptor);
+                } catch (IOException e){
+                    if(channel.isOpen()){
+                        logger.severe("Stopped accepting connections on "+name+": "+e.getMessage());
+                    }
+                }
+            }, "WebServer-Accept-"+i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        accept(channels.get(0), acceptor);
+    }
+
+    private void accept(ServerSocketChannel channel, Acceptor acceptor) throws IOException {
+        while(true){
+            // Only accept() throwing means the socket's done with. Anything the acceptor throws is down to that one
+            // connection, e.g. it was reset before it could be told the server's at capacity, so it's closed and the
+            // next one's accepted as normal.
+            SocketChannel accepted = channel.accept();
+            try {
+                acceptor.accept(accepted);
+            } catch (IOException e){
+                logger.fine("Dropped a connection as it was accepted: "+e.getMessage());
+                try {
+                    accepted.close();
+                } catch (IOException ignored){
+                    // Nothing more to be done with it.
+                }
+            }
+        }
+    }
+
+    /** <h2>turnAway</h2>
+     * Tells a connection the server's at capacity and closes it, rather than leaving it hanging in the backlog. Only
+     * for channels that are still blocking, so the write goes out in one go.
+     */
+    static void turnAway(SocketChannel channel) throws IOException {
+        try(channel){
+            channel.write(ByteBuffer.wrap(Response.serviceUnavailable("Too many connections.").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /** <h2>describe</h2>
+     * @return What's being listened on, for the log.
+     */
+    String describe(){
+        return String.join(" and ", names);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(ServerSocketChannel channel : channels){
+            channel.close();
+        }
+        if(unixSocket != null){
+            Files.deleteIfExists(unixSocket);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.example.webserver;
+
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import org.example.metrics.Family;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricRegistry;
+import org.example.utils.PermissionChecker;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** <h1>Manager Index</h1>
+ * Which guilds each user can manage (i.e. has MANAGE_SERVER in, through any role, ownership or ADMINISTRATOR), for
+ * /users/manageserver. Working that out on request meant fetching the user's member in every guild QuanTec is in and
+ * recomputing their permissions, so instead it's worked out for every guild once JDA's ready ({@link #rebuild}), then
+ * kept up to date from JDA's member, role and guild events (see {@link org.example.listeners.ManagerListener}).
+ * <p>
+ * Lookups never block. Each user's guilds are kept in an array that's replaced rather than modified, so a lookup always
+ * sees the whole of one version or the other. Updates are serialized between themselves.
+ */
+public final class ManagerIndex {
+    private static final long[] NONE = new long[0];
+
+    // Replaced wholesale by rebuild(), so lookups during one see the old index rather than half of the new one.
+    private volatile Map<Long, long[]> byUser;
+    // The other way around, so a guild's entries can be found when it changes or QuanTec leaves it. Only used by
+    // updates, under this's lock.
+    private Map<Long, Set<Long>> byGuild;
+    private volatile long entries;
+    private final Histogram fullRebuilds;
+    private final Histogram guildRebuilds;
+
+    public ManagerIndex(MetricRegistry metrics){
+        this.byUser = new ConcurrentHashMap<>();
+        this.byGuild = new HashMap<>();
+        Family<Histogram> rebuilds = metrics.histograms("quantec_manager_index_rebuild_seconds", "Time spent working out who can manage which guilds, for every guild at once (\"full\", on ready and after reconnecting) or one guild after a change to it (\"guild\").", "scope");
+        this.fullRebuilds = rebuilds.labels("full");
+        this.guildRebuilds = rebuilds.labels("guild");
+        metrics.gauge("quantec_manager_index_users", "Users who can manage at least one of QuanTec's guilds.", this::getUsers);
+        metrics.gauge("quantec_manager_index_entries", "User and guild pairs in the manager index, i.e. its size.", this::getEntries);
+    }
+
+    /** <h2>getGuilds</h2>
+     * @return The IDs of the guilds the user can manage, in ascending order. Shared, so don't modify it.
+     */
+    public long[] getGuilds(long user){
+        long[] guilds = byUser.get(user);
+        return guilds == null ? NONE : guilds;
+    }
+
+    public int getUsers(){
+        return byUser.size();
+    }
+
+    public long getEntries(){
+        return entries;
+    }
+
+    /** <h2>rebuild</h2>
+     * Throws the index away and works it out again from the member caches of every guild given, which should be every
+     * guild QuanTec is in. Lookups carry on using the old index until the new one is finished.
+     */
+    public synchronized void rebuild(Iterable<Guild> guilds){
+        long start = System.nanoTime();
+        Map<Long, Set<Long>> guildManagers = new HashMap<>();
+        Map<Long, long[]> userGuilds = new HashMap<>();
+        long count = 0;
+        for(Guild guild : guilds){
+            Set<Long> managers = managersOf(guild);
+            if(managers.isEmpty()){
+                continue;
+            }
+            long id = guild.getIdLong();
+            guildManagers.put(id, managers);
+            for(Long user : managers){
+                userGuilds.put(user, with(userGuilds.get(user), id));
+            }
+            count += managers.size();
+        }
+        this.byGuild = guildManagers;
+        this.byUser = new ConcurrentHashMap<>(userGuilds);
+        this.entries = count;
+        fullRebuilds.recordSince(start);
+    }
+
+    /** <h2>update</h2>
+     * Works out who can manage a guild again, e.g. after QuanTec joins it or one of its roles' permissions change.
+     */
+    public synchronized void update(Guild guild){
+        long start = System.nanoTime();
+        replace(guild.getIdLong(), managersOf(guild));
+        guildRebuilds.recordSince(start);
+    }
+
+    /** <h2>update</h2>
+     * Works out whether a single member can manage their guild again, e.g. after their roles change.
+     */
+    public void update(Member member){
+        put(member.getGuild().getIdLong(), member.getIdLong(), PermissionChecker.userHasPermission(member, Permission.MANAGE_SERVER));
+    }
+
+    /** <h2>remove</h2>
+     * Drops a guild from the index, e.g. after QuanTec leaves it.
+     */
+    public synchronized void remove(long guild){
+        replace(guild, Set.of());
+    }
+
+    /** <h2>put</h2>
+     * Records whether a user can manage a guild. Does nothing if that's already what the index says.
+     */
+    public synchronized void put(long guild, long user, boolean manages){
+        Set<Long> managers = byGuild.get(guild);
+        if(manages == (managers != null && managers.contains(user))){
+            return;
+        }
+        if(manages){
+            byGuild.computeIfAbsent(guild, key -> new HashSet<>()).add(user);
+            byUser.put(user, with(byUser.get(user), guild));
+            entries++;
+        } else {
+            managers.remove(user);
+            if(managers.isEmpty()){
+                byGuild.remove(guild);
+            }
+            removeFromUser(user, guild);
+            entries--;
+        }
+    }
+
+    // Swaps a guild's managers for a new set, touching only the users that changed.
+    private void replace(long guild, Set<Long> managers){
+        Set<Long> previous = byGuild.remove(guild);
+        if(previous != null){
+            for(Long user : previous){
+                if(!managers.contains(user)){
+                    removeFromUser(user, guild);
+                    entries--;
+                }
+            }
+        }
+        for(Long user : managers){
+            if(previous == null || !previous.contains(user)){
+                byUser.put(user, with(byUser.get(user), guild));
+                entries++;
+            }
+        }
+        if(!managers.isEmpty()){
+            byGuild.put(guild, new HashSet<>(managers));
+        }
+    }
+
+    private void removeFromUser(long user, long guild){
+        long[] left = without(byUser.get(user), guild);
+        if(left.length == 0){
+            byUser.remove(user);
+        } else {
+            byUser.put(user, left);
+        }
+    }
+
+    private static Set<Long> managersOf(Guild guild){
+        Set<Long> managers = new HashSet<>();
+        for(Member member : guild.getMemberCache()){
+            if(PermissionChecker.userHasPermission(member, Permission.MANAGE_SERVER)){
+                managers.add(member.getIdLong());
+            }
+        }
+        return managers;
+    }
+
+    // Copies with the guild added, keeping the array sorted. Users manage a handful of guilds at most, so copying is cheap.
+    private static long[] with(long[] guilds, long guild){
+        if(guilds == null){
+            return new long[]{guild};
+        }
+        int at = Arrays.binarySearch(guilds, guild);
+        if(at >= 0){
+            return guilds;
+        }
+        at = -at - 1;
+        long[] out = new long[guilds.length + 1];
+        System.arraycopy(guilds, 0, out, 0, at);
+        out[at] = guild;
+        System.arraycopy(guilds, at, out, at + 1, guilds.length - at);
+        return out;
+    }
+
+    private static long[] without(long[] guilds, long guild){
+        if(guilds == null){
+            return NONE;
+        }
+        int at = Arrays.binarySearch(guilds, guild);
+        if(at < 0){
+            return guilds;
+        }
+        long[] out = new long[guilds.length - 1];
+        System.arraycopy(guilds, 0, out, 0, at);
+        System.arraycopy(guilds, at + 1, out, at, guilds.length - at - 1);
+        return out;
+    }
+}
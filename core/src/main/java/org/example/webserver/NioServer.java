@@ -0,0 +1,484 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.ChannelHandoff;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.MalformedRequestException;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseCompressor;
+import org.example.webserver.utils.StreamedBody;
+import org.example.webserver.utils.TokenBucket;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+// The NIO engine. Rather than a thread per connection, the accepting thread hands each connection to one of a small,
+// fixed set of I/O threads which multiplex all of their connections over a Selector. Once a whole request has arrived
+// it's handed to a separate handler pool, so a slow endpoint (e.g. image aggregation) never stalls anybody else's I/O.
+// An idle keep-alive connection costs a channel, a selection key, a Connection and an empty parser, nothing more; read
+// buffers are shared per I/O thread and the parser only holds on to bytes while a request is part way through arriving.
+// Pipelined requests are dispatched as soon as they've arrived, up to the pipeline window, and their responses are put
+// back in order by the connection's ResponseSequencer before they're written. Async responses don't hold a handler
+// thread while they wait: their slot is completed by whichever thread settles them, and the connection hears about it
+// the same way as any other finished response.
+class NioServer {
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final long IDLE_SWEEP_INTERVAL_MILLIS = 10_000;
+
+    private final Logger logger = Logger.getLogger("WebServer");
+    private final int port;
+    private final ServerConfig config;
+    private final RequestDispatcher dispatcher;
+    private final IOWorker[] workers;
+    private final ExecutorService handlerPool;
+    private final Semaphore connectionPermits;
+    private final long idleTimeoutMillis;
+    private final ResponseCompressor compressor;
+    private final int pipelineWindow;
+
+    NioServer(int port, RequestDispatcher dispatcher, ServerConfig config, Semaphore connectionPermits, ResponseCompressor compressor) throws IOException {
+        this.port = port;
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.connectionPermits = connectionPermits;
+        this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+        this.compressor = compressor;
+        this.pipelineWindow = config.getPipelineWindow();
+        this.workers = new IOWorker[config.getIoThreads()];
+        for(int i = 0; i < workers.length; i++){
+            workers[i] = new IOWorker(i);
+        }
+
+        AtomicInteger handlerCount = new AtomicInteger();
+        this.handlerPool = Executors.newFixedThreadPool(config.getHandlerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "WebServer-Handler-"+handlerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** <h2>run</h2>
+     * Accepts connections until the server sockets are closed or throw, distributing them between the I/O threads.
+     */
+    void run() throws IOException {
+        for(IOWorker worker : workers){
+            worker.start();
+        }
+
+        try(Listeners listeners = Listeners.open(port, config)) {
+            logger.info("Started server on "+listeners.describe()+" using the NIO engine ("+workers.length+" I/O threads).");
+
+            // Each listener accepts on its own thread, so they share the round robin.
+            AtomicInteger next = new AtomicInteger();
+            listeners.acceptAll(channel -> {
+                // Accepting is blocking, the accepted channels are switched to non-blocking mode by their worker.
+                SocketAddress remote = channel.getRemoteAddress();
+                if(!Listeners.isLocal(remote)){
+                    logger.severe("non-local address attempted connection to server, will reject. THIS IS EXTREMELY INSECURE! Address: "+remote);
+                    channel.close();
+                } else if(!connectionPermits.tryAcquire()){
+                    // At capacity. The channel is still blocking here.
+                    Listeners.turnAway(channel);
+                } else {
+                    workers[Math.floorMod(next.getAndIncrement(), workers.length)].register(channel);
+                }
+            });
+        } finally {
+            for(IOWorker worker : workers){
+                worker.interrupt();
+                worker.selector.wakeup();
+            }
+            handlerPool.shutdown();
+        }
+    }
+
+    private final class IOWorker extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks;
+        private final ByteBuffer readBuffer;
+
+        private IOWorker(int id) throws IOException {
+            super("WebServer-IO-"+id);
+            this.setDaemon(true);
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        }
+
+        private void register(SocketChannel channel){
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key, this));
+                } catch (IOException e){
+                    connectionPermits.release();
+                    try {
+                        channel.close();
+                    } catch (IOException ex){
+                        // Ignored
+                    }
+                }
+            });
+        }
+
+        // Selection keys may only be touched safely from the thread that owns the selector, so anything else (the
+        // acceptor, handler threads finishing a response) queues its work here instead.
+        private void execute(Runnable task){
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run(){
+            long nextSweep = System.currentTimeMillis() + IDLE_SWEEP_INTERVAL_MILLIS;
+            try {
+                while(!isInterrupted()){
+                    selector.select(IDLE_SWEEP_INTERVAL_MILLIS);
+
+                    // Close keep-alive connections that have sat idle for too long.
+                    long now = System.currentTimeMillis();
+                    if(now >= nextSweep){
+                        nextSweep = now + IDLE_SWEEP_INTERVAL_MILLIS;
+                        for(SelectionKey key : selector.keys()){
+                            Connection connection = (Connection) key.attachment();
+                            if(connection != null && connection.isIdle() && now - connection.lastActivity > idleTimeoutMillis){
+                                connection.close();
+                            }
+                        }
+                    }
+
+                    Runnable task;
+                    while((task = tasks.poll()) != null){
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while(keys.hasNext()){
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if(key.isValid() && key.isReadable()){
+                                connection.onReadable();
+                            }
+                            if(key.isValid() && key.isWritable()){
+                                connection.flush();
+                            }
+                        } catch (IOException | CancelledKeyException e){
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e){
+                logger.severe("IOException thrown by selector in "+getName()+": "+e.getMessage());
+            } finally {
+                for(SelectionKey key : selector.keys()){
+                    if(key.attachment() != null){
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e){
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    // Per-connection state. Everything here is only ever touched by the connection's I/O thread; handler threads pass
+    // their results back through the sequencer and IOWorker.execute().
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final IOWorker worker;
+        private final HTTPRequestParser parser;
+        private final ResponseSequencer sequencer;
+        // This connection's share of the rate limits, or null if there isn't a per-connection limit.
+        private final TokenBucket rateLimit;
+        // Async responses still waiting on their handlers, cancelled if the connection goes away first. Added to by
+        // handler threads.
+        private final Set<AsyncResponse> waiting;
+        // The response being written, from its first unwritten buffer onwards, and the slot it came from (null for the
+        // farewell).
+        private ByteBuffer[] outbound;
+        private int outboundIndex;
+        private ResponseSequencer.Slot writing;
+        // A request that's been parsed but can't be dispatched yet, either because the window is full or because it
+        // has to wait for everything before it (see ResponseSequencer.canOverlap).
+        private Request pending;
+        // Set while a request that can't overlap with others is being handled, so nothing is dispatched behind it.
+        private boolean exclusive;
+        // The error response for a malformed request, sent once everything before it has been.
+        private ByteBuffer[] farewell;
+        // No more requests are taken once this is set, the connection closes after the last response.
+        private boolean closeAfterWrite;
+        // The client has stopped sending, the connection closes once everything it did send has been answered.
+        private boolean endOfInput;
+        private boolean closed;
+        private long lastActivity;
+
+        private Connection(SocketChannel channel, SelectionKey key, IOWorker worker){
+            this.channel = channel;
+            this.key = key;
+            this.worker = worker;
+            this.parser = new HTTPRequestParser(false, dispatcher::limitsFor);
+            this.sequencer = new ResponseSequencer(pipelineWindow, BufferPool.shared(), compressor);
+            this.rateLimit = dispatcher.newConnectionBucket();
+            this.waiting = ConcurrentHashMap.newKeySet();
+            this.lastActivity = System.currentTimeMillis();
+        }
+
+        private boolean isIdle(){
+            return outbound == null && sequencer.isIdle();
+        }
+
+        private void onReadable() throws IOException {
+            ByteBuffer buf = worker.readBuffer;
+            buf.clear();
+            int read = channel.read(buf);
+            if(read == -1){
+                endOfInput = true;
+                // Most likely the client's gone rather than just finished sending, so don't keep anything waiting on its
+                // behalf. Responses that are already done still go out.
+                cancelWaiting();
+                processNext();
+                return;
+            }
+            if(read == 0 || closeAfterWrite){
+                return;
+            }
+
+            buf.flip();
+            lastActivity = System.currentTimeMillis();
+            parser.feed(buf);
+            processNext();
+        }
+
+        // Dispatches as many of the parsed requests as the window allows, then works out what to wait for next.
+        private void processNext(){
+            while(!closeAfterWrite && !exclusive && !closed){
+                Request req = pending;
+                pending = null;
+                if(req == null){
+                    try {
+                        req = parser.poll();
+                    } catch (MalformedRequestException e){
+                        // There's no way to find the start of the next request, so answer and hang up.
+                        closeAfterWrite = true;
+                        farewell = new ByteBuffer[]{ByteBuffer.wrap(e.getResponse().getBytes(StandardCharsets.UTF_8))};
+                        flush();
+                        return;
+                    }
+                    if(req == null){
+                        break;
+                    }
+                }
+
+                boolean overlap = ResponseSequencer.canOverlap(req);
+                ResponseSequencer.Slot slot = overlap || sequencer.isIdle() ? sequencer.reserve() : null;
+                if(slot == null){
+                    pending = req;
+                    break;
+                }
+                exclusive = !overlap;
+                slot.getWriter().begin(req);
+                closeAfterWrite = !slot.getWriter().isKeepAlive();
+                dispatch(req, slot);
+            }
+
+            if(closed){
+                return;
+            }
+            if((endOfInput || closeAfterWrite) && pending == null && farewell == null && isIdle()){
+                // Everything that's going to be answered has been.
+                close();
+                return;
+            }
+            // Stop reading while requests are held back, so a client pipelining faster than it's answered waits in its
+            // own socket buffer rather than in ours.
+            int ops = outbound != null ? SelectionKey.OP_WRITE : 0;
+            if(!endOfInput && !closeAfterWrite && pending == null && !exclusive){
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        private void dispatch(Request req, ResponseSequencer.Slot slot){
+            handlerPool.execute(() -> {
+                boolean failed = true;
+                try {
+                    AsyncResponse async = dispatcher.dispatch(req, slot.getWriter(), rateLimit);
+                    if(async != null){
+                        await(async, slot);
+                        return;
+                    }
+                    failed = false;
+                } catch (IOException | RuntimeException e){
+                    logger.warning("Exception thrown while handling "+req.getMethod()+" "+req.getPath()+", closing connection: "+e.getClass().getSimpleName()+" "+e.getMessage());
+                }
+                complete(slot, failed);
+            });
+        }
+
+        // Completes the slot once the async response settles. The handler thread goes straight back to the pool.
+        private void await(AsyncResponse async, ResponseSequencer.Slot slot){
+            waiting.add(async);
+            async.onComplete(failed -> {
+                waiting.remove(async);
+                complete(slot, failed);
+            }, handlerPool);
+            if(sequencer.isClosed()){
+                // Closed while this was being dispatched, after close() cancelled everything it could see.
+                async.cancel();
+            }
+        }
+
+        private void complete(ResponseSequencer.Slot slot, boolean failed){
+            sequencer.complete(slot, failed);
+            worker.execute(this::flush);
+        }
+
+        private void cancelWaiting(){
+            for(AsyncResponse async : waiting){
+                async.cancel();
+            }
+        }
+
+        // Writes out whichever responses are ready, in order, then carries on with any requests that were held back.
+        private void flush(){
+            if(closed){
+                return;
+            }
+            try {
+                while(true){
+                    if(outbound != null){
+                        // One gathering write for the head and body, rather than a write (and a copy) per buffer.
+                        channel.write(outbound, outboundIndex, outbound.length - outboundIndex);
+                        while(outboundIndex < outbound.length && !outbound[outboundIndex].hasRemaining()){
+                            outboundIndex++;
+                        }
+                        if(outboundIndex < outbound.length){
+                            // Socket buffer is full, wait to be told it's writable again.
+                            break;
+                        }
+                        // Then the body, if it's streamed: a file straight from the page cache to the socket, or a
+                        // JSONStream a few chunks at a time. Either way, the rest waits for the next time round so
+                        // other connections get a turn.
+                        StreamedBody streamed = writing == null ? null : writing.getStreamedBody();
+                        if(streamed != null && streamed.hasRemaining()){
+                            streamed.transferTo(channel);
+                            if(streamed.hasRemaining()){
+                                break;
+                            }
+                        }
+
+                        ResponseSequencer.Slot slot = writing;
+                        writing = null;
+                        outbound = null;
+                        lastActivity = System.currentTimeMillis();
+                        if(slot == null){
+                            // That was the farewell.
+                            close();
+                            return;
+                        }
+                        boolean keepAlive = slot.isKeepAlive();
+                        ChannelHandoff handoff = slot.getHandoff();
+                        sequencer.recycle(slot);
+                        if(handoff != null){
+                            detach(handoff);
+                            return;
+                        }
+                        if(!keepAlive){
+                            close();
+                            return;
+                        }
+                        if(sequencer.isIdle()){
+                            exclusive = false;
+                        }
+                        continue;
+                    }
+
+                    ResponseSequencer.Slot slot = sequencer.pollReady();
+                    if(slot != null){
+                        if(slot.getResponse() == null){
+                            // The handler failed. Hang up rather than answer out of order.
+                            sequencer.recycle(slot);
+                            close();
+                            return;
+                        }
+                        writing = slot;
+                        outbound = slot.getResponse();
+                        outboundIndex = 0;
+                    } else if(farewell != null && sequencer.isIdle()){
+                        outbound = farewell;
+                        outboundIndex = 0;
+                        farewell = null;
+                    } else {
+                        break;
+                    }
+                }
+            } catch (IOException | CancelledKeyException e){
+                close();
+                return;
+            }
+            processNext();
+        }
+
+        // Hands the channel over after a detached response. It stays open and keeps its permit, which the new owner
+        // gives back when it's done with it.
+        private void detach(ChannelHandoff handoff){
+            closed = true;
+            key.cancel();
+            sequencer.close();
+            cancelWaiting();
+            try {
+                handoff.takeOver(channel, connectionPermits::release);
+            } catch (IOException e){
+                try {
+                    channel.close();
+                } catch (IOException ex){
+                    // Ignored
+                }
+                connectionPermits.release();
+            }
+        }
+
+        private void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            connectionPermits.release();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e){
+                // Ignored
+            }
+            // Handlers still running find the sequencer closed when they're done, and release their own buffers.
+            if(writing != null){
+                sequencer.recycle(writing);
+                writing = null;
+            }
+            outbound = null;
+            sequencer.close();
+            cancelWaiting();
+        }
+    }
+}
@@ -0,0 +1,625 @@
+package org.example.webserver;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.emoji.RichCustomEmoji;
+import org.example.Main;
+import org.example.metrics.Counter;
+import org.example.metrics.Family;
+import org.example.metrics.Gauge;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricRegistry;
+import org.example.plugins.PluginManager;
+import org.example.plugins.QuanTecPlugin;
+import org.example.plugins.ReloadReport;
+import org.example.utils.JSONWriter;
+import org.example.utils.Quiescence;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.JSONStream;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.RequestLimits;
+import org.example.webserver.utils.ResponseWriter;
+import org.example.webserver.utils.TokenBucket;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Consumer;
+
+/*
+    // TODO According to the HTTP/1.1 RFC, servers are NOT allowed to modify their response based on the body of a GET request. Some methods here do that.
+    API Endpoints:
+
+        === Information Provider === TODO remove into plugin.
+        /users/{snowflake}
+            GET - returns the result of getting this user's info from JDA.
+        /users?ids={snowflake},{snowflake}...
+            GET - Bulk form of the above for up to 1000 users, resolved in one pass over JDA's cache. Returns {"users":{...},"missing":[...]},
+                  where users is keyed by snowflake as above and missing lists the IDs that couldn't be found.
+        /users/manageserver/{snowflake}
+            GET - returns, in JSON, a list of guild snowflakes where the provided user has MANAGE_SERVER.
+        /guilds[?limit={n}&after={snowflake}]
+            GET - Returns a list of snowflakes corresponding to the servers that QuanTec is a member of, and as such the servers whose emotes and users can be accessed through the /users and /emojis endpoints.
+                  The whole list is streamed with Transfer-Encoding: chunked (and not compressed). With 'limit' and/or 'after', returns one page of it
+                  instead, in snowflake order: at most 'limit' guilds (up to 1000, the default) after 'after', with "next" set to what to pass as 'after'
+                  for the next page, or null on the last one.
+        /guilds/{snowflake}
+            GET - Returns the details of a specific guild, specifically the ID, name and server icon.
+        /emojis/{snowflake}
+            GET - Returns the details of a custom emoji, specifically the ID, name and image link.
+        === Control ===
+        /core/vers
+            GET - Returns JSON with the bot's version.
+        /core/plugins
+            GET - Returns JSON with a list of plugins currently running on the bot.
+        TODO TEST /core/plugins/reload
+            GET - Causes QuanTec to reload all plugins, without pausing anything. Requests, commands and events carry on using the old plugins until the
+                  new ones are swapped in, and the reload then waits (up to 30s) for those still using them to finish. Returns JSON with how long it took,
+                  how many plugins were loaded and removed, how many in-flight operations it waited on, and whether it gave up waiting on any.
+        /core/stats
+            GET - Returns JSON with WebServer statistics, currently the number of live connections, the connection cap, the engine in use, the per-connection pipelining window, the state of the response buffer pool, event stream clients, admission control (concurrency slots free and requests rejected), the entity cache (hit ratio and memory use) and
+                  bytes in (as produced by the handler) vs. bytes out (after compression) for each endpoint.
+        /core/metrics
+            GET - Returns every metric in Prometheus' text format, including per-route request durations (by route pattern, method and status),
+                  requests in flight, connection and buffer gauges, and anything registered by plugins.
+        /core/batch
+            POST - Runs a JSON array of sub-requests, [{"method":"GET","path":"/users/123","headers":{...},"body":...}, ...], through the
+                   same endpoints as everything else and returns a JSON array of their responses in the same order, each as
+                   {"status":200,"body":...}. Only path is required, method defaults to GET. JSON responses are embedded as-is,
+                   other text as a string and binary (e.g. images) as base64 under "bodyBase64". Safe sub-requests run in parallel;
+                   anything else runs on its own, in order. At most 256 sub-requests per batch.
+        /core/events[?types={type},{type}...]
+            GET - Streams MessageBus events (e.g. censorWdRemove, censorImgRemove) as Server-Sent Events until the client disconnects.
+                  Each event's type is its MessageBus recipient and its data is {"source":...,"time":...,"content":...}. Without
+                  'types', every streamable event is sent. A client that falls too far behind is sent a 'dropped' event with the
+                  number it missed.
+
+
+    API Usage Rules:
+        - Requests are rate limited per connection and per endpoint, with expensive endpoints (e.g. rendering an aggregate image)
+          costing more than cheap ones, and only so many are handled at once. Requests over a rate limit get 429, and requests that
+          can't get a turn in time get 503, both with a Retry-After (in seconds). /core/stats and /core/metrics are never limited.
+        - Plugin endpoints that wait on something (e.g. Discord) answer 504 if it doesn't come back in time, 30 seconds unless the
+          endpoint says otherwise.
+        - /guilds and /core/plugins send a strong ETag, and answer 304 to a matching If-None-Match.
+        - Any endpoints other than what's specified will return 400.
+        - Any endpoints relating to guilds that are used for guilds that Quan-Tec is not in will return 404.
+        - Any methods used that aren't explicitly listed above will return 405.
+        - All content sent to methods requiring it should be URL encoded, even when specified otherwise (particularly for
+          the 'word' endpoints as messages are parsed as URL encoded text when being screened).
+        - All API endpoints are provided with no authentication whatsoever. This API is not designed to be opened to the
+          internet, and it is the user's responsibility to authenticate attempts to use these.
+        - API requests return no headers in some cases. It is the user's responsibility to add these if this is being proxied
+          to another application (i.e., the Date, Content-Type and Content-Length headers are all not guaranteed to appear).
+ */
+/** <h1>Request Dispatcher</h1>
+ * Routes a single parsed request to either a core endpoint or a plugin endpoint, writing the response to the provided
+ * {@link ResponseWriter}. Routing is done by the WebServer's current {@link Router}; the core endpoints are registered into each
+ * new one by {@link #registerRoutes}. This holds no per-connection state, so it's shared between every connection
+ * regardless of which engine the WebServer was started with.
+ */
+public class RequestDispatcher {
+    /** The most users that can be looked up by one /users?ids= request. */
+    public static final int MAX_BULK_USERS = 1000;
+    /** The most guilds one page of /guilds can have. */
+    public static final int MAX_GUILDS_PAGE = 1000;
+    /** Epoch bumped when QuanTec joins or leaves a guild, versioning /guilds. */
+    public static final String GUILDS_EPOCH = "guilds";
+    /** Epoch bumped when plugins are (re)loaded, versioning /core/plugins. */
+    public static final String PLUGINS_EPOCH = "plugins";
+
+    // Methods that get their own label, anything else is counted as OTHER so clients can't make up new series.
+    private static final Set<String> KNOWN_METHODS = Set.of("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS");
+    // Status codes as label values, so recording one doesn't make a new string every request.
+    private static final String[] STATUS_LABELS = new String[600];
+    static {
+        for(int i = 100; i < STATUS_LABELS.length; i++){
+            STATUS_LABELS[i] = Integer.toString(i);
+        }
+    }
+
+    private final String botVers;
+    private final PluginManager pluginManager;
+    private final BatchHandler batch;
+    private final AdmissionControl admission;
+    private final JDA jda;
+    private final WebServer webServer;
+    private final Family<Histogram> requestDurations;
+    private final Gauge inFlight;
+    private final Counter handlerErrors;
+    private final Counter asyncTimeouts;
+    private final Counter asyncCancellations;
+    private final ScheduledExecutorService timeouts;
+
+    public RequestDispatcher(JDA jda, PluginManager pluginManager, WebServer webServer){
+        this.jda = jda;
+        this.webServer = webServer;
+        this.botVers = Main.botVers;
+        this.pluginManager = pluginManager;
+        this.batch = new BatchHandler(this::dispatch, webServer.getConfig().getHandlerThreads());
+
+        MetricRegistry metrics = webServer.getMetrics();
+        this.admission = new AdmissionControl(webServer.getConfig().getAdmissionLimits(), metrics);
+        this.requestDurations = metrics.histograms("quantec_http_request_duration_seconds", "Time spent handling requests, from dispatch until the response is ready (for async routes, until their stage settles). Unmatched requests have a route of \"unmatched\".", "route", "method", "status");
+        this.inFlight = metrics.gauge("quantec_http_requests_in_flight", "Requests currently being handled.");
+        this.handlerErrors = metrics.counter("quantec_http_handler_errors_total", "Requests whose handler threw, or whose async handler's stage failed.");
+        Family<Counter> abandoned = metrics.counters("quantec_http_async_abandoned_total", "Async responses given up on, by reason.", "reason");
+        this.asyncTimeouts = abandoned.labels("timeout");
+        this.asyncCancellations = abandoned.labels("disconnect");
+
+        // One thread is plenty, all it does is answer async responses that ran out of time.
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "WebServer-Timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Nearly every timeout's cancelled well before it's due, and shouldn't sit in the queue until then.
+        timer.setRemoveOnCancelPolicy(true);
+        this.timeouts = timer;
+    }
+
+    /** <h2>registerRoutes</h2>
+     * Registers the core endpoints listed above. These are registered before any plugin's, so plugins can't take them over.
+     * The ones polled by the dashboard are versioned with the WebServer's epochs, so unchanged polls get a 304.
+     */
+    public void registerRoutes(Router.Builder routes){
+        Epochs epochs = webServer.getEpochs();
+        routes.add("GET", "/users", this::getUsers)
+                .add("GET", "/users/{id}", this::getUser)
+                .add("GET", "/users/manageserver/{id}", this::getManagedGuilds)
+                .add("GET", "/guilds", (req, params) -> epochs.get(GUILDS_EPOCH), this::getGuilds)
+                .add("GET", "/guilds/{id}", this::getGuild)
+                .add("GET", "/emojis/{id}", this::getEmoji)
+                .add("GET", "/core/vers", this::getVersion)
+                .add("GET", "/core/plugins", (req, params) -> epochs.get(PLUGINS_EPOCH), this::getPlugins)
+                .add("GET", "/core/plugins/reload", this::reloadPlugins)
+                .add("GET", "/core/stats", this::getStats)
+                .add("GET", "/core/metrics", this::getMetrics)
+                .cost("GET", "/core/stats", 0)
+                .cost("GET", "/core/metrics", 0)
+                .add("GET", "/core/events", this::getEvents)
+                .add("POST", "/core/batch", batch::handle);
+    }
+
+    /** <h2>limitsFor</h2>
+     * Looks up the size limits for a request, before any of it beyond the request line has been read.
+     * @param requestPath The request's path, without the query string.
+     * @return The limits declared by the plugin owning the endpoint, or the WebServer's defaults.
+     */
+    public RequestLimits limitsFor(String requestPath){
+        RequestLimits limits = webServer.getRouter().getLimits(requestPath);
+        return limits == null ? webServer.getConfig().getDefaultLimits() : limits;
+    }
+
+    /** <h2>newConnectionBucket</h2>
+     * @return The rate limit for a new connection, to be passed to every {@link #dispatch} for it, or <code>null</code>
+     * if connections aren't rate limited.
+     */
+    public TokenBucket newConnectionBucket(){
+        return admission.newConnectionBucket();
+    }
+
+    /** <h2>dispatch</h2>
+     * As below, for requests made while handling another one, e.g. batch sub-requests. These don't belong to a
+     * connection of their own, but are still subject to the per-route limits. They're covered by the request they were
+     * made from as far as plugin reloads are concerned, so that a batch reloading plugins doesn't wait on itself.
+     */
+    public AsyncResponse dispatch(Request req, ResponseWriter writer) throws IOException {
+        return handle(req, writer, null, null);
+    }
+
+    /** <h2>dispatch</h2>
+     * Handles a single request. Unless it's for a route that costs nothing,
+     * it has to be admitted first (see {@link org.example.webserver.utils.AdmissionLimits}), and is answered with 429 or
+     * 503 if it isn't. How long it took is recorded against the route it matched, its method and the status it was
+     * answered with.
+     * <p>
+     * Plugins can be reloaded while this runs. The request sticks with whichever router it started with, and the reload
+     * waits for it to finish (including any async response it's waiting on) before letting go of the old plugins.
+     * @param req The request to handle.
+     * @param writer The writer for the response, which the caller sends once this returns, unless the route was async.
+     * @param connection The rate limit of the connection the request came in on, from {@link #newConnectionBucket}.
+     * @return <code>null</code> if the response is ready, otherwise the async response it's waiting on (see
+     * {@link AsyncRouteHandler}), which the caller should wait on before sending the writer, and cancel if the
+     * connection goes away first.
+     */
+    public AsyncResponse dispatch(Request req, ResponseWriter writer, TokenBucket connection) throws IOException {
+        return handle(req, writer, connection, pluginManager.getQuiescence());
+    }
+
+    // Runs a request's handler, and once it's been answered (which for async routes is whenever their stage settles),
+    // records it and gives back whatever it was holding. Requests are only tracked for plugin reloads if given a quiescence.
+    private AsyncResponse handle(Request req, ResponseWriter writer, TokenBucket connection, Quiescence quiescence) throws IOException {
+        long epoch = quiescence == null ? 0 : quiescence.enter();
+        long start = System.nanoTime();
+        inFlight.inc();
+        boolean failed = true;
+        boolean admitted = false;
+        AsyncResponse async = null;
+        try {
+            Router router = webServer.getRouter();
+            Router.Match match = router.match(req.getMethod(), req.getPath());
+            if(match != null && match.handler() != null && match.cost() > 0){
+                if(!admission.admit(match, connection, writer)){
+                    failed = false;
+                    return null;
+                }
+                admitted = true;
+            }
+            router.route(req, writer, match);
+            failed = false;
+
+            CompletionStage<? extends Consumer<ResponseWriter>> reply = writer.takeDeferred();
+            if(reply == null){
+                return null;
+            }
+            // Everything's held on to until the response is settled, since that's when the request's actually done.
+            boolean release = admitted;
+            async = new AsyncResponse(writer, reply, outcome -> {
+                switch (outcome) {
+                    case ERROR -> handlerErrors.inc();
+                    case TIMED_OUT -> asyncTimeouts.inc();
+                    case CANCELLED -> asyncCancellations.inc();
+                    default -> {}
+                }
+                // Cancelled requests are answered with nothing, which is counted as nginx's 499 (client closed request).
+                int status = outcome == AsyncResponse.Outcome.CANCELLED ? 499 : outcome == AsyncResponse.Outcome.FAILED ? 500 : writer.getStatus();
+                finish(req, writer, start, status, release, outcome == AsyncResponse.Outcome.FAILED, quiescence, epoch);
+            });
+            async.start(timeouts, writer.getDeferredTimeoutMillis());
+            return async;
+        } finally {
+            if(async == null){
+                // A handler that threw is answered with nothing (the connection's just closed), which is counted as a 500.
+                finish(req, writer, start, failed ? 500 : writer.getStatus(), admitted, failed, quiescence, epoch);
+            }
+        }
+    }
+
+    private void finish(Request req, ResponseWriter writer, long start, int status, boolean admitted, boolean failed, Quiescence quiescence, long epoch){
+        try {
+            if(admitted){
+                admission.release();
+            }
+            inFlight.dec();
+            if(failed){
+                handlerErrors.inc();
+            }
+            String route = writer.getEndpoint();
+            String method = KNOWN_METHODS.contains(req.getMethod()) ? req.getMethod() : "OTHER";
+            requestDurations.labels(route == null ? "unmatched" : route, method, statusLabel(status)).recordSince(start);
+        } finally {
+            if(quiescence != null){
+                quiescence.exit(epoch);
+            }
+        }
+    }
+
+    private static String statusLabel(int status){
+        return status >= 100 && status < STATUS_LABELS.length ? STATUS_LABELS[status] : "unknown";
+    }
+
+    private void getUser(Request req, RouteParams params, ResponseWriter writer){
+        // Small check here to make sure it's a valid ID.
+        long userID;
+        try {
+            userID = Long.parseLong(params.get("id"));
+        } catch (NumberFormatException e){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+        byte[] user = userJSON(userID);
+
+        if (user != null) {
+            writer.status(200).json().beginObject().name(userID).rawValue(user, 0, user.length).endObject();
+            writer.send();
+        } else {
+            writer.notFound("JDA returned null");
+        }
+    }
+
+    private void getUsers(Request req, RouteParams params, ResponseWriter writer){
+        // Bulk form of /users/{id}, for pages that would otherwise look users up one request at a time.
+        String ids = null;
+        if(req.getQuery() != null){
+            for(String param : req.getQuery().split("&")){
+                if(param.startsWith("ids=")){
+                    ids = URLDecoder.decode(param.substring(4), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        if(ids == null || ids.isEmpty()){
+            writer.badRequest("Expected ?ids={snowflake},{snowflake}...");
+            return;
+        }
+
+        String[] split = ids.split(",");
+        if(split.length > MAX_BULK_USERS){
+            writer.badRequest("Too many IDs, at most "+MAX_BULK_USERS+" are allowed per request.");
+            return;
+        }
+        // Validate everything before touching the cache, so a bad ID doesn't waste a pass.
+        long[] snowflakes = new long[split.length];
+        for(int i = 0; i < split.length; i++){
+            try {
+                snowflakes[i] = Long.parseLong(split[i].trim());
+            } catch (NumberFormatException e){
+                writer.badRequest("Invalid snowflake.");
+                return;
+            }
+        }
+
+        // One pass over the IDs, each a lookup in the entity cache or JDA's user cache, straight into the response. Misses are listed after
+        // the users, so they're kept to one side until then.
+        JSONWriter json = writer.status(200).json().beginObject().name("users").beginObject();
+        Set<Long> seen = new HashSet<>();
+        long[] missing = new long[snowflakes.length];
+        int missed = 0;
+        for(long snowflake : snowflakes){
+            if(!seen.add(snowflake)){
+                continue;
+            }
+            byte[] user = userJSON(snowflake);
+            if(user == null){
+                missing[missed++] = snowflake;
+                continue;
+            }
+            json.name(snowflake).rawValue(user, 0, user.length);
+        }
+        json.endObject().name("missing").beginArray();
+        for(int i = 0; i < missed; i++){
+            json.quoted(missing[i]);
+        }
+        json.endArray().endObject();
+        writer.send();
+    }
+
+    // The user's JSON, from the entity cache if it's there, otherwise from JDA (and then cached). Null if JDA doesn't
+    // know them.
+    private byte[] userJSON(long id){
+        EntityCache cache = webServer.getEntities();
+        byte[] json = cache.get(EntityCache.Kind.USER, id);
+        if(json == null){
+            long stamp = cache.stamp();
+            User user = jda.getUserById(id);
+            if(user == null){
+                return null;
+            }
+            json = EntityCache.encode(out -> writeUser(out, user));
+            cache.put(EntityCache.Kind.USER, id, json, stamp);
+        }
+        return json;
+    }
+
+    private static void writeUser(JSONWriter json, User user){
+        json.beginObject()
+                .name("name").value(user.getAsTag())
+                .name("id").quoted(user.getIdLong())
+                .name("avatarUrl").value(user.getAvatarUrl())
+                .endObject();
+    }
+
+    private void getManagedGuilds(Request req, RouteParams params, ResponseWriter writer){
+        // Return array of all servers where the user is both a member and has the MANAGE_SERVER permission through any role.
+        String UID = params.get("id");
+        try {
+            Long.parseLong(UID);
+        } catch (NumberFormatException e){
+            writer.badRequest("Invalid snowflake provided.");
+            return;
+        }
+
+        // Check if user is known by quantec.
+        if(jda.getUserById(UID) == null){
+            writer.notFound("User not found.");
+            return;
+        }
+
+        // Since it is known, look up the guilds it can manage. These are worked out ahead of time, see ManagerIndex.
+        JSONWriter json = writer.status(200).json().beginObject().name("guilds").beginArray();
+        for(long guild : webServer.getManagers().getGuilds(Long.parseLong(UID))){
+            json.quoted(guild);
+        }
+        json.endArray().endObject();
+        writer.send();
+    }
+
+    private void getGuilds(Request req, RouteParams params, ResponseWriter writer){
+        int limit = -1;
+        long after = -1;
+        if(req.getQuery() != null){
+            try {
+                for(String param : req.getQuery().split("&")){
+                    if(param.startsWith("limit=")){
+                        limit = Integer.parseInt(param.substring(6));
+                    } else if(param.startsWith("after=")){
+                        after = Long.parseLong(param.substring(6));
+                    }
+                }
+            } catch (NumberFormatException e){
+                writer.badRequest("Expected ?limit={n}&after={snowflake}");
+                return;
+            }
+        }
+
+        if(limit == -1 && after == -1){
+            // Get all guilds QuanTec is part of and stream them out as the response goes, rather than building the whole
+            // list first. A bot in thousands of guilds would otherwise have hundreds of KiB of it in memory at once.
+            writer.streamJSON(JSONStream.ofArray("guilds", jda.getGuilds().iterator(), (json, guild) -> json.quoted(guild.getIdLong())));
+            return;
+        }
+
+        if(limit == -1){
+            limit = MAX_GUILDS_PAGE;
+        } else if(limit < 1 || limit > MAX_GUILDS_PAGE){
+            writer.badRequest("limit must be between 1 and "+MAX_GUILDS_PAGE+".");
+            return;
+        }
+        // Pages are in snowflake order, so that 'after' picks up where the last one left off even if guilds have been
+        // joined or left in between.
+        List<Guild> guilds = jda.getGuilds();
+        long[] ids = new long[guilds.size()];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = guilds.get(i).getIdLong();
+        }
+        Arrays.sort(ids);
+        int first = Arrays.binarySearch(ids, after);
+        first = first < 0 ? -first - 1 : first + 1;
+        int end = Math.min(ids.length, first + limit);
+
+        JSONWriter json = writer.status(200).json().beginObject().name("guilds").beginArray();
+        for(int i = first; i < end; i++){
+            json.quoted(ids[i]);
+        }
+        json.endArray().name("next");
+        if(end < ids.length){
+            json.quoted(ids[end - 1]);
+        } else {
+            json.nullValue();
+        }
+        json.endObject();
+        writer.send();
+    }
+
+    private void getGuild(Request req, RouteParams params, ResponseWriter writer){
+        // Get info regarding specific Guild ID.
+        long guildID;
+        try {
+            guildID = Long.parseLong(params.get("id"));
+        } catch (NumberFormatException e){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+        EntityCache cache = webServer.getEntities();
+        byte[] json = cache.get(EntityCache.Kind.GUILD, guildID);
+        if(json == null){
+            long stamp = cache.stamp();
+            Guild guild = jda.getGuildById(guildID);
+            if(guild == null){
+                writer.notFound("JDA returned null");
+                return;
+            }
+            json = EntityCache.encode(out -> out.beginObject()
+                    .name("id").quoted(guild.getIdLong())
+                    .name("name").value(guild.getName())
+                    .name("iconURL").value(guild.getIconUrl())
+                    .endObject());
+            cache.put(EntityCache.Kind.GUILD, guildID, json, stamp);
+        }
+        writer.status(200).header("Content-Type", "application/json").body(json).send();
+    }
+
+    private void getEmoji(Request req, RouteParams params, ResponseWriter writer){
+        long emojiID;
+        try {
+            emojiID = Long.parseLong(params.get("id"));
+        } catch (NumberFormatException e){
+            writer.badRequest("Invalid snowflake.");
+            return;
+        }
+        EntityCache cache = webServer.getEntities();
+        byte[] json = cache.get(EntityCache.Kind.EMOJI, emojiID);
+        if(json == null){
+            long stamp = cache.stamp();
+            RichCustomEmoji emoji = jda.getEmojiById(emojiID);
+            if(emoji == null){
+                writer.notFound("JDA returned null");
+                return;
+            }
+            String idStr = emoji.getId();
+            json = EntityCache.encode(out -> out.beginObject()
+                    .name("id").value(idStr)
+                    .name("name").value(emoji.getName())
+                    .name("iconURL").value("https://cdn.discordapp.com/emojis/"+idStr+".png")
+                    .endObject());
+            cache.put(EntityCache.Kind.EMOJI, emojiID, json, stamp);
+        }
+        writer.status(200).header("Content-Type", "application/json").body(json).send();
+    }
+
+    private void getVersion(Request req, RouteParams params, ResponseWriter writer){
+        writer.okJSON(json -> json.beginObject().name("vers").value(botVers).endObject());
+    }
+
+    private void getPlugins(Request req, RouteParams params, ResponseWriter writer){
+        // More JSON!
+        JSONWriter json = writer.status(200).json().beginObject().name("plugins").beginArray();
+        for(QuanTecPlugin plugin : pluginManager.getPluginList()){
+            json.beginObject()
+                    .name("name").value(plugin.getClass().getSimpleName())
+                    .name("vers").value(plugin.getVersion())
+                    .endObject();
+        }
+        json.endArray().endObject();
+        writer.send();
+    }
+
+    private void reloadPlugins(Request req, RouteParams params, ResponseWriter writer){
+        // This request is itself one of the operations the reload waits on, so it has to say so.
+        ReloadReport report = pluginManager.reloadPlugins(1);
+        writer.okJSON(report::writeJSON);
+    }
+
+    private void getEvents(Request req, RouteParams params, ResponseWriter writer){
+        Set<String> types = null;
+        String query = req.getQuery();
+        if(query != null){
+            for(String param : query.split("&")){
+                if(param.startsWith("types=") && param.length() > 6){
+                    types = new HashSet<>(Arrays.asList(URLDecoder.decode(param.substring(6), StandardCharsets.UTF_8).split(",")));
+                }
+            }
+        }
+
+        Set<String> subscribed = types;
+        EventStream events = webServer.getEvents();
+        writer.status(200)
+                .header("Content-Type", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .detach((channel, onClose) -> events.subscribe(channel, onClose, subscribed));
+    }
+
+    private void getMetrics(Request req, RouteParams params, ResponseWriter writer){
+        writer.status(200)
+                .header("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+                .header("Cache-Control", "no-cache")
+                .body(webServer.getMetrics().render())
+                .send();
+    }
+
+    private void getStats(Request req, RouteParams params, ResponseWriter writer){
+        ServerConfig config = webServer.getConfig();
+        BufferPool buffers = BufferPool.shared();
+        JSONWriter json = writer.status(200).json().beginObject();
+        json.name("connections").beginObject()
+                .name("live").value(webServer.getLiveConnections())
+                .name("max").value(config.getMaxConnections())
+                .name("engine").value(config.getEngine().name().toLowerCase())
+                .name("pipelineWindow").value(config.getPipelineWindow())
+                .endObject();
+        json.name("buffers").beginObject()
+                .name("idle").value(buffers.getIdle())
+                .name("allocated").value(buffers.getAllocated())
+                .endObject();
+        json.name("compression").beginObject()
+                .name("threshold").value(webServer.getCompressor().getThreshold())
+                .name("endpoints");
+        webServer.getCompressor().writeStatsJSON(json);
+        json.endObject().name("events");
+        webServer.getEvents().writeStatsJSON(json);
+        json.name("admission");
+        admission.writeStatsJSON(json);
+        json.name("entityCache");
+        webServer.getEntities().writeStatsJSON(json);
+        json.endObject();
+        writer.send();
+    }
+}
@@ -0,0 +1,227 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.ChannelHandoff;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseCompressor;
+import org.example.webserver.utils.ResponseWriter;
+import org.example.webserver.utils.StreamedBody;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// Puts a connection's responses back in request order when its pipelined requests are being handled concurrently. Each
+// request takes a slot (and the ResponseWriter that comes with it) before it's dispatched, the handler fills the slot
+// in whenever it finishes, and responses are only ever taken off of the front, once they're complete. The number of
+// slots is the connection's in-flight window: once it's full, the connection stops reading requests until the oldest
+// response has gone out, so a client pipelining thousands of requests costs at most window-many writers and responses.
+//
+// Thread-safe. Writers are recycled between requests rather than made per request, so a connection only ever has as
+// many as it's had requests in flight at once.
+final class ResponseSequencer {
+    static final class Slot {
+        private final ResponseWriter writer;
+        // Set by complete(). response is null if the handler failed, in which case the connection should be closed.
+        private ByteBuffer[] response;
+        // Sent after the response's buffers, if its body is streamed.
+        private StreamedBody streamed;
+        private boolean keepAlive;
+        private ChannelHandoff handoff;
+        private boolean done;
+
+        private Slot(ResponseWriter writer){
+            this.writer = writer;
+        }
+
+        ResponseWriter getWriter(){
+            return writer;
+        }
+
+        ByteBuffer[] getResponse(){
+            return response;
+        }
+
+        StreamedBody getStreamedBody(){
+            return streamed;
+        }
+
+        boolean isKeepAlive(){
+            return keepAlive;
+        }
+
+        // Set if the response was detached, in which case the connection is handed over once it's been written.
+        ChannelHandoff getHandoff(){
+            return handoff;
+        }
+    }
+
+    private final int window;
+    private final BufferPool pool;
+    private final ResponseCompressor compressor;
+    private final ArrayDeque<Slot> inFlight;
+    private final ArrayDeque<Slot> idle;
+    // The slot whose response is being written, between pollReady() and recycle(). Its buffers are left alone by close().
+    private Slot writing;
+    private boolean closed;
+
+    ResponseSequencer(int window, BufferPool pool, ResponseCompressor compressor){
+        this.window = Math.max(1, window);
+        this.pool = pool;
+        this.compressor = compressor;
+        this.inFlight = new ArrayDeque<>();
+        this.idle = new ArrayDeque<>();
+    }
+
+    /** <h2>canOverlap</h2>
+     * Only safe requests without bodies are handled concurrently with their neighbours. Anything else (i.e. uploads and
+     * changes to the censor lists) waits for everything before it to be answered, and nothing after it starts until it
+     * has been, so pipelined writes still happen in the order they were sent.
+     */
+    static boolean canOverlap(Request req){
+        String method = req.getMethod();
+        return !req.hasBody() && (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS"));
+    }
+
+    /** <h2>reserve</h2>
+     * Takes the next slot in order, if there's room in the window.
+     * @return The slot, whose writer is ready for {@link ResponseWriter#begin}, or <code>null</code> if the window is
+     * full or the sequencer has been closed.
+     */
+    synchronized Slot reserve(){
+        if(closed || inFlight.size() >= window){
+            return null;
+        }
+        Slot slot = idle.poll();
+        if(slot == null){
+            slot = new Slot(new ResponseWriter(pool, compressor));
+        }
+        slot.response = null;
+        slot.done = false;
+        inFlight.add(slot);
+        return slot;
+    }
+
+    /** <h2>awaitReserve</h2>
+     * As {@link #reserve}, but waits for room in the window.
+     * @return The slot, or <code>null</code> if the sequencer was closed.
+     */
+    synchronized Slot awaitReserve() throws InterruptedException {
+        Slot slot;
+        while((slot = reserve()) == null){
+            if(closed){
+                return null;
+            }
+            wait();
+        }
+        return slot;
+    }
+
+    /** <h2>complete</h2>
+     * Finishes a slot's response, from whichever thread handled it.
+     * @param failed Whether the handler threw, in which case whatever it wrote is thrown away.
+     */
+    void complete(Slot slot, boolean failed){
+        // Done outside the lock, this is where compression happens.
+        ByteBuffer[] response = slot.writer.finish();
+        StreamedBody streamed = slot.writer.takeStreamedBody();
+        if(failed){
+            pool.release(response);
+            response = null;
+            if(streamed != null){
+                streamed.close();
+                streamed = null;
+            }
+        }
+        synchronized(this){
+            slot.response = response;
+            slot.streamed = streamed;
+            slot.keepAlive = slot.writer.isKeepAlive();
+            slot.handoff = failed ? null : slot.writer.getHandoff();
+            slot.done = true;
+            if(closed){
+                discard(slot);
+            }
+        }
+    }
+
+    /** <h2>hasReady</h2>
+     * @return Whether the oldest slot's response is complete, i.e. {@link #pollReady} would return something.
+     */
+    synchronized boolean hasReady(){
+        Slot head = inFlight.peek();
+        return !closed && head != null && head.done && writing == null;
+    }
+
+    /** <h2>pollReady</h2>
+     * @return The oldest slot if its response is complete, otherwise <code>null</code>. The slot stays in the window
+     * until it's handed back with {@link #recycle}, once its response has been written, and nothing else is returned
+     * until then.
+     */
+    synchronized Slot pollReady(){
+        if(!hasReady()){
+            return null;
+        }
+        writing = inFlight.peek();
+        return writing;
+    }
+
+    /** <h2>recycle</h2>
+     * Frees a slot from {@link #pollReady} once its response has been written (or abandoned). The response's buffers are released
+     * (and its file closed) here, so they mustn't be touched afterwards.
+     */
+    synchronized void recycle(Slot slot){
+        inFlight.remove(slot);
+        if(writing == slot){
+            writing = null;
+        }
+        discard(slot);
+        notifyAll();
+    }
+
+    /** <h2>close</h2>
+     * Stops any more slots being reserved and throws away every response that hasn't been written yet. Handlers still
+     * running have their responses thrown away as they complete.
+     */
+    synchronized void close(){
+        closed = true;
+        for(Slot slot : inFlight){
+            if(slot.done && slot != writing){
+                discard(slot);
+            }
+        }
+        notifyAll();
+    }
+
+    synchronized boolean isClosed(){
+        return closed;
+    }
+
+    synchronized boolean isIdle(){
+        return inFlight.isEmpty();
+    }
+
+    /** <h2>awaitIdle</h2>
+     * Waits until every reserved slot has been recycled, or the sequencer has been closed.
+     * @return Whether everything in flight was written, i.e. <code>false</code> if it was closed instead.
+     */
+    synchronized boolean awaitIdle() throws InterruptedException {
+        while(!inFlight.isEmpty() && !closed){
+            wait();
+        }
+        return !closed;
+    }
+
+    private void discard(Slot slot){
+        if(slot.response != null){
+            pool.release(slot.response);
+            slot.response = null;
+        }
+        if(slot.streamed != null){
+            slot.streamed.close();
+            slot.streamed = null;
+        }
+        if(!closed && idle.size() < window){
+            idle.add(slot);
+        }
+    }
+}
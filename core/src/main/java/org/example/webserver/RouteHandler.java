@@ -0,0 +1,21 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+
+import java.io.IOException;
+
+/** <h1>Route Handler</h1>
+ * Handles requests matched by a {@link Router} route. Unlike the older <code>BiConsumer</code> endpoints, the path has
+ * already been taken apart by the time this is called, so handlers should read identifiers from the provided
+ * {@link RouteParams} rather than splitting the path themselves.
+ */
+@FunctionalInterface
+public interface RouteHandler {
+    /** <h2>handle</h2>
+     * @param req The request.
+     * @param params The parameters extracted from the path, along with the method and pattern that matched.
+     * @param writer The response. Anything written here is sent once this returns.
+     */
+    void handle(Request req, RouteParams params, ResponseWriter writer) throws IOException;
+}
@@ -0,0 +1,53 @@
+package org.example.webserver;
+
+/** <h1>Route Parameters</h1>
+ * The result of matching a request against a {@link Router}: the values captured by the route's <code>{name}</code>
+ * and <code>{*name}</code> segments, plus the method and pattern that matched.
+ */
+public final class RouteParams {
+    private final String method;
+    private final String pattern;
+    private final String[] names;
+    private final String[] values;
+    private final int count;
+
+    RouteParams(String method, String pattern, String[] names, String[] values, int count){
+        this.method = method;
+        this.pattern = pattern;
+        this.names = names;
+        this.values = values;
+        this.count = count;
+    }
+
+    /** <h2>getMethod</h2>
+     * @return The request's method. Handlers registered for one method can ignore this, it's mainly useful to ones
+     * registered for {@link Router#ANY_METHOD}.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /** <h2>getPattern</h2>
+     * @return The pattern of the route that matched, e.g. <code>/images/{guild}/{nick}</code>.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /** <h2>get</h2>
+     * @param name The parameter's name, as written in the route's pattern (without braces or '*').
+     * @return The parameter's value exactly as it appeared in the path, or <code>null</code> if the route has no parameter with that name.
+     */
+    public String get(String name) {
+        for(int i = 0; i < count; i++){
+            if(names[i].equals(name)){
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return count;
+    }
+}
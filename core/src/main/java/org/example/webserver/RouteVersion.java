@@ -0,0 +1,18 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.Request;
+
+/** <h1>Route Version</h1>
+ * Reports the version of the data a route would respond with, which the WebServer turns into a strong ETag. If the
+ * client already has that version (<code>If-None-Match</code>), it's answered with 304 and the route's handler isn't
+ * called at all, so this must be cheap: typically a lookup in an {@link Epochs}.
+ */
+@FunctionalInterface
+public interface RouteVersion {
+    /** <h2>version</h2>
+     * Called before the handler. Versions only need to be unique per URL, not across routes.
+     * @return The version, or a negative number if the response can't be versioned (e.g. it'll be an error), in which
+     * case the handler is called as normal and no ETag is sent.
+     */
+    long version(Request req, RouteParams params);
+}
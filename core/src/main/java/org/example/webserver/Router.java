@@ -0,0 +1,530 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.RequestLimits;
+import org.example.webserver.utils.ResponseWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/** <h1>Router</h1>
+ * Maps a request's method and path to a {@link RouteHandler}. Routes are registered on a {@link Builder} as patterns,
+ * which are compiled once into a radix tree when the router is built, so matching a request is a single walk down the
+ * tree rather than a series of <code>split("/")</code>s. Patterns are made up of:
+ * <ul>
+ *     <li>Static text, e.g. <code>/users/manageserver/</code>.</li>
+ *     <li><code>{name}</code>, matching a single whole path segment.</li>
+ *     <li><code>{*name}</code>, matching the rest of the path. This must come last.</li>
+ * </ul>
+ * Where more than one route could match, static text takes priority over <code>{name}</code>, which takes priority
+ * over <code>{*name}</code>, so e.g. <code>/images/tolerance/{guild}</code> wins over <code>/images/{guild}/{nick}</code>.
+ * A single trailing slash on the request path is ignored.
+ * <p>
+ * Routers are immutable once built. The WebServer holds the current one and replaces it wholesale when plugins are
+ * reloaded, so a request is always routed against either the old set of routes or the new one, never a mixture.
+ */
+public final class Router {
+    /** Registers a route for every method. Routes for a specific method take priority over this. */
+    public static final String ANY_METHOD = "*";
+
+    /** The cost of a route that hasn't declared one with {@link Builder#cost}. */
+    public static final int DEFAULT_COST = 1;
+
+    /** How long an async route's stage gets unless it says otherwise, see {@link Builder#addAsync}. */
+    public static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 30_000;
+
+    /** <h2>Match</h2>
+     * The outcome of {@link #match}. If the path matched but the method didn't, <code>handler</code> and
+     * <code>params</code> are null and <code>allowedMethods</code> lists the methods that would have. <code>version</code>
+     * is null for routes registered without one. <code>cost</code> is what the route takes from the WebServer's rate
+     * limits, see {@link org.example.webserver.utils.AdmissionLimits}.
+     */
+    public record Match(RouteHandler handler, RouteVersion version, RouteParams params, String allowedMethods, int cost) {}
+
+    // A registered handler, along with how to version its responses if it can be and what it costs to call.
+    private record Route(RouteHandler handler, RouteVersion version, int cost) {}
+
+    private final Node root;
+    private final int maxParams;
+    private final Map<String, RequestLimits> limits;
+
+    private Router(Node root, int maxParams, Map<String, RequestLimits> limits){
+        this.root = root;
+        this.maxParams = maxParams;
+        this.limits = limits;
+    }
+
+    public static Builder builder(){
+        return new Builder();
+    }
+
+    /** <h2>match</h2>
+     * Looks up the route for a request.
+     * @param method The request's method.
+     * @param path The request's path, without the query string.
+     * @return The match, or <code>null</code> if no route matches the path at all.
+     */
+    public Match match(String method, String path){
+        path = normalise(path);
+
+        String[] names = new String[maxParams];
+        String[] values = new String[maxParams];
+        Node[] found = new Node[1];
+        int count = find(root, path, 0, names, values, 0, found);
+        if(count == -1){
+            return null;
+        }
+
+        Node node = found[0];
+        Route route = node.routeFor(method);
+        if(route == null){
+            return new Match(null, null, null, String.join(", ", node.methods), 0);
+        }
+        return new Match(route.handler(), route.version(), new RouteParams(method, node.pattern, names, values, count), null, route.cost());
+    }
+
+    /** <h2>normalise</h2>
+     * @return The path as it's matched against the routes, i.e. without a single trailing slash if it has one.
+     */
+    static String normalise(String path){
+        if(path.length() > 1 && path.charAt(path.length() - 1) == '/'){
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /** <h2>route</h2>
+     * Matches a request and either calls its handler, or answers with 400 (unknown endpoint) or 405 (wrong method).
+     * For versioned routes, this answers 304 instead of calling the handler if the client's <code>If-None-Match</code>
+     * is still current, and otherwise has the writer send an ETag with a successful response.
+     */
+    public void route(Request req, ResponseWriter writer) throws IOException {
+        route(req, writer, match(req.getMethod(), req.getPath()));
+    }
+
+    /** <h2>route</h2>
+     * As above, for a request that has already been matched (e.g. to check its cost against the rate limits first).
+     * @param match The result of {@link #match} for the request, which may be <code>null</code>.
+     */
+    public void route(Request req, ResponseWriter writer, Match match) throws IOException {
+        if(match == null){
+            writer.badRequest("Unknown endpoint");
+        } else if(match.handler() == null){
+            writer.methodNotAllowed("Method not allowed, expected "+match.allowedMethods()+".");
+        } else {
+            writer.setEndpoint(match.params().getPattern());
+            if(match.version() != null){
+                // The version is read before the handler runs. If the data changes in between, the client gets the
+                // newer data under the older tag, which just means it's sent again next time rather than going stale.
+                long version = match.version().version(req, match.params());
+                if(version >= 0){
+                    String etag = ETags.of(version);
+                    String matched = ETags.match(req.getHeader("if-none-match"), etag);
+                    if(matched != null){
+                        writer.notModified(matched);
+                        return;
+                    }
+                    writer.setETag(etag);
+                }
+            }
+            match.handler().handle(req, match.params(), writer);
+        }
+    }
+
+    /** <h2>getLimits</h2>
+     * @param path A request path.
+     * @return The limits registered for the path's first segment with {@link Builder#limit}, or <code>null</code> if there aren't any.
+     */
+    public RequestLimits getLimits(String path){
+        if(limits.isEmpty()){
+            return null;
+        }
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.indexOf('/', start);
+        return limits.get(path.substring(start, end == -1 ? path.length() : end));
+    }
+
+    // Walks down from a node whose prefix has already been matched up to pos. Returns the number of parameters captured
+    // on the way to a node with handlers (which is left in found[0]), or -1 if this branch doesn't match.
+    private static int find(Node node, String path, int pos, String[] names, String[] values, int count, Node[] found){
+        if(pos == path.length()){
+            if(node.routes.length > 0){
+                found[0] = node;
+                return count;
+            }
+            return -1;
+        }
+
+        // Static text first. Children never share a first character, so at most one of them can match.
+        char c = path.charAt(pos);
+        for(int i = 0; i < node.indices.length; i++){
+            if(node.indices[i] == c){
+                Node child = node.children[i];
+                if(path.startsWith(child.prefix, pos)){
+                    int result = find(child, path, pos + child.prefix.length(), names, values, count, found);
+                    if(result != -1){
+                        return result;
+                    }
+                }
+                break;
+            }
+        }
+
+        // Then a parameter, which takes everything up to the next '/'.
+        if(node.param != null && c != '/'){
+            int end = path.indexOf('/', pos);
+            if(end == -1){
+                end = path.length();
+            }
+            names[count] = node.paramName;
+            values[count] = path.substring(pos, end);
+            int result = find(node.param, path, end, names, values, count + 1, found);
+            if(result != -1){
+                return result;
+            }
+        }
+
+        // And finally a catch-all, which takes the rest.
+        if(node.catchAll != null && node.catchAll.routes.length > 0){
+            names[count] = node.catchAllName;
+            values[count] = path.substring(pos);
+            found[0] = node.catchAll;
+            return count + 1;
+        }
+        return -1;
+    }
+
+    // A compiled node. Nothing here is modified once the router has been built.
+    private static final class Node {
+        private final String prefix;
+        private final char[] indices;
+        private final Node[] children;
+        private final Node param;
+        private final String paramName;
+        private final Node catchAll;
+        private final String catchAllName;
+        private final String[] methods;
+        private final Route[] routes;
+        private final String pattern;
+
+        private Node(Builder.MutableNode source){
+            this.prefix = source.prefix;
+            this.indices = new char[source.children.size()];
+            this.children = new Node[source.children.size()];
+            for(int i = 0; i < children.length; i++){
+                indices[i] = source.children.get(i).prefix.charAt(0);
+                children[i] = new Node(source.children.get(i));
+            }
+            this.param = source.param == null ? null : new Node(source.param);
+            this.paramName = source.paramName;
+            this.catchAll = source.catchAll == null ? null : new Node(source.catchAll);
+            this.catchAllName = source.catchAllName;
+            this.methods = source.routes.keySet().toArray(new String[0]);
+            this.routes = source.routes.values().toArray(new Route[0]);
+            this.pattern = source.pattern;
+        }
+
+        private Route routeFor(String method){
+            Route any = null;
+            for(int i = 0; i < methods.length; i++){
+                if(methods[i].equals(method)){
+                    return routes[i];
+                }
+                if(methods[i].equals(ANY_METHOD)){
+                    any = routes[i];
+                }
+            }
+            return any;
+        }
+    }
+
+    /** <h1>Router Builder</h1>
+     * Collects routes for a {@link Router}. Conflicting registrations are rejected with an
+     * <code>IllegalArgumentException</code> as they're made, leaving the builder as it was.
+     */
+    public static final class Builder {
+        private final MutableNode root = new MutableNode("");
+        private final Map<String, RequestLimits> limits = new HashMap<>();
+        private final Set<String> usedRoots = new HashSet<>();
+        private final Set<String> mountedRoots = new HashSet<>();
+        private int maxParams;
+
+        private Builder(){
+        }
+
+        /** <h2>add</h2>
+         * Registers a route.
+         * @param method The method to match, e.g. <code>GET</code>, or {@link Router#ANY_METHOD}.
+         * @param pattern The path pattern, as described in {@link Router}.
+         * @throws IllegalArgumentException If the pattern is invalid, or conflicts with a route that's already registered.
+         */
+        public Builder add(String method, String pattern, RouteHandler handler){
+            return add(method, pattern, null, handler);
+        }
+
+        /** <h2>add</h2>
+         * Registers a route whose responses are versioned, so clients polling it can be answered with 304 without the
+         * handler being called. See {@link RouteVersion}.
+         * @param version Reports the current version of the route's data, or <code>null</code> if it can't.
+         * @throws IllegalArgumentException If the pattern is invalid, or conflicts with a route that's already registered.
+         */
+        public Builder add(String method, String pattern, RouteVersion version, RouteHandler handler){
+            List<String> segments = parsePattern(pattern);
+            String first = firstSegment(pattern);
+            if(mountedRoots.contains(first)){
+                throw new IllegalArgumentException("Route "+pattern+" conflicts with the endpoint mounted at /"+first+".");
+            }
+
+            // Check the whole route before touching the tree, so a conflict doesn't leave half of it behind.
+            MutableNode node = root;
+            for(String segment : segments){
+                if(segment.startsWith("{")){
+                    boolean catchAll = segment.startsWith("{*");
+                    String name = segment.substring(catchAll ? 2 : 1, segment.length() - 1);
+                    String existing = catchAll ? node.catchAllName : node.paramName;
+                    if(existing != null && !existing.equals(name)){
+                        throw new IllegalArgumentException("Route "+pattern+" names a parameter {"+name+"} where an existing route has {"+existing+"}.");
+                    }
+                    node = catchAll ? node.catchAll : node.param;
+                } else {
+                    node = node.findStatic(segment);
+                }
+                if(node == null){
+                    break;
+                }
+            }
+            if(node != null && node.routes.containsKey(method)){
+                throw new IllegalArgumentException("Route "+method+" "+pattern+" is already registered.");
+            }
+
+            node = root;
+            int params = 0;
+            for(String segment : segments){
+                if(segment.startsWith("{")){
+                    params++;
+                }
+                if(segment.startsWith("{*")){
+                    if(node.catchAll == null){
+                        node.catchAll = new MutableNode("");
+                        node.catchAllName = segment.substring(2, segment.length() - 1);
+                    }
+                    node = node.catchAll;
+                } else if(segment.startsWith("{")){
+                    if(node.param == null){
+                        node.param = new MutableNode("");
+                        node.paramName = segment.substring(1, segment.length() - 1);
+                    }
+                    node = node.param;
+                } else {
+                    node = node.insertStatic(segment);
+                }
+            }
+            node.routes.put(method, new Route(handler, version, DEFAULT_COST));
+            node.pattern = pattern;
+            usedRoots.add(first);
+            maxParams = Math.max(maxParams, params);
+            return this;
+        }
+
+        /** <h2>addAsync</h2>
+         * Registers a route whose handler returns a stage instead of writing the response, see {@link AsyncRouteHandler}.
+         * The stage gets {@link Router#DEFAULT_ASYNC_TIMEOUT_MILLIS} to complete.
+         * @throws IllegalArgumentException If the pattern is invalid, or conflicts with a route that's already registered.
+         */
+        public Builder addAsync(String method, String pattern, AsyncRouteHandler handler){
+            return addAsync(method, pattern, DEFAULT_ASYNC_TIMEOUT_MILLIS, handler);
+        }
+
+        /** <h2>addAsync</h2>
+         * As above, with a timeout of its own. Routes waiting on something that's expected to be slow (e.g. a JDA request
+         * that may be rate limited) can give it longer, and anything polled can give up sooner.
+         * @param timeoutMillis How long the stage gets before the client is answered with 504 and it's cancelled.
+         * @throws IllegalArgumentException If the pattern is invalid, conflicts with a route that's already registered,
+         * or the timeout isn't positive.
+         */
+        public Builder addAsync(String method, String pattern, long timeoutMillis, AsyncRouteHandler handler){
+            if(timeoutMillis <= 0){
+                throw new IllegalArgumentException("Route "+method+" "+pattern+" needs a positive timeout.");
+            }
+            return add(method, pattern, (req, params, writer) -> writer.defer(handler.handle(req, params), timeoutMillis));
+        }
+
+        /** <h2>mount</h2>
+         * Registers an old-style endpoint, which receives every request to <code>/root</code> and <code>/root/*</code>
+         * regardless of method, as returned by {@link org.example.plugins.QuanTecPlugin#getRESTEndpoints()}.
+         * @throws IllegalArgumentException If any route is already registered under <code>/root</code>.
+         */
+        public Builder mount(String root, BiConsumer<Request, OutputStream> endpoint){
+            if(usedRoots.contains(root)){
+                throw new IllegalArgumentException("Endpoint /"+root+" is already registered.");
+            }
+            // These write whole responses themselves, which the ResponseWriter passes through as-is.
+            RouteHandler handler = (req, params, writer) -> endpoint.accept(req, writer);
+            add(ANY_METHOD, "/"+root, handler);
+            add(ANY_METHOD, "/"+root+"/{*path}", handler);
+            mountedRoots.add(root);
+            return this;
+        }
+
+        /** <h2>cost</h2>
+         * Sets how much a route costs to call, i.e. how many tokens it takes from the WebServer's rate limits (see
+         * {@link org.example.webserver.utils.AdmissionLimits}). Routes cost {@link Router#DEFAULT_COST} unless they say
+         * otherwise, so this is for the expensive ones, e.g. rendering an image costing 20. A cost of 0 exempts the
+         * route from admission control altogether, which is only meant for cheap monitoring endpoints.
+         * @throws IllegalArgumentException If the route hasn't been registered with {@link #add}, or the cost is negative.
+         */
+        public Builder cost(String method, String pattern, int cost){
+            if(cost < 0){
+                throw new IllegalArgumentException("Route "+method+" "+pattern+" can't have a negative cost.");
+            }
+            MutableNode node = root;
+            for(String segment : parsePattern(pattern)){
+                if(segment.startsWith("{*")){
+                    node = node.catchAll;
+                } else if(segment.startsWith("{")){
+                    node = node.param;
+                } else {
+                    node = node.findStatic(segment);
+                }
+                if(node == null){
+                    break;
+                }
+            }
+            Route route = node == null || !pattern.equals(node.pattern) ? null : node.routes.get(method);
+            if(route == null){
+                throw new IllegalArgumentException("Route "+method+" "+pattern+" isn't registered.");
+            }
+            node.routes.put(method, new Route(route.handler(), route.version(), cost));
+            return this;
+        }
+
+        /** <h2>limit</h2>
+         * Sets the request size limits for everything under <code>/root</code>.
+         */
+        public Builder limit(String root, RequestLimits requestLimits){
+            limits.put(root, requestLimits);
+            return this;
+        }
+
+        /** <h2>build</h2>
+         * Compiles the routes registered so far into a router. The builder can carry on being used afterwards
+         * without affecting it.
+         */
+        public Router build(){
+            return new Router(new Node(root), maxParams, Map.copyOf(limits));
+        }
+
+        private static String firstSegment(String pattern){
+            int end = pattern.indexOf('/', 1);
+            return pattern.substring(1, end == -1 ? pattern.length() : end);
+        }
+
+        // Splits a pattern into static text and parameters, e.g. "/images/{guild}/{nick}" becomes
+        // ["/images/", "{guild}", "/", "{nick}"].
+        private static List<String> parsePattern(String pattern){
+            if(!pattern.startsWith("/")){
+                throw new IllegalArgumentException("Route "+pattern+" must start with '/'.");
+            }
+            if(pattern.length() > 1 && pattern.endsWith("/")){
+                throw new IllegalArgumentException("Route "+pattern+" must not end with '/'.");
+            }
+
+            List<String> segments = new ArrayList<>();
+            int pos = 0;
+            while(pos < pattern.length()){
+                int open = pattern.indexOf('{', pos);
+                if(open == -1){
+                    segments.add(pattern.substring(pos));
+                    break;
+                }
+                int close = pattern.indexOf('}', open);
+                if(pattern.charAt(open - 1) != '/' || close == -1 || close == open + 1 || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')){
+                    throw new IllegalArgumentException("Route "+pattern+" has a parameter that isn't a whole path segment.");
+                }
+                if(pattern.charAt(open + 1) == '*' && close + 1 != pattern.length()){
+                    throw new IllegalArgumentException("Route "+pattern+" has a {*...} parameter that isn't last.");
+                }
+                if(open > pos){
+                    segments.add(pattern.substring(pos, open));
+                }
+                segments.add(pattern.substring(open, close + 1));
+                pos = close + 1;
+            }
+            return segments;
+        }
+
+        // The builder's view of the tree, which is turned into Nodes by build().
+        private static final class MutableNode {
+            private String prefix;
+            private final List<MutableNode> children = new ArrayList<>();
+            private MutableNode param;
+            private String paramName;
+            private MutableNode catchAll;
+            private String catchAllName;
+            private final Map<String, Route> routes = new LinkedHashMap<>();
+            private String pattern;
+
+            private MutableNode(String prefix){
+                this.prefix = prefix;
+            }
+
+            // Inserts static text below this node, splitting existing nodes where the text diverges from them.
+            private MutableNode insertStatic(String text){
+                MutableNode node = this;
+                while(!text.isEmpty()){
+                    MutableNode child = null;
+                    int index;
+                    for(index = 0; index < node.children.size(); index++){
+                        if(node.children.get(index).prefix.charAt(0) == text.charAt(0)){
+                            child = node.children.get(index);
+                            break;
+                        }
+                    }
+                    if(child == null){
+                        child = new MutableNode(text);
+                        node.children.add(child);
+                        return child;
+                    }
+
+                    int common = 0;
+                    int max = Math.min(child.prefix.length(), text.length());
+                    while(common < max && child.prefix.charAt(common) == text.charAt(common)){
+                        common++;
+                    }
+                    if(common < child.prefix.length()){
+                        MutableNode split = new MutableNode(child.prefix.substring(0, common));
+                        child.prefix = child.prefix.substring(common);
+                        split.children.add(child);
+                        node.children.set(index, split);
+                        child = split;
+                    }
+                    text = text.substring(common);
+                    node = child;
+                }
+                return node;
+            }
+
+            // As above, but only follows the tree, returning null where the text isn't present.
+            private MutableNode findStatic(String text){
+                MutableNode node = this;
+                while(!text.isEmpty()){
+                    MutableNode next = null;
+                    for(MutableNode child : node.children){
+                        if(text.startsWith(child.prefix)){
+                            next = child;
+                            break;
+                        }
+                    }
+                    if(next == null){
+                        return null;
+                    }
+                    text = text.substring(next.prefix.length());
+                    node = next;
+                }
+                return node;
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.AdmissionLimits;
+import org.example.webserver.utils.RequestLimits;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/** <h1>Server Config</h1>
+ * Startup options for the WebServer. QuanTec's only command line argument is the bot token, so these are read from
+ * system properties instead (e.g. <code>java -Dquantec.webserver.engine=nio -jar QuanTec.jar {token}</code>). Anything
+ * missing or unparseable falls back to its default.
+ */
+public class ServerConfig {
+    private static final Logger logger = Logger.getLogger("WebServer");
+
+    /** <h2>Engine</h2>
+     * The connection handling strategy used by the WebServer.
+     * <ul>
+     *     <li><code>THREADED</code> - one platform thread per connection, blocking on reads. The original behaviour.</li>
+     *     <li><code>VIRTUAL</code> - as above, but on virtual threads (Java 21+), so thousands of connections don't exhaust platform threads.</li>
+     *     <li><code>NIO</code> - a small fixed set of selector threads for I/O, with requests handed to a separate handler pool.</li>
+     * </ul>
+     */
+    public enum Engine {
+        THREADED,
+        VIRTUAL,
+        NIO
+    }
+
+    private final Engine engine;
+    private final int ioThreads;
+    private final int handlerThreads;
+    private final int maxConnections;
+    private final long idleTimeoutMillis;
+    private final RequestLimits defaultLimits;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+    private final int pipelineWindow;
+    private final AdmissionLimits admissionLimits;
+    private final boolean tcpEnabled;
+    private final Path unixSocket;
+    private final int entityCacheBytes;
+
+    public ServerConfig(Engine engine, int ioThreads, int handlerThreads, int maxConnections, long idleTimeoutMillis, RequestLimits defaultLimits, int compressionThreshold, int compressionLevel, int pipelineWindow, AdmissionLimits admissionLimits){
+        this(engine, ioThreads, handlerThreads, maxConnections, idleTimeoutMillis, defaultLimits, compressionThreshold, compressionLevel, pipelineWindow, admissionLimits, true, null);
+    }
+
+    public ServerConfig(Engine engine, int ioThreads, int handlerThreads, int maxConnections, long idleTimeoutMillis, RequestLimits defaultLimits, int compressionThreshold, int compressionLevel, int pipelineWindow, AdmissionLimits admissionLimits, boolean tcpEnabled, Path unixSocket){
+        this(engine, ioThreads, handlerThreads, maxConnections, idleTimeoutMillis, defaultLimits, compressionThreshold, compressionLevel, pipelineWindow, admissionLimits, tcpEnabled, unixSocket, EntityCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param tcpEnabled Whether to listen on the WebServer's TCP port. Ignored (i.e. always listens) if there's no
+     *                   Unix domain socket, since there'd be nothing to connect to otherwise.
+     * @param unixSocket Where to bind a Unix domain socket, or <code>null</code> for none.
+     * @param entityCacheBytes The most the {@link EntityCache} may hold, roughly, in bytes. 0 turns it off.
+     */
+    public ServerConfig(Engine engine, int ioThreads, int handlerThreads, int maxConnections, long idleTimeoutMillis, RequestLimits defaultLimits, int compressionThreshold, int compressionLevel, int pipelineWindow, AdmissionLimits admissionLimits, boolean tcpEnabled, Path unixSocket, int entityCacheBytes){
+        this.engine = engine;
+        this.ioThreads = ioThreads;
+        this.handlerThreads = handlerThreads;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.defaultLimits = defaultLimits;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+        this.pipelineWindow = pipelineWindow;
+        this.admissionLimits = admissionLimits;
+        this.tcpEnabled = tcpEnabled || unixSocket == null;
+        this.unixSocket = unixSocket;
+        this.entityCacheBytes = entityCacheBytes;
+    }
+
+    public static ServerConfig fromSystemProperties(){
+        Engine engine;
+        String engineName = System.getProperty("quantec.webserver.engine", "threaded");
+        try {
+            engine = Engine.valueOf(engineName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e){
+            logger.warning("Unknown WebServer engine \""+engineName+"\", falling back to the threaded engine.");
+            engine = Engine.THREADED;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        // -Dquantec.webserver.compression=false turns compression off entirely.
+        boolean compression = Boolean.parseBoolean(System.getProperty("quantec.webserver.compression", "true"));
+        // Likewise -Dquantec.webserver.admissionControl=false for rate and concurrency limiting.
+        boolean admissionControl = Boolean.parseBoolean(System.getProperty("quantec.webserver.admissionControl", "true"));
+        // -Dquantec.webserver.unixSocket=/run/quantec/api.sock listens there too, and adding
+        // -Dquantec.webserver.tcp=false stops listening on the TCP port, leaving only the socket.
+        String unixSocket = System.getProperty("quantec.webserver.unixSocket");
+        boolean tcp = Boolean.parseBoolean(System.getProperty("quantec.webserver.tcp", "true"));
+        // And -Dquantec.webserver.entityCache=false for the cache of user, guild and emoji JSON.
+        boolean entityCache = Boolean.parseBoolean(System.getProperty("quantec.webserver.entityCache", "true"));
+        if(!tcp && (unixSocket == null || unixSocket.isBlank())){
+            logger.warning("quantec.webserver.tcp is false but there's no quantec.webserver.unixSocket to listen on instead, listening on TCP anyway.");
+        }
+        return new ServerConfig(
+                engine,
+                intProperty("quantec.webserver.ioThreads", Math.min(2, cores)),
+                intProperty("quantec.webserver.handlerThreads", cores),
+                intProperty("quantec.webserver.maxConnections", 10000),
+                intProperty("quantec.webserver.idleTimeoutSeconds", 300) * 1000L,
+                new RequestLimits(
+                        intProperty("quantec.webserver.maxHeaderBytes", RequestLimits.DEFAULT.getMaxHeaderBytes()),
+                        intProperty("quantec.webserver.maxBodyBytes", RequestLimits.DEFAULT.getMaxBodyBytes())
+                ),
+                compression ? intProperty("quantec.webserver.compressionThreshold", 1024) : 0,
+                Math.min(9, intProperty("quantec.webserver.compressionLevel", 6)),
+                intProperty("quantec.webserver.pipelineWindow", 16),
+                admissionControl ? new AdmissionLimits(
+                        intProperty("quantec.webserver.maxConcurrentRequests", AdmissionLimits.DEFAULT.getMaxConcurrentRequests()),
+                        intProperty("quantec.webserver.admissionQueueMillis", AdmissionLimits.DEFAULT.getQueueTimeoutMillis()),
+                        intProperty("quantec.webserver.connectionRate", AdmissionLimits.DEFAULT.getConnectionRate()),
+                        intProperty("quantec.webserver.connectionBurst", AdmissionLimits.DEFAULT.getConnectionBurst()),
+                        intProperty("quantec.webserver.routeRate", AdmissionLimits.DEFAULT.getRouteRate()),
+                        intProperty("quantec.webserver.routeBurst", AdmissionLimits.DEFAULT.getRouteBurst())
+                ) : AdmissionLimits.UNLIMITED,
+                tcp,
+                unixSocket == null || unixSocket.isBlank() ? null : Path.of(unixSocket.trim()),
+                entityCache ? intProperty("quantec.webserver.entityCacheBytes", EntityCache.DEFAULT_MAX_BYTES) : 0
+        );
+    }
+
+    private static int intProperty(String name, int fallback){
+        String value = System.getProperty(name);
+        if(value == null){
+            return fallback;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if(parsed > 0){
+                return parsed;
+            }
+        } catch (NumberFormatException e){
+            // Handled below.
+        }
+        logger.warning("Invalid value \""+value+"\" for "+name+", using default of "+fallback+".");
+        return fallback;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getHandlerThreads() {
+        return handlerThreads;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /** <h2>getDefaultLimits</h2>
+     * @return The request size limits applied to core endpoints, and to plugin endpoints that don't declare their own.
+     */
+    public RequestLimits getDefaultLimits() {
+        return defaultLimits;
+    }
+
+    /** <h2>getCompressionThreshold</h2>
+     * @return The smallest response body, in bytes, that's compressed for clients that accept it. 0 if compression is off.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /** <h2>getCompressionLevel</h2>
+     * @return The deflate level used, from 1 (fastest) to 9 (smallest).
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /** <h2>getPipelineWindow</h2>
+     * @return The most pipelined requests a single connection may have in flight at once. 1 answers them one at a time.
+     */
+    public int getPipelineWindow() {
+        return pipelineWindow;
+    }
+
+    /** <h2>getAdmissionLimits</h2>
+     * @return The rate and concurrency limits requests are admitted under, see {@link AdmissionLimits}.
+     */
+    public AdmissionLimits getAdmissionLimits() {
+        return admissionLimits;
+    }
+
+    /** <h2>isTcpEnabled</h2>
+     * @return Whether the WebServer listens on its TCP port. Always true unless there's a Unix domain socket instead.
+     */
+    public boolean isTcpEnabled() {
+        return tcpEnabled;
+    }
+
+    /** <h2>getUnixSocket</h2>
+     * @return Where the WebServer binds a Unix domain socket, which serves exactly what the TCP port does, or
+     * <code>null</code> if it doesn't.
+     */
+    public Path getUnixSocket() {
+        return unixSocket;
+    }
+
+    /** <h2>getEntityCacheBytes</h2>
+     * @return Roughly the most memory the cache of user, guild and emoji JSON may use, in bytes. 0 if it's off.
+     */
+    public int getEntityCacheBytes() {
+        return entityCacheBytes;
+    }
+}
@@ -1,39 +1,60 @@
 package org.example.webserver;
 
 import net.dv8tion.jda.api.JDA;
+import org.example.metrics.MetricRegistry;
 import org.example.plugins.PluginManager;
-import org.example.utils.Halter;
-import org.example.webserver.utils.Request;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.ResponseCompressor;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
 
 // A small REST api that allows QuanTec Overwatch to nab data from this.
 // It does *some* checks, e.g. it will refuse connections from locations that aren't localhost.
+// It can also (or only) listen on a Unix domain socket, see ServerConfig and Listeners, which skips TCP for the proxy.
 // It's REST compliant but because it's designed to be accessed via proxy (like a database), it doesn't
 // include the "Host", "Date" or any other headers other than what's absolutely necessary (e.g., "Content-Type" and "Content-Length").
 public class WebServer extends Thread {
+    private static final long REAPER_INTERVAL_MILLIS = 10_000;
     private final Logger logger = Logger.getLogger("WebServer");
 
-    private final JDA jda;
     private final int port;
-    private final Map<String, BiConsumer<Request, OutputStream>> pluginEndpoints;
-    private final PluginManager pluginManager;
-    private final Halter halter;
+    private final ServerConfig config;
+    private final RequestDispatcher dispatcher;
+    private final Semaphore connectionPermits;
+    private final ResponseCompressor compressor;
+    // Versions for the core endpoints that support conditional requests, see RequestDispatcher.
+    private final Epochs epochs;
+    // Serves /core/events, fed from the MessageBus by Main.
+    private final EventStream events;
+    // Everything served at /core/metrics, including whatever plugins register.
+    private final MetricRegistry metrics;
+    // Who can manage which guilds, for /users/manageserver. Kept up to date by Main's ManagerListener.
+    private final ManagerIndex managers;
+    // The JSON for users, guilds and emojis. Kept up to date by Main's EntityCacheListener.
+    private final EntityCache entities;
+    // Replaced wholesale whenever plugins are (re)loaded, never modified.
+    private volatile Router router;
 
-    public WebServer(JDA jda, int port, PluginManager pluginManager, Halter halter){
-        this.jda = jda;
+    public WebServer(JDA jda, int port, ServerConfig config, PluginManager pluginManager){
         this.port = port;
-        this.pluginManager = pluginManager;
-        this.pluginEndpoints = new HashMap<>();
-        this.halter = halter;
+        this.config = config;
+        this.connectionPermits = new Semaphore(config.getMaxConnections());
+        this.compressor = new ResponseCompressor(config.getCompressionThreshold(), config.getCompressionLevel(), config.getHandlerThreads());
+        this.epochs = new Epochs();
+        this.events = new EventStream();
+        this.metrics = new MetricRegistry();
+        registerMetrics();
+        this.managers = new ManagerIndex(metrics);
+        this.entities = new EntityCache(config.getEntityCacheBytes(), metrics);
+        this.dispatcher = new RequestDispatcher(jda, pluginManager, this);
+        // Just the core endpoints until the plugin manager registers everything else.
+        this.router = newRouterBuilder().build();
         logger.setUseParentHandlers(false);
         ConsoleHandler consoleHandler = new ConsoleHandler();
         consoleHandler.setFormatter(new SimpleFormatter() {
@@ -51,34 +72,209 @@ public class WebServer extends Thread {
         this.start();
     }
 
-    public Map<String, BiConsumer<Request, OutputStream>> getPluginEndpoints(){
-        return this.pluginEndpoints;
+    /** <h2>newRouterBuilder</h2>
+     * @return A router builder with the core endpoints already registered, for plugin endpoints to be added to.
+     */
+    public Router.Builder newRouterBuilder(){
+        Router.Builder routes = Router.builder();
+        dispatcher.registerRoutes(routes);
+        return routes;
+    }
+
+    public Router getRouter(){
+        return this.router;
+    }
+
+    /** <h2>setRouter</h2>
+     * Swaps in a new set of routes. Requests already being handled finish with the old router, everything after this
+     * uses the new one.
+     */
+    public void setRouter(Router router){
+        this.router = router;
     }
 
     @Override
     public void run(){
-        List<Client> clientList = new ArrayList<>();
-
-        ScheduledExecutorService service = new ScheduledThreadPoolExecutor(1);
-        service.schedule(() -> clientList.removeIf(ele -> !ele.isAlive()), 1000, TimeUnit.MILLISECONDS);
-
-        try(ServerSocket serverSocket = new ServerSocket(port)) {
-            logger.info("Started server on port "+port+"/tcp.");
-            while(true){
-                Socket cli = serverSocket.accept();
-                if(cli.getInetAddress().isLoopbackAddress()){
-                    clientList.add(new Client(cli, jda, pluginEndpoints, pluginManager, this.halter));
-                } else {
-                    logger.severe("non-local address attempted connection to server, will reject. THIS IS EXTREMELY INSECURE! Address: "+cli.getInetAddress().toString());
+        if(config.getEngine() == ServerConfig.Engine.NIO){
+            runNio();
+        } else {
+            runBlocking();
+        }
+    }
+
+    private void runNio(){
+        try {
+            new NioServer(port, dispatcher, config, connectionPermits, compressor).run();
+        } catch (SocketException e){
+            logger.warning("SocketException thrown, assuming exit requested and shutting down. If this happens on startup, it's because the port QuanTec is using is likely occupied.");
+        } catch (IOException e){
+            logger.severe("IOException thrown: "+e.getMessage());
+        }
+    }
+
+    /** <h2>getLiveConnections</h2>
+     * A gauge of how many connections are currently open, regardless of engine.
+     * @return The number of open connections.
+     */
+    public int getLiveConnections(){
+        return config.getMaxConnections() - connectionPermits.availablePermits();
+    }
+
+    public ServerConfig getConfig(){
+        return this.config;
+    }
+
+    public ResponseCompressor getCompressor(){
+        return this.compressor;
+    }
+
+    /** <h2>getEpochs</h2>
+     * @return The versions of the core endpoints' data, keyed by the constants in {@link RequestDispatcher}. Bump these
+     * whenever that data changes, e.g. when QuanTec joins or leaves a guild.
+     */
+    public Epochs getEpochs(){
+        return this.epochs;
+    }
+
+    /** <h2>getEvents</h2>
+     * @return The stream behind /core/events. Anything published to it is sent to every client listening.
+     */
+    public EventStream getEvents(){
+        return this.events;
+    }
+
+    /** <h2>getManagers</h2>
+     * @return The index behind /users/manageserver, to be fed JDA's events (see
+     * {@link org.example.listeners.ManagerListener}).
+     */
+    public ManagerIndex getManagers(){
+        return this.managers;
+    }
+
+    /** <h2>getEntities</h2>
+     * @return The cache behind /users, /guilds/{id} and /emojis/{id}, to be fed JDA's events (see
+     * {@link org.example.listeners.EntityCacheListener}).
+     */
+    public EntityCache getEntities(){
+        return this.entities;
+    }
+
+    /** <h2>getMetrics</h2>
+     * @return The registry behind /core/metrics. Plugins get a view of this through
+     * {@link org.example.plugins.QuanTecPlugin#registerMetrics}, rather than using it directly.
+     */
+    public MetricRegistry getMetrics(){
+        return this.metrics;
+    }
+
+    // Gauges for things that are already being counted elsewhere, read whenever they're scraped.
+    private void registerMetrics(){
+        BufferPool buffers = BufferPool.shared();
+        metrics.gauge("quantec_http_connections", "Open connections.", this::getLiveConnections);
+        metrics.gauge("quantec_http_connections_max", "The most connections that can be open at once.", config::getMaxConnections);
+        metrics.gauge("quantec_http_buffers_idle", "Response buffers sitting idle in the pool.", buffers::getIdle);
+        metrics.counter("quantec_http_buffers_allocated_total", "Response buffers allocated since startup.", buffers::getAllocated);
+        metrics.gauge("quantec_events_clients", "Clients streaming /core/events.", events::getClients);
+    }
+
+    private void runBlocking(){
+        ExecutorService executor = null;
+        if(config.getEngine() == ServerConfig.Engine.VIRTUAL){
+            executor = newVirtualThreadExecutor();
+            if(executor == null){
+                logger.warning("Virtual threads aren't available on this JVM (Java 21+ is required), falling back to platform threads.");
+            }
+        }
+        // Pipelined requests are handed from the connection's thread to these. Virtual threads are cheap enough to just
+        // make one per request, platform threads are pooled like the NIO engine's handlers.
+        ExecutorService handlers = executor;
+        if(executor == null){
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "WebServer-Client-"+threadCount.getAndIncrement()));
+            AtomicInteger handlerCount = new AtomicInteger();
+            handlers = Executors.newFixedThreadPool(config.getHandlerThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "WebServer-Handler-"+handlerCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        // Clients remove themselves when their connection ends. The reaper is there for the ones that don't end, i.e.
+        // keep-alive connections that have been left idle, which get closed so their threads can exit.
+        Set<Client> clients = ConcurrentHashMap.newKeySet();
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "WebServer-Reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleAtFixedRate(() -> {
+            long cutoff = System.currentTimeMillis() - config.getIdleTimeoutMillis();
+            clients.removeIf(client -> {
+                if(client.isClosed()){
+                    return true;
+                }
+                if(client.getLastActivity() < cutoff){
+                    client.close();
+                    return true;
+                }
+                return false;
+            });
+        }, REAPER_INTERVAL_MILLIS, REAPER_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Channels rather than plain sockets, but still blocking, see Client.
+        ExecutorService clientThreads = executor;
+        ExecutorService handlerThreads = handlers;
+        try(Listeners listeners = Listeners.open(port, config)) {
+            logger.info("Started server on "+listeners.describe()+" using the "+config.getEngine().name().toLowerCase()+" engine.");
+            listeners.acceptAll(cli -> {
+                SocketAddress remote = cli.getRemoteAddress();
+                if(!Listeners.isLocal(remote)){
+                    logger.severe("non-local address attempted connection to server, will reject. THIS IS EXTREMELY INSECURE! Address: "+remote);
                     cli.close();
+                    return;
                 }
-            }
+
+                if(!connectionPermits.tryAcquire()){
+                    Listeners.turnAway(cli);
+                    return;
+                }
+
+                // The client releases its permit itself, since a detached connection outlives its thread.
+                Client client = new Client(cli, dispatcher, compressor, handlerThreads, config.getPipelineWindow(), connectionPermits::release);
+                clients.add(client);
+                try {
+                    clientThreads.execute(() -> {
+                        try {
+                            client.run();
+                        } finally {
+                            clients.remove(client);
+                        }
+                    });
+                } catch (RejectedExecutionException e){
+                    client.close();
+                    clients.remove(client);
+                    connectionPermits.release();
+                }
+            });
         } catch (SocketException e){
             logger.warning("SocketException thrown, assuming exit requested and shutting down. If this happens on startup, it's because the port QuanTec is using is likely occupied.");
         } catch (IOException e){
             // Assume shutdown, ignore and exit.
             logger.severe("IOException thrown: "+e.getMessage());
         }
-        service.shutdown();
+        reaper.shutdown();
+        clients.forEach(Client::close);
+        executor.shutdown();
+        handlers.shutdown();
+    }
+
+    // QuanTec targets Java 17, where Executors.newVirtualThreadPerTaskExecutor() doesn't exist yet, so it's looked up
+    // reflectively. On 19/20 it exists but throws unless preview features are enabled, which also lands us in the catch.
+    private static ExecutorService newVirtualThreadExecutor(){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e){
+            return null;
+        }
     }
 }
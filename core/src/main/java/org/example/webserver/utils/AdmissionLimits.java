@@ -0,0 +1,76 @@
+package org.example.webserver.utils;
+
+/** <h1>Admission Limits</h1>
+ * How much work the WebServer accepts before it starts turning requests away, so that a script hammering an expensive
+ * endpoint slows itself down rather than the whole bot. Every route has a cost (1 unless it declares otherwise, see
+ * {@link org.example.webserver.Router.Builder#cost}), which is taken from two token buckets before its handler runs:
+ * <ul>
+ *     <li>One per route, shared by every client, so no one endpoint can eat all of the CPU.</li>
+ *     <li>One per connection, so one client can't eat all of an endpoint's budget.</li>
+ * </ul>
+ * Requests that find either bucket empty are answered with 429. Those that get through then need one of a fixed number
+ * of concurrency slots, waiting a short while for one if they're all taken, and are answered with 503 if none frees up.
+ * Both come with a <code>Retry-After</code>. Routes with a cost of 0 (e.g. /core/stats) skip all of this, so the server
+ * can still be watched while it's under load.
+ * <p>
+ * A rate, burst or concurrency limit of 0 turns that check off.
+ */
+public class AdmissionLimits {
+    /** The defaults: 64 requests at once (waiting up to 50ms for a slot), 100 tokens a second per connection with a
+     * burst of 200, and 500 a second per route with a burst of 1000. */
+    public static final AdmissionLimits DEFAULT = new AdmissionLimits(64, 50, 100, 200, 500, 1000);
+    /** Admits everything. */
+    public static final AdmissionLimits UNLIMITED = new AdmissionLimits(0, 0, 0, 0, 0, 0);
+
+    private final int maxConcurrentRequests;
+    private final int queueTimeoutMillis;
+    private final int connectionRate;
+    private final int connectionBurst;
+    private final int routeRate;
+    private final int routeBurst;
+
+    /** <h2>AdmissionLimits</h2>
+     * @param maxConcurrentRequests The most requests handled at once, across every connection.
+     * @param queueTimeoutMillis How long a request waits for a concurrency slot before being answered with 503.
+     * @param connectionRate Tokens per second refilled into each connection's bucket.
+     * @param connectionBurst The size of each connection's bucket.
+     * @param routeRate Tokens per second refilled into each route's bucket.
+     * @param routeBurst The size of each route's bucket.
+     */
+    public AdmissionLimits(int maxConcurrentRequests, int queueTimeoutMillis, int connectionRate, int connectionBurst, int routeRate, int routeBurst){
+        if(maxConcurrentRequests < 0 || queueTimeoutMillis < 0 || connectionRate < 0 || connectionBurst < 0 || routeRate < 0 || routeBurst < 0){
+            throw new IllegalArgumentException("Admission limits must not be negative.");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.connectionRate = connectionRate;
+        // A bucket smaller than a second's worth of tokens would never let the rate be reached.
+        this.connectionBurst = Math.max(connectionBurst, connectionRate);
+        this.routeRate = routeRate;
+        this.routeBurst = Math.max(routeBurst, routeRate);
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    public int getConnectionRate() {
+        return connectionRate;
+    }
+
+    public int getConnectionBurst() {
+        return connectionBurst;
+    }
+
+    public int getRouteRate() {
+        return routeRate;
+    }
+
+    public int getRouteBurst() {
+        return routeBurst;
+    }
+}
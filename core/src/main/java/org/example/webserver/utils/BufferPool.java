@@ -0,0 +1,92 @@
+package org.example.webserver.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** <h1>Buffer Pool</h1>
+ * A pool of fixed-size direct <code>ByteBuffer</code>s that responses are assembled in. Direct buffers are expensive to
+ * allocate but can be handed to a channel without being copied again, so they're kept around and reused rather than
+ * being left for the garbage collector.
+ * <p>
+ * The pool only holds on to a limited number of idle buffers. If more than that are in use at once, new ones are
+ * allocated as normal and dropped when they're released.
+ */
+public final class BufferPool {
+    /** The size of every buffer handed out by a pool. */
+    public static final int BUFFER_BYTES = 8 * 1024;
+
+    private static final BufferPool SHARED = new BufferPool(512);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> idle;
+    private final AtomicInteger idleCount;
+    private final AtomicLong allocated;
+    private final int maxIdle;
+
+    /** <h2>BufferPool</h2>
+     * @param maxIdle The most idle buffers the pool will hold on to.
+     */
+    public BufferPool(int maxIdle){
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.allocated = new AtomicLong();
+        this.maxIdle = maxIdle;
+    }
+
+    /** <h2>shared</h2>
+     * @return The pool used by the WebServer, which holds up to 4MiB of idle buffers.
+     */
+    public static BufferPool shared(){
+        return SHARED;
+    }
+
+    /** <h2>acquire</h2>
+     * @return A cleared buffer of {@link #BUFFER_BYTES} bytes, which should be given back with {@link #release} once it's been written out.
+     */
+    public ByteBuffer acquire(){
+        ByteBuffer buffer = idle.poll();
+        if(buffer == null){
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+        idleCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** <h2>release</h2>
+     * Returns a buffer to the pool. Buffers that didn't come from a pool (e.g. wrapped arrays) are ignored, so it's
+     * safe to pass everything a {@link ResponseWriter} produced back through here.
+     */
+    public void release(ByteBuffer buffer){
+        if(!buffer.isDirect() || buffer.capacity() != BUFFER_BYTES){
+            return;
+        }
+        if(idleCount.incrementAndGet() > maxIdle){
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.add(buffer);
+    }
+
+    public void release(ByteBuffer[] buffers){
+        for(ByteBuffer buffer : buffers){
+            release(buffer);
+        }
+    }
+
+    /** <h2>getIdle</h2>
+     * @return The number of buffers currently sitting in the pool.
+     */
+    public int getIdle(){
+        return idleCount.get();
+    }
+
+    /** <h2>getAllocated</h2>
+     * @return The number of buffers this pool has ever had to allocate. If this keeps climbing, the pool is too small.
+     */
+    public long getAllocated(){
+        return allocated.get();
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.webserver.utils;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/** <h1>Channel Handoff</h1>
+ * Takes over a connection from the WebServer after a detached response's head has been written, see
+ * {@link ResponseWriter#detach}. The channel is in non-blocking mode and no longer belongs to either engine: the new
+ * owner is responsible for closing it, and must call <code>onClose</code> exactly once when it does, so the connection
+ * stops counting towards the WebServer's limit.
+ */
+@FunctionalInterface
+public interface ChannelHandoff {
+    void takeOver(SocketChannel channel, Runnable onClose) throws IOException;
+}
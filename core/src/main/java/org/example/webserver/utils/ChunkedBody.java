@@ -0,0 +1,210 @@
+package org.example.webserver.utils;
+
+import org.example.utils.JSONWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// The body of a response sent with Transfer-Encoding: chunked, written by a JSONStream as it goes out, see
+// ResponseWriter#streamJSON. The stream writes into pooled buffers, and each buffer it fills is sent as a chunk of its
+// own: room is left at the front of every buffer for the chunk's size and at the back for the CRLF after it (and the
+// last chunk, for the buffer that ends the stream), so chunks are framed where they are rather than copied anywhere.
+// Nothing more is written until what's been written has gone out, so however long the stream, it only ever takes up a
+// buffer or two (or however many one piece of it needs).
+//
+// HTTP/1.0 clients don't know about chunks, so they're sent the JSON as it is, and the end of the body is the end of the
+// connection.
+final class ChunkedBody implements StreamedBody {
+    // The chunk size is written as 4 hex digits, padded with zeros, which is enough for a whole buffer.
+    private static final int HEADER_BYTES = 6;
+    // The CRLF after a chunk, and room for the last chunk after that.
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FOOTER_BYTES = CRLF.length + LAST_CHUNK.length;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // How much one transferTo() writes at most before giving the thread back, so that a long stream on the NIO engine
+    // can't keep every other connection waiting until it's done.
+    private static final int CHUNKS_PER_TRANSFER = 8;
+
+    private final BufferPool pool;
+    private final JSONStream stream;
+    private final boolean framed;
+    private final JSONWriter json;
+    // Chunks that have been written but not sent yet.
+    private final List<ByteBuffer> filled;
+    private ByteBuffer current;
+    private ByteBuffer[] outbound;
+    private int outboundIndex;
+    // Whether the stream's written everything, and whether all of that's been sent.
+    private boolean ended;
+    private boolean done;
+    private boolean closed;
+
+    /** <h2>ChunkedBody</h2>
+     * @param framed Whether to send chunks, or just the JSON for an HTTP/1.0 client.
+     */
+    ChunkedBody(BufferPool pool, JSONStream stream, boolean framed){
+        this.pool = pool;
+        this.stream = stream;
+        this.framed = framed;
+        this.json = new JSONWriter(this::room);
+        this.filled = new ArrayList<>(2);
+    }
+
+    boolean isFramed(){
+        return framed;
+    }
+
+    @Override
+    public boolean hasRemaining(){
+        return !done;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if(closed){
+            throw new IOException("Stream already closed.");
+        }
+        long sent = 0;
+        int chunks = 0;
+        while(!done){
+            if(outbound == null){
+                if(chunks >= CHUNKS_PER_TRANSFER){
+                    break;
+                }
+                produce();
+                outbound = filled.toArray(new ByteBuffer[0]);
+                outboundIndex = 0;
+                filled.clear();
+                chunks += outbound.length;
+            }
+
+            sent += write(target);
+            if(outboundIndex < outbound.length){
+                // Target's full.
+                break;
+            }
+            pool.release(outbound);
+            outbound = null;
+            done = ended;
+        }
+        return sent;
+    }
+
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(current != null){
+            pool.release(current);
+            current = null;
+        }
+        for(ByteBuffer buffer : filled){
+            pool.release(buffer);
+        }
+        filled.clear();
+        if(outbound != null){
+            pool.release(outbound);
+            outbound = null;
+        }
+        stream.close();
+    }
+
+    private long write(WritableByteChannel target) throws IOException {
+        long sent = 0;
+        if(target instanceof GatheringByteChannel gathering){
+            sent = gathering.write(outbound, outboundIndex, outbound.length - outboundIndex);
+        } else {
+            for(int i = outboundIndex; i < outbound.length; i++){
+                sent += target.write(outbound[i]);
+                if(outbound[i].hasRemaining()){
+                    break;
+                }
+            }
+        }
+        while(outboundIndex < outbound.length && !outbound[outboundIndex].hasRemaining()){
+            outboundIndex++;
+        }
+        return sent;
+    }
+
+    // Has the stream write until there's at least a chunk to send, or it's done.
+    private void produce() throws IOException {
+        while(filled.isEmpty()){
+            boolean more;
+            try {
+                more = stream.writeNext(json);
+            } catch (RuntimeException e){
+                // Too late to answer with a 500, the head's gone out already.
+                throw new IOException("JSON stream failed part way through.", e);
+            }
+            if(!more){
+                if(!json.isComplete()){
+                    throw new IOException("JSON stream ended part way through a value.");
+                }
+                end();
+                return;
+            }
+        }
+    }
+
+    // Where the JSONWriter writes. Moves on to a new chunk whenever the current one can't fit the next token.
+    private ByteBuffer room(int bytes){
+        if(current == null || current.remaining() < bytes){
+            seal(false);
+            current = pool.acquire();
+            if(framed){
+                current.position(HEADER_BYTES);
+                current.limit(current.capacity() - FOOTER_BYTES);
+            }
+        }
+        return current;
+    }
+
+    // Frames the chunk being written and queues it to be sent, ending the body after it if this is the last one.
+    private void seal(boolean last){
+        ByteBuffer chunk = current;
+        current = null;
+        if(chunk == null){
+            return;
+        }
+        int length = chunk.position() - (framed ? HEADER_BYTES : 0);
+        if(length == 0){
+            // Never send an empty chunk, that's what ends the body.
+            pool.release(chunk);
+            return;
+        }
+        if(framed){
+            chunk.limit(chunk.capacity());
+            chunk.put(CRLF);
+            if(last){
+                chunk.put(LAST_CHUNK);
+            }
+            for(int i = 3; i >= 0; i--){
+                chunk.put(i, HEX[length & 0xF]);
+                length >>>= 4;
+            }
+            chunk.put(4, CRLF[0]);
+            chunk.put(5, CRLF[1]);
+        }
+        chunk.flip();
+        filled.add(chunk);
+    }
+
+    private void end(){
+        ended = true;
+        boolean empty = current == null || current.position() == (framed ? HEADER_BYTES : 0);
+        seal(true);
+        if(empty && framed){
+            // Nothing to put the last chunk after.
+            filled.add(ByteBuffer.wrap(LAST_CHUNK));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.webserver.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/** <h1>File Region</h1>
+ * The part of a file a response's body is being sent from, see {@link ResponseWriter#file(FileChannel, String, String)}.
+ * It's sent after the response's head with {@link FileChannel#transferTo}, which the OS can do straight from the page
+ * cache to the socket (i.e. <code>sendfile</code>), so none of it ever has to be read onto the heap.
+ * <p>
+ * Owns the channel, which is closed once the response has been written or thrown away.
+ */
+public final class FileRegion implements StreamedBody {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    FileRegion(FileChannel channel, long position, long count){
+        this.channel = channel;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    /** <h2>remaining</h2>
+     * @return How many bytes are still to be sent.
+     */
+    public long remaining(){
+        return end - position;
+    }
+
+    @Override
+    public boolean hasRemaining(){
+        return position < end;
+    }
+
+    /** <h2>transferTo</h2>
+     * Sends as much of what's left as the target will take in one go. Non-blocking targets may take none of it, in
+     * which case this should be called again once they're writable.
+     * @return How many bytes were sent.
+     * @throws EOFException If the file's been truncated since the response was started, so the rest can never be sent.
+     */
+    @Override
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long sent = channel.transferTo(position, end - position, target);
+        if(sent == 0 && position >= channel.size()){
+            throw new EOFException("File truncated while it was being sent.");
+        }
+        position += sent;
+        return sent;
+    }
+
+    @Override
+    public void close(){
+        try {
+            channel.close();
+        } catch (IOException e){
+            // Ignored
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.webserver.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/** <h1>HTTP Headers</h1>
+ * The header block of a request, kept as the raw bytes it arrived as plus a table of offsets into them. Lookups compare
+ * bytes case-insensitively against the requested name, so nothing is decoded into a <code>String</code> until somebody
+ * actually asks for a value.
+ */
+public class HTTPHeaders {
+    // Each header takes four slots: name start, name end, value start, value end. Ends are exclusive.
+    private final byte[] data;
+    private final int[] offsets;
+    private final int count;
+
+    HTTPHeaders(byte[] data, int[] offsets, int count){
+        this.data = data;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    /** <h2>get</h2>
+     * Gets the value of a header. Header names are case-insensitive.
+     * @param name The name of the header, e.g. <code>Content-Type</code>.
+     * @return The value of the first header with that name with surrounding whitespace removed, or <code>null</code> if it wasn't sent.
+     */
+    public String get(String name){
+        int index = indexOf(name);
+        return index == -1 ? null : getValue(index);
+    }
+
+    public boolean contains(String name){
+        return indexOf(name) != -1;
+    }
+
+    public int size(){
+        return count;
+    }
+
+    /** <h2>getName</h2>
+     * @param index The index of the header, in the order they were sent.
+     * @return The header's name, lowercased.
+     */
+    public String getName(int index){
+        int start = offsets[index * 4], end = offsets[index * 4 + 1];
+        char[] chars = new char[end - start];
+        for(int i = 0; i < chars.length; i++){
+            chars[i] = (char) toLower(data[start + i]);
+        }
+        return new String(chars);
+    }
+
+    public String getValue(int index){
+        int start = offsets[index * 4 + 2];
+        return new String(data, start, offsets[index * 4 + 3] - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /** <h2>valueEquals</h2>
+     * Case-insensitively compares a header's value to an expected one without decoding it.
+     * @return <code>true</code> if the header is present and its value matches.
+     */
+    public boolean valueEquals(String name, String expected){
+        int index = indexOf(name);
+        if(index == -1){
+            return false;
+        }
+        int start = offsets[index * 4 + 2], end = offsets[index * 4 + 3];
+        return regionEqualsIgnoreCase(start, end, expected);
+    }
+
+    /** <h2>getLong</h2>
+     * Parses a header holding a non-negative decimal number, e.g. <code>Content-Length</code>, straight from its bytes.
+     * @return The value, or <code>-1</code> if the header is absent.
+     * @throws NumberFormatException If the value isn't a non-negative number, or doesn't fit in a long.
+     */
+    public long getLong(String name){
+        int index = indexOf(name);
+        if(index == -1){
+            return -1;
+        }
+
+        int start = offsets[index * 4 + 2], end = offsets[index * 4 + 3];
+        if(start == end || end - start > 18){
+            throw new NumberFormatException("Invalid value for "+name+".");
+        }
+        long value = 0;
+        for(int i = start; i < end; i++){
+            int digit = data[i] - '0';
+            if(digit < 0 || digit > 9){
+                throw new NumberFormatException("Invalid value for "+name+".");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int indexOf(String name){
+        for(int i = 0; i < count; i++){
+            if(regionEqualsIgnoreCase(offsets[i * 4], offsets[i * 4 + 1], name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String expected){
+        if(end - start != expected.length()){
+            return false;
+        }
+        for(int i = 0; i < expected.length(); i++){
+            if(toLower(data[start + i]) != toLower(expected.charAt(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(int c){
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+}
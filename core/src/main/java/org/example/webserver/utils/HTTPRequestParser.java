@@ -0,0 +1,617 @@
+package org.example.webserver.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/** <h1>HTTP Request Parser</h1>
+ * An incremental HTTP/1.1 request parser that works on bytes in a reusable <code>ByteBuffer</code>. One of these should
+ * be kept per connection, and used in one of two ways:
+ * <ul>
+ *     <li>{@link #read} reads requests off of a blocking channel itself. The request is returned as soon as its headers
+ *     have arrived, and its body is read off of the channel as the handler consumes {@link Request#getBodyStream()}.</li>
+ *     <li>{@link #feed} and {@link #poll} take bytes as they arrive from a non-blocking channel, and only return a
+ *     request once its body has arrived in full.</li>
+ * </ul>
+ * Pipelined requests are handled naturally either way, since whatever follows a request stays in the buffer for the
+ * next call.
+ * <p>
+ * The request line and headers are parsed in place. The only allocations per request are the path (and query) strings,
+ * one copy of the header block (the buffer is reused, so the headers need their own bytes) and, unless it's streamed,
+ * the body array, which is sized from <code>Content-Length</code> and filled in bulk. Sizes are checked against the
+ * {@link RequestLimits} for the request's path as early as possible: the header limit as soon as the request line has
+ * arrived, and the body limit as soon as the headers (or each chunk's size line) have.
+ */
+public class HTTPRequestParser {
+    public static final int DEFAULT_BUFFER_BYTES = 8 * 1024;
+    /** The most a request line may take up before it's rejected, since limits can't be looked up until it's complete. */
+    public static final int MAX_HEAD_BYTES = 64 * 1024;
+    private static final int MAX_CHUNK_LINE_BYTES = 1024;
+
+    // Returned by decodeBody() in place of a byte count.
+    private static final int END = -1;
+    private static final int NEED_MORE = -2;
+
+    private static final String[] KNOWN_METHODS = {"GET", "PUT", "POST", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    private static final String[] KNOWN_VERSIONS = {"HTTP/1.1", "HTTP/1.0"};
+
+    private enum State {
+        HEAD,
+        BODY,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_CRLF,
+        TRAILERS
+    }
+
+    private final boolean retainBuffer;
+    private final Function<String, RequestLimits> limitResolver;
+    // Kept in write mode: bytes between readIndex and position() are buffered but not yet parsed.
+    private ByteBuffer buffer;
+    private int readIndex;
+    private int scanIndex;
+
+    // The request currently being assembled. limits is null until the request line has arrived.
+    private State state;
+    private String method, path, query, version;
+    private RequestLimits limits;
+    private int headerOffset;
+    private HTTPHeaders headers;
+    private boolean chunked;
+    // For Content-Length bodies, the bytes left in the body. For chunked ones, the bytes left in the current chunk.
+    private long bodyRemaining;
+    private long chunkedTotal;
+    // Only used by poll(), which assembles the whole body before returning.
+    private byte[] body;
+    private int bodyLength;
+    // Only used by read(): the stream handed out with the last request, and any error it hit.
+    private BodyStream currentBody;
+    private MalformedRequestException failure;
+
+    /** <h2>HTTPRequestParser</h2>
+     * Creates a parser that keeps its buffer between requests and applies {@link RequestLimits#DEFAULT} to everything.
+     */
+    public HTTPRequestParser(){
+        this(true);
+    }
+
+    /** <h2>HTTPRequestParser</h2>
+     * @param retainBuffer Whether the buffer should be kept while there's nothing in it. Connections that may sit idle
+     *                     in large numbers (i.e. on the NIO engine) should pass <code>false</code>, so an idle connection
+     *                     holds no buffer at all.
+     */
+    public HTTPRequestParser(boolean retainBuffer){
+        this(retainBuffer, path -> RequestLimits.DEFAULT);
+    }
+
+    /** <h2>HTTPRequestParser</h2>
+     * @param retainBuffer As above.
+     * @param limitResolver Looks up the limits for a request from its path (without the query string). This is called
+     *                      from the connection's thread once per request, so it should be cheap.
+     */
+    public HTTPRequestParser(boolean retainBuffer, Function<String, RequestLimits> limitResolver){
+        this.retainBuffer = retainBuffer;
+        this.limitResolver = limitResolver;
+        this.state = State.HEAD;
+    }
+
+    /** <h2>read</h2>
+     * Reads a single request from a blocking channel, blocking until its headers have arrived. The body is left on the
+     * channel and read through the request's {@link Request#getBodyStream()}; if the handler doesn't read all of it,
+     * the rest is skipped by the next call to this.
+     * @return The request, or <code>null</code> if the channel reached end-of-stream cleanly between requests.
+     * @throws MalformedRequestException If the request isn't valid HTTP/1.1 or exceeds the size limits.
+     * @throws EOFException If the channel closed part way through a request.
+     */
+    public Request read(ReadableByteChannel channel) throws IOException {
+        if(failure != null){
+            throw failure;
+        }
+        if(currentBody != null){
+            currentBody.skipRemaining();
+        }
+
+        while(!parseHead()){
+            if(fill(channel) == -1){
+                if(limits == null && buffered() == 0){
+                    release();
+                    return null;
+                }
+                throw new EOFException("Connection closed part way through a request.");
+            }
+        }
+
+        if(!chunked && bodyRemaining == 0){
+            return finish(null);
+        }
+        currentBody = new BodyStream(channel);
+        return new Request(version, method, path, query, headers, null, currentBody);
+    }
+
+    /** <h2>feed</h2>
+     * Appends bytes to the parser's buffer, consuming all of <code>src</code>. Follow this with {@link #poll} to
+     * retrieve any requests that are now complete.
+     */
+    public void feed(ByteBuffer src){
+        ensureWritable(src.remaining());
+        buffer.put(src);
+    }
+
+    /** <h2>poll</h2>
+     * Parses as far as the buffered bytes allow. Requests returned by this always have their body in memory.
+     * @return A complete request, or <code>null</code> if more bytes are needed.
+     * @throws MalformedRequestException If the request isn't valid HTTP/1.1 or exceeds the size limits.
+     */
+    public Request poll() throws MalformedRequestException {
+        if(state == State.HEAD){
+            if(!parseHead()){
+                compact();
+                return null;
+            }
+            if(chunked){
+                body = new byte[Math.min(DEFAULT_BUFFER_BYTES, limits.getMaxBodyBytes())];
+            } else if(bodyRemaining > 0){
+                // Already checked against the limit, so this is safe to allocate up front.
+                body = new byte[(int) bodyRemaining];
+            }
+            bodyLength = 0;
+        }
+
+        while(true){
+            if(chunked && bodyLength == body.length){
+                body = Arrays.copyOf(body, Math.min(Math.max(body.length * 2, DEFAULT_BUFFER_BYTES), limits.getMaxBodyBytes()));
+            }
+            int n = decodeBody(body, bodyLength, body == null ? 0 : body.length - bodyLength);
+            if(n == END){
+                return finish(body == null ? null : bodyLength == body.length ? body : Arrays.copyOf(body, bodyLength));
+            }
+            if(n == NEED_MORE){
+                compact();
+                return null;
+            }
+            bodyLength += n;
+        }
+    }
+
+    /** <h2>hasBufferedData</h2>
+     * @return Whether there are bytes buffered that haven't been parsed into a request yet, e.g. a pipelined request.
+     */
+    public boolean hasBufferedData(){
+        return buffered() > 0;
+    }
+
+    // Parses the request line and headers if they've arrived, leaving the parser ready to decode the body.
+    private boolean parseHead() throws MalformedRequestException {
+        if(buffered() == 0){
+            return false;
+        }
+        byte[] buf = buffer.array();
+
+        if(limits == null){
+            // Clients may send stray CRLFs between requests (usually after a POST body), which are ignored.
+            while(buffered() >= 2 && buf[readIndex] == '\r' && buf[readIndex + 1] == '\n'){
+                readIndex += 2;
+            }
+
+            int lineEnd = indexOfCRLF(buf, readIndex, buffer.position());
+            if(lineEnd == -1){
+                if(buffered() > MAX_HEAD_BYTES){
+                    throw new MalformedRequestException("Request line too large.", true);
+                }
+                return false;
+            }
+            parseRequestLine(buf, readIndex, lineEnd);
+            limits = limitResolver.apply(path);
+            headerOffset = lineEnd + 2 - readIndex;
+            // The blank line ending the head may start right where the request line ends.
+            scanIndex = lineEnd;
+        }
+
+        int headEnd = findHeadEnd(buf);
+        if(headEnd == -1){
+            if(buffered() > limits.getMaxHeaderBytes()){
+                throw new MalformedRequestException("Headers too large.", true);
+            }
+            return false;
+        }
+        if(headEnd + 4 - readIndex > limits.getMaxHeaderBytes()){
+            throw new MalformedRequestException("Headers too large.", true);
+        }
+        parseHeaders(buf, Math.min(readIndex + headerOffset, headEnd), headEnd);
+        readIndex = headEnd + 4;
+        scanIndex = readIndex;
+
+        chunked = headers.contains("transfer-encoding");
+        long contentLength;
+        try {
+            contentLength = headers.getLong("content-length");
+        } catch (NumberFormatException e){
+            throw new MalformedRequestException("Invalid content-length.");
+        }
+
+        if(chunked){
+            if(contentLength != -1 || !headers.valueEquals("transfer-encoding", "chunked")){
+                // Both at once is how request smuggling starts, and we don't support any other codings.
+                throw new MalformedRequestException("Unsupported transfer-encoding.");
+            }
+            chunkedTotal = 0;
+            state = State.CHUNK_SIZE;
+        } else {
+            if(contentLength > limits.getMaxBodyBytes()){
+                throw new MalformedRequestException("Body too large.", true);
+            }
+            bodyRemaining = Math.max(contentLength, 0);
+            state = State.BODY;
+        }
+        return true;
+    }
+
+    // Decodes body bytes out of the buffer into dst, removing any chunked encoding. Returns the number of bytes decoded,
+    // END once the body is complete, or NEED_MORE if nothing more can be decoded from what's buffered.
+    private int decodeBody(byte[] dst, int off, int len) throws MalformedRequestException {
+        while(true){
+            switch(state){
+                case BODY, CHUNK_DATA -> {
+                    if(bodyRemaining == 0){
+                        if(state == State.BODY){
+                            return END;
+                        }
+                        state = State.CHUNK_CRLF;
+                        continue;
+                    }
+                    if(buffered() == 0){
+                        return NEED_MORE;
+                    }
+                    int n = (int) Math.min(Math.min(len, buffered()), bodyRemaining);
+                    System.arraycopy(buffer.array(), readIndex, dst, off, n);
+                    readIndex += n;
+                    bodyRemaining -= n;
+                    return n;
+                }
+
+                case CHUNK_SIZE -> {
+                    int lineEnd = buffered() == 0 ? -1 : indexOfCRLF(buffer.array(), readIndex, buffer.position());
+                    if(lineEnd == -1){
+                        if(buffered() > MAX_CHUNK_LINE_BYTES){
+                            throw new MalformedRequestException("Invalid chunk size.");
+                        }
+                        return NEED_MORE;
+                    }
+
+                    int size = parseChunkSize(buffer.array(), readIndex, lineEnd);
+                    readIndex = lineEnd + 2;
+                    if(size == 0){
+                        state = State.TRAILERS;
+                    } else {
+                        chunkedTotal += size;
+                        if(chunkedTotal > limits.getMaxBodyBytes()){
+                            throw new MalformedRequestException("Body too large.", true);
+                        }
+                        bodyRemaining = size;
+                        state = State.CHUNK_DATA;
+                    }
+                }
+
+                case CHUNK_CRLF -> {
+                    if(buffered() < 2){
+                        return NEED_MORE;
+                    }
+                    if(buffer.array()[readIndex] != '\r' || buffer.array()[readIndex + 1] != '\n'){
+                        throw new MalformedRequestException("Missing CRLF after chunk.");
+                    }
+                    readIndex += 2;
+                    state = State.CHUNK_SIZE;
+                }
+
+                case TRAILERS -> {
+                    // Trailers are read and thrown away; nothing we serve uses them.
+                    int lineEnd = buffered() == 0 ? -1 : indexOfCRLF(buffer.array(), readIndex, buffer.position());
+                    if(lineEnd == -1){
+                        if(buffered() > limits.getMaxHeaderBytes()){
+                            throw new MalformedRequestException("Trailers too large.", true);
+                        }
+                        return NEED_MORE;
+                    }
+                    boolean last = lineEnd == readIndex;
+                    readIndex = lineEnd + 2;
+                    if(last){
+                        state = State.BODY;
+                        bodyRemaining = 0;
+                        return END;
+                    }
+                }
+
+                case HEAD -> {
+                    return END;
+                }
+            }
+        }
+    }
+
+    private Request finish(byte[] content){
+        Request req = new Request(version, method, path, query, headers, content, null);
+        nextRequest();
+        return req;
+    }
+
+    private void nextRequest(){
+        state = State.HEAD;
+        method = path = query = version = null;
+        limits = null;
+        headers = null;
+        chunked = false;
+        bodyRemaining = chunkedTotal = 0;
+        body = null;
+        bodyLength = 0;
+        currentBody = null;
+        compact();
+    }
+
+    private int fill(ReadableByteChannel channel) throws IOException {
+        ensureWritable(1);
+        return channel.read(buffer);
+    }
+
+    private void parseRequestLine(byte[] buf, int start, int lineEnd) throws MalformedRequestException {
+        // METHOD SP request-target SP HTTP-version
+        int sp1 = indexOf(buf, (byte) ' ', start, lineEnd);
+        int sp2 = sp1 == -1 ? -1 : indexOf(buf, (byte) ' ', sp1 + 1, lineEnd);
+        if(sp1 <= start || sp2 <= sp1 + 1){
+            throw new MalformedRequestException("Malformed request line.");
+        }
+
+        method = intern(buf, start, sp1, KNOWN_METHODS);
+        int queryStart = indexOf(buf, (byte) '?', sp1 + 1, sp2);
+        path = new String(buf, sp1 + 1, (queryStart == -1 ? sp2 : queryStart) - sp1 - 1, StandardCharsets.UTF_8);
+        query = queryStart == -1 ? null : new String(buf, queryStart + 1, sp2 - queryStart - 1, StandardCharsets.UTF_8);
+        version = intern(buf, sp2 + 1, lineEnd, KNOWN_VERSIONS);
+        if(!version.startsWith("HTTP/")){
+            throw new MalformedRequestException("Malformed request line.");
+        }
+    }
+
+    private void parseHeaders(byte[] buf, int headerStart, int headEnd) throws MalformedRequestException {
+        // These get their own copy of the bytes, since the buffer's about to be reused.
+        byte[] data = Arrays.copyOfRange(buf, headerStart, headEnd);
+        int[] offsets = new int[32];
+        int count = 0;
+        int pos = 0;
+        while(pos < data.length){
+            int end = indexOfCRLF(data, pos, data.length);
+            if(end == -1){
+                end = data.length;
+            }
+
+            int colon = indexOf(data, (byte) ':', pos, end);
+            if(colon <= pos || data[colon - 1] == ' ' || data[colon - 1] == '\t'){
+                throw new MalformedRequestException("Malformed header.");
+            }
+            int valueStart = colon + 1, valueEnd = end;
+            while(valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')){
+                valueStart++;
+            }
+            while(valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')){
+                valueEnd--;
+            }
+
+            if(count * 4 == offsets.length){
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count * 4] = pos;
+            offsets[count * 4 + 1] = colon;
+            offsets[count * 4 + 2] = valueStart;
+            offsets[count * 4 + 3] = valueEnd;
+            count++;
+            pos = end + 2;
+        }
+
+        headers = new HTTPHeaders(data, offsets, count);
+    }
+
+    private int findHeadEnd(byte[] buf){
+        int limit = buffer.position() - 3;
+        for(int i = Math.max(scanIndex, readIndex); i < limit; i++){
+            if(buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n'){
+                return i;
+            }
+        }
+        // Resume from here next time rather than rescanning what's already been checked.
+        scanIndex = Math.max(readIndex, limit);
+        return -1;
+    }
+
+    private static int parseChunkSize(byte[] buf, int start, int end) throws MalformedRequestException {
+        int size = 0, digits = 0;
+        for(int i = start; i < end; i++){
+            byte c = buf[i];
+            int digit;
+            if(c >= '0' && c <= '9'){
+                digit = c - '0';
+            } else if(c >= 'a' && c <= 'f'){
+                digit = c - 'a' + 10;
+            } else if(c >= 'A' && c <= 'F'){
+                digit = c - 'A' + 10;
+            } else if(c == ';' || c == ' ' || c == '\t'){
+                // Chunk extensions are permitted but meaningless to us.
+                break;
+            } else {
+                throw new MalformedRequestException("Invalid chunk size.");
+            }
+            if(++digits > 7){
+                throw new MalformedRequestException("Chunk too large.");
+            }
+            size = size * 16 + digit;
+        }
+        if(digits == 0){
+            throw new MalformedRequestException("Invalid chunk size.");
+        }
+        return size;
+    }
+
+    // Matches common tokens (methods, versions) against constants so they don't cost an allocation each time.
+    private static String intern(byte[] buf, int start, int end, String[] known){
+        outer:
+        for(String candidate : known){
+            if(candidate.length() != end - start){
+                continue;
+            }
+            for(int i = 0; i < candidate.length(); i++){
+                if(buf[start + i] != candidate.charAt(i)){
+                    continue outer;
+                }
+            }
+            return candidate;
+        }
+        return new String(buf, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private static int indexOf(byte[] buf, byte b, int start, int end){
+        for(int i = start; i < end; i++){
+            if(buf[i] == b){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfCRLF(byte[] buf, int start, int end){
+        for(int i = start; i < end - 1; i++){
+            if(buf[i] == '\r' && buf[i + 1] == '\n'){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int buffered(){
+        return buffer == null ? 0 : buffer.position() - readIndex;
+    }
+
+    private void ensureWritable(int bytes){
+        if(buffer == null){
+            buffer = ByteBuffer.allocate(Math.max(DEFAULT_BUFFER_BYTES, bytes));
+            readIndex = scanIndex = 0;
+            return;
+        }
+        if(buffer.remaining() >= bytes){
+            return;
+        }
+
+        // Shift the unparsed bytes to the front first, and only grow if that isn't enough.
+        compact();
+        if(buffer.remaining() < bytes){
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            grown.put(buffer.array(), 0, buffer.position());
+            buffer = grown;
+        }
+    }
+
+    private void compact(){
+        if(buffer == null){
+            return;
+        }
+        int remaining = buffered();
+        if(remaining == 0){
+            if(!retainBuffer || buffer.capacity() > DEFAULT_BUFFER_BYTES){
+                release();
+            } else {
+                buffer.clear();
+                readIndex = scanIndex = 0;
+            }
+        } else if(readIndex > 0){
+            byte[] buf = buffer.array();
+            System.arraycopy(buf, readIndex, buf, 0, remaining);
+            buffer.position(remaining);
+            scanIndex = Math.max(0, scanIndex - readIndex);
+            readIndex = 0;
+        }
+    }
+
+    private void release(){
+        buffer = null;
+        readIndex = scanIndex = 0;
+    }
+
+    // The body of a request returned by read(), decoded straight off of the channel as it's consumed.
+    private final class BodyStream extends InputStream {
+        private final ReadableByteChannel channel;
+        private boolean done;
+
+        private BodyStream(ReadableByteChannel channel){
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(done){
+                return -1;
+            }
+            if(len == 0){
+                return 0;
+            }
+
+            try {
+                while(true){
+                    int n = decodeBody(b, off, len);
+                    if(n > 0){
+                        return n;
+                    }
+                    if(n == END){
+                        done = true;
+                        nextRequest();
+                        return -1;
+                    }
+
+                    if((state == State.BODY || state == State.CHUNK_DATA) && buffered() == 0){
+                        // Nothing buffered, so skip the buffer and read straight into the caller's array.
+                        n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, bodyRemaining)));
+                        if(n > 0){
+                            bodyRemaining -= n;
+                            return n;
+                        }
+                    } else {
+                        n = fill(channel);
+                    }
+                    if(n == -1){
+                        throw new EOFException("Connection closed part way through a request body.");
+                    }
+                }
+            } catch (MalformedRequestException e){
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public byte[] readAllBytes() throws IOException {
+            if(done || chunked){
+                return super.readAllBytes();
+            }
+            // The exact size is known, so fill one array rather than growing a list of them.
+            byte[] out = new byte[(int) bodyRemaining];
+            int read = readNBytes(out, 0, out.length);
+            if(read != out.length || read() != -1){
+                throw new EOFException("Connection closed part way through a request body.");
+            }
+            return out;
+        }
+
+        private void skipRemaining() throws IOException {
+            byte[] scratch = new byte[DEFAULT_BUFFER_BYTES];
+            while(read(scratch, 0, scratch.length) != -1){
+                // Discarded.
+            }
+        }
+    }
+}
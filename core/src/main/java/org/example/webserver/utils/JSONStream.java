@@ -0,0 +1,71 @@
+package org.example.webserver.utils;
+
+import org.example.utils.JSONWriter;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/** <h1>JSON Stream</h1>
+ * A JSON body that's written a piece at a time as the response goes out, rather than all at once before it does, for
+ * listings too big to want in memory all at once (see {@link ResponseWriter#streamJSON}). The response asks for the
+ * next piece whenever it's sent what it has, so only about a chunk's worth of the body is ever held at once however
+ * big the whole thing is. Most streams are arrays of records, which {@link #ofArray} makes from an iterator:
+ * <pre>
+ *     writer.streamJSON(JSONStream.ofArray("guilds", jda.getGuilds().iterator(), (json, guild) -> json.quoted(guild.getIdLong())));
+ * </pre>
+ * Streams are written on whichever thread is sending the response, which for the NIO engine is the thread every other
+ * connection is served from too, so each piece should be quick to write and nothing in here should block. They're
+ * also written after the handler's returned, so they shouldn't rely on anything that's only good until then.
+ */
+@FunctionalInterface
+public interface JSONStream {
+    /** <h2>writeNext</h2>
+     * Writes the next piece of the value, which can be as much or as little as is convenient (a record is usually
+     * about right). The same writer is passed every time, so a piece can leave things open for the next to carry on.
+     * @return Whether there's more to write. Once this returns <code>false</code>, the whole value must have been written.
+     * @throws IOException If the rest can't be written, in which case the connection is closed, as the response has
+     * already been started.
+     */
+    boolean writeNext(JSONWriter json) throws IOException;
+
+    /** <h2>close</h2>
+     * Called once the response is done with, whether or not all of it was written, e.g. to give back whatever was
+     * being read from.
+     */
+    default void close(){
+    }
+
+    /** <h2>ofArray</h2>
+     * Streams an array with a record for each item, one per piece.
+     * @param name The name to give the array in an object of its own (i.e. <code>{"name":[...]}</code>), or
+     *             <code>null</code> to stream just the array.
+     * @param items The items, which are read as the response goes out rather than up front.
+     * @param writeItem Writes an item's record.
+     */
+    static <T> JSONStream ofArray(String name, Iterator<? extends T> items, BiConsumer<JSONWriter, ? super T> writeItem){
+        return new JSONStream() {
+            private boolean started;
+
+            @Override
+            public boolean writeNext(JSONWriter json){
+                if(!started){
+                    started = true;
+                    if(name != null){
+                        json.beginObject().name(name);
+                    }
+                    json.beginArray();
+                }
+                if(items.hasNext()){
+                    writeItem.accept(json, items.next());
+                    return true;
+                }
+                json.endArray();
+                if(name != null){
+                    json.endObject();
+                }
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.webserver.utils;
+
+import java.io.IOException;
+
+/** <h1>Malformed Request Exception</h1>
+ * Thrown by the request parser when a client sends something that isn't valid HTTP/1.1, or that's larger than the
+ * endpoint's {@link RequestLimits} allow. Once this is thrown the connection can't be trusted to be in sync any more,
+ * so the caller should answer with {@link #getResponse()} and close it.
+ */
+public class MalformedRequestException extends IOException {
+    private final boolean tooLarge;
+
+    public MalformedRequestException(String message){
+        this(message, false);
+    }
+
+    public MalformedRequestException(String message, boolean tooLarge){
+        super(message);
+        this.tooLarge = tooLarge;
+    }
+
+    /** <h2>isTooLarge</h2>
+     * @return <code>true</code> if the request was rejected for exceeding a size limit rather than for being malformed.
+     */
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /** <h2>getResponse</h2>
+     * @return The response to send before closing the connection, either 413 or 400.
+     */
+    public String getResponse() {
+        return tooLarge ? Response.payloadTooLarge(getMessage()) : Response.badRequest(getMessage());
+    }
+}
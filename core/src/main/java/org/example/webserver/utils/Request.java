@@ -1,7 +1,9 @@
 package org.example.webserver.utils;
 
-import java.io.BufferedReader;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -9,17 +11,66 @@ import java.util.Map;
 
 public class Request {
 
-    private final String HTTPVers,method,path,content;
-    private final Map<String, String> headers;
+    private final String HTTPVers,method,path,query;
+    private final HTTPHeaders headerTable;
+    private Map<String, String> headers;
+    private byte[] body;
+    private InputStream bodyStream;
+    private String content;
+
+    // Used by HTTPRequestParser. The header map and the decoded content are only built if someone asks for them. Either
+    // the body is already in memory, or it's still on the connection and bodyStream reads it from there.
+    Request(String HTTPVers, String method, String path, String query, HTTPHeaders headerTable, byte[] body, InputStream bodyStream){
+        this.HTTPVers = HTTPVers;
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.headerTable = headerTable;
+        this.body = body;
+        this.bodyStream = bodyStream;
+    }
 
     private Request(String HTTPVers, String method, String path, String content, Map<String, String> headers){
         this.HTTPVers = HTTPVers;
         this.method = method;
         this.path = path;
+        this.query = null;
         this.content = content;
         this.headers = headers;
+        this.headerTable = null;
+    }
+
+    private Request(String HTTPVers, String method, String path, String query, Map<String, String> headers, byte[] body){
+        this.HTTPVers = HTTPVers;
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.headers = headers;
+        this.headerTable = null;
+        this.body = body;
     }
 
+    /** <h2>of</h2>
+     * Builds a request that didn't arrive on a connection, e.g. one of the sub-requests of a /core/batch.
+     * @param method The method, e.g. <code>GET</code>.
+     * @param target The path, optionally followed by a query string.
+     * @param headers Header values keyed by lowercased header name.
+     * @param body The body, or <code>null</code> if there isn't one.
+     */
+    public static Request of(String method, String target, Map<String, String> headers, byte[] body){
+        int queryStart = target.indexOf('?');
+        String path = queryStart == -1 ? target : target.substring(0, queryStart);
+        String query = queryStart == -1 ? null : target.substring(queryStart + 1);
+        return new Request("HTTP/1.1", method, path, query, headers, body);
+    }
+
+    /** <h2>readRequest</h2>
+     * The original line-based parser. Note that this lowercases the entire request, including the path, and reads the
+     * body a character at a time.
+     * @deprecated Use {@link HTTPRequestParser}, which works on bytes and preserves the request line. This is only
+     * kept for existing callers and as a baseline for benchmarks.
+     */
+    @Deprecated
     public static Request readRequest(BufferedReader input) throws IOException {
         // Read lines until we read a blank one.
         List<String> lines = new ArrayList<>();
@@ -88,6 +139,10 @@ public class Request {
             body = null;
         }
 
+        return fromLines(lines, body);
+    }
+
+    private static Request fromLines(List<String> lines, String body){
         // Get first line and remove to isolate headers.
         String firstLine = lines.get(0);
         lines.remove(firstLine);
@@ -107,15 +162,107 @@ public class Request {
         return method;
     }
 
+    /** <h2>getPath</h2>
+     * @return The path the request was made to, without the query string.
+     */
     public String getPath() {
         return path;
     }
 
+    /** <h2>getQuery</h2>
+     * @return The raw query string (everything after the '?'), or <code>null</code> if there wasn't one.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /** <h2>hasBody</h2>
+     * @return Whether the request was sent with a body, without reading it.
+     */
+    public boolean hasBody() {
+        return body != null || bodyStream != null || content != null;
+    }
+
+    /** <h2>getContent</h2>
+     * Reads the whole body into memory, if it hasn't been already, and decodes it as UTF-8. For large uploads, prefer
+     * {@link #getBodyStream()}.
+     * @return The body, or <code>null</code> if there wasn't one.
+     * @throws UncheckedIOException If the body couldn't be read off of the connection.
+     */
     public String getContent() {
+        if(content == null && getContentBytes() != null){
+            content = new String(body, StandardCharsets.UTF_8);
+        }
         return content;
     }
 
+    /** <h2>getContentBytes</h2>
+     * As {@link #getContent()}, but without decoding.
+     * @return The raw body, or <code>null</code> if there wasn't one. This isn't a copy, so don't modify it.
+     * @throws UncheckedIOException If the body couldn't be read off of the connection.
+     */
+    public byte[] getContentBytes() {
+        if(body == null && bodyStream != null){
+            try {
+                body = bodyStream.readAllBytes();
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+            bodyStream = null;
+        }
+        if(body == null && content != null){
+            body = content.getBytes(StandardCharsets.UTF_8);
+        }
+        return body;
+    }
+
+    /** <h2>getBodyStream</h2>
+     * Gets the body as a stream. On the threaded and virtual engines the body is read off of the connection as this is
+     * consumed, so an upload can be processed without ever holding all of it in memory; on the NIO engine it's already
+     * been buffered (within the endpoint's {@link RequestLimits}) by the time the handler runs. The body can only be
+     * read once: use either this or {@link #getContent()}, not both.
+     * @return The body, which is empty if there wasn't one.
+     */
+    public InputStream getBodyStream() {
+        if(bodyStream != null){
+            InputStream stream = bodyStream;
+            bodyStream = null;
+            return stream;
+        }
+        byte[] bytes = getContentBytes();
+        return new ByteArrayInputStream(bytes == null ? new byte[0] : bytes);
+    }
+
+    /** <h2>getBodyChannel</h2>
+     * As {@link #getBodyStream()}, for consumers that would rather work with <code>ByteBuffer</code>s.
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(getBodyStream());
+    }
+
+    /** <h2>getHeader</h2>
+     * Looks up a single header without building the header map.
+     * @param name The header's name. This is case-insensitive.
+     * @return The header's value, or <code>null</code> if it wasn't sent.
+     */
+    public String getHeader(String name) {
+        if(headerTable != null){
+            return headerTable.get(name);
+        }
+        return headers.get(name.toLowerCase());
+    }
+
+    /** <h2>getHeaders</h2>
+     * @return All headers as a map keyed by lowercased header name. Prefer {@link #getHeader}, which doesn't need to build this.
+     */
     public Map<String, String> getHeaders() {
+        if(headers == null){
+            Map<String, String> map = new HashMap<>();
+            for(int i = 0; i < headerTable.size(); i++){
+                map.putIfAbsent(headerTable.getName(i), headerTable.getValue(i));
+            }
+            headers = map;
+        }
         return headers;
     }
 }
@@ -0,0 +1,36 @@
+package org.example.webserver.utils;
+
+/** <h1>Request Limits</h1>
+ * The largest request an endpoint is willing to accept. These are checked by the request parser as soon as the request
+ * line (for the header limit) or the headers (for the body limit) have arrived, so an oversized request is answered
+ * with 413 before anything is allocated for its body. Plugins can declare their own per endpoint via
+ * {@link org.example.plugins.QuanTecPlugin#getRequestLimits()}, anything else gets the WebServer's defaults.
+ */
+public class RequestLimits {
+    /** The defaults used when nothing else is configured: 16KiB of headers and a 1MiB body. */
+    public static final RequestLimits DEFAULT = new RequestLimits(16 * 1024, 1024 * 1024);
+
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    /** <h2>RequestLimits</h2>
+     * @param maxHeaderBytes The maximum size of the request line and headers together, including line endings. This is
+     *                       capped at {@link HTTPRequestParser#MAX_HEAD_BYTES}.
+     * @param maxBodyBytes The maximum size of the body, after any chunked encoding has been removed.
+     */
+    public RequestLimits(int maxHeaderBytes, int maxBodyBytes){
+        if(maxHeaderBytes <= 0 || maxBodyBytes < 0){
+            throw new IllegalArgumentException("Request limits must be positive.");
+        }
+        this.maxHeaderBytes = Math.min(maxHeaderBytes, HTTPRequestParser.MAX_HEAD_BYTES);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public int getMaxHeaderBytes() {
+        return maxHeaderBytes;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+}
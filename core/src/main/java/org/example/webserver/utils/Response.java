@@ -1,10 +1,14 @@
 package org.example.webserver.utils;
 
+import org.example.utils.JSONWriter;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 
+// Responses as strings. Endpoints should use the equivalent methods on ResponseWriter, these are for the few places that
+// answer before a request has been dispatched (or can't be parsed at all) and for endpoints written before it existed.
 public class Response {
     // Shorthand. TODO reorder the generic requests in order of code (i.e., 200 at first)
     public static void writeResponse(String response, PrintWriter writer){
@@ -23,11 +27,15 @@ public class Response {
     }
 
     public static void writeFile(byte[] file, String mimeType, OutputStream outputStream){
+        writeFile(file, mimeType, ResponseWriter.defaultFilename(mimeType), outputStream);
+    }
+
+    public static void writeFile(byte[] file, String mimeType, String filename, OutputStream outputStream){
         try {
             outputStream.write(("HTTP/1.1 200 OK\r\n" +
                     "Content-Length: "+file.length+"\r\n" +
                     "Content-Type: "+mimeType+"\r\n" +
-                    "Content-Disposition: attachment; filename=\"download.png\"\r\n" +
+                    "Content-Disposition: "+ResponseWriter.contentDisposition(filename)+"\r\n" +
                     "\r\n").getBytes(StandardCharsets.US_ASCII));
 
             outputStream.write(file);
@@ -38,35 +46,56 @@ public class Response {
 
     }
     public static String badRequest(String reason){
-        String content = "{\"error\":\"" + reason + "\"}";
+        String content = "{\"error\":" + JSONWriter.quote(reason) + "}";
         return "HTTP/1.1 400 Bad Request\r\n" +
-                "Content-Length: "+content.length()+"\r\n" +
+                "Content-Length: "+utf8Length(content)+"\r\n" +
                 "Content-Type: application/json\r\n" +
                 "\r\n" +
                 content;
     }
 
     public static String notFound(String reason){
-        String content = "{\"error\":\"" + reason + "\"}";
+        String content = "{\"error\":" + JSONWriter.quote(reason) + "}";
         return "HTTP/1.1 404 Not Found\r\n" +
-                "Content-Length: "+content.length()+"\r\n" +
+                "Content-Length: "+utf8Length(content)+"\r\n" +
                 "Content-Type: application/json\r\n" +
                 "\r\n" +
                 content;
     }
 
     public static String methodNotAllowed(String reason){
-        String content = "{\"error\":\"" + reason + "\"}";
+        String content = "{\"error\":" + JSONWriter.quote(reason) + "}";
         return "HTTP/1.1 405 Method Not Allowed\r\n" +
-                "Content-Length: "+content.length()+"\r\n" +
+                "Content-Length: "+utf8Length(content)+"\r\n" +
+                "Content-Type: application/json\r\n" +
+                "\r\n" +
+                content;
+    }
+
+    public static String payloadTooLarge(String reason){
+        // The rest of the body is never read, so the connection can't be reused after this.
+        String content = "{\"error\":" + JSONWriter.quote(reason) + "}";
+        return "HTTP/1.1 413 Payload Too Large\r\n" +
+                "Content-Length: "+utf8Length(content)+"\r\n" +
                 "Content-Type: application/json\r\n" +
+                "Connection: close\r\n" +
+                "\r\n" +
+                content;
+    }
+
+    public static String serviceUnavailable(String reason){
+        String content = "{\"error\":" + JSONWriter.quote(reason) + "}";
+        return "HTTP/1.1 503 Service Unavailable\r\n" +
+                "Content-Length: "+utf8Length(content)+"\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Connection: close\r\n" +
                 "\r\n" +
                 content;
     }
 
     public static String okJSON(String json){
         return "HTTP/1.1 200 OK\r\n" +
-                "Content-Length: " + json.length() + "\r\n" +
+                "Content-Length: " + utf8Length(json) + "\r\n" +
                 "Content-Type: application/json\r\n" +
                 "\r\n" +
                 json;
@@ -75,4 +104,26 @@ public class Response {
     public static String okNoContent(){
         return "HTTP/1.1 204 No Content\r\n\r\n";
     }
+
+    // Content-Length is in bytes, not chars, so anything non-ASCII (e.g. a guild name) needs counting properly or the
+    // client reads the wrong amount and every response after it on the connection is garbled.
+    static int utf8Length(CharSequence text){
+        int length = 0;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c < 0x80){
+                length++;
+            } else if(c < 0x800){
+                length += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+                length += 4;
+                i++;
+            } else if(Character.isSurrogate(c)){
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
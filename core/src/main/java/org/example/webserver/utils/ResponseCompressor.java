@@ -0,0 +1,221 @@
+package org.example.webserver.utils;
+
+import org.example.utils.JSONWriter;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/** <h1>Response Compressor</h1>
+ * Decides which responses get compressed, and holds the <code>Deflater</code>s used to do it. A <code>Deflater</code>
+ * owns a sizeable chunk of native memory that's only freed when it's ended, so rather than making (and ending) one per
+ * response they're borrowed from here and reset afterwards.
+ * <p>
+ * Also keeps count of how many body bytes each endpoint produced against how many were actually sent, for /core/stats.
+ */
+public final class ResponseCompressor {
+    /** <h2>Encoding</h2>
+     * The content codings QuanTec can produce, in order of preference.
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token){
+            this.token = token;
+        }
+
+        public String getToken(){
+            return token;
+        }
+    }
+
+    private final int threshold;
+    private final int level;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<Deflater> idleGzip;
+    private final ConcurrentLinkedQueue<Deflater> idleDeflate;
+    private final AtomicInteger idleCount;
+    private final Map<String, EndpointStats> stats;
+
+    /** <h2>ResponseCompressor</h2>
+     * @param threshold The smallest body, in bytes, worth compressing. 0 turns compression off.
+     * @param level The <code>Deflater</code> compression level, 1 (fastest) to 9 (smallest).
+     * @param maxIdle The most idle <code>Deflater</code>s to keep around. Should be about the number of threads handling requests.
+     */
+    public ResponseCompressor(int threshold, int level, int maxIdle){
+        this.threshold = threshold;
+        this.level = level;
+        this.maxIdle = maxIdle;
+        this.idleGzip = new ConcurrentLinkedQueue<>();
+        this.idleDeflate = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.stats = new ConcurrentHashMap<>();
+    }
+
+    public boolean isEnabled(){
+        return threshold > 0;
+    }
+
+    public int getThreshold(){
+        return threshold;
+    }
+
+    /** <h2>negotiate</h2>
+     * Picks an encoding from a request's <code>Accept-Encoding</code> header, honouring <code>q=0</code> exclusions and
+     * <code>*</code>.
+     * @param acceptEncoding The header's value, or <code>null</code> if it wasn't sent.
+     * @return The encoding to use, or <code>null</code> if the response should be sent as-is.
+     */
+    public Encoding negotiate(String acceptEncoding){
+        if(!isEnabled() || acceptEncoding == null){
+            return null;
+        }
+
+        float gzip = -1, deflate = -1, any = -1;
+        int pos = 0;
+        while(pos < acceptEncoding.length()){
+            int end = acceptEncoding.indexOf(',', pos);
+            if(end == -1){
+                end = acceptEncoding.length();
+            }
+            int paramStart = acceptEncoding.indexOf(';', pos);
+            int tokenEnd = paramStart == -1 || paramStart > end ? end : paramStart;
+            String token = acceptEncoding.substring(pos, tokenEnd).trim();
+            float q = 1;
+            if(tokenEnd < end){
+                String param = acceptEncoding.substring(tokenEnd + 1, end).trim();
+                if(param.startsWith("q=")){
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e){
+                        q = 0;
+                    }
+                }
+            }
+
+            if(token.equalsIgnoreCase("gzip") || token.equalsIgnoreCase("x-gzip")){
+                gzip = q;
+            } else if(token.equalsIgnoreCase("deflate")){
+                deflate = q;
+            } else if(token.equals("*")){
+                any = q;
+            }
+            pos = end + 1;
+        }
+
+        // Anything not named explicitly falls back to '*', if that was sent.
+        if(gzip == -1){
+            gzip = any;
+        }
+        if(deflate == -1){
+            deflate = any;
+        }
+        if(gzip > 0 && gzip >= deflate){
+            return Encoding.GZIP;
+        }
+        if(deflate > 0){
+            return Encoding.DEFLATE;
+        }
+        return null;
+    }
+
+    /** <h2>shouldCompress</h2>
+     * @param contentType The response's <code>Content-Type</code>, or <code>null</code> if it hasn't got one.
+     * @param contentEncoding The response's <code>Content-Encoding</code> if the handler set one itself.
+     * @param length The body's length in bytes.
+     * @return Whether the body is worth compressing. Images (other than SVGs), audio, video and archives are already
+     * compressed, so are always left alone.
+     */
+    public boolean shouldCompress(String contentType, String contentEncoding, long length){
+        if(!isEnabled() || length < threshold || contentEncoding != null){
+            return false;
+        }
+        if(contentType == null){
+            return true;
+        }
+        String type = contentType.toLowerCase();
+        if(type.startsWith("image/")){
+            return type.startsWith("image/svg");
+        }
+        return !(type.startsWith("video/")
+                || type.startsWith("audio/")
+                || type.startsWith("application/zip")
+                || type.startsWith("application/gzip")
+                || type.startsWith("application/x-gzip")
+                || type.startsWith("application/zstd"));
+    }
+
+    /** <h2>borrow</h2>
+     * @return A ready-to-use <code>Deflater</code> for the encoding, which must be given back with {@link #giveBack}.
+     */
+    Deflater borrow(Encoding encoding){
+        Deflater deflater = (encoding == Encoding.GZIP ? idleGzip : idleDeflate).poll();
+        if(deflater == null){
+            // gzip has its own header and trailer (written by ResponseWriter), "deflate" is the zlib format.
+            return new Deflater(level, encoding == Encoding.GZIP);
+        }
+        idleCount.decrementAndGet();
+        return deflater;
+    }
+
+    void giveBack(Encoding encoding, Deflater deflater){
+        deflater.reset();
+        if(idleCount.incrementAndGet() > maxIdle){
+            idleCount.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        (encoding == Encoding.GZIP ? idleGzip : idleDeflate).add(deflater);
+    }
+
+    /** <h2>record</h2>
+     * Counts a response's body against its endpoint.
+     * @param endpoint The route pattern that produced the response.
+     * @param bytesIn The body's length as produced by the handler.
+     * @param bytesOut The body's length as sent.
+     */
+    void record(String endpoint, long bytesIn, long bytesOut){
+        EndpointStats endpointStats = stats.computeIfAbsent(endpoint, key -> new EndpointStats());
+        endpointStats.responses.increment();
+        endpointStats.bytesIn.add(bytesIn);
+        endpointStats.bytesOut.add(bytesOut);
+    }
+
+    /** <h2>getStatsJSON</h2>
+     * @return Bytes in vs. bytes out for every endpoint that has produced a response, as a JSON object keyed by route pattern.
+     */
+    public String getStatsJSON(){
+        JSONWriter json = new JSONWriter();
+        writeStatsJSON(json);
+        return json.toString();
+    }
+
+    /** <h2>writeStatsJSON</h2>
+     * As above, written straight into a response.
+     */
+    public void writeStatsJSON(JSONWriter json){
+        json.beginObject();
+        for(Map.Entry<String, EndpointStats> entry : new TreeMap<>(stats).entrySet()){
+            EndpointStats endpointStats = entry.getValue();
+            json.name(entry.getKey()).beginObject()
+                    .name("responses").value(endpointStats.responses.sum())
+                    .name("bytesIn").value(endpointStats.bytesIn.sum())
+                    .name("bytesOut").value(endpointStats.bytesOut.sum())
+                    .endObject();
+        }
+        json.endObject();
+    }
+
+    private static final class EndpointStats {
+        private final LongAdder responses = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+    }
+}
@@ -0,0 +1,1002 @@
+package org.example.webserver.utils;
+
+import org.example.utils.JSONWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** <h1>Response Writer</h1>
+ * Builds a single HTTP response in pooled direct buffers, which the WebServer then sends with one gathering write
+ * once the handler returns. Handlers set a status, add any headers and write the body:
+ * <pre>
+ *     writer.status(200).header("Content-Type", "application/json").body(json).send();
+ * </pre>
+ * or use one of the shorthands (e.g. {@link #okJSON}, {@link #badRequest}) for the common cases. JSON bodies can be
+ * written with {@link #json()}, which encodes them straight into the response's buffers. <code>Content-Length</code>
+ * is always worked out from the bytes actually written, and <code>Connection</code> is added when the connection is going
+ * to be closed after this response (or kept open for an HTTP/1.0 client that asked), so handlers should set neither.
+ * <p>
+ * If the writer was given a {@link ResponseCompressor}, bodies over its threshold are compressed with whichever of gzip
+ * or deflate the client accepts, unless they're already compressed (e.g. PNGs) or the handler set its own
+ * <code>Content-Encoding</code>.
+ * <p>
+ * Bodies can also come from a file, with {@link #file(FileChannel, String, String)}. Those are sent straight from the
+ * file to the socket after the head (see {@link FileRegion}), and answer <code>Range</code> requests.
+ * <p>
+ * JSON too big to want in memory all at once can be streamed with {@link #streamJSON}, which sends it with
+ * <code>Transfer-Encoding: chunked</code> a chunk at a time as it's written (see {@link JSONStream}), in place of a
+ * <code>Content-Length</code>. Streamed bodies aren't compressed.
+ * <p>
+ * This is also an <code>OutputStream</code>, for older endpoints that write out entire responses themselves. Anything
+ * written that way is sent exactly as written, so it can't be mixed with the methods above in the same response.
+ * <p>
+ * One of these is reused for every request on a connection, so handlers mustn't hold on to it once they return.
+ */
+public final class ResponseWriter extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    // Arrays at least this large are sent from where they are rather than being copied into pooled buffers.
+    private static final int WRAP_THRESHOLD = BufferPool.BUFFER_BYTES;
+    // Magic, CM (deflate), no flags, no mtime, no extra flags, OS unknown.
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    // What parseRange() gives for a range that starts past the end of the file.
+    private static final long[] UNSATISFIABLE = {};
+
+    private enum State { EMPTY, BUILDING, SENT, RAW }
+
+    private final BufferPool pool;
+    private final ResponseCompressor compressor;
+    private final List<ByteBuffer> head;
+    private final List<ByteBuffer> body;
+    private final List<ByteBuffer> compressed;
+    private final CRC32 crc;
+    private final List<String> headers;
+    // The list buffers are added to as they're acquired, which is the body except while the head is being written.
+    private List<ByteBuffer> target;
+    private ByteBuffer current;
+    private State state;
+    private int status;
+    private String reason;
+    private boolean http10;
+    private boolean keepAlive;
+    private ResponseCompressor.Encoding encoding;
+    private String endpoint;
+    private String etag;
+    private ChannelHandoff handoff;
+    // The body, if it's being sent from a file or a JSONStream rather than the buffers.
+    private StreamedBody streamed;
+    // The request's Range and If-Range headers, for file bodies.
+    private String range;
+    private String ifRange;
+    private CompletionStage<? extends Consumer<ResponseWriter>> deferred;
+    private long deferredTimeoutMillis;
+    // Made on first use, then kept for every response after that.
+    private JSONWriter json;
+
+    public ResponseWriter(){
+        this(BufferPool.shared(), null);
+    }
+
+    /** <h2>ResponseWriter</h2>
+     * @param pool The pool to take buffers from.
+     * @param compressor Decides which responses to compress, or <code>null</code> to never compress.
+     */
+    public ResponseWriter(BufferPool pool, ResponseCompressor compressor){
+        this.pool = pool;
+        this.compressor = compressor;
+        this.head = new ArrayList<>(1);
+        this.body = new ArrayList<>(4);
+        this.compressed = new ArrayList<>(4);
+        this.crc = new CRC32();
+        this.headers = new ArrayList<>(8);
+        this.target = body;
+        this.state = State.EMPTY;
+        this.keepAlive = true;
+    }
+
+    /** <h2>begin</h2>
+     * Readies this writer for the response to a request, working out from its version and <code>Connection</code>
+     * header whether the connection should stay open afterwards. Called by the WebServer, not handlers.
+     */
+    public void begin(Request req){
+        discard();
+        String connection = req.getHeader("connection");
+        http10 = "HTTP/1.0".equals(req.getHTTPVers());
+        if(http10){
+            keepAlive = connection != null && connection.toLowerCase().contains("keep-alive");
+        } else {
+            keepAlive = connection == null || !connection.toLowerCase().contains("close");
+        }
+        encoding = compressor == null ? null : compressor.negotiate(req.getHeader("accept-encoding"));
+        range = req.getHeader("range");
+        ifRange = req.getHeader("if-range");
+    }
+
+    /** <h2>setEndpoint</h2>
+     * Sets the route pattern the response is being produced by, which its compression stats are counted against.
+     * Called by the Router, not handlers.
+     */
+    public void setEndpoint(String endpoint){
+        this.endpoint = endpoint;
+    }
+
+    /** <h2>getEndpoint</h2>
+     * @return The route pattern set by the Router, or <code>null</code> if the request didn't match one.
+     */
+    public String getEndpoint(){
+        return endpoint;
+    }
+
+    /** <h2>setETag</h2>
+     * Sets the strong ETag to send if the response turns out to be a 200. Called by the Router for versioned routes,
+     * handlers shouldn't need to.
+     */
+    public void setETag(String etag){
+        this.etag = etag;
+    }
+
+    /** <h2>status</h2>
+     * Starts a response with a standard reason phrase for the code.
+     */
+    public ResponseWriter status(int code){
+        return status(code, reasonPhrase(code));
+    }
+
+    public ResponseWriter status(int code, String reason){
+        if(state != State.EMPTY){
+            throw new IllegalStateException("A response has already been started.");
+        }
+        this.state = State.BUILDING;
+        this.status = code;
+        this.reason = reason;
+        return this;
+    }
+
+    /** <h2>header</h2>
+     * Adds a header. Headers are sent in the order they're added, after <code>Content-Length</code>.
+     */
+    public ResponseWriter header(String name, String value){
+        checkBuilding();
+        if(name.equalsIgnoreCase("content-length") || name.equalsIgnoreCase("connection") || name.equalsIgnoreCase("transfer-encoding")){
+            throw new IllegalArgumentException(name+" is set by the ResponseWriter.");
+        }
+        headers.add(name);
+        headers.add(value);
+        return this;
+    }
+
+    /** <h2>body</h2>
+     * Appends text to the body, encoded as UTF-8.
+     */
+    public ResponseWriter body(CharSequence text){
+        checkBuilding();
+        putUtf8(text);
+        return this;
+    }
+
+    public ResponseWriter body(byte[] content){
+        return body(content, 0, content.length);
+    }
+
+    public ResponseWriter body(byte[] content, int offset, int length){
+        checkBuilding();
+        putBytes(content, offset, length);
+        return this;
+    }
+
+    /** <h2>json</h2>
+     * Sets the <code>Content-Type</code> to JSON, and returns a writer that writes the body straight into this
+     * response's buffers. Call {@link #send()} once the value's been written. The writer belongs to this response, so
+     * it mustn't be kept either.
+     */
+    public JSONWriter json(){
+        header("Content-Type", "application/json");
+        if(json == null){
+            json = new JSONWriter(this::room);
+        }
+        return json.reset();
+    }
+
+    /** <h2>closeConnection</h2>
+     * Closes the connection once this response has been sent, e.g. because the rest of the request's body wasn't read.
+     */
+    public ResponseWriter closeConnection(){
+        keepAlive = false;
+        return this;
+    }
+
+    /** <h2>detach</h2>
+     * Finishes the response with just its head, sent without a <code>Content-Length</code>, and hands the connection
+     * over once the head has been written. Whatever the new owner writes is the body, which ends when it closes the
+     * connection, so nothing else can be answered on the connection afterwards. For long-lived responses like
+     * /core/events.
+     * @param handoff Called with the connection once the head has gone out.
+     */
+    public void detach(ChannelHandoff handoff){
+        checkBuilding();
+        this.handoff = handoff;
+        this.keepAlive = false;
+        send();
+    }
+
+    /** <h2>defer</h2>
+     * Leaves the response to be written once a stage completes, rather than when the handler returns. Called by the
+     * Router for routes registered with {@link org.example.webserver.Router.Builder#addAsync}, handlers shouldn't need
+     * to. Anything calling a router directly (rather than through the WebServer) gets nothing back for these routes.
+     * @param reply Completes with something to write the response, see {@link org.example.webserver.AsyncRouteHandler}.
+     * @param timeoutMillis How long to wait for it before answering with 504, or 0 to wait forever.
+     */
+    public void defer(CompletionStage<? extends Consumer<ResponseWriter>> reply, long timeoutMillis){
+        if(state != State.EMPTY){
+            throw new IllegalStateException("A response has already been started.");
+        }
+        if(reply == null){
+            throw new IllegalArgumentException("Async handlers must return a stage.");
+        }
+        this.deferred = reply;
+        this.deferredTimeoutMillis = timeoutMillis;
+    }
+
+    /** <h2>takeDeferred</h2>
+     * @return The stage passed to {@link #defer} for the current response, or <code>null</code> if it wasn't deferred.
+     * Only returns it once, so that the WebServer is the only one waiting on it.
+     */
+    public CompletionStage<? extends Consumer<ResponseWriter>> takeDeferred(){
+        CompletionStage<? extends Consumer<ResponseWriter>> reply = deferred;
+        deferred = null;
+        return reply;
+    }
+
+    /** <h2>getDeferredTimeoutMillis</h2>
+     * @return The timeout passed to {@link #defer}.
+     */
+    public long getDeferredTimeoutMillis(){
+        return deferredTimeoutMillis;
+    }
+
+    /** <h2>getHandoff</h2>
+     * @return Whoever the connection should be handed to after this response, or <code>null</code> if it stays with
+     * the WebServer.
+     */
+    public ChannelHandoff getHandoff(){
+        return handoff;
+    }
+
+    /** <h2>send</h2>
+     * Finishes the response. Nothing can be added after this. Handlers that forget to call it get it called for them
+     * when they return.
+     */
+    public void send(){
+        checkBuilding();
+        seal();
+        long contentLength = 0;
+        for(ByteBuffer buffer : body){
+            contentLength += buffer.remaining();
+        }
+        if(streamed instanceof FileRegion file){
+            contentLength += file.remaining();
+        }
+
+        ResponseCompressor.Encoding applied = null;
+        // Streamed bodies are never compressed. Files would have to be read in, and streams would have to be compressed
+        // as they're written, which isn't worth it for JSON that's only streamed because there's so much of it.
+        if(compressor != null && status != 204 && status != 304 && handoff == null && streamed == null){
+            long uncompressedLength = contentLength;
+            if(compressor.shouldCompress(headerValue("content-type"), headerValue("content-encoding"), contentLength)){
+                // Caches need telling that this depends on Accept-Encoding, whether or not this client accepted it.
+                headers.add("Vary");
+                headers.add("Accept-Encoding");
+                if(encoding != null){
+                    contentLength = compress(encoding);
+                    applied = encoding;
+                    headers.add("Content-Encoding");
+                    headers.add(encoding.getToken());
+                }
+            }
+            if(endpoint != null){
+                compressor.record(endpoint, uncompressedLength, contentLength);
+            }
+        }
+        if(etag != null && (status == 200 || status == 206)){
+            // Strong ETags identify the exact bytes, so a compressed copy needs a tag of its own.
+            headers.add("ETag");
+            headers.add(applied == null ? etag : etag.substring(0, etag.length() - 1)+"-"+applied.getToken()+"\"");
+        }
+
+        // The head goes in its own buffers in front of the body, so nothing has to be moved to fit it in.
+        target = head;
+        putAscii("HTTP/1.1 ");
+        putNumber(status);
+        putAscii(" ");
+        putAscii(reason);
+        putBytes(CRLF, 0, 2);
+        // 204s and 304s mustn't have a Content-Length (or a body), and detached and streamed responses don't know
+        // theirs. Everything else always gets one.
+        if(streamed instanceof ChunkedBody chunked){
+            if(chunked.isFramed()){
+                putAscii("Transfer-Encoding: chunked\r\n");
+            }
+        } else if(status != 204 && status != 304 && handoff == null){
+            putAscii("Content-Length: ");
+            putNumber(contentLength);
+            putBytes(CRLF, 0, 2);
+        }
+        for(int i = 0; i < headers.size(); i += 2){
+            putAscii(headers.get(i));
+            putAscii(": ");
+            putUtf8(headers.get(i + 1));
+            putBytes(CRLF, 0, 2);
+        }
+        if(!keepAlive){
+            putAscii("Connection: close\r\n");
+        } else if(http10){
+            putAscii("Connection: keep-alive\r\n");
+        }
+        putBytes(CRLF, 0, 2);
+        seal();
+        target = body;
+        state = State.SENT;
+    }
+
+    // Shorthands, matching the ones in Response.
+
+    public void okJSON(String json){
+        status(200).header("Content-Type", "application/json").body(json).send();
+    }
+
+    /** <h2>okJSON</h2>
+     * Sends a 200 with a JSON body written by the given callback, see {@link #json()}.
+     */
+    public void okJSON(Consumer<JSONWriter> content){
+        content.accept(status(200).json());
+        send();
+    }
+
+    public void okNoContent(){
+        status(204).send();
+    }
+
+    /** <h2>notModified</h2>
+     * Tells the client its cached copy is still current.
+     * @param etag The tag the client sent that matched.
+     */
+    public void notModified(String etag){
+        status(304).header("ETag", etag).send();
+    }
+
+    public void badRequest(String reason){
+        error(400, reason);
+    }
+
+    public void notFound(String reason){
+        error(404, reason);
+    }
+
+    public void methodNotAllowed(String reason){
+        error(405, reason);
+    }
+
+    public void payloadTooLarge(String reason){
+        // The rest of the body is never read, so the connection can't be reused after this.
+        closeConnection();
+        error(413, reason);
+    }
+
+    public void serviceUnavailable(String reason){
+        closeConnection();
+        error(503, reason);
+    }
+
+    /** <h2>error</h2>
+     * Sends <code>{"error":"reason"}</code> with the given status.
+     */
+    public void error(int code, String reason){
+        status(code).json().beginObject().name("error").value(reason).endObject();
+        send();
+    }
+
+    /** <h2>file</h2>
+     * Sends a file as an attachment. Large files are sent straight from the provided array rather than being copied,
+     * so it mustn't be modified afterwards.
+     * @param filename What the client should save it as. Anything that can't go in a header is dealt with here.
+     */
+    public void file(byte[] content, String mimeType, String filename){
+        status(200)
+                .header("Content-Type", mimeType)
+                .header("Content-Disposition", contentDisposition(filename))
+                .body(content)
+                .send();
+    }
+
+    /** <h2>file</h2>
+     * As above, named "download" with an extension to suit the type.
+     */
+    public void file(byte[] content, String mimeType){
+        file(content, mimeType, defaultFilename(mimeType));
+    }
+
+    /** <h2>file</h2>
+     * Sends a file as an attachment, straight from disk. The body never goes through the heap: it's sent with
+     * {@link FileChannel#transferTo} once the head has been written, see {@link FileRegion}. A single
+     * <code>Range</code> in the request is answered with a 206 (or 416 if it's past the end), so downloads can be resumed;
+     * anything else gets the whole file.
+     * @param channel The file, which the response takes ownership of and closes, even if this throws.
+     * @param filename What the client should save it as.
+     * @throws IOException If the file's size couldn't be read.
+     */
+    public void file(FileChannel channel, String mimeType, String filename) throws IOException {
+        if(state != State.EMPTY){
+            channel.close();
+            throw new IllegalStateException("A response has already been started.");
+        }
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e){
+            channel.close();
+            throw e;
+        }
+
+        long[] requested = null;
+        // If-Range makes the Range conditional on the client's copy still being current, which only an ETag can say.
+        if(range != null && (ifRange == null || ifRange.equals(etag))){
+            requested = parseRange(range, size);
+            if(requested == UNSATISFIABLE){
+                channel.close();
+                status(416).header("Content-Range", "bytes */"+size);
+                json().beginObject().name("error").value("Range not satisfiable.").endObject();
+                send();
+                return;
+            }
+        }
+
+        status(requested == null ? 200 : 206)
+                .header("Content-Type", mimeType)
+                .header("Content-Disposition", contentDisposition(filename))
+                .header("Accept-Ranges", "bytes");
+        if(requested == null){
+            streamed = new FileRegion(channel, 0, size);
+        } else {
+            header("Content-Range", "bytes "+requested[0]+"-"+requested[1]+"/"+size);
+            streamed = new FileRegion(channel, requested[0], requested[1] - requested[0] + 1);
+        }
+        send();
+    }
+
+    public void file(Path path, String mimeType, String filename) throws IOException {
+        file(FileChannel.open(path, StandardOpenOption.READ), mimeType, filename);
+    }
+
+    /** <h2>streamJSON</h2>
+     * Sends a JSON body that's written as it goes out rather than before, with <code>Transfer-Encoding: chunked</code>,
+     * so that however big it is, only about a chunk of it is ever in memory (see {@link JSONStream}). Sent as a 200
+     * unless the handler's already set a status (and any headers) with {@link #status}, but nothing can have been
+     * written to the body. HTTP/1.0 clients are sent it unchunked, and the connection's closed afterwards to end it.
+     * @param stream Writes the body, and is closed once the response is done with, even if this throws.
+     */
+    public void streamJSON(JSONStream stream){
+        if(state == State.EMPTY){
+            status(200);
+        }
+        if(state != State.BUILDING || !body.isEmpty()){
+            stream.close();
+            checkBuilding();
+            throw new IllegalStateException("Streamed responses can't have anything else in their body.");
+        }
+        header("Content-Type", "application/json");
+        streamed = new ChunkedBody(pool, stream, !http10);
+        if(http10){
+            keepAlive = false;
+        }
+        send();
+    }
+
+    // OutputStream, for endpoints writing raw responses.
+
+    @Override
+    public void write(int b){
+        checkRaw();
+        if(current == null || !current.hasRemaining()){
+            next();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len){
+        checkRaw();
+        putBytes(b, off, len);
+    }
+
+    @Override
+    public void flush(){
+        // Nothing's sent until the handler returns.
+    }
+
+    // Everything below here is for the WebServer.
+
+    /** <h2>isStarted</h2>
+     * @return Whether anything has been written for the current response.
+     */
+    public boolean isStarted(){
+        return state != State.EMPTY;
+    }
+
+    /** <h2>getStatus</h2>
+     * @return The status of the current response, or 0 if it hasn't got one yet. Responses written directly have theirs
+     * read back from their status line.
+     */
+    public int getStatus(){
+        if(state == State.RAW){
+            return rawStatus();
+        }
+        return state == State.EMPTY ? 0 : status;
+    }
+
+    /** <h2>isKeepAlive</h2>
+     * @return Whether the connection should be kept open after this response.
+     */
+    public boolean isKeepAlive(){
+        return keepAlive;
+    }
+
+    /** <h2>finish</h2>
+     * Completes the response if the handler didn't, and hands over its buffers, ready to be written in order. The
+     * buffers belong to the caller afterwards, who should give them back to the pool with {@link BufferPool#release}
+     * once they've been written. If the body is streamed, it's sent after them, see {@link #takeStreamedBody()}. The writer can't
+     * be used again until the next {@link #begin}.
+     */
+    public ByteBuffer[] finish(){
+        if(state == State.BUILDING){
+            send();
+        }
+        seal();
+        current = null;
+        ByteBuffer[] out = new ByteBuffer[head.size() + body.size()];
+        int i = 0;
+        for(ByteBuffer buffer : head){
+            out[i++] = buffer;
+        }
+        for(ByteBuffer buffer : body){
+            out[i++] = buffer;
+        }
+        head.clear();
+        body.clear();
+        headers.clear();
+        state = State.SENT;
+        return out;
+    }
+
+    /** <h2>takeStreamedBody</h2>
+     * @return The file or stream the body is sent from, after the buffers from {@link #finish()}, or <code>null</code>
+     * if the body was all in the buffers. The caller owns it afterwards, and should close it once it's been written. If
+     * nobody takes it, it's closed with the rest of the response at the next {@link #begin}.
+     */
+    public StreamedBody takeStreamedBody(){
+        StreamedBody taken = streamed;
+        streamed = null;
+        return taken;
+    }
+
+    /** <h2>writeTo</h2>
+     * Finishes the response and writes all of it to a channel in as few writes as possible, returning the buffers to
+     * the pool afterwards.
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] buffers = finish();
+        StreamedBody streamed = takeStreamedBody();
+        try {
+            int first = 0;
+            while(first < buffers.length){
+                channel.write(buffers, first, buffers.length - first);
+                while(first < buffers.length && !buffers[first].hasRemaining()){
+                    first++;
+                }
+            }
+            while(streamed != null && streamed.hasRemaining()){
+                streamed.transferTo(channel);
+            }
+        } finally {
+            pool.release(buffers);
+            if(streamed != null){
+                streamed.close();
+            }
+        }
+    }
+
+    /** <h2>writeTo</h2>
+     * As above, for streams. Used where there's no channel, e.g. tests and endpoints being called directly.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        ByteBuffer[] buffers = finish();
+        StreamedBody streamed = takeStreamedBody();
+        try {
+            byte[] chunk = null;
+            for(ByteBuffer buffer : buffers){
+                if(buffer.hasArray()){
+                    outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    continue;
+                }
+                if(chunk == null){
+                    chunk = new byte[BufferPool.BUFFER_BYTES];
+                }
+                while(buffer.hasRemaining()){
+                    int len = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, len);
+                    outputStream.write(chunk, 0, len);
+                }
+            }
+            if(streamed != null){
+                // Through the heap, there's no way around that for a stream.
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                while(streamed.hasRemaining()){
+                    streamed.transferTo(target);
+                }
+            }
+            outputStream.flush();
+        } finally {
+            pool.release(buffers);
+            if(streamed != null){
+                streamed.close();
+            }
+        }
+    }
+
+    // Reads the code out of "HTTP/1.1 200 ..." at the start of a raw response, or gives 0 if it isn't one.
+    private int rawStatus(){
+        if(body.isEmpty()){
+            return 0;
+        }
+        ByteBuffer first = body.get(0);
+        // The buffer being written hasn't been flipped yet.
+        int start = first == current ? 0 : first.position();
+        int end = first == current ? first.position() : first.limit();
+        if(end - start < 12){
+            return 0;
+        }
+        int code = 0;
+        for(int i = start + 9; i < start + 12; i++){
+            byte digit = first.get(i);
+            if(digit < '0' || digit > '9'){
+                return 0;
+            }
+            code = code * 10 + (digit - '0');
+        }
+        return code;
+    }
+
+    // Throws away anything written so far, e.g. when a handler failed part way through.
+    private void discard(){
+        seal();
+        for(ByteBuffer buffer : head){
+            pool.release(buffer);
+        }
+        for(ByteBuffer buffer : body){
+            pool.release(buffer);
+        }
+        head.clear();
+        body.clear();
+        headers.clear();
+        if(streamed != null){
+            streamed.close();
+            streamed = null;
+        }
+        current = null;
+        target = body;
+        state = State.EMPTY;
+        keepAlive = true;
+        handoff = null;
+        deferred = null;
+        http10 = false;
+        encoding = null;
+        endpoint = null;
+        etag = null;
+        range = null;
+        ifRange = null;
+    }
+
+    // Parses a Range header for a file of the given size into the first and last (inclusive) bytes asked for. Gives
+    // null for anything that should be ignored and answered with the whole file, which includes multiple ranges (they'd
+    // need a multipart response, and nothing that downloads images asks for them), and UNSATISFIABLE if it's past the end.
+    static long[] parseRange(String range, long size){
+        if(!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') != -1){
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if(dash == -1){
+            return null;
+        }
+        long first, last;
+        try {
+            if(dash == 0){
+                // The last n bytes.
+                long suffix = Long.parseLong(spec.substring(1));
+                if(suffix < 0){
+                    return null;
+                }
+                if(suffix == 0 || size == 0){
+                    return UNSATISFIABLE;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if(first < 0 || last < first){
+                    return null;
+                }
+                if(first >= size){
+                    return UNSATISFIABLE;
+                }
+                last = Math.min(last, size - 1);
+            }
+        } catch (NumberFormatException e){
+            return null;
+        }
+        return new long[]{first, last};
+    }
+
+    // Builds a Content-Disposition for an attachment (RFC 6266). The plain filename parameter gets an ASCII-only copy of
+    // the name, and names that aren't plain ASCII get it in full as UTF-8 in filename* too, which every current browser
+    // prefers. Path separators and control characters never make it into either.
+    static String contentDisposition(String filename){
+        if(filename == null || filename.isBlank()){
+            filename = "download";
+        }
+        StringBuilder ascii = new StringBuilder(filename.length());
+        StringBuilder encoded = new StringBuilder();
+        boolean plain = true;
+        for(int i = 0; i < filename.length(); i++){
+            char c = filename.charAt(i);
+            if(c < 0x20 || c == 0x7F || c == '/' || c == '\\'){
+                c = '_';
+            }
+            if(c >= 0x80){
+                plain = false;
+                ascii.append('_');
+            } else {
+                ascii.append(c == '"' ? '\'' : c);
+            }
+        }
+        if(plain){
+            return "attachment; filename=\""+ascii+"\"";
+        }
+        byte[] utf8 = filename.getBytes(StandardCharsets.UTF_8);
+        for(byte b : utf8){
+            int c = b & 0xFF;
+            if(c < 0x20 || c == 0x7F || c == '/' || c == '\\'){
+                c = '_';
+            }
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "!#$&+-.^_`|~".indexOf(c) != -1){
+                encoded.append((char) c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return "attachment; filename=\""+ascii+"\"; filename*=UTF-8''"+encoded;
+    }
+
+    // What to call a file that the endpoint didn't name.
+    static String defaultFilename(String mimeType){
+        return switch (mimeType == null ? "" : mimeType.toLowerCase()) {
+            case "image/png", "image/x-png" -> "download.png";
+            case "image/jpeg" -> "download.jpg";
+            case "image/gif" -> "download.gif";
+            case "image/webp" -> "download.webp";
+            case "application/json" -> "download.json";
+            default -> "download";
+        };
+    }
+
+    // Replaces the (sealed) body with a compressed copy, returning its length. The deflater reads the pooled buffers
+    // directly, so the body is never copied onto the heap.
+    private long compress(ResponseCompressor.Encoding encoding){
+        Deflater deflater = compressor.borrow(encoding);
+        boolean gzip = encoding == ResponseCompressor.Encoding.GZIP;
+        target = compressed;
+        try {
+            if(gzip){
+                crc.reset();
+                putBytes(GZIP_HEADER, 0, GZIP_HEADER.length);
+            }
+            for(ByteBuffer buffer : body){
+                if(gzip){
+                    int position = buffer.position();
+                    crc.update(buffer);
+                    buffer.position(position);
+                }
+                deflater.setInput(buffer);
+                while(!deflater.needsInput()){
+                    deflateInto(deflater);
+                }
+            }
+            deflater.finish();
+            while(!deflater.finished()){
+                deflateInto(deflater);
+            }
+            if(gzip){
+                putIntLE((int) crc.getValue());
+                putIntLE((int) deflater.getBytesRead());
+            }
+            seal();
+        } finally {
+            compressor.giveBack(encoding, deflater);
+            target = body;
+        }
+
+        for(ByteBuffer buffer : body){
+            pool.release(buffer);
+        }
+        body.clear();
+        body.addAll(compressed);
+        compressed.clear();
+
+        long length = 0;
+        for(ByteBuffer buffer : body){
+            length += buffer.remaining();
+        }
+        return length;
+    }
+
+    private void deflateInto(Deflater deflater){
+        if(current == null || !current.hasRemaining()){
+            next();
+        }
+        deflater.deflate(current);
+    }
+
+    private void putIntLE(int value){
+        for(int i = 0; i < 4; i++){
+            if(current == null || !current.hasRemaining()){
+                next();
+            }
+            current.put((byte) (value >>> (8 * i)));
+        }
+    }
+
+    private String headerValue(String name){
+        for(int i = 0; i < headers.size(); i += 2){
+            if(headers.get(i).equalsIgnoreCase(name)){
+                return headers.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    private void checkBuilding(){
+        if(state != State.BUILDING){
+            throw new IllegalStateException(state == State.EMPTY ? "status() must be called first." : "The response has already been "+(state == State.RAW ? "written directly." : "sent."));
+        }
+    }
+
+    private void checkRaw(){
+        if(state == State.EMPTY){
+            state = State.RAW;
+        } else if(state != State.RAW){
+            throw new IllegalStateException("Raw writes can't be mixed with status()/body().");
+        }
+    }
+
+    // Flips the buffer being written so it's ready to be sent. Buffers are added to the body as soon as they're
+    // acquired, so this is all that's needed to move on to the next one.
+    private void seal(){
+        if(current != null){
+            current.flip();
+            current = null;
+        }
+    }
+
+    private void next(){
+        seal();
+        current = pool.acquire();
+        target.add(current);
+    }
+
+    // Where the JSONWriter writes. It asks before every token, so it always sees the buffer this is writing into.
+    private ByteBuffer room(int bytes){
+        checkBuilding();
+        if(current == null || current.remaining() < bytes){
+            next();
+        }
+        return current;
+    }
+
+    private void putBytes(byte[] bytes, int offset, int length){
+        if(length >= WRAP_THRESHOLD){
+            seal();
+            target.add(ByteBuffer.wrap(bytes, offset, length));
+            return;
+        }
+        while(length > 0){
+            if(current == null || !current.hasRemaining()){
+                next();
+            }
+            int len = Math.min(length, current.remaining());
+            current.put(bytes, offset, len);
+            offset += len;
+            length -= len;
+        }
+    }
+
+    private void putAscii(String text){
+        for(int i = 0; i < text.length(); i++){
+            if(current == null || !current.hasRemaining()){
+                next();
+            }
+            current.put((byte) text.charAt(i));
+        }
+    }
+
+    private void putNumber(long value){
+        if(value >= 10){
+            putNumber(value / 10);
+        }
+        if(current == null || !current.hasRemaining()){
+            next();
+        }
+        current.put((byte) ('0' + value % 10));
+    }
+
+    // Encodes straight into the buffers, rather than going through getBytes() and copying the result in.
+    private void putUtf8(CharSequence text){
+        for(int i = 0; i < text.length(); i++){
+            if(current == null || current.remaining() < 4){
+                next();
+            }
+            char c = text.charAt(i);
+            if(c < 0x80){
+                current.put((byte) c);
+            } else if(c < 0x800){
+                current.put((byte) (0xC0 | (c >> 6)));
+                current.put((byte) (0x80 | (c & 0x3F)));
+            } else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                current.put((byte) (0xF0 | (cp >> 18)));
+                current.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                current.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                current.put((byte) (0x80 | (cp & 0x3F)));
+            } else if(Character.isSurrogate(c)){
+                // Unpaired, same replacement String.getBytes() uses.
+                current.put((byte) '?');
+            } else {
+                current.put((byte) (0xE0 | (c >> 12)));
+                current.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                current.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String reasonPhrase(int code){
+        return switch (code) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 413 -> "Payload Too Large";
+            case 416 -> "Range Not Satisfiable";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "Unknown";
+        };
+    }
+}
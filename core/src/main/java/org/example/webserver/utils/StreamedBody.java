@@ -0,0 +1,31 @@
+package org.example.webserver.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/** <h1>Streamed Body</h1>
+ * A response body that isn't in the response's buffers, and is sent after its head a piece at a time instead: either a
+ * file ({@link FileRegion}) or JSON produced as it's sent ({@link ChunkedBody}). Whoever writes the response calls
+ * {@link #transferTo} until there's nothing left, and closes it afterwards whether or not it all went out.
+ */
+public interface StreamedBody extends Closeable {
+    /** <h2>hasRemaining</h2>
+     * @return Whether there's anything left to send.
+     */
+    boolean hasRemaining();
+
+    /** <h2>transferTo</h2>
+     * Sends the next part of the body. Non-blocking targets may take none of it, in which case this should be called
+     * again once they're writable. Bodies may also stop short of what the target would take so that one response
+     * can't keep the thread writing it to itself, so callers should go back to whatever else they were doing between
+     * calls rather than assume the target is full.
+     * @return How many bytes were sent.
+     * @throws IOException If the body can't be sent, in which case the connection has to be closed, as whatever was
+     * sent of it can't be taken back.
+     */
+    long transferTo(WritableByteChannel target) throws IOException;
+
+    @Override
+    void close();
+}
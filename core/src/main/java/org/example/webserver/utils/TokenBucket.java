@@ -0,0 +1,55 @@
+package org.example.webserver.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** <h1>Token Bucket</h1>
+ * A rate limit: tokens refill at a steady rate up to a burst size, and each request takes however many tokens it costs.
+ * Rather than counting tokens, this keeps the time at which the bucket would next be completely full, which is all the
+ * state a token bucket actually needs (this is the "generic cell rate algorithm"), so taking tokens is a single
+ * compare-and-set with no lock and no refill timer, and any number of threads can share one bucket.
+ */
+public final class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final int burst;
+    // The System.nanoTime() at which the bucket will be full again. Anything in the past means it's full now.
+    private final AtomicLong fullAt;
+
+    /** <h2>TokenBucket</h2>
+     * Makes a full bucket.
+     * @param tokensPerSecond How quickly tokens refill.
+     * @param burst How many tokens the bucket holds, i.e. how much can be spent at once after a quiet spell.
+     */
+    public TokenBucket(int tokensPerSecond, int burst){
+        if(tokensPerSecond <= 0 || burst <= 0){
+            throw new IllegalArgumentException("Token buckets need a positive rate and burst.");
+        }
+        this.nanosPerToken = 1_000_000_000L / tokensPerSecond;
+        this.burst = burst;
+        this.burstNanos = nanosPerToken * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /** <h2>tryTake</h2>
+     * Takes tokens if there are enough. Costs larger than the whole bucket are capped at its size, so an expensive
+     * request can still get through once the bucket's full rather than never.
+     * @param tokens How many tokens to take.
+     * @return 0 if they were taken, otherwise how many nanoseconds until there will be enough.
+     */
+    public long tryTake(int tokens){
+        long cost = Math.min(tokens, burst) * nanosPerToken;
+        long now = System.nanoTime();
+        while(true){
+            long current = fullAt.get();
+            // nanoTime can wrap, so these are compared by difference.
+            long next = (current - now > 0 ? current : now) + cost;
+            long wait = next - now - burstNanos;
+            if(wait > 0){
+                return wait;
+            }
+            if(fullAt.compareAndSet(current, next)){
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import org.example.metrics.MetricRegistry;
+import org.example.utils.JSONWriter;
+import org.example.webserver.EntityCache;
+import org.example.webserver.EntityCache.Kind;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityCacheTests {
+    private static byte[] json(String text){
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void cachesUntilInvalidated() {
+        EntityCache cache = new EntityCache(1 << 20, new MetricRegistry());
+        assertNull(cache.get(Kind.USER, 1));
+
+        cache.put(Kind.USER, 1, json("{\"name\":\"a\"}"), cache.stamp());
+        cache.put(Kind.GUILD, 1, json("{\"name\":\"g\"}"), cache.stamp());
+        assertArrayEquals(json("{\"name\":\"a\"}"), cache.get(Kind.USER, 1));
+        assertArrayEquals(json("{\"name\":\"g\"}"), cache.get(Kind.GUILD, 1));
+        assertEquals(2, cache.getEntries());
+
+        // Kinds are kept apart.
+        cache.invalidate(Kind.USER, 1);
+        assertNull(cache.get(Kind.USER, 1));
+        assertNotNull(cache.get(Kind.GUILD, 1));
+
+        // JSON built before an invalidation isn't cached after it.
+        long stamp = cache.stamp();
+        cache.invalidate(Kind.USER, 2);
+        cache.put(Kind.USER, 1, json("{\"name\":\"stale\"}"), stamp);
+        assertNull(cache.get(Kind.USER, 1));
+
+        cache.invalidateAll(Kind.GUILD);
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getBytes());
+
+        JSONWriter stats = new JSONWriter();
+        cache.writeStatsJSON(stats);
+        // 3 hits (user 1, guild 1 twice) and 3 misses.
+        assertTrue(stats.toString().contains("\"hits\":3,\"misses\":3"), stats.toString());
+    }
+
+    @Test
+    void staysWithinItsBound() {
+        byte[] value = new byte[900];
+        EntityCache cache = new EntityCache(10 * 1024, new MetricRegistry());
+        cache.put(Kind.USER, 0, value, cache.stamp());
+        for(long id = 1; id < 1000; id++){
+            // Keep reading the first, which should keep it in.
+            assertNotNull(cache.get(Kind.USER, 0));
+            cache.put(Kind.USER, id, value, cache.stamp());
+            assertTrue(cache.getBytes() <= 10 * 1024);
+        }
+        assertNotNull(cache.get(Kind.USER, 0));
+        assertNotNull(cache.get(Kind.USER, 999));
+        assertNull(cache.get(Kind.USER, 500));
+
+        // Entries bigger than the whole cache are never kept.
+        cache.put(Kind.USER, 1000, new byte[20 * 1024], cache.stamp());
+        assertNull(cache.get(Kind.USER, 1000));
+    }
+}
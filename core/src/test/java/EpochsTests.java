@@ -0,0 +1,28 @@
+import org.example.webserver.Epochs;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EpochsTests {
+    @Test
+    void onlyBumpsChangeAnything() {
+        Epochs epochs = new Epochs();
+        long unknown = epochs.get("1234");
+        // Anything that's never been bumped reads the same, and keeps doing so.
+        assertEquals(unknown, epochs.get("1234"));
+        assertEquals(unknown, epochs.get("not a guild"));
+
+        epochs.bump("1234");
+        long bumped = epochs.get("1234");
+        assertNotEquals(unknown, bumped);
+        assertEquals(unknown, epochs.get("not a guild"));
+        epochs.bump("1234");
+        assertNotEquals(bumped, epochs.get("1234"));
+
+        // A new set (e.g. after a plugin reload) never hands out anything the old one did, bumped or not.
+        Epochs reloaded = new Epochs();
+        assertNotEquals(unknown, reloaded.get("1234"));
+        assertNotEquals(bumped, reloaded.get("1234"));
+        assertNotEquals(epochs.get("1234"), reloaded.get("1234"));
+    }
+}
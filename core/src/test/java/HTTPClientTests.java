@@ -0,0 +1,251 @@
+import org.example.utils.HTTPClient;
+import org.example.utils.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HTTPClientTests {
+    @Test
+    void reusesConnections() throws IOException {
+        try(Server server = new Server(line -> response("200 OK", "Content-Type: image/png", line.getBytes(StandardCharsets.US_ASCII)));
+            HTTPClient client = client()){
+            for(int i = 0; i < 5; i++){
+                Response response = client.get(server.url("/image"+i+".png"));
+                assertEquals(200, response.getStatusCode());
+                assertEquals("OK", response.getStatusMessage());
+                assertEquals("image/png", response.getMimeType());
+                assertEquals("GET /image"+i+".png HTTP/1.1", text(response));
+            }
+            assertEquals(1, server.connections.get());
+            assertEquals(1, client.getIdleConnections());
+        }
+    }
+
+    @Test
+    void readsChunkedBodies() throws IOException {
+        try(Server server = new Server(line -> ("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Type: image/gif; charset=binary\r\n\r\n" +
+                "5\r\nhello\r\n1;ext=1\r\n \r\n5\r\nworld\r\n0\r\nTrailer: yes\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            HTTPClient client = client()){
+            Response response = client.get(server.url("/"));
+            assertEquals("hello world", text(response));
+            assertEquals("image/gif", response.getMimeType());
+            // Still good for another.
+            assertEquals("hello world", text(client.get(server.url("/"))));
+            assertEquals(1, server.connections.get());
+        }
+
+        // Lots of little chunks, far more framing than a head's allowed, but still well under the body cap.
+        StringBuilder many = new StringBuilder("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n");
+        for(int i = 0; i < 20_000; i++){
+            many.append("1\r\n").append((char) ('a' + i % 26)).append("\r\n");
+        }
+        many.append("0\r\n\r\n");
+        byte[] manyChunks = many.toString().getBytes(StandardCharsets.US_ASCII);
+        try(Server server = new Server(line -> manyChunks);
+            HTTPClient client = new HTTPClient(2_000, 2_000, 1 << 20, 3)){
+            byte[] body = client.get(server.url("/")).getBody();
+            assertEquals(20_000, body.length);
+            for(int i = 0; i < body.length; i++){
+                assertEquals('a' + i % 26, body[i]);
+            }
+        }
+    }
+
+    @Test
+    void followsRedirects() throws IOException {
+        try(Server server = new Server(line -> {
+                if(line.startsWith("GET /old ")){
+                    return response("301 Moved Permanently", "Location: /new?x=1", new byte[0]);
+                }
+                return response("200 OK", "Content-Type: text/plain", line.getBytes(StandardCharsets.US_ASCII));
+            });
+            HTTPClient client = client()){
+            Response response = client.get(server.url("/old"));
+            assertEquals(200, response.getStatusCode());
+            assertEquals("GET /new?x=1 HTTP/1.1", text(response));
+
+            server.handler = line -> response("302 Found", "Location: /again", new byte[0]);
+            IOException e = assertThrows(IOException.class, () -> client.get(server.url("/loop")));
+            assertTrue(e.getMessage().contains("redirects"));
+            // Four for the loop (the first and three redirects), and the two before it.
+            assertEquals(6, server.requests());
+        }
+    }
+
+    @Test
+    void refusesBodiesOverTheCap() throws IOException {
+        try(Server server = new Server(line -> response("200 OK", "Content-Type: image/png", new byte[1025]));
+            HTTPClient client = client()){
+            assertThrows(IOException.class, () -> client.get(server.url("/big")));
+            // Chunked bodies can't say how big they are up front, so they're caught part way through instead.
+            server.handler = line -> ("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n200\r\n"+"a".repeat(512)+"\r\n201\r\n"+"a".repeat(513)+"\r\n0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            assertThrows(IOException.class, () -> client.get(server.url("/big")));
+            // And nothing that failed is kept.
+            assertEquals(0, client.getIdleConnections());
+
+            server.handler = line -> response("200 OK", "Content-Type: image/png", new byte[1024]);
+            assertEquals(1024, client.get(server.url("/fits")).getBody().length);
+        }
+    }
+
+    @Test
+    void retriesConnectionsTheServerClosed() throws IOException {
+        AtomicInteger served = new AtomicInteger();
+        // Answers the first request on a connection, then hangs up on the next without having said it would.
+        try(Server server = new Server(line -> served.getAndIncrement() % 2 == 0 ? response("200 OK", "Content-Type: text/plain", "ok".getBytes(StandardCharsets.US_ASCII)) : null);
+            HTTPClient client = client()){
+            assertEquals("ok", text(client.get(server.url("/"))));
+            assertEquals("ok", text(client.get(server.url("/"))));
+            assertEquals(2, server.connections.get());
+        }
+    }
+
+    @Test
+    void timesOutSlowServers() throws IOException {
+        try(Server server = new Server(line -> {
+                try {
+                    Thread.sleep(2_000);
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            HTTPClient client = client()){
+            long start = System.nanoTime();
+            assertThrows(SocketTimeoutException.class, () -> client.get(server.url("/slow")));
+            assertTrue(System.nanoTime() - start < 1_500_000_000L);
+        }
+    }
+
+    @Test
+    void readsUntilCloseWithoutALength() throws IOException {
+        try(Server server = new Server(line -> "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\nuntil the end".getBytes(StandardCharsets.US_ASCII));
+            HTTPClient client = client()){
+            assertEquals("until the end", text(client.get(server.url("/"))));
+            assertEquals(0, client.getIdleConnections());
+        }
+    }
+
+    // Small limits, so they're quick to hit.
+    private static HTTPClient client(){
+        return new HTTPClient(2_000, 500, 1024, 3);
+    }
+
+    private static String text(Response response){
+        return new String(response.getBody(), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] response(String status, String header, byte[] body){
+        byte[] head = ("HTTP/1.1 "+status+"\r\n"+header+"\r\nContent-Length: "+body.length+"\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] out = new byte[head.length + body.length];
+        System.arraycopy(head, 0, out, 0, head.length);
+        System.arraycopy(body, 0, out, head.length, body.length);
+        return out;
+    }
+
+    // A server on loopback that answers each request line with whatever bytes the handler gives back, or closes the
+    // connection without answering if that's null.
+    private static final class Server implements AutoCloseable {
+        private final ServerSocket socket;
+        private final Thread acceptor;
+        private final AtomicInteger connections = new AtomicInteger();
+        private final List<String> requests = new ArrayList<>();
+        private volatile Function<String, byte[]> handler;
+
+        Server(Function<String, byte[]> handler) throws IOException {
+            this.handler = handler;
+            this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            this.acceptor = new Thread(() -> {
+                while(!socket.isClosed()){
+                    try {
+                        Socket accepted = socket.accept();
+                        connections.incrementAndGet();
+                        Thread serve = new Thread(() -> serve(accepted));
+                        serve.setDaemon(true);
+                        serve.start();
+                    } catch (IOException e){
+                        return;
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        String url(String path){
+            return "http://127.0.0.1:"+socket.getLocalPort()+path;
+        }
+
+        int requests(){
+            synchronized (requests){
+                return requests.size();
+            }
+        }
+
+        // Reads request heads off the socket and answers each with whatever the handler gives.
+        private void serve(Socket socket){
+            try(socket){
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                while(true){
+                    String requestLine = null;
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    int previous = -1;
+                    while(true){
+                        int b = in.read();
+                        if(b == -1){
+                            return;
+                        }
+                        if(b == '\n' && previous == '\r'){
+                            String text = line.toString(StandardCharsets.US_ASCII).trim();
+                            line.reset();
+                            if(text.isEmpty()){
+                                break;
+                            }
+                            if(requestLine == null){
+                                requestLine = text;
+                            }
+                        } else {
+                            line.write(b);
+                        }
+                        previous = b;
+                    }
+                    synchronized (requests){
+                        requests.add(requestLine);
+                    }
+                    byte[] answer = handler.apply(requestLine);
+                    if(answer == null){
+                        return;
+                    }
+                    out.write(answer);
+                    out.flush();
+                    if(answer[7] == '0'){
+                        // HTTP/1.0, so hang up once it's sent.
+                        return;
+                    }
+                }
+            } catch (IOException ignored){
+                // Client went away.
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.MalformedRequestException;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.RequestLimits;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HTTPRequestParserTests {
+    private static Request parse(String raw) throws IOException {
+        return new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(raw.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() throws IOException {
+        Request req = parse("GET /users?id=12 HTTP/1.1\r\nHost: localhost\r\nContent-Type:   application/json  \r\n\r\n");
+
+        assertEquals("GET", req.getMethod());
+        assertEquals("/users", req.getPath());
+        assertEquals("id=12", req.getQuery());
+        assertEquals("HTTP/1.1", req.getHTTPVers());
+        assertEquals("application/json", req.getHeader("content-type"), "Header lookup should be case-insensitive and trimmed.");
+        assertEquals("application/json", req.getHeaders().get("content-type"));
+        assertNull(req.getContent());
+    }
+
+    @Test
+    void readsContentLengthBody() throws IOException {
+        Request req = parse("PUT /words HTTP/1.1\r\nContent-Length: 13\r\n\r\n{\"word\":\"hi\"}");
+
+        assertEquals("{\"word\":\"hi\"}", req.getContent());
+    }
+
+    @Test
+    void readsChunkedBody() throws IOException {
+        Request req = parse("PUT /words HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\nTrailer: x\r\n\r\n");
+
+        assertEquals("hello world", req.getContent());
+    }
+
+    @Test
+    void reassemblesFragmentedRequests() throws MalformedRequestException {
+        byte[] raw = "PUT /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        HTTPRequestParser parser = new HTTPRequestParser(false);
+
+        // Feed a byte at a time, the worst case for a non-blocking reader.
+        Request first = null;
+        int fedUpTo = 0;
+        while(first == null){
+            parser.feed(ByteBuffer.wrap(raw, fedUpTo++, 1));
+            first = parser.poll();
+        }
+        assertEquals("/a", first.getPath());
+        assertEquals("hello", first.getContent());
+        assertNull(parser.poll());
+
+        parser.feed(ByteBuffer.wrap(raw, fedUpTo, raw.length - fedUpTo));
+        Request second = parser.poll();
+        assertEquals("/b", second.getPath());
+        assertNull(parser.poll());
+        assertFalse(parser.hasBufferedData());
+    }
+
+    @Test
+    void rejectsMalformedRequests(){
+        assertThrows(MalformedRequestException.class, () -> parse("GET\r\n\r\n"));
+        assertThrows(MalformedRequestException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: abc\r\n\r\n"));
+        assertThrows(MalformedRequestException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: 1\r\nTransfer-Encoding: chunked\r\n\r\n"));
+    }
+
+    @Test
+    void returnsNullOnCleanDisconnect() throws IOException {
+        assertNull(parse(""));
+    }
+
+    @Test
+    void streamsBodyAndSkipsUnreadRemainder() throws IOException {
+        byte[] raw = "PUT /a HTTP/1.1\r\nContent-Length: 10\r\n\r\n0123456789GET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        HTTPRequestParser parser = new HTTPRequestParser();
+        var channel = Channels.newChannel(new ByteArrayInputStream(raw));
+
+        Request first = parser.read(channel);
+        InputStream body = first.getBodyStream();
+        assertEquals('0', body.read());
+        assertEquals('1', body.read());
+
+        // The handler gave up on the body, the next read should skip the rest of it.
+        Request second = parser.read(channel);
+        assertEquals("/b", second.getPath());
+        assertFalse(second.hasBody());
+        assertNull(parser.read(channel));
+    }
+
+    @Test
+    void rejectsRequestsOverLimits(){
+        HTTPRequestParser parser = new HTTPRequestParser(false, path -> new RequestLimits(64, 4));
+
+        // Declared too large, rejected before any of the body has arrived.
+        parser.feed(ByteBuffer.wrap("PUT /small HTTP/1.1\r\nContent-Length: 5\r\n\r\n".getBytes(StandardCharsets.UTF_8)));
+        MalformedRequestException e = assertThrows(MalformedRequestException.class, parser::poll);
+        assertTrue(e.isTooLarge());
+        assertTrue(e.getResponse().startsWith("HTTP/1.1 413"));
+
+        HTTPRequestParser headers = new HTTPRequestParser(false, path -> new RequestLimits(64, 4));
+        headers.feed(ByteBuffer.wrap(("GET /small HTTP/1.1\r\nX-Padding: "+"a".repeat(64)).getBytes(StandardCharsets.UTF_8)));
+        assertTrue(assertThrows(MalformedRequestException.class, headers::poll).isTooLarge());
+
+        HTTPRequestParser chunked = new HTTPRequestParser(false, path -> new RequestLimits(64, 4));
+        chunked.feed(ByteBuffer.wrap("PUT /small HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n2\r\n".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(assertThrows(MalformedRequestException.class, chunked::poll).isTooLarge());
+    }
+}
@@ -1,9 +1,12 @@
 import org.example.utils.ImageUtils;
 import org.junit.jupiter.api.Test;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.Base64;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class ImageUtilsTests {
     private final String sixteenBySixteenBlack = "iVBORw0KGgoAAAANSUhEUgAAABAAAAAQCAIAAACQkWg2AAABhGlDQ1BJQ0MgcHJvZmlsZQAAKJF9kT1Iw1AUhU9TpSIVBzuIdMhQXbSLijjWKhShQqgVWnUweekfNGlIUlwcBdeCgz+LVQcXZ10dXAVB8AfE1cVJ0UVKvC8ptIjxwuN9nHfP4b37AKFZZZrVkwA03TYzqaSYy6+KoVcIiCKAMMZlZhlzkpSGb33dUyfVXZxn+ff9WQNqwWJAQCROMMO0iTeIZzZtg/M+cYSVZZX4nHjCpAsSP3Jd8fiNc8llgWdGzGxmnjhCLJa6WOliVjY14mnimKrplC/kPFY5b3HWqnXWvid/YbigryxznVYUKSxiCRJEKKijgipsxGnXSbGQofOkj3/E9UvkUshVASPHAmrQILt+8D/4PVurODXpJYWTQO+L43yMAqFdoNVwnO9jx2mdAMFn4Erv+GtNYPaT9EZHix0Bg9vAxXVHU/aAyx1g+MmQTdmVgrSEYhF4P6NvygNDt0D/mje39jlOH4AszSp9AxwcAmMlyl73eXdf99z+7WnP7wdx9nKmVkSfiwAAAAlwSFlzAAAuIwAALiMBeKU/dgAAAAd0SU1FB+cCHAENH57+I1IAAAAZdEVYdENvbW1lbnQAQ3JlYXRlZCB3aXRoIEdJTVBXgQ4XAAAAEElEQVQoz2NgGAWjYBTAAAADEAABaJFtwwAAAABJRU5ErkJggg==";
@@ -57,4 +60,18 @@ public class ImageUtilsTests {
 
         assertTrue(ImageUtils.compareImages(prime, normal, 100), "Comparing identical 16x16 and 15x19 images returned false.");
     }
+
+    @Test
+    void decodesInPlace() throws IOException {
+        byte[] file = Base64.getDecoder().decode(sixteenByTwentyFourBlack);
+        BufferedImage image = ImageUtils.decode(file);
+        assertEquals(16, image.getWidth());
+        assertEquals(24, image.getHeight());
+        assertNull(ImageUtils.decode(new byte[]{1, 2, 3}), "Decoding something that isn't an image didn't return null.");
+
+        // The aggregate compares the same without being written out and read back in.
+        BufferedImage aggregate = ImageUtils.aggregate(List.of(file, Base64.getDecoder().decode(fourByFourBlack)));
+        assertTrue(ImageUtils.compareImages(image, aggregate, 100), "Comparing against an aggregate of identical images returned false.");
+        assertFalse(ImageUtils.compareImages(image, null, 0), "Comparing against an image that couldn't be decoded returned true.");
+    }
 }
@@ -0,0 +1,138 @@
+import org.example.utils.JSONReader;
+import org.example.utils.JSONReader.Token;
+import org.example.utils.JSONWriter;
+import org.example.utils.MalformedJSONException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JSONReaderTests {
+    private static JSONReader reader(String json){
+        return new JSONReader(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void readsTokens() throws IOException {
+        JSONReader json = reader(" {\"a\": [1, -2.5e3, \"x\", true, false, null], \"b\": {}, \"c\": []} ");
+        assertEquals(Token.BEGIN_OBJECT, json.next());
+        assertEquals(Token.NAME, json.next());
+        assertTrue(json.textEquals("a"));
+        assertEquals(Token.BEGIN_ARRAY, json.next());
+        assertEquals(Token.NUMBER, json.next());
+        assertEquals(1, json.longValue());
+        assertEquals(Token.NUMBER, json.next());
+        assertEquals(-2500.0, json.doubleValue());
+        assertThrows(MalformedJSONException.class, json::longValue);
+        assertEquals(Token.STRING, json.next());
+        assertEquals("x", json.string());
+        assertEquals(Token.TRUE, json.next());
+        assertEquals(Token.FALSE, json.next());
+        assertEquals(Token.NULL, json.next());
+        assertEquals(Token.END_ARRAY, json.next());
+        assertEquals(Token.NAME, json.next());
+        json.skipValue();
+        assertEquals(Token.NAME, json.next());
+        assertEquals("c", json.string());
+        assertEquals(Token.BEGIN_ARRAY, json.next());
+        assertEquals(Token.END_ARRAY, json.next());
+        assertEquals(Token.END_OBJECT, json.next());
+        assertEquals(Token.END, json.next());
+    }
+
+    @Test
+    void decodesStrings() throws IOException {
+        String text = "quote \" slash \\ / lines \n\r\t caf\u00e9 \u20ac \ud83d\ude00";
+        String encoded = "[\"quote \\\" slash \\\\ \\/ lines \\n\\r\\t caf\u00e9 \\u20ac \\ud83d\\ude00\", \"skipped \\\"\", \"" + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t") + "\"]";
+        JSONReader json = new JSONReader(new ByteArrayInputStream(encoded.getBytes(StandardCharsets.UTF_8)));
+        json.expect(Token.BEGIN_ARRAY);
+        json.expect(Token.STRING);
+        assertEquals(text, json.text().toString());
+        json.expect(Token.STRING);
+        json.expect(Token.STRING);
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), json.stringStream().readAllBytes());
+        json.expect(Token.END_ARRAY);
+        json.expect(Token.END);
+    }
+
+    @Test
+    void streamsLargeStrings() throws IOException {
+        byte[] image = new byte[3 * 1024 * 1024 + 7];
+        new Random(598).nextBytes(image);
+        // Escaped slashes too, which some encoders put in base64.
+        String base64 = Base64.getEncoder().encodeToString(image).replace("/", "\\/");
+        byte[] body = ("{\"nickname\":\"x\",\"content\":\"" + base64 + "\"}").getBytes(StandardCharsets.UTF_8);
+
+        // Small reads, so the string crosses plenty of buffer refills.
+        JSONReader json = new JSONReader(new ByteArrayInputStream(body){
+            @Override
+            public synchronized int read(byte[] b, int off, int len){
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        });
+        json.expect(Token.BEGIN_OBJECT);
+        json.expect(Token.NAME);
+        json.expect(Token.STRING);
+        json.expect(Token.NAME);
+        assertTrue(json.textEquals("content"));
+        json.expect(Token.STRING);
+        InputStream content = json.stringStream();
+        assertArrayEquals(image, Base64.getDecoder().wrap(content).readAllBytes());
+        assertEquals(-1, content.read());
+        json.expect(Token.END_OBJECT);
+        json.expect(Token.END);
+    }
+
+    @Test
+    void copiesValues() throws IOException {
+        String value = "{\"a\":[1,2.5,\"x\\n\",true,null,{}],\"b\":{\"c\":-1}}";
+        JSONWriter out = new JSONWriter();
+        JSONReader json = reader("[" + value + ", 2]");
+        json.expect(Token.BEGIN_ARRAY);
+        json.expect(Token.BEGIN_OBJECT);
+        json.copyValue(out);
+        assertEquals(value, out.toString());
+        json.expect(Token.NUMBER);
+        out.reset();
+        json.copyValue(out);
+        assertEquals("2", out.toString());
+        json.expect(Token.END_ARRAY);
+    }
+
+    @Test
+    void rejectsMalformedInput() {
+        String[] invalid = {"", "{", "[1,]", "[1 2]", "{\"a\"}", "{\"a\":1,}", "{1:2}", "[01]", "[1.]", "[-]", "[tru]", "[nul]",
+                "[truex]", "\"unterminated", "[\"bad \\x escape\"]", "[\"tab\there\"]", "[1] 2", "]", "{\"a\":1]", "[\"\\ud83dx\\udc00\"]"};
+        for(String json : invalid){
+            assertThrows(MalformedJSONException.class, () -> {
+                JSONReader reader = reader(json);
+                while(reader.next() != Token.END){
+                    if(reader.getToken() == Token.STRING){
+                        reader.string();
+                    }
+                }
+            }, json);
+        }
+
+        // Invalid UTF-8, an overlong encoding of '/'.
+        assertThrows(MalformedJSONException.class, () -> {
+            JSONReader reader = new JSONReader(new byte[]{'[', '"', (byte) 0xC0, (byte) 0xAF, '"', ']'});
+            reader.next();
+            reader.next();
+            reader.string();
+        });
+
+        // The offset points at the problem.
+        MalformedJSONException e = assertThrows(MalformedJSONException.class, () -> {
+            JSONReader reader = reader("[1, 2, x]");
+            while(reader.next() != Token.END);
+        });
+        assertEquals(7, e.getOffset());
+    }
+}
@@ -0,0 +1,77 @@
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JSONWriterTests {
+    @Test
+    void writesNestedValues() {
+        JSONWriter json = new JSONWriter();
+        json.beginObject()
+                .name("guilds").beginArray().quoted(1061513287395496037L).quoted(7).endArray()
+                .name(42).beginObject().name("count").value(-3).name("ratio").value(0.25).name("whole").value(2.0).endObject()
+                .name("empty").beginArray().endArray()
+                .name("ok").value(true)
+                .name("missing").value((String) null)
+                .name("nan").value(Double.NaN)
+                .name("raw").rawValue("{\"a\":1}")
+                .endObject();
+        assertEquals("{\"guilds\":[\"1061513287395496037\",\"7\"],\"42\":{\"count\":-3,\"ratio\":0.25,\"whole\":2.0},\"empty\":[],\"ok\":true,\"missing\":null,\"nan\":null,\"raw\":{\"a\":1}}", json.toString());
+        assertTrue(json.isComplete());
+    }
+
+    @Test
+    void escapesStrings() {
+        assertEquals("\"quote \\\" slash \\\\ lines \\n\\r\\t bell \\u0007\"", JSONWriter.quote("quote \" slash \\ lines \n\r\t bell \u0007"));
+        // Multibyte characters (and surrogate pairs) are written as UTF-8 rather than escaped.
+        String text = "caf\u00e9 \u20ac \ud83d\ude00";
+        JSONWriter json = new JSONWriter().value(text);
+        assertArrayEquals(("\"" + text + "\"").getBytes(StandardCharsets.UTF_8), json.toByteArray());
+    }
+
+    @Test
+    void rejectsInvalidStructure() {
+        assertThrows(IllegalStateException.class, () -> new JSONWriter().beginObject().value(1));
+        assertThrows(IllegalStateException.class, () -> new JSONWriter().beginArray().name("a"));
+        assertThrows(IllegalStateException.class, () -> new JSONWriter().beginArray().endObject());
+        assertThrows(IllegalStateException.class, () -> new JSONWriter().beginObject().name("a").endObject());
+        assertThrows(IllegalStateException.class, () -> new JSONWriter().value(1).value(2));
+        assertFalse(new JSONWriter().beginObject().isComplete());
+    }
+
+    @Test
+    void writesAcrossResponseBuffers() throws IOException {
+        Request req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8))));
+        ResponseWriter writer = new ResponseWriter(new BufferPool(4), null);
+        writer.begin(req);
+
+        // Long enough to span several pooled buffers, with multibyte characters landing on the boundaries.
+        StringBuilder expected = new StringBuilder("[");
+        JSONWriter json = writer.status(200).json().beginArray();
+        for(int i = 0; i < 3000; i++){
+            String value = "\u00e9\u20ac" + i;
+            json.value(value);
+            expected.append(i == 0 ? "" : ",").append('"').append(value).append('"');
+        }
+        json.endArray();
+        writer.send();
+        expected.append(']');
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        String response = out.toString(StandardCharsets.UTF_8);
+        assertTrue(response.contains("Content-Type: application/json\r\n"));
+        assertTrue(response.contains("Content-Length: " + expected.toString().getBytes(StandardCharsets.UTF_8).length + "\r\n"));
+        assertEquals(expected.toString(), response.substring(response.indexOf("\r\n\r\n") + 4));
+    }
+}
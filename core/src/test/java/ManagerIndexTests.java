@@ -0,0 +1,49 @@
+import org.example.metrics.MetricRegistry;
+import org.example.webserver.ManagerIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ManagerIndexTests {
+    @Test
+    void tracksManagedGuilds() {
+        MetricRegistry metrics = new MetricRegistry();
+        ManagerIndex index = new ManagerIndex(metrics);
+        assertArrayEquals(new long[0], index.getGuilds(1));
+
+        index.put(30, 1, true);
+        index.put(10, 1, true);
+        index.put(20, 1, true);
+        index.put(10, 2, true);
+        // Repeats change nothing.
+        index.put(10, 1, true);
+        index.put(40, 3, false);
+        assertArrayEquals(new long[]{10, 20, 30}, index.getGuilds(1));
+        assertArrayEquals(new long[]{10}, index.getGuilds(2));
+        assertEquals(2, index.getUsers());
+        assertEquals(4, index.getEntries());
+
+        // Lookups hand out arrays that are replaced, never modified.
+        long[] before = index.getGuilds(1);
+        index.put(20, 1, false);
+        assertArrayEquals(new long[]{10, 20, 30}, before);
+        assertArrayEquals(new long[]{10, 30}, index.getGuilds(1));
+
+        index.remove(10);
+        assertArrayEquals(new long[]{30}, index.getGuilds(1));
+        assertArrayEquals(new long[0], index.getGuilds(2));
+        assertEquals(1, index.getUsers());
+        assertEquals(1, index.getEntries());
+
+        // A full rebuild replaces everything, here with no guilds at all.
+        index.rebuild(List.of());
+        assertArrayEquals(new long[0], index.getGuilds(1));
+        assertEquals(0, index.getEntries());
+
+        String scrape = metrics.render();
+        assertTrue(scrape.contains("quantec_manager_index_entries 0"), scrape);
+        assertTrue(scrape.contains("quantec_manager_index_rebuild_seconds_count{scope=\"full\"} 1"), scrape);
+    }
+}
@@ -0,0 +1,79 @@
+import org.example.metrics.Counter;
+import org.example.metrics.Family;
+import org.example.metrics.Histogram;
+import org.example.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+    @Test
+    void histogramQuantilesLandInTheRightBucket() {
+        MetricRegistry metrics = new MetricRegistry();
+        Histogram histogram = metrics.histogram("test_duration_seconds", "Test.");
+        // 90 fast requests at 100us and 10 slow ones at 50ms.
+        for(int i = 0; i < 90; i++){
+            histogram.record(100_000);
+        }
+        for(int i = 0; i < 10; i++){
+            histogram.record(50_000_000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(90 * 100_000L + 10 * 50_000_000L, histogram.getSum());
+        // Buckets are at most a quarter of a power of two wide, so estimates are within 25% above the real value.
+        long p50 = histogram.quantile(0.5);
+        assertTrue(p50 > 100_000 && p50 <= 125_000, "p50 was "+p50);
+        long p99 = histogram.quantile(0.99);
+        assertTrue(p99 > 50_000_000 && p99 <= 62_500_000, "p99 was "+p99);
+        assertEquals(0, metrics.histogram("test_empty_seconds", "Test.").quantile(0.5));
+    }
+
+    @Test
+    void rendersPrometheusText() {
+        MetricRegistry metrics = new MetricRegistry();
+        Family<Histogram> requests = metrics.histograms("test_request_duration_seconds", "Request \\ time.", "route", "status");
+        requests.labels("/users/{id}", "200").record(20_000);
+        requests.labels("/users/{id}", "200").record(30_000_000);
+        metrics.counter("test_errors_total", "Errors.").add(3);
+        metrics.gauge("test_connections", "Connections.", () -> 7);
+
+        String text = metrics.render();
+        assertTrue(text.contains("# HELP test_request_duration_seconds Request \\\\ time.\n"), text);
+        assertTrue(text.contains("# TYPE test_request_duration_seconds histogram\n"), text);
+        assertTrue(text.contains("test_request_duration_seconds_bucket{route=\"/users/{id}\",status=\"200\",le=\"2.4576E-5\"} 1\n"), text);
+        assertTrue(text.contains("test_request_duration_seconds_bucket{route=\"/users/{id}\",status=\"200\",le=\"+Inf\"} 2\n"), text);
+        assertTrue(text.contains("test_request_duration_seconds_count{route=\"/users/{id}\",status=\"200\"} 2\n"), text);
+        assertTrue(text.contains("# TYPE test_errors_total counter\ntest_errors_total 3\n"), text);
+        assertTrue(text.contains("# TYPE test_connections gauge\ntest_connections 7\n"), text);
+        // Families are written in name order.
+        assertTrue(text.indexOf("test_connections") < text.indexOf("test_errors_total"));
+        assertTrue(text.indexOf("test_errors_total") < text.indexOf("test_request_duration_seconds"));
+    }
+
+    @Test
+    void reRegisteringReturnsTheSameMetric() {
+        MetricRegistry metrics = new MetricRegistry();
+        Counter first = metrics.counter("test_total", "Test.");
+        first.inc();
+        assertSame(first, metrics.counter("test_total", "Test."));
+        assertThrows(IllegalArgumentException.class, () -> metrics.gauge("test_total", "Test."));
+        assertThrows(IllegalArgumentException.class, () -> metrics.counters("test_total", "Test.", "route"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.counter("not a name", "Test."));
+    }
+
+    @Test
+    void removesAPluginsMetricsWithIt() {
+        MetricRegistry metrics = new MetricRegistry();
+        metrics.counter("core_total", "Core.").inc();
+        MetricRegistry plugin = metrics.forOwner("org.example.SomePlugin");
+        plugin.counter("plugin_total", "Plugin.").inc();
+        plugin.gauge("plugin_size", "Plugin.", () -> 1);
+        assertTrue(metrics.render().contains("plugin_total 1"));
+
+        metrics.unregisterOwner("org.example.SomePlugin");
+        String text = metrics.render();
+        assertFalse(text.contains("plugin_"), text);
+        assertTrue(text.contains("core_total 1"), text);
+    }
+}
@@ -0,0 +1,71 @@
+import org.example.utils.Quiescence;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuiescenceTests {
+    @Test
+    void waitsForOldOperationsOnly() throws InterruptedException {
+        Quiescence quiescence = new Quiescence();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread old = new Thread(() -> {
+            long epoch = quiescence.enter();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            } finally {
+                quiescence.exit(epoch);
+            }
+        });
+        old.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread releaser = new Thread(() -> {
+            // Started after the drain, so it shouldn't be waited on even though it never finishes.
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e){
+                return;
+            }
+            quiescence.enter();
+            release.countDown();
+        });
+        releaser.start();
+
+        long start = System.nanoTime();
+        Quiescence.Drained drained = quiescence.drain(0, 5_000);
+        assertEquals(1, drained.operations());
+        assertFalse(drained.timedOut());
+        assertTrue(System.nanoTime() - start < 4_000_000_000L);
+        assertEquals(1, quiescence.getActive());
+        old.join();
+        releaser.join();
+    }
+
+    @Test
+    void skipsTheCallersOwnOperations() {
+        Quiescence quiescence = new Quiescence();
+        long epoch = quiescence.enter();
+        // Would never finish if it waited on itself.
+        Quiescence.Drained drained = quiescence.drain(1, 5_000);
+        assertEquals(0, drained.operations());
+        assertFalse(drained.timedOut());
+        quiescence.exit(epoch);
+        assertEquals(0, quiescence.getActive());
+    }
+
+    @Test
+    void givesUpOnStragglers() {
+        Quiescence quiescence = new Quiescence();
+        quiescence.enter();
+        Quiescence.Drained drained = quiescence.drain(0, 20);
+        assertEquals(1, drained.operations());
+        assertTrue(drained.timedOut());
+    }
+}
@@ -0,0 +1,338 @@
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.ChannelHandoff;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.JSONStream;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.Response;
+import org.example.webserver.utils.ResponseCompressor;
+import org.example.webserver.utils.ResponseWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseWriterTests {
+    private static ResponseWriter writerFor(String rawRequest) throws IOException {
+        return writerFor(rawRequest, null);
+    }
+
+    private static ResponseWriter writerFor(String rawRequest, ResponseCompressor compressor) throws IOException {
+        Request req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(rawRequest.getBytes(StandardCharsets.UTF_8))));
+        ResponseWriter writer = new ResponseWriter(new BufferPool(4), compressor);
+        writer.begin(req);
+        return writer;
+    }
+
+    private static byte[] writtenBytes(ResponseWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static String written(ResponseWriter writer) throws IOException {
+        return new String(writtenBytes(writer), StandardCharsets.UTF_8);
+    }
+
+    // Splits a response at the end of its head, returning the body.
+    private static byte[] bodyOf(byte[] response){
+        for(int i = 0; i + 3 < response.length; i++){
+            if(response[i] == '\r' && response[i + 1] == '\n' && response[i + 2] == '\r' && response[i + 3] == '\n'){
+                byte[] body = new byte[response.length - i - 4];
+                System.arraycopy(response, i + 4, body, 0, body.length);
+                return body;
+            }
+        }
+        throw new AssertionError("No end of head found.");
+    }
+
+    @Test
+    void matchesStringResponses() throws IOException {
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.badRequest("Malformed JSON.");
+        assertEquals(Response.badRequest("Malformed JSON."), written(writer));
+
+        writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.okNoContent();
+        assertEquals(Response.okNoContent(), written(writer));
+    }
+
+    @Test
+    void countsContentLengthInBytes() throws IOException {
+        String json = "{\"name\":\"caf\u00e9 \u2603 \ud83d\ude00\"}";
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.okJSON(json);
+
+        String response = written(writer);
+        int bytes = json.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(response.contains("Content-Length: "+bytes+"\r\n"), response);
+        assertTrue(response.endsWith(json));
+        assertEquals(Response.okJSON(json), response, "The string version should agree.");
+    }
+
+    @Test
+    void spansBuffersAndWrapsLargeBodies() throws IOException {
+        byte[] large = new byte[BufferPool.BUFFER_BYTES * 3 + 5];
+        for(int i = 0; i < large.length; i++){
+            large[i] = (byte) ('a' + i % 26);
+        }
+        String text = "x".repeat(BufferPool.BUFFER_BYTES + 100);
+
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.status(200).header("Content-Type", "text/plain").body(text).body(large).body("!").send();
+        ByteBuffer[] buffers = writer.finish();
+
+        long total = 0;
+        boolean wrapped = false;
+        for(ByteBuffer buffer : buffers){
+            total += buffer.remaining();
+            wrapped |= buffer.hasArray() && buffer.array() == large;
+        }
+        String head = "HTTP/1.1 200 OK\r\nContent-Length: "+(text.length() + large.length + 1)+"\r\nContent-Type: text/plain\r\n\r\n";
+        assertEquals(head.length() + text.length() + large.length + 1, total);
+        assertTrue(wrapped, "Large arrays should be sent without being copied.");
+    }
+
+    @Test
+    void handlesConnectionHeader() throws IOException {
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\nConnection: close\r\n\r\n");
+        writer.okNoContent();
+        assertFalse(writer.isKeepAlive());
+        assertEquals("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n", written(writer));
+
+        writer = writerFor("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n");
+        writer.okNoContent();
+        assertTrue(writer.isKeepAlive());
+        assertEquals("HTTP/1.1 204 No Content\r\nConnection: keep-alive\r\n\r\n", written(writer));
+
+        writer = writerFor("GET / HTTP/1.0\r\n\r\n");
+        assertFalse(writer.isKeepAlive(), "HTTP/1.0 defaults to closing.");
+    }
+
+    @Test
+    void rejectsMixingRawAndBuiltResponses() throws IOException {
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.write(Response.okNoContent().getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalStateException.class, () -> writer.status(200));
+        assertEquals(Response.okNoContent(), written(writer));
+
+        ResponseWriter built = writerFor("GET / HTTP/1.1\r\n\r\n");
+        built.okJSON("{}");
+        assertThrows(IllegalStateException.class, () -> built.write('x'));
+        assertThrows(IllegalStateException.class, () -> built.body("more"));
+    }
+
+    @Test
+    void negotiatesEncoding() {
+        ResponseCompressor compressor = new ResponseCompressor(1024, 6, 2);
+
+        assertEquals(ResponseCompressor.Encoding.GZIP, compressor.negotiate("gzip, deflate, br"));
+        assertEquals(ResponseCompressor.Encoding.DEFLATE, compressor.negotiate("gzip;q=0, deflate"));
+        assertEquals(ResponseCompressor.Encoding.DEFLATE, compressor.negotiate("gzip;q=0.2, deflate;q=0.8"));
+        assertEquals(ResponseCompressor.Encoding.GZIP, compressor.negotiate("*"));
+        assertNull(compressor.negotiate("identity"));
+        assertNull(compressor.negotiate("*;q=0"));
+        assertNull(compressor.negotiate(null));
+        assertNull(new ResponseCompressor(0, 6, 2).negotiate("gzip"), "A threshold of 0 should turn compression off.");
+    }
+
+    @Test
+    void compressesLargeBodies() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(1024, 6, 2);
+        // Spans a few pooled buffers so the deflater has to be fed more than once.
+        StringBuilder json = new StringBuilder("{\"emoteSightings\":{");
+        for(int i = 0; i < 3000; i++){
+            json.append("\"").append(100000000000000000L + i).append("\":").append(i % 17).append(',');
+        }
+        json.append("\"end\":0}}");
+
+        for(String encoding : new String[]{"gzip", "deflate"}){
+            ResponseWriter writer = writerFor("GET /analytics HTTP/1.1\r\nAccept-Encoding: "+encoding+"\r\n\r\n", compressor);
+            writer.setEndpoint("/analytics");
+            writer.okJSON(json.toString());
+            byte[] response = writtenBytes(writer);
+            String head = new String(response, 0, 200, StandardCharsets.US_ASCII);
+            byte[] body = bodyOf(response);
+
+            assertTrue(head.contains("Content-Encoding: "+encoding+"\r\n"), head);
+            assertTrue(head.contains("Content-Length: "+body.length+"\r\n"), head);
+            assertTrue(body.length < json.length() / 2);
+
+            InputStream decoded = encoding.equals("gzip") ? new GZIPInputStream(new ByteArrayInputStream(body)) : new InflaterInputStream(new ByteArrayInputStream(body));
+            assertEquals(json.toString(), new String(decoded.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        String stats = compressor.getStatsJSON();
+        assertTrue(stats.startsWith("{\"/analytics\":{\"responses\":2,\"bytesIn\":"+(json.length() * 2L)+","), stats);
+    }
+
+    @Test
+    void skipsSmallAndCompressedBodies() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(1024, 6, 2);
+
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n", compressor);
+        writer.okJSON("{\"vers\":\"1.0\"}");
+        assertEquals(Response.okJSON("{\"vers\":\"1.0\"}"), written(writer));
+
+        byte[] png = new byte[4096];
+        writer = writerFor("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n", compressor);
+        writer.file(png, "image/x-png");
+        String response = written(writer);
+        assertFalse(response.contains("Content-Encoding"), "Images are already compressed.");
+        assertTrue(response.contains("Content-Length: 4096\r\n"));
+    }
+
+    @Test
+    void detachesWithHeadOnly() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(1, 6, 2);
+        ResponseWriter writer = writerFor("GET /core/events HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n", compressor);
+        ChannelHandoff handoff = (channel, onClose) -> {};
+        writer.status(200).header("Content-Type", "text/event-stream").detach(handoff);
+
+        assertSame(handoff, writer.getHandoff());
+        assertFalse(writer.isKeepAlive());
+        // No Content-Length (the body ends when the connection does), and never compressed.
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nConnection: close\r\n\r\n", written(writer));
+
+        writer.begin(new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8)))));
+        assertNull(writer.getHandoff(), "The next response shouldn't inherit the handoff.");
+    }
+
+    @Test
+    void sendsFilesWithRanges() throws IOException {
+        byte[] content = new byte[100_000];
+        for(int i = 0; i < content.length; i++){
+            content[i] = (byte) i;
+        }
+        Path path = Files.createTempFile("responsewriter", ".png");
+        try {
+            Files.write(path, content);
+
+            // Compression is on, but files aren't read in to be compressed.
+            ResponseWriter writer = writerFor("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n", new ResponseCompressor(1, 6, 2));
+            writer.file(path, "image/png", "caf\u00e9 \"aggregate\".png");
+            byte[] response = writtenBytes(writer);
+            String head = new String(response, 0, response.length - content.length, StandardCharsets.UTF_8);
+            assertTrue(head.startsWith("HTTP/1.1 200 OK\r\nContent-Length: 100000\r\n"), head);
+            assertTrue(head.contains("Content-Disposition: attachment; filename=\"caf_ 'aggregate'.png\"; filename*=UTF-8''caf%C3%A9%20%22aggregate%22.png\r\n"), head);
+            assertTrue(head.contains("Accept-Ranges: bytes\r\n"));
+            assertFalse(head.contains("Content-Encoding"));
+            assertArrayEquals(content, bodyOf(response));
+
+            writer = writerFor("GET / HTTP/1.1\r\nRange: bytes=99990-\r\n\r\n");
+            writer.file(path, "image/png", "aggregate.png");
+            response = writtenBytes(writer);
+            assertTrue(new String(response, StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 206 Partial Content\r\nContent-Length: 10\r\n"));
+            assertTrue(new String(response, StandardCharsets.ISO_8859_1).contains("Content-Range: bytes 99990-99999/100000\r\n"));
+            assertArrayEquals(Arrays.copyOfRange(content, 99990, 100_000), bodyOf(response));
+
+            writer = writerFor("GET / HTTP/1.1\r\nRange: bytes=-5\r\n\r\n");
+            writer.file(path, "image/png", "aggregate.png");
+            assertArrayEquals(Arrays.copyOfRange(content, 99995, 100_000), bodyOf(writtenBytes(writer)));
+
+            writer = writerFor("GET / HTTP/1.1\r\nRange: bytes=100000-\r\n\r\n");
+            writer.file(path, "image/png", "aggregate.png");
+            String unsatisfiable = written(writer);
+            assertTrue(unsatisfiable.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"));
+            assertTrue(unsatisfiable.contains("Content-Range: bytes */100000\r\n"));
+
+            // Several ranges, or one that's conditional on a different version, get the whole file.
+            for(String headers : new String[]{"Range: bytes=0-1,5-6\r\n", "Range: bytes=0-1\r\nIf-Range: \"old\"\r\n", "Range: lines=0-1\r\n"}){
+                writer = writerFor("GET / HTTP/1.1\r\n" + headers + "\r\n");
+                writer.file(path, "image/png", "aggregate.png");
+                assertArrayEquals(content, bodyOf(writtenBytes(writer)), headers);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void namesByteArrayFiles() throws IOException {
+        ResponseWriter writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.file(new byte[]{1, 2, 3}, "image/x-png", "../ban\nlist.png");
+        assertTrue(written(writer).contains("Content-Disposition: attachment; filename=\".._ban_list.png\"\r\n"));
+
+        writer = writerFor("GET / HTTP/1.1\r\n\r\n");
+        writer.file(new byte[]{1, 2, 3}, "image/jpeg");
+        assertTrue(written(writer).contains("Content-Disposition: attachment; filename=\"download.jpg\"\r\n"));
+    }
+
+    @Test
+    void streamsChunkedJSON() throws IOException {
+        JSONWriter expected = new JSONWriter().beginObject().name("ids").beginArray();
+        for(long id = 0; id < 20_000; id++){
+            expected.value(id);
+        }
+        expected.endArray().endObject();
+
+        BufferPool pool = new BufferPool(4);
+        boolean[] closed = {false};
+        Request req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream("GET / HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n".getBytes(StandardCharsets.UTF_8))));
+        ResponseWriter writer = new ResponseWriter(pool, new ResponseCompressor(1, 6, 2));
+        writer.begin(req);
+        JSONStream ids = JSONStream.ofArray("ids", LongStream.range(0, 20_000).iterator(), JSONWriter::value);
+        writer.streamJSON(new JSONStream() {
+            @Override
+            public boolean writeNext(JSONWriter json) throws IOException {
+                return ids.writeNext(json);
+            }
+
+            @Override
+            public void close(){
+                closed[0] = true;
+            }
+        });
+        assertTrue(writer.isKeepAlive());
+        byte[] response = writtenBytes(writer);
+        assertTrue(closed[0]);
+        // However long the stream, it only ever needs buffers for the head, the chunk going out and the one after it.
+        assertTrue(pool.getAllocated() <= 3, "Allocated "+pool.getAllocated());
+
+        String head = new String(response, 0, response.length - bodyOf(response).length, StandardCharsets.ISO_8859_1);
+        assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Type: application/json\r\n\r\n", head);
+        // Put the chunks back together, checking each is no bigger than a buffer.
+        byte[] body = bodyOf(response);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        int i = 0, chunks = 0;
+        while(true){
+            int lineEnd = i;
+            while(body[lineEnd] != '\r'){
+                lineEnd++;
+            }
+            int size = Integer.parseInt(new String(body, i, lineEnd - i, StandardCharsets.US_ASCII), 16);
+            i = lineEnd + 2;
+            if(size == 0){
+                assertEquals(i + 2, body.length, "Nothing should follow the last chunk.");
+                break;
+            }
+            assertTrue(size <= BufferPool.BUFFER_BYTES);
+            joined.write(body, i, size);
+            assertEquals('\r', body[i + size]);
+            assertEquals('\n', body[i + size + 1]);
+            i += size + 2;
+            chunks++;
+        }
+        assertTrue(chunks > 10, "Only "+chunks+" chunks.");
+        assertArrayEquals(expected.toByteArray(), joined.toByteArray());
+
+        // HTTP/1.0 doesn't know about chunks, so it's sent as it is and ended by closing the connection.
+        writer = writerFor("GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        writer.streamJSON(JSONStream.ofArray(null, LongStream.range(0, 3).iterator(), JSONWriter::value));
+        assertFalse(writer.isKeepAlive());
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nConnection: close\r\n\r\n[0,1,2]", written(writer));
+    }
+}
@@ -0,0 +1,185 @@
+import org.example.webserver.Router;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.HTTPRequestParser;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseCompressor;
+import org.example.webserver.utils.ResponseWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouterTests {
+    private static final org.example.webserver.RouteHandler NOOP = (req, params, out) -> {};
+
+    @Test
+    void matchesStaticBeforeParameters() {
+        Router router = Router.builder()
+                .add("GET", "/images/{guild}/{nick}", NOOP)
+                .add("GET", "/images/tolerance/{guild}", NOOP)
+                .build();
+
+        Router.Match match = router.match("GET", "/images/tolerance/1234");
+        assertNotNull(match);
+        assertEquals("/images/tolerance/{guild}", match.params().getPattern());
+        assertEquals("1234", match.params().get("guild"));
+
+        match = router.match("GET", "/images/1234/cat");
+        assertEquals("/images/{guild}/{nick}", match.params().getPattern());
+        assertEquals("1234", match.params().get("guild"));
+        assertEquals("cat", match.params().get("nick"));
+    }
+
+    @Test
+    void backtracksOutOfDeadEnds() {
+        // "tolerance" matches the static branch, but that branch has no three-segment route, so the router
+        // has to back out and try the parameter instead.
+        Router router = Router.builder()
+                .add("GET", "/images/tolerance/{guild}", NOOP)
+                .add("GET", "/images/{guild}/{nick}/{size}", NOOP)
+                .build();
+
+        Router.Match match = router.match("GET", "/images/tolerance/cat/large");
+        assertNotNull(match);
+        assertEquals("tolerance", match.params().get("guild"));
+        assertEquals("large", match.params().get("size"));
+    }
+
+    @Test
+    void reportsAllowedMethods() {
+        Router router = Router.builder()
+                .add("GET", "/words/{guild}", NOOP)
+                .add("PUT", "/words/{guild}", NOOP)
+                .build();
+
+        Router.Match match = router.match("POST", "/words/1");
+        assertNotNull(match);
+        assertNull(match.handler());
+        assertTrue(match.allowedMethods().contains("GET") && match.allowedMethods().contains("PUT"));
+
+        assertNull(router.match("GET", "/words"));
+        assertNull(router.match("GET", "/nope/1"));
+        assertNotNull(router.match("GET", "/words/1/").handler(), "A single trailing slash should be ignored.");
+    }
+
+    @Test
+    void mountsLegacyEndpoints() {
+        Router router = Router.builder()
+                .mount("echo", (req, out) -> {})
+                .build();
+
+        assertNotNull(router.match("DELETE", "/echo").handler());
+        Router.Match match = router.match("GET", "/echo/a/b/c");
+        assertNotNull(match.handler());
+        assertEquals("a/b/c", match.params().get("path"));
+    }
+
+    @Test
+    void rejectsConflictingRoutes() {
+        Router.Builder builder = Router.builder()
+                .add("GET", "/users/{id}", NOOP);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.add("GET", "/users/{id}", NOOP));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("PUT", "/users/{name}", NOOP));
+        assertThrows(IllegalArgumentException.class, () -> builder.mount("users", (req, out) -> {}));
+
+        // The failed registrations mustn't have left anything behind.
+        assertNull(builder.build().match("PUT", "/users/1").handler());
+    }
+
+    @Test
+    void declaresCosts() {
+        Router router = Router.builder()
+                .add("GET", "/images/{guild}/{nick}", NOOP)
+                .add("DELETE", "/images/{guild}/{nick}", NOOP)
+                .add("GET", "/core/stats", NOOP)
+                .cost("GET", "/images/{guild}/{nick}", 20)
+                .cost("GET", "/core/stats", 0)
+                .build();
+
+        assertEquals(20, router.match("GET", "/images/1/cat").cost());
+        assertEquals(Router.DEFAULT_COST, router.match("DELETE", "/images/1/cat").cost());
+        assertEquals(0, router.match("GET", "/core/stats").cost());
+
+        Router.Builder builder = Router.builder().add("GET", "/images/{guild}", NOOP);
+        assertThrows(IllegalArgumentException.class, () -> builder.cost("PUT", "/images/{guild}", 5));
+        assertThrows(IllegalArgumentException.class, () -> builder.cost("GET", "/images/{id}", 5));
+        assertThrows(IllegalArgumentException.class, () -> builder.cost("GET", "/images/{guild}", -1));
+    }
+
+    @Test
+    void defersAsyncRoutes() throws IOException {
+        CompletableFuture<Consumer<ResponseWriter>> pending = new CompletableFuture<>();
+        Router router = Router.builder()
+                .addAsync("GET", "/members/{id}", 500, (req, params) -> pending)
+                .build();
+
+        Request req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream("GET /members/1 HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8))));
+        ResponseWriter writer = new ResponseWriter(new BufferPool(4), null);
+        writer.begin(req);
+        router.route(req, writer);
+        // Nothing's been written, the stage is left for the WebServer to wait on.
+        assertFalse(writer.isStarted());
+        assertSame(pending, writer.takeDeferred());
+        assertEquals(500, writer.getDeferredTimeoutMillis());
+        assertNull(writer.takeDeferred());
+
+        assertThrows(IllegalArgumentException.class, () -> Router.builder().addAsync("GET", "/members/{id}", 0, (r, params) -> pending));
+    }
+
+    private static String route(Router router, String rawRequest, ResponseCompressor compressor) throws IOException {
+        Request req = new HTTPRequestParser().read(Channels.newChannel(new ByteArrayInputStream(rawRequest.getBytes(StandardCharsets.UTF_8))));
+        ResponseWriter writer = new ResponseWriter(new BufferPool(4), compressor);
+        writer.begin(req);
+        router.route(req, writer);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String etagOf(String response){
+        int start = response.indexOf("ETag: ");
+        assertTrue(start != -1, response);
+        return response.substring(start + 6, response.indexOf("\r\n", start));
+    }
+
+    @Test
+    void answersConditionalRequests() throws IOException {
+        AtomicLong version = new AtomicLong(1);
+        Router router = Router.builder()
+                .add("GET", "/guilds", (req, params) -> version.get(), (req, params, writer) -> writer.okJSON("[\"x\"]".repeat(600)))
+                .build();
+        ResponseCompressor compressor = new ResponseCompressor(1024, 6, 2);
+
+        String response = route(router, "GET /guilds HTTP/1.1\r\n\r\n", compressor);
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+        String etag = etagOf(response);
+
+        response = route(router, "GET /guilds HTTP/1.1\r\nIf-None-Match: \"other\", "+etag+"\r\n\r\n", compressor);
+        assertTrue(response.startsWith("HTTP/1.1 304 Not Modified\r\n"), response);
+        assertEquals(etag, etagOf(response));
+        assertFalse(response.contains("Content-Length"), response);
+        assertTrue(response.endsWith("\r\n\r\n"), "A 304 has no body.");
+
+        // The compressed variant gets its own tag, which still matches the same version.
+        response = route(router, "GET /guilds HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n", compressor);
+        String gzipTag = etagOf(response);
+        assertEquals(etag.substring(0, etag.length() - 1)+"-gzip\"", gzipTag);
+        response = route(router, "GET /guilds HTTP/1.1\r\nAccept-Encoding: gzip\r\nIf-None-Match: W/"+gzipTag+"\r\n\r\n", compressor);
+        assertTrue(response.startsWith("HTTP/1.1 304"), response);
+
+        // Once the data changes, the old tag gets the full response again.
+        version.incrementAndGet();
+        response = route(router, "GET /guilds HTTP/1.1\r\nIf-None-Match: "+etag+"\r\n\r\n", compressor);
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"), response);
+        assertFalse(etag.equals(etagOf(response)));
+    }
+}
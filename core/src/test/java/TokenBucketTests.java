@@ -0,0 +1,38 @@
+import org.example.webserver.utils.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTests {
+    @Test
+    void spendsBurstThenRefills() throws InterruptedException {
+        // 10 tokens a second is one every 100ms, which is slow enough that a cold JVM can't refill it mid-loop.
+        TokenBucket bucket = new TokenBucket(10, 10);
+        for(int i = 0; i < 10; i++){
+            assertEquals(0, bucket.tryTake(1), "token "+i);
+        }
+        long wait = bucket.tryTake(1);
+        assertTrue(wait > 0 && wait <= 100_000_000, "waited "+wait);
+
+        Thread.sleep(250);
+        assertEquals(0, bucket.tryTake(2));
+    }
+
+    @Test
+    void chargesByCost() {
+        TokenBucket bucket = new TokenBucket(1, 20);
+        assertEquals(0, bucket.tryTake(15));
+        // 5 left, so a cost of 10 has to wait for 5 more at a second each.
+        long wait = bucket.tryTake(10);
+        assertTrue(wait > 4_000_000_000L && wait <= 5_000_000_000L, "waited "+wait);
+        assertEquals(0, bucket.tryTake(5));
+    }
+
+    @Test
+    void capsCostsAtTheBucketSize() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        // Costs more than the bucket holds, but is let through when it's full rather than never.
+        assertEquals(0, bucket.tryTake(50));
+        assertTrue(bucket.tryTake(1) > 0);
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.JSONStream;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// In the webserver's package, as BatchHandler isn't public. Sub-requests go through a real Router, just not a WebServer.
+public class BatchHandlerTests {
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2, (byte) 0xFF};
+    private static final int STREAMED = 5_000;
+
+    @Test
+    void answersMixedBatchesInOrder() throws IOException {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        Router router = Router.builder()
+                .add("GET", "/json", (req, params, writer) -> writer.okJSON("{\"a\":[1,2]}"))
+                .add("GET", "/text", (req, params, writer) -> writer.status(200).header("Content-Type", "text/plain").body("caf\u00e9 \"quoted\"").send())
+                .add("GET", "/image", (req, params, writer) -> writer.file(IMAGE, "image/png"))
+                // Enough to go out in more than one chunk.
+                .add("GET", "/stream", (req, params, writer) -> writer.streamJSON(JSONStream.ofArray("items", IntStream.range(0, STREAMED).iterator(), (json, i) -> json.value(i))))
+                .add("GET", "/slow/{n}", (req, params, writer) -> {
+                    log.add("start "+params.get("n"));
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                    log.add("end "+params.get("n"));
+                    writer.okNoContent();
+                })
+                .add("POST", "/mark", (req, params, writer) -> {
+                    log.add("mark");
+                    writer.okJSON(req.getContent());
+                })
+                .build();
+        BatchHandler batch = new BatchHandler((req, writer) -> {
+            router.route(req, writer);
+            return null;
+        }, 4);
+
+        String body = "[{\"path\":\"/json\"},{\"path\":\"/text\"},{\"path\":\"/image\"},{\"path\":\"/stream\"},{\"path\":\"/core/events\"}," +
+                "{\"path\":\"/slow/1\"},{\"method\":\"post\",\"path\":\"/mark\",\"body\":{\"x\":1}},{\"path\":\"/slow/2\"},{\"path\":\"/missing\"}]";
+        String answer = run(batch, body);
+
+        StringBuilder items = new StringBuilder();
+        for(int i = 0; i < STREAMED; i++){
+            items.append(i == 0 ? "" : ",").append(i);
+        }
+        String expected = "[" +
+                "{\"status\":200,\"body\":{\"a\":[1,2]}}," +
+                "{\"status\":200,\"body\":\"caf\u00e9 \\\"quoted\\\"\"}," +
+                "{\"status\":200,\"contentType\":\"image/png\",\"bodyBase64\":\""+Base64.getEncoder().encodeToString(IMAGE)+"\"}," +
+                "{\"status\":200,\"body\":{\"items\":["+items+"]}}," +
+                "{\"status\":400,\"body\":{\"error\":\"/core/events can't be batched.\"}}," +
+                "{\"status\":204}," +
+                "{\"status\":200,\"body\":{\"x\":1}}," +
+                "{\"status\":204}," +
+                // Unknown endpoints have always been a 400.
+                "{\"status\":400,\"body\":{\"error\":\"Unknown endpoint\"}}]";
+        assertEquals(expected, answer);
+
+        // The POST waited for the GET before it, and the GET after it waited for the POST.
+        assertEquals(List.of("start 1", "end 1", "mark", "start 2", "end 2"), log);
+    }
+
+    @Test
+    void rejectsMalformedBatches() throws IOException {
+        BatchHandler batch = new BatchHandler((req, writer) -> {
+            fail("Nothing should have been dispatched.");
+            return null;
+        }, 1);
+        assertTrue(runRaw(batch, "{\"path\":\"/json\"}").startsWith("HTTP/1.1 400"));
+        assertTrue(runRaw(batch, "[{\"method\":\"GET\"}]").startsWith("HTTP/1.1 400"));
+        assertTrue(runRaw(batch, "[{\"path\":\"json\"}]").startsWith("HTTP/1.1 400"));
+        assertTrue(runRaw(batch, "[1]").startsWith("HTTP/1.1 400"));
+        assertTrue(runRaw(batch, "["+"{\"path\":\"/json\"},".repeat(BatchHandler.MAX_SUB_REQUESTS)+"{\"path\":\"/json\"}]").startsWith("HTTP/1.1 400"));
+
+        // Never dispatched however they're written, so nothing nests.
+        assertEquals("[" +
+                "{\"status\":400,\"body\":{\"error\":\"/core/batch can't be batched.\"}}," +
+                "{\"status\":400,\"body\":{\"error\":\"/core/batch can't be batched.\"}}," +
+                "{\"status\":400,\"body\":{\"error\":\"/core/batch can't be batched.\"}}," +
+                "{\"status\":400,\"body\":{\"error\":\"/core/events can't be batched.\"}}," +
+                "{\"status\":400,\"body\":{\"error\":\"/core/events can't be batched.\"}}]",
+                run(batch, "[{\"method\":\"POST\",\"path\":\"/core/batch\",\"body\":[]},{\"method\":\"POST\",\"path\":\"/core/batch/\",\"body\":[]}," +
+                        "{\"method\":\"POST\",\"path\":\"/Core/Batch?x=1\",\"body\":[]},{\"path\":\"/core/events/?types=a\"},{\"path\":\"/CORE/EVENTS\"}]"));
+    }
+
+    // Sends the batch and returns the body of its response, which has to be a 200.
+    private static String run(BatchHandler batch, String body) throws IOException {
+        String response = runRaw(batch, body);
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static String runRaw(BatchHandler batch, String body) throws IOException {
+        Request req = Request.of("POST", "/core/batch", Map.of("content-type", "application/json"), body.getBytes(StandardCharsets.UTF_8));
+        ResponseWriter writer = new ResponseWriter(new BufferPool(4), null);
+        writer.begin(req);
+        batch.handle(req, null, writer);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
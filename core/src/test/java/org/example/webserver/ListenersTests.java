@@ -0,0 +1,113 @@
+package org.example.webserver;
+
+import org.example.webserver.utils.AdmissionLimits;
+import org.example.webserver.utils.RequestLimits;
+import org.example.webserver.utils.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// In the webserver's package, as Listeners isn't public. Over a Unix domain socket, so there's no port to pick.
+public class ListenersTests {
+    @Test
+    void keepsAcceptingWhenConnectionsResetAtCapacity() throws Exception {
+        Path dir = Files.createTempDirectory("listeners");
+        Path socket = dir.resolve("api.sock");
+        // No permits, so every connection is turned away as both engines do it.
+        Semaphore permits = new Semaphore(0);
+        // Released by the client once it's hung up, so the server only gets to write after it has.
+        Semaphore hungUp = new Semaphore(0);
+        AtomicInteger resets = new AtomicInteger();
+        CountDownLatch answered = new CountDownLatch(1);
+        try(Listeners listeners = Listeners.open(0, config(socket))){
+            Thread acceptor = new Thread(() -> {
+                try {
+                    listeners.acceptAll(channel -> {
+                        hungUp.acquireUninterruptibly();
+                        if(!permits.tryAcquire()){
+                            try {
+                                Listeners.turnAway(channel);
+                            } catch (IOException e){
+                                resets.incrementAndGet();
+                                throw e;
+                            }
+                            answered.countDown();
+                        }
+                    });
+                } catch (IOException ignored){
+                    // Closed.
+                }
+            });
+            acceptor.start();
+
+            for(int i = 0; i < 5; i++){
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                hungUp.release();
+            }
+
+            // Still accepting, and still telling whoever's there that it's full.
+            try(SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket))){
+                hungUp.release();
+                assertTrue(answered.await(5, TimeUnit.SECONDS));
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                ByteBuffer buf = ByteBuffer.allocate(1024);
+                while(client.read(buf.clear()) != -1){
+                    answer.write(buf.array(), 0, buf.position());
+                }
+                assertEquals(Response.serviceUnavailable("Too many connections."), answer.toString(StandardCharsets.UTF_8));
+            }
+            assertEquals(5, resets.get());
+
+            listeners.close();
+            acceptor.join(5_000);
+            assertFalse(acceptor.isAlive());
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void onlyReplacesSocketsNobodysListeningOn() throws IOException {
+        Path dir = Files.createTempDirectory("listeners");
+        Path socket = dir.resolve("api.sock");
+        try {
+            // Left behind by a server that didn't get to clean up: the file's there, but nothing's bound to it.
+            ServerSocketChannel stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            stale.bind(UnixDomainSocketAddress.of(socket));
+            stale.close();
+            assertTrue(Files.exists(socket));
+
+            try(Listeners running = Listeners.open(0, config(socket))){
+                // Another instance on the same socket leaves it where it is.
+                IOException e = assertThrows(IOException.class, () -> Listeners.open(0, config(socket)));
+                assertTrue(e.getMessage().contains("already running"), e.getMessage());
+                assertTrue(Files.exists(socket));
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            }
+            assertFalse(Files.exists(socket));
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    private static ServerConfig config(Path socket){
+        return new ServerConfig(ServerConfig.Engine.THREADED, 1, 1, 1, 60_000, RequestLimits.DEFAULT, 0, 6, 16, AdmissionLimits.UNLIMITED, false, socket);
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.webserver;
+
+import org.example.utils.JSONWriter;
+import org.example.webserver.utils.BufferPool;
+import org.example.webserver.utils.JSONStream;
+import org.example.webserver.utils.Request;
+import org.example.webserver.utils.ResponseWriter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// In the webserver's package, as ResponseSequencer isn't public.
+public class ResponseSequencerTests {
+    @Test
+    void writesInRequestOrder() {
+        ResponseSequencer sequencer = new ResponseSequencer(4, new BufferPool(16), null);
+        ResponseSequencer.Slot[] slots = new ResponseSequencer.Slot[4];
+        for(int i = 0; i < slots.length; i++){
+            slots[i] = sequencer.reserve();
+            answer(slots[i], i);
+        }
+
+        // Finishing out of order, the last first. Nothing's ready until the first one is.
+        for(int i = slots.length - 1; i > 0; i--){
+            sequencer.complete(slots[i], i == 2);
+            assertFalse(sequencer.hasReady());
+            assertNull(sequencer.pollReady());
+        }
+        sequencer.complete(slots[0], false);
+
+        for(int i = 0; i < slots.length; i++){
+            ResponseSequencer.Slot ready = sequencer.pollReady();
+            assertSame(slots[i], ready);
+            if(i == 2){
+                // Failed, so there's nothing to write and the connection should be closed.
+                assertNull(ready.getResponse());
+            } else {
+                assertTrue(text(ready.getResponse()).endsWith("{\"n\":"+i+"}"));
+            }
+            // Nothing else until this one's been written.
+            assertFalse(sequencer.hasReady());
+            assertNull(sequencer.pollReady());
+            sequencer.recycle(ready);
+        }
+        assertTrue(sequencer.isIdle());
+    }
+
+    @Test
+    void stopsReservingWhenTheWindowIsFull() {
+        ResponseSequencer sequencer = new ResponseSequencer(2, new BufferPool(16), null);
+        ResponseSequencer.Slot first = sequencer.reserve();
+        assertNotNull(first);
+        assertNotNull(sequencer.reserve());
+        assertNull(sequencer.reserve());
+
+        // Complete but not written still counts.
+        answer(first, 0);
+        sequencer.complete(first, false);
+        assertNull(sequencer.reserve());
+
+        ResponseSequencer.Slot ready = sequencer.pollReady();
+        assertNull(sequencer.reserve());
+        sequencer.recycle(ready);
+        // Room again, and the writer's reused rather than a new one made.
+        ResponseSequencer.Slot again = sequencer.reserve();
+        assertNotNull(again);
+        assertSame(first.getWriter(), again.getWriter());
+        assertNull(sequencer.reserve());
+
+        sequencer.close();
+        assertNull(sequencer.reserve());
+    }
+
+    @Test
+    void closeReleasesEverythingButWhatsBeingWritten() {
+        BufferPool pool = new BufferPool(64);
+        ResponseSequencer sequencer = new ResponseSequencer(4, pool, null);
+        ResponseSequencer.Slot writing = sequencer.reserve();
+        ResponseSequencer.Slot completed = sequencer.reserve();
+        ResponseSequencer.Slot streamed = sequencer.reserve();
+        ResponseSequencer.Slot running = sequencer.reserve();
+
+        answer(writing, 0);
+        sequencer.complete(writing, false);
+        answer(completed, 1);
+        sequencer.complete(completed, false);
+        AtomicBoolean streamClosed = new AtomicBoolean();
+        begin(streamed).streamJSON(new JSONStream() {
+            @Override
+            public boolean writeNext(JSONWriter json){
+                json.beginArray().endArray();
+                return false;
+            }
+
+            @Override
+            public void close(){
+                streamClosed.set(true);
+            }
+        });
+        sequencer.complete(streamed, false);
+        answer(running, 3);
+
+        assertSame(writing, sequencer.pollReady());
+        ByteBuffer[] beingWritten = writing.getResponse();
+        int idle = pool.getIdle();
+        int completedBuffers = completed.getResponse().length;
+
+        sequencer.close();
+        // The completed ones are given back...
+        assertNull(completed.getResponse());
+        assertNull(streamed.getStreamedBody());
+        assertTrue(streamClosed.get());
+        assertTrue(pool.getIdle() >= idle + completedBuffers);
+        // ...but the one being written is left for whoever's writing it.
+        assertSame(beingWritten, writing.getResponse());
+        assertTrue(text(beingWritten).endsWith("{\"n\":0}"));
+        assertFalse(sequencer.hasReady());
+
+        // A handler finishing after the close has its response thrown away straight off.
+        sequencer.complete(running, false);
+        assertNull(running.getResponse());
+
+        idle = pool.getIdle();
+        sequencer.recycle(writing);
+        assertNull(writing.getResponse());
+        assertEquals(idle + beingWritten.length, pool.getIdle());
+    }
+
+    private static ResponseWriter begin(ResponseSequencer.Slot slot){
+        ResponseWriter writer = slot.getWriter();
+        writer.begin(Request.of("GET", "/", Map.of(), null));
+        return writer;
+    }
+
+    private static void answer(ResponseSequencer.Slot slot, int n){
+        begin(slot).okJSON("{\"n\":"+n+"}");
+    }
+
+    // The response's buffers as text, without consuming them.
+    private static String text(ByteBuffer[] buffers){
+        StringBuilder out = new StringBuilder();
+        for(ByteBuffer buffer : buffers){
+            out.append(StandardCharsets.UTF_8.decode(buffer.duplicate()));
+        }
+        return out.toString();
+    }
+}